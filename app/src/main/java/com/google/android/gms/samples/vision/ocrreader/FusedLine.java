@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.graphics.Rect;
+
+/**
+ * A line of text as read over several recent frames, with the text that most of them agree on.
+ */
+public final class FusedLine {
+    private final String text;
+    private final Rect boundingBox;
+    private final float agreement;
+    private final int observations;
+
+    FusedLine(String text, Rect boundingBox, float agreement, int observations) {
+        this.text = text;
+        this.boundingBox = boundingBox;
+        this.agreement = agreement;
+        this.observations = observations;
+    }
+
+    /**
+     * Returns the text voted for character by character.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the bounding box of the line in the latest frame it was seen in, in the coordinates
+     * of the whole detected frame.
+     */
+    public Rect getBoundingBox() {
+        return boundingBox;
+    }
+
+    /**
+     * Returns how much the frames agree on the text, from 0 to 1: the share of votes that each
+     * character won, averaged over the characters.  A line read the same way in every frame scores
+     * 1.
+     */
+    public float getAgreement() {
+        return agreement;
+    }
+
+    /**
+     * Returns the number of frames in the window in which the line was seen.
+     */
+    public int getObservations() {
+        return observations;
+    }
+
+    @Override
+    public String toString() {
+        return "FusedLine{\"" + text + "\", agreement=" + agreement + ", observations=" +
+                observations + "}";
+    }
+}
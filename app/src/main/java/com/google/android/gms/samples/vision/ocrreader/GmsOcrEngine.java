@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.text.Text;
+import com.google.android.gms.vision.text.TextBlock;
+import com.google.android.gms.vision.text.TextRecognizer;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the Mobile Vision {@link TextRecognizer} as an {@link OcrEngine}.  Images are wrapped in
+ * Mobile Vision frames here, which is the only place the engines depend on Mobile Vision.
+ */
+public final class GmsOcrEngine implements OcrEngine {
+    private final TextRecognizer recognizer;
+
+    /**
+     * @param recognizer the recognizer to run, which this takes ownership of
+     */
+    public GmsOcrEngine(TextRecognizer recognizer) {
+        if (recognizer == null) {
+            throw new IllegalArgumentException("No recognizer supplied.");
+        }
+        this.recognizer = recognizer;
+    }
+
+    @Override
+    public String getName() {
+        return "gms";
+    }
+
+    @Override
+    public boolean isOperational() {
+        return recognizer.isOperational();
+    }
+
+    @Override
+    public List<RecognizedText> recognize(ByteBuffer image, int width, int height, int rotation) {
+        Frame frame = new Frame.Builder()
+                .setImageData(toNv21(image, width, height), width, height, ImageFormat.NV21)
+                .setRotation(rotation)
+                .build();
+        SparseArray<TextBlock> blocks = recognizer.detect(frame);
+        if ((blocks == null) || (blocks.size() == 0)) {
+            return Collections.emptyList();
+        }
+
+        List<RecognizedText> result = new ArrayList<>(blocks.size());
+        for (int i = 0; i < blocks.size(); ++i) {
+            RecognizedText block = convert(blocks.valueAt(i));
+            if (block != null) {
+                result.add(block);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void release() {
+        recognizer.release();
+    }
+
+    /**
+     * Returns the image as an NV21 frame, which is what the recognizer takes.  Camera frames
+     * already are.  Luma alone, as of a still picture, is copied into a frame with neutral chroma,
+     * which isn't kept, as still pictures are rare.
+     */
+    private static ByteBuffer toNv21(ByteBuffer image, int width, int height) {
+        int lumaSize = width * height;
+        int nv21Size = lumaSize + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+        if (image.capacity() >= nv21Size) {
+            return image;
+        }
+        if (image.capacity() < lumaSize) {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        }
+
+        byte[] nv21 = new byte[nv21Size];
+        ByteBuffer luma = image.duplicate();
+        luma.clear();
+        luma.get(nv21, 0, lumaSize);
+        Arrays.fill(nv21, lumaSize, nv21Size, (byte) 128);
+        return ByteBuffer.wrap(nv21);
+    }
+
+    /**
+     * Converts a block, line or word, or returns null if it has no text or position.  Its
+     * components are only converted once they are asked for, since most callers never look at
+     * the words, and many never look at the lines.
+     */
+    private static RecognizedText convert(Text text) {
+        if (text == null) {
+            return null;
+        }
+        String value = text.getValue();
+        Rect box = text.getBoundingBox();
+        if ((value == null) || (box == null)) {
+            return null;
+        }
+
+        List<? extends Text> components = text.getComponents();
+        if ((components == null) || components.isEmpty()) {
+            return new RecognizedText(value, box, Collections.<RecognizedText>emptyList());
+        }
+        return new RecognizedText(value, box, new LazyComponents(components));
+    }
+
+    /**
+     * The components of a block or line, converted all at once on first use.  Results are read
+     * from more than one thread, so conversion is synchronized.
+     */
+    private static final class LazyComponents extends AbstractList<RecognizedText> {
+        private List<? extends Text> components;
+        private List<RecognizedText> converted;
+
+        LazyComponents(List<? extends Text> components) {
+            this.components = components;
+        }
+
+        @Override
+        public synchronized RecognizedText get(int index) {
+            return convertAll().get(index);
+        }
+
+        @Override
+        public synchronized int size() {
+            return convertAll().size();
+        }
+
+        private List<RecognizedText> convertAll() {
+            if (converted == null) {
+                converted = new ArrayList<>(components.size());
+                for (int i = 0; i < components.size(); ++i) {
+                    RecognizedText child = convert(components.get(i));
+                    if (child != null) {
+                        converted.add(child);
+                    }
+                }
+                // The Mobile Vision objects aren't needed any more.
+                components = null;
+            }
+            return converted;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import java.util.Arrays;
+
+/**
+ * Pairs up two sets of indices, such as the lines of a frame and the tracks they may continue,
+ * greedily by score: the best scoring pair is matched first, and every later pair that reuses an
+ * index that is already matched is passed over.
+ * <p/>
+ * Each candidate pair is packed into one long, with the score in the high bits and the two
+ * indices in the low bits, so that all candidates are ordered by a single primitive sort without
+ * allocating per pair.  Not thread safe, and the scratch space is reused from match to match.
+ */
+final class GreedyMatcher {
+    // Largest index that fits the low bits of a sort key.
+    static final int MAX_INDEX = 0xFFFF;
+
+    private long[] keys = new long[16];
+    private int keyCount;
+
+    private int[] rightOfLeft = new int[0];
+    private boolean[] rightMatched = new boolean[0];
+
+    /**
+     * Forgets the candidates of the last match.
+     */
+    void clear() {
+        keyCount = 0;
+    }
+
+    /**
+     * Adds a candidate pair.  Pairs with higher scores are matched first.
+     *
+     * @param score how well the pair matches, at least 0
+     */
+    void add(int left, int right, float score) {
+        if ((left < 0) || (left > MAX_INDEX) || (right < 0) || (right > MAX_INDEX)) {
+            throw new IllegalArgumentException("Invalid index pair: " + left + ", " + right);
+        }
+        if (!(score >= 0)) {
+            throw new IllegalArgumentException("Invalid score: " + score);
+        }
+        if (keyCount == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * keyCount);
+        }
+        // Positive floats order the same way as their bits, so the sort key can carry the indices
+        // in its low bits.
+        keys[keyCount++] = ((long) Float.floatToIntBits(score) << 32) | ((long) left << 16) | right;
+    }
+
+    /**
+     * Matches the candidates added since the last clear, and returns the right index matched to
+     * each left index, or -1 for left indices left unmatched.  The returned array is only valid
+     * until the next match, and may be longer than the left count.
+     */
+    int[] match(int leftCount, int rightCount) {
+        if (rightOfLeft.length < leftCount) {
+            rightOfLeft = new int[leftCount];
+        }
+        if (rightMatched.length < rightCount) {
+            rightMatched = new boolean[rightCount];
+        }
+        Arrays.fill(rightOfLeft, 0, leftCount, -1);
+        Arrays.fill(rightMatched, 0, rightCount, false);
+
+        Arrays.sort(keys, 0, keyCount);
+        for (int k = keyCount - 1; k >= 0; --k) {
+            int left = (int) (keys[k] >>> 16) & 0xFFFF;
+            int right = (int) keys[k] & 0xFFFF;
+            if ((left < leftCount) && (right < rightCount) && (rightOfLeft[left] < 0) &&
+                    !rightMatched[right]) {
+                rightOfLeft[left] = right;
+                rightMatched[right] = true;
+            }
+        }
+        return rightOfLeft;
+    }
+
+    /**
+     * Returns whether the last match matched the right index to any left index.
+     */
+    boolean isRightMatched(int right) {
+        return rightMatched[right];
+    }
+}
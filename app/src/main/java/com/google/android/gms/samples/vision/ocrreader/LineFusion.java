@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Fuses the lines read over a sliding window of recent frames into one stable result, so that a
+ * single misread frame doesn't replace a good read.
+ * <p/>
+ * Each frame's lines are matched to the lines of earlier frames by how much their bounding boxes
+ * overlap, and every matched line keeps the texts it was read as in the frames of the window.
+ * The fused text is voted character by character: the reading whose length is the most common one
+ * is taken as the reference, every other reading is aligned to it by edit distance, and each
+ * character of the reference goes to the majority of the readings at that position.  Ties go to
+ * the newest reading.  Characters that only some readings have beyond the reference are dropped,
+ * since the majority of readings already has the reference's length.
+ * <p/>
+ * Only lines that were updated by a frame are voted again, so the cost per frame stays small and
+ * the result improves with every frame instead of being recomputed from scratch.  Fused lines that
+ * didn't change are handed out again, as is the whole result if none did, so that a steady scene
+ * doesn't allocate.
+ */
+final class LineFusion {
+    // Smallest overlap, as intersection over union, for a line to be taken as a new reading of
+    // an earlier line.
+    private static final float MIN_IOU = 0.3f;
+
+    // Marks a reference position that a reading has no character for.
+    private static final char GAP = 0;
+
+    private static final Comparator<FusedLine> TOP_TO_BOTTOM = new Comparator<FusedLine>() {
+        @Override
+        public int compare(FusedLine a, FusedLine b) {
+            Rect boxA = a.getBoundingBox();
+            Rect boxB = b.getBoundingBox();
+            return (boxA.top != boxB.top) ? Integer.compare(boxA.top, boxB.top)
+                    : Integer.compare(boxA.left, boxB.left);
+        }
+    };
+
+    private final int windowFrames;
+
+    // All of the member variables below are guarded by this object.
+    private final List<Track> tracks = new ArrayList<>();
+    private int frame;
+
+    // Lines of the frame being fused, in frame coordinates.
+    private final List<String> lineTexts = new ArrayList<>();
+    private final List<Rect> lineBoxes = new ArrayList<>();
+
+    // Scratch space for matching.
+    private final GreedyMatcher matcher = new GreedyMatcher();
+
+    // Scratch space for voting.
+    private final String[] candidates;
+    private int[] distances = new int[0];
+    private char[] columns = new char[0];
+
+    private List<FusedLine> fusedLines = Collections.emptyList();
+
+    LineFusion(int windowFrames) {
+        if (windowFrames <= 0) {
+            throw new IllegalArgumentException("Invalid window: " + windowFrames);
+        }
+        this.windowFrames = windowFrames;
+        candidates = new String[windowFrames];
+    }
+
+    /**
+     * Adds the lines of a new frame to the window, and returns the fused lines, top to bottom.
+     * Lines that weren't seen for the whole window are forgotten.
+     */
+    synchronized List<FusedLine> update(SparseArray<RecognizedText> items) {
+        frame++;
+        collectLines(items);
+        matchLines();
+
+        for (int i = tracks.size() - 1; i >= 0; --i) {
+            if (frame - tracks.get(i).lastFrame >= windowFrames) {
+                tracks.remove(i);
+            }
+        }
+
+        // Dropped tracks shrink the result, and new ones have no fused line yet.
+        boolean changed = tracks.size() != fusedLines.size();
+        for (int i = 0; i < tracks.size(); ++i) {
+            Track track = tracks.get(i);
+            if (track.lastFrame == frame) {
+                vote(track);
+            }
+            int observations = track.countObservations(frame, windowFrames);
+            FusedLine line = track.fusedLine;
+            if ((line == null) || !line.getText().equals(track.fusedText) ||
+                    (line.getAgreement() != track.agreement) ||
+                    (line.getObservations() != observations) ||
+                    !line.getBoundingBox().equals(track.box)) {
+                track.fusedLine = new FusedLine(track.fusedText, new Rect(track.box),
+                        track.agreement, observations);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return fusedLines;
+        }
+
+        List<FusedLine> fused = new ArrayList<>(tracks.size());
+        for (int i = 0; i < tracks.size(); ++i) {
+            fused.add(tracks.get(i).fusedLine);
+        }
+        Collections.sort(fused, TOP_TO_BOTTOM);
+        fusedLines = Collections.unmodifiableList(fused);
+        return fusedLines;
+    }
+
+    /**
+     * Returns the fused lines as of the latest frame.
+     */
+    synchronized List<FusedLine> getFusedLines() {
+        return fusedLines;
+    }
+
+    /**
+     * Forgets all lines.
+     */
+    synchronized void clear() {
+        tracks.clear();
+        fusedLines = Collections.emptyList();
+    }
+
+    /**
+     * Gathers the non-empty lines of all text blocks.
+     */
+    private void collectLines(SparseArray<RecognizedText> items) {
+        lineTexts.clear();
+        lineBoxes.clear();
+        if (items == null) {
+            return;
+        }
+        for (int i = 0; i < items.size(); ++i) {
+            RecognizedText block = items.valueAt(i);
+            if (block == null) {
+                continue;
+            }
+            List<RecognizedText> lines = block.getComponents();
+            for (int j = 0; j < lines.size(); ++j) {
+                RecognizedText line = lines.get(j);
+                if (!line.getValue().isEmpty()) {
+                    lineTexts.add(line.getValue());
+                    lineBoxes.add(line.getBoundingBox());
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds each line of the frame to the earlier line it overlaps most, best overlaps first, and
+     * starts a new track for every line left over.
+     */
+    private void matchLines() {
+        int lineCount = lineTexts.size();
+        int trackCount = tracks.size();
+
+        matcher.clear();
+        for (int line = 0; line < lineCount; ++line) {
+            for (int track = 0; track < trackCount; ++track) {
+                float iou = iou(lineBoxes.get(line), tracks.get(track).box);
+                if (iou >= MIN_IOU) {
+                    matcher.add(line, track, iou);
+                }
+            }
+        }
+        int[] trackOfLine = matcher.match(lineCount, trackCount);
+
+        for (int line = 0; line < lineCount; ++line) {
+            if (trackOfLine[line] >= 0) {
+                tracks.get(trackOfLine[line]).add(lineTexts.get(line), lineBoxes.get(line), frame);
+            }
+        }
+        for (int line = 0; line < lineCount; ++line) {
+            if (trackOfLine[line] < 0) {
+                Track track = new Track(windowFrames);
+                track.add(lineTexts.get(line), lineBoxes.get(line), frame);
+                tracks.add(track);
+            }
+        }
+    }
+
+    /**
+     * Votes the track's readings within the window into its fused text and agreement score.
+     */
+    private void vote(Track track) {
+        // Gather the readings newest first, so that ties go to the newest one.
+        int count = 0;
+        for (int i = 1; i <= windowFrames; ++i) {
+            int slot = (track.next - i + windowFrames) % windowFrames;
+            if ((track.texts[slot] != null) && (frame - track.frames[slot] < windowFrames)) {
+                candidates[count++] = track.texts[slot];
+            }
+        }
+
+        boolean unanimous = true;
+        for (int i = 1; i < count; ++i) {
+            unanimous &= candidates[i].equals(candidates[0]);
+        }
+        if (unanimous) {
+            track.fusedText = candidates[0];
+            track.agreement = 1f;
+            Arrays.fill(candidates, null);
+            return;
+        }
+
+        String reference = candidates[0];
+        int referenceVotes = 0;
+        for (int i = 0; i < count; ++i) {
+            int votes = 0;
+            for (int j = 0; j < count; ++j) {
+                if (candidates[j].length() == candidates[i].length()) {
+                    votes++;
+                }
+            }
+            if (votes > referenceVotes) {
+                reference = candidates[i];
+                referenceVotes = votes;
+            }
+        }
+
+        int length = reference.length();
+        if (columns.length < length * count) {
+            columns = new char[length * count];
+        }
+        for (int i = 0; i < count; ++i) {
+            align(reference, candidates[i], i, count);
+        }
+
+        StringBuilder text = new StringBuilder(length);
+        float agreement = 0;
+        for (int position = 0; position < length; ++position) {
+            int column = position * count;
+            char winner = GAP;
+            int winnerVotes = 0;
+            for (int i = 0; i < count; ++i) {
+                char c = columns[column + i];
+                int votes = 0;
+                for (int j = 0; j < count; ++j) {
+                    if (columns[column + j] == c) {
+                        votes++;
+                    }
+                }
+                if (votes > winnerVotes) {
+                    winner = c;
+                    winnerVotes = votes;
+                }
+            }
+            if (winner != GAP) {
+                text.append(winner);
+            }
+            agreement += (float) winnerVotes / count;
+        }
+
+        Arrays.fill(candidates, null);
+        track.fusedText = text.toString();
+        track.agreement = agreement / length;
+    }
+
+    /**
+     * Aligns a reading to the reference by edit distance, and writes the reading's character at
+     * each reference position, or {@link #GAP}, into the given column of the vote table.
+     */
+    private void align(String reference, String reading, int column, int count) {
+        int rows = reference.length() + 1;
+        int cols = reading.length() + 1;
+        if (distances.length < rows * cols) {
+            distances = new int[rows * cols];
+        }
+        for (int i = 0; i < rows; ++i) {
+            distances[i * cols] = i;
+        }
+        for (int j = 0; j < cols; ++j) {
+            distances[j] = j;
+        }
+        for (int i = 1; i < rows; ++i) {
+            char r = reference.charAt(i - 1);
+            for (int j = 1; j < cols; ++j) {
+                int substitute = distances[(i - 1) * cols + j - 1] +
+                        ((r == reading.charAt(j - 1)) ? 0 : 1);
+                int delete = distances[(i - 1) * cols + j] + 1;
+                int insert = distances[i * cols + j - 1] + 1;
+                distances[i * cols + j] = Math.min(substitute, Math.min(delete, insert));
+            }
+        }
+
+        // Walk back from the end, preferring to pair characters up.
+        int i = rows - 1;
+        int j = cols - 1;
+        while (i > 0) {
+            int distance = distances[i * cols + j];
+            if ((j > 0) && (distance == distances[(i - 1) * cols + j - 1] +
+                    ((reference.charAt(i - 1) == reading.charAt(j - 1)) ? 0 : 1))) {
+                columns[(i - 1) * count + column] = reading.charAt(j - 1);
+                i--;
+                j--;
+            } else if (distance == distances[(i - 1) * cols + j] + 1) {
+                columns[(i - 1) * count + column] = GAP;
+                i--;
+            } else {
+                j--;
+            }
+        }
+    }
+
+    /**
+     * Returns the intersection over union of two boxes, from 0 for disjoint boxes to 1 for equal
+     * ones.
+     */
+    static float iou(Rect a, Rect b) {
+        int width = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+        int height = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+        if ((width <= 0) || (height <= 0)) {
+            return 0;
+        }
+        float intersection = (float) width * height;
+        float union = (float) a.width() * a.height() + (float) b.width() * b.height() -
+                intersection;
+        return intersection / union;
+    }
+
+    /**
+     * A line followed across frames, with the texts it was read as in a ring of one slot per
+     * frame of the window.
+     */
+    private static final class Track {
+        final String[] texts;
+        final int[] frames;
+        int next;
+
+        Rect box;
+        int lastFrame;
+
+        String fusedText;
+        float agreement;
+
+        // The line as last handed out, which is handed out again for as long as it is the same.
+        FusedLine fusedLine;
+
+        Track(int windowFrames) {
+            texts = new String[windowFrames];
+            frames = new int[windowFrames];
+        }
+
+        void add(String text, Rect box, int frame) {
+            texts[next] = text;
+            frames[next] = frame;
+            next = (next + 1) % texts.length;
+            this.box = box;
+            lastFrame = frame;
+        }
+
+        int countObservations(int frame, int windowFrames) {
+            int count = 0;
+            for (int i = 0; i < texts.length; ++i) {
+                if ((texts[i] != null) && (frame - frames[i] < windowFrames)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
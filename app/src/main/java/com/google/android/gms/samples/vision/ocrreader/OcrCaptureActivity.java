@@ -20,7 +20,6 @@ import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
-import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -46,8 +45,8 @@ import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.samples.vision.ocrreader.ui.camera.CameraSource;
 import com.google.android.gms.samples.vision.ocrreader.ui.camera.CameraSourcePreview;
 import com.google.android.gms.samples.vision.ocrreader.ui.camera.GraphicOverlay;
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.StillCapture;
 import com.google.android.gms.vision.text.Text;
-import com.google.android.gms.vision.text.TextBlock;
 import com.google.android.gms.vision.text.TextRecognizer;
 
 import java.io.IOException;
@@ -58,7 +57,7 @@ import java.util.Locale;
 /**
  * Activity for the Ocr Detecting app.  This app detects text and displays the value with the
  * rear facing camera. During detection overlay graphics are drawn to indicate the position,
- * size, and contents of each TextBlock.
+ * size, and contents of each block of text.
  */
 public final class OcrCaptureActivity extends AppCompatActivity {
     private static final String TAG = "OcrCaptureActivity";
@@ -74,7 +73,16 @@ public final class OcrCaptureActivity extends AppCompatActivity {
     public static final String UseFlash = "UseFlash";
     public static final String TextBlockObject = "String";
 
+    // Pictures for Get Data are decoded to at most this many pixels, which keeps the decoded
+    // bitmap to 16 MB and is still enough for small print on a long receipt.
+    private static final int MAX_STILL_PIXELS = 8 * 1000 * 1000;
+
     private CameraSource cameraSource;
+    private StillCapture<RecognizedText> stillCapture;
+
+    // Waiting for the text recognizer to get ready, or null.
+    private RecognizerReadiness.Callback recognizerCallback;
+    private boolean resumed;
     private CameraSourcePreview preview;
     private GraphicOverlay<OcrGraphic> graphicOverlay;
 
@@ -104,7 +112,7 @@ public final class OcrCaptureActivity extends AppCompatActivity {
         // permission is not granted yet, request permission.
         int rc = ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA);
         if (rc == PackageManager.PERMISSION_GRANTED) {
-            createCameraSource(autoFocus, useFlash);
+            waitForRecognizer(autoFocus, useFlash);
         } else {
             requestCameraPermission();
         }
@@ -172,6 +180,50 @@ public final class OcrCaptureActivity extends AppCompatActivity {
         return b || c || super.onTouchEvent(e);
     }
 
+    /**
+     * Creates and starts the camera once the text recognizer is ready, so that no frames are sent
+     * to a recognizer that can't read them yet.
+     */
+    private void waitForRecognizer(final boolean autoFocus, final boolean useFlash) {
+        final RecognizerReadiness readiness = RecognizerReadiness.getInstance(this);
+        recognizerCallback = new RecognizerReadiness.Callback() {
+            @Override
+            public void onRecognizerReady(TextRecognizer recognizer, boolean operational) {
+                recognizerCallback = null;
+                Log.d(TAG, "Text recognizer time to ready: " + readiness.getTimeToReadyMillis() +
+                        " ms.");
+                createCameraSource(recognizer, operational, autoFocus, useFlash);
+                if (resumed) {
+                    startCameraSource();
+                }
+                waitForStillRecognizer();
+            }
+        };
+        readiness.takeWhenReady(recognizerCallback);
+    }
+
+    /**
+     * Creates the still capture once a second text recognizer is ready.  Pictures are detected by
+     * a recognizer of their own, as the preview's may be busy.  It is taken the same way as the
+     * preview's, so that it's built and warmed up off the main thread, and the first Get Data
+     * doesn't wait for it to load its models.
+     */
+    private void waitForStillRecognizer() {
+        recognizerCallback = new RecognizerReadiness.Callback() {
+            @Override
+            public void onRecognizerReady(TextRecognizer recognizer, boolean operational) {
+                recognizerCallback = null;
+                if (cameraSource == null) {
+                    recognizer.release();
+                    return;
+                }
+                stillCapture = new StillCapture<>(cameraSource,
+                        new OcrEngineDetector(new GmsOcrEngine(recognizer)), MAX_STILL_PIXELS);
+            }
+        };
+        RecognizerReadiness.getInstance(this).takeWhenReady(recognizerCallback);
+    }
+
     /**
      * Creates and starts the camera.  Note that this uses a higher resolution in comparison
      * to other detection examples to enable the ocr detector to detect small text samples
@@ -181,18 +233,16 @@ public final class OcrCaptureActivity extends AppCompatActivity {
      * the constant.
      */
     @SuppressLint("InlinedApi")
-    private void createCameraSource(boolean autoFocus, boolean useFlash) {
-        Context context = getApplicationContext();
-
-        // TODO: Create the TextRecognizer
-        TextRecognizer textRecognizer = new TextRecognizer.Builder(context).build();
-
+    private void createCameraSource(TextRecognizer textRecognizer, boolean operational,
+                                    boolean autoFocus, boolean useFlash) {
         // TODO: Set the TextRecognizer's Processor.
+        // The app works with any OCR engine; the text recognizer is run as one.
+        OcrEngineDetector detector = new OcrEngineDetector(new GmsOcrEngine(textRecognizer));
         final OcrDetectorProcessor ocrDetectorProcessor = new OcrDetectorProcessor(graphicOverlay);
-        textRecognizer.setProcessor(ocrDetectorProcessor);
+        detector.setProcessor(ocrDetectorProcessor);
 
         // TODO: Check if the TextRecognizer is operational.
-        if (!textRecognizer.isOperational()) {
+        if (!operational) {
             Log.w(TAG, "Detector dependencies are not yet available");
 
             // Check for low storage. If there is low storage, the native library will not be
@@ -207,49 +257,93 @@ public final class OcrCaptureActivity extends AppCompatActivity {
         }
 
         // TODO: Create the cameraSource using the TextRecognizer.
-        cameraSource = new CameraSource.Builder(getApplicationContext(), textRecognizer)
+        cameraSource = new CameraSource.Builder(getApplicationContext(), detector)
                 .setFacing(CameraSource.CAMERA_FACING_BACK)
-                .setRequestedPreviewSize(1280, 1024)
-                .setRequestedFps(15.0f)
+                .setThroughputTarget(15.0f, 20, 1.0f / 40.0f)
+                .setDetectorName(detector.getEngine().getName())
+                .setDetectorWarmedUp(operational)
+                .setAdaptiveFps(5.0f)
+                // Frames are only scored, so that Get Data can pick the sharpest recent result,
+                // and none are skipped as blurry.
+                .setMinimumSharpness(0.0f)
                 .setFlashMode(useFlash ? Camera.Parameters.FLASH_MODE_TORCH : null)
                 .setFocusMode(autoFocus ? Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO : null)
                 .build();
+        ocrDetectorProcessor.setCameraSource(cameraSource);
 
         final Button button = findViewById(R.id.button);
         button.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                SparseArray<TextBlock> items = ocrDetectorProcessor.getItems();
-                List<TextBlock> tempItems = new ArrayList<>();
-                List<TextBlock> sortItems = new ArrayList<>();
-                for (int i = 0; i < items.size(); i++) {
-                    TextBlock item = items.valueAt(i);
-                    if (item != null && item.getValue() != null) {
-//                        Log.e("GET_DATA", "index " + i + " : " + item.getValue());
+                // Until the picture's recognizer is ready, read what the preview saw.
+                if (stillCapture == null) {
+                    showResult(ocrDetectorProcessor.getFusedItems());
+                    return;
+                }
+                if (stillCapture.isBusy()) {
+                    return;
+                }
+                // Read from a full resolution picture if the camera can take one, and fall back
+                // to what the preview saw otherwise.
+                boolean capturing = stillCapture.capture(
+                        new StillCapture.Callback<RecognizedText>() {
+                    @Override
+                    public void onDetected(SparseArray<RecognizedText> blocks) {
+                        if ((blocks == null) || (blocks.size() == 0)) {
+                            Log.w(TAG, "No text in picture, using the preview result.");
+                            blocks = ocrDetectorProcessor.getFusedItems();
+                        }
+                        showResult(blocks);
+                    }
 
-                        tempItems.add(item);
-                        Log.e("RESULT TEMP", "======= " + item.getValue() + " =======");
-                        Log.e("RESULT TOP", String.valueOf(item.getBoundingBox().top));
-                        Log.e("RESULT LEFT", String.valueOf(item.getBoundingBox().left));
+                    @Override
+                    public void onFailed(Exception e) {
+                        Log.e(TAG, "Failed to read picture, using the preview result.", e);
+                        showResult(ocrDetectorProcessor.getFusedItems());
                     }
+                });
+                if (!capturing) {
+                    showResult(ocrDetectorProcessor.getFusedItems());
+                }
+            }
+        });
+    }
 
-                    /**
-                     * Get Component
-                     */
+    /**
+     * Sorts the detected text blocks into reading order, and shows the first ones as the name,
+     * quantity and price.  Shows nothing but a toast if there are fewer than three blocks.
+     */
+    private void showResult(SparseArray<RecognizedText> items) {
+        List<RecognizedText> tempItems = new ArrayList<>();
+        List<RecognizedText> sortItems = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            RecognizedText item = items.valueAt(i);
+            if (item != null && item.getValue() != null) {
+//                        Log.e("GET_DATA", "index " + i + " : " + item.getValue());
+
+                tempItems.add(item);
+                Log.e("RESULT TEMP", "======= " + item.getValue() + " =======");
+                Log.e("RESULT TOP", String.valueOf(item.getBoundingBox().top));
+                Log.e("RESULT LEFT", String.valueOf(item.getBoundingBox().left));
+            }
+
+            /**
+             * Get Component
+             */
 //                    List<? extends Text> textComponents = item.getComponents();
 //                    for (Text currentText : textComponents) {
 //                        float left = translateX(currentText.getBoundingBox().left);
 //                        float bottom = translateY(currentText.getBoundingBox().bottom);
 //                    }
-                }
+        }
 
-                /**
-                 * Get Graphic
-                 */
+        /**
+         * Get Graphic
+         */
 //                OcrGraphic graphic = graphicOverlay.getGraphicAtLocation(5, 5);
 //                TextBlock text;
 //                if (graphic != null) {
-//                    text = graphic.getTextBlock();
+//                    text = graphic.getText();
 //                    if (text != null && text.getValue() != null) {
 //                        Log.e("RESULT", "text data is being spoken! " + text.getValue());
 //                    } else {
@@ -258,78 +352,84 @@ public final class OcrCaptureActivity extends AppCompatActivity {
 //                } else
 //                    Log.e("RESULT", "graphic null");
 
-                for (int i = 0; i < tempItems.size(); i++) {
-                    if (sortItems.size() > 0) {
-                        int pos = -1;
-                        boolean loop = true;
-                        for (int j = 0; j < sortItems.size(); j++) {
-                            if (loop) {
-                                int tempTop = tempItems.get(i).getBoundingBox().top;
-                                int sortTop = sortItems.get(j).getBoundingBox().top;
-
-                                if (tempTop <= sortTop) {
-                                    pos = j;
-                                    loop = false;
-                                }
-                            }
+        for (int i = 0; i < tempItems.size(); i++) {
+            if (sortItems.size() > 0) {
+                int pos = -1;
+                boolean loop = true;
+                for (int j = 0; j < sortItems.size(); j++) {
+                    if (loop) {
+                        int tempTop = tempItems.get(i).getBoundingBox().top;
+                        int sortTop = sortItems.get(j).getBoundingBox().top;
+
+                        if (tempTop <= sortTop) {
+                            pos = j;
+                            loop = false;
                         }
+                    }
+                }
+
+                if (pos > -1) {
+                    List<Integer> listSame = new ArrayList<>();
+                    for (int j = 0; j < sortItems.size(); j++) {
+                        int tempTop = tempItems.get(i).getBoundingBox().top;
+                        int sortTop = sortItems.get(j).getBoundingBox().top;
+
+                        if (tempTop == sortTop)
+                            listSame.add(j);
+                    }
+
+                    int count = 0;
+                    boolean loop2 = true;
+                    for (int j = 0; j < listSame.size(); j++) {
+                        if (loop2) {
+                            int posSame = listSame.get(j);
+                            int tempLeft = tempItems.get(i).getBoundingBox().left;
+                            int sortLeft = sortItems.get(posSame).getBoundingBox().left;
 
-                        if (pos > -1) {
-                            List<Integer> listSame = new ArrayList<>();
-                            for (int j = 0; j < sortItems.size(); j++) {
-                                int tempTop = tempItems.get(i).getBoundingBox().top;
-                                int sortTop = sortItems.get(j).getBoundingBox().top;
-
-                                if (tempTop == sortTop)
-                                    listSame.add(j);
-                            }
-
-                            int count = 0;
-                            boolean loop2 = true;
-                            for (int j = 0; j < listSame.size(); j++) {
-                                if (loop2) {
-                                    int posSame = listSame.get(j);
-                                    int tempLeft = tempItems.get(i).getBoundingBox().left;
-                                    int sortLeft = sortItems.get(posSame).getBoundingBox().left;
-
-                                    if (tempLeft <= sortLeft)
-                                        loop2 = false;
-                                    else
-                                        count++;
-                                }
-                            }
-
-                            if (count > 0)
-                                sortItems.add(pos + count, tempItems.get(i));
+                            if (tempLeft <= sortLeft)
+                                loop2 = false;
                             else
-                                sortItems.add(pos, tempItems.get(i));
-                        } else
-                            sortItems.add(tempItems.get(i));
-                    } else
-                        sortItems.add(tempItems.get(i));
-                }
+                                count++;
+                        }
+                    }
 
-                for (int i = 0; i < sortItems.size(); i++) {
-                    Log.e("RESULT SORT", "======= " + sortItems.get(i).getValue() + " =======");
-                    Log.e("RESULT TOP", String.valueOf(sortItems.get(i).getBoundingBox().top));
-                    Log.e("RESULT LEFT", String.valueOf(sortItems.get(i).getBoundingBox().left));
-                }
+                    if (count > 0)
+                        sortItems.add(pos + count, tempItems.get(i));
+                    else
+                        sortItems.add(pos, tempItems.get(i));
+                } else
+                    sortItems.add(tempItems.get(i));
+            } else
+                sortItems.add(tempItems.get(i));
+        }
+
+        for (int i = 0; i < sortItems.size(); i++) {
+            Log.e("RESULT SORT", "======= " + sortItems.get(i).getValue() + " =======");
+            Log.e("RESULT TOP", String.valueOf(sortItems.get(i).getBoundingBox().top));
+            Log.e("RESULT LEFT", String.valueOf(sortItems.get(i).getBoundingBox().left));
+        }
 
-                String nama = sortItems.get(0).getValue();
-                String quantity = sortItems.get(1).getValue();
-                String harga = sortItems.get(2).getValue();
+        // The name, quantity and price are the first three blocks, so with fewer there is nothing
+        // to show yet.
+        if (sortItems.size() < 3) {
+            Log.w(TAG, "Only " + sortItems.size() + " text blocks read, need 3.");
+            Toast.makeText(this, R.string.ocr_incomplete, Toast.LENGTH_SHORT).show();
+            return;
+        }
 
-                Log.e("RESULT RESULT", String.valueOf(sortItems.size()) + " - " + nama + " - " + quantity + " - " + harga);
+        String nama = sortItems.get(0).getValue();
+        String quantity = sortItems.get(1).getValue();
+        String harga = sortItems.get(2).getValue();
 
-                Intent result = new Intent(getApplicationContext(), ResultActivity.class);
-                Bundle b = new Bundle();
-                b.putString("nama", nama);
-                b.putString("quantity", quantity);
-                b.putString("harga", harga);
-                result.putExtras(b);
-                startActivity(result);
-            }
-        });
+        Log.e("RESULT RESULT", String.valueOf(sortItems.size()) + " - " + nama + " - " + quantity + " - " + harga);
+
+        Intent result = new Intent(getApplicationContext(), ResultActivity.class);
+        Bundle b = new Bundle();
+        b.putString("nama", nama);
+        b.putString("quantity", quantity);
+        b.putString("harga", harga);
+        result.putExtras(b);
+        startActivity(result);
     }
 
     /**
@@ -362,6 +462,7 @@ public final class OcrCaptureActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
+        resumed = true;
         startCameraSource();
     }
 
@@ -371,6 +472,7 @@ public final class OcrCaptureActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
+        resumed = false;
         if (preview != null) {
             preview.stop();
         }
@@ -383,9 +485,15 @@ public final class OcrCaptureActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (recognizerCallback != null) {
+            RecognizerReadiness.getInstance(this).cancel(recognizerCallback);
+        }
         if (preview != null) {
             preview.release();
         }
+        if (stillCapture != null) {
+            stillCapture.release();
+        }
     }
 
     /**
@@ -419,7 +527,7 @@ public final class OcrCaptureActivity extends AppCompatActivity {
             // We have permission, so create the camerasource
             boolean autoFocus = getIntent().getBooleanExtra(AutoFocus, false);
             boolean useFlash = getIntent().getBooleanExtra(UseFlash, false);
-            createCameraSource(autoFocus, useFlash);
+            waitForRecognizer(autoFocus, useFlash);
             return;
         }
 
@@ -466,18 +574,18 @@ public final class OcrCaptureActivity extends AppCompatActivity {
     }
 
     /**
-     * onTap is called to speak the tapped TextBlock, if any, out loud.
+     * onTap is called to speak the tapped block of text, if any, out loud.
      *
      * @param rawX - the raw position of the tap
      * @param rawY - the raw position of the tap.
-     * @return true if the tap was on a TextBlock
+     * @return true if the tap was on a block of text
      */
     private boolean onTap(float rawX, float rawY) {
         // TODO: Speak the text when the user taps on screen.
         OcrGraphic graphic = graphicOverlay.getGraphicAtLocation(rawX, rawY);
-        TextBlock text = null;
+        RecognizedText text = null;
         if (graphic != null) {
-            text = graphic.getTextBlock();
+            text = graphic.getText();
             if (text != null && text.getValue() != null) {
                 Log.d(TAG, "text data is being spoken! " + text.getValue());
                 Log.e("RESULT TAP", String.valueOf(rawX) + " - " + String.valueOf(rawY));
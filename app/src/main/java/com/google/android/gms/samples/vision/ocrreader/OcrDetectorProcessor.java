@@ -15,24 +15,193 @@
  */
 package com.google.android.gms.samples.vision.ocrreader;
 
-import android.util.Log;
+import android.graphics.Rect;
 import android.util.SparseArray;
 
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.CameraSource;
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.FrameTransform;
 import com.google.android.gms.samples.vision.ocrreader.ui.camera.GraphicOverlay;
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.TileItem;
 import com.google.android.gms.vision.Detector;
-import com.google.android.gms.vision.text.TextBlock;
+import com.google.android.gms.vision.Frame;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * A very simple Processor which gets detected TextBlocks and adds them to the overlay
- * as OcrGraphics.
- * TODO: Make this implement Detector.Processor<TextBlock> and add text to the GraphicOverlay
+ * A Processor which gets the blocks of text recognized by an {@link OcrEngine} and adds them to
+ * the overlay as OcrGraphics.
  */
-public class OcrDetectorProcessor implements Detector.Processor<TextBlock> {
+public class OcrDetectorProcessor implements Detector.Processor<RecognizedText> {
+
+    // How many recent non-empty results are kept, and how old they may be compared to the newest
+    // one, when looking for the sharpest result.
+    private static final int RECENT_RESULTS = 8;
+    private static final long RECENT_WINDOW_MS = 1500;
+
+    // How many recent frames the lines are fused over.
+    private static final int FUSION_WINDOW_FRAMES = 8;
+
+    // How many frames in a row a text block may go unseen and still keep its id.
+    private static final int TRACK_MAX_MISSED_FRAMES = 5;
+
+    // Most graphics kept for reuse once their blocks are gone.
+    private static final int MAX_POOLED_GRAPHICS = 32;
+
+    /**
+     * Tells the tiled detector where text blocks are and what they say.
+     */
+    static final TileItem.Adapter<RecognizedText> TEXT_ADAPTER =
+            new TileItem.Adapter<RecognizedText>() {
+                @Override
+                public Rect getBoundingBox(RecognizedText item) {
+                    return item.getBoundingBox();
+                }
+
+                @Override
+                public String getText(RecognizedText item) {
+                    return item.getValue();
+                }
+            };
 
     private GraphicOverlay<OcrGraphic> graphicOverlay;
-    private SparseArray<TextBlock> items;
+    private volatile SparseArray<RecognizedText> items;
+
+    // Receives the results of tiled detection, which are moved from the coordinates of their
+    // tiles into those of the whole frame.
+    private final Detector.Processor<TileItem<RecognizedText>> tileProcessor =
+            new Detector.Processor<TileItem<RecognizedText>>() {
+                @Override
+                public void receiveDetections(
+                        Detector.Detections<TileItem<RecognizedText>> detections) {
+                    SparseArray<TileItem<RecognizedText>> tileItems =
+                            detections.getDetectedItems();
+                    SparseArray<RecognizedText> items = new SparseArray<>(tileItems.size());
+                    for (int i = 0; i < tileItems.size(); ++i) {
+                        TileItem<RecognizedText> item = tileItems.valueAt(i);
+                        RecognizedText block = item.getItem();
+                        if (block != null) {
+                            items.append(tileItems.keyAt(i), block.offset(
+                                    item.getBoundingBox().left - block.getBoundingBox().left,
+                                    item.getBoundingBox().top - block.getBoundingBox().top));
+                        }
+                    }
+                    show(items, detections.getFrameMetadata());
+                }
+
+                @Override
+                public void release() {
+                    OcrDetectorProcessor.this.release();
+                }
+            };
+
+    // Source of the per-frame sharpness scores, may be null.
+    private volatile CameraSource cameraSource;
+
+    // Ring buffer of recent non-empty results.  Guarded by recentLock.
+    private final Object recentLock = new Object();
+    private final SparseArray<?>[] recentItems = new SparseArray<?>[RECENT_RESULTS];
+    private final float[] recentSharpness = new float[RECENT_RESULTS];
+    private final long[] recentTimestamps = new long[RECENT_RESULTS];
+    private int recentNext;
+
+    private final LineFusion lineFusion = new LineFusion(FUSION_WINDOW_FRAMES);
+    private final TextTracker tracker = new TextTracker(TRACK_MAX_MISSED_FRAMES);
+
+    // The graphics on the overlay by the ids of their blocks, and the graphics kept for reuse.
+    // Only used within a batch of the overlay.
+    private SparseArray<OcrGraphic> graphics = new SparseArray<>();
+    private SparseArray<OcrGraphic> nextGraphics = new SparseArray<>();
+    private final ArrayDeque<OcrGraphic> graphicPool = new ArrayDeque<>();
+
+    // The result being shown, while it is shown.
+    private SparseArray<RecognizedText> shownItems;
+
+    // How the results of the last frame map back to the full frame, or null if not known.
+    private FrameTransform frameTransform;
+
+    private final Runnable updateGraphics = new Runnable() {
+        @Override
+        public void run() {
+            updateGraphics(shownItems);
+        }
+    };
+
+    /**
+     * Returns the latest result, with the bounding box of each text block in the coordinates of
+     * the whole detected frame.  Blocks are keyed by ids that stay the same from frame to frame
+     * for as long as a block is in view, so that anything worked out for a block can be kept.
+     */
+    public SparseArray<RecognizedText> getItems() {
+        return items;
+    }
+
+    /**
+     * Returns the lines read over the recent frames, top to bottom, each with the text that most
+     * of the frames agree on and how much they agree.  Unlike {@link #getItems()}, this doesn't
+     * change much when a single frame is misread.
+     */
+    public List<FusedLine> getFusedLines() {
+        return lineFusion.getFusedLines();
+    }
+
+    /**
+     * Returns what the preview read with the fewest misreads: the lines fused over the recent
+     * frames, as single-line blocks keyed top to bottom, or the sharpest recent result if no lines
+     * have been fused yet.  Bounding boxes are in the coordinates of the whole detected frame,
+     * like those of {@link #getItems()}.
+     */
+    public SparseArray<RecognizedText> getFusedItems() {
+        List<FusedLine> lines = lineFusion.getFusedLines();
+        if (lines.isEmpty()) {
+            return getSharpestItems();
+        }
+        SparseArray<RecognizedText> items = new SparseArray<>(lines.size());
+        for (int i = 0; i < lines.size(); ++i) {
+            FusedLine line = lines.get(i);
+            items.append(i, new RecognizedText(line.getText(), line.getBoundingBox(),
+                    Collections.<RecognizedText>emptyList()));
+        }
+        return items;
+    }
+
+    /**
+     * Returns the processor to hand to {@link CameraSource.Builder#setTiledDetection}, along with
+     * {@link #TEXT_ADAPTER}, when frames are detected as tiles.
+     */
+    Detector.Processor<TileItem<RecognizedText>> getTileProcessor() {
+        return tileProcessor;
+    }
+
+    /**
+     * Returns the sharpest of the recent non-empty results, judged by the sharpness score of the
+     * frame each one was detected in.  Falls back to the latest result if no frames were scored.
+     */
+    @SuppressWarnings("unchecked")
+    public SparseArray<RecognizedText> getSharpestItems() {
+        synchronized (recentLock) {
+            long newest = Long.MIN_VALUE;
+            for (int i = 0; i < RECENT_RESULTS; ++i) {
+                if (recentItems[i] != null) {
+                    newest = Math.max(newest, recentTimestamps[i]);
+                }
+            }
 
-    public SparseArray<TextBlock> getItems() {
+            int sharpest = -1;
+            for (int i = 0; i < RECENT_RESULTS; ++i) {
+                if ((recentItems[i] == null) || (newest - recentTimestamps[i] > RECENT_WINDOW_MS) ||
+                        Float.isNaN(recentSharpness[i])) {
+                    continue;
+                }
+                if ((sharpest < 0) || (recentSharpness[i] > recentSharpness[sharpest])) {
+                    sharpest = i;
+                }
+            }
+            if (sharpest >= 0) {
+                return (SparseArray<RecognizedText>) recentItems[sharpest];
+            }
+        }
         return items;
     }
 
@@ -40,24 +209,133 @@ public class OcrDetectorProcessor implements Detector.Processor<TextBlock> {
         graphicOverlay = ocrGraphicOverlay;
     }
 
-    // TODO:  Once this implements Detector.Processor<TextBlock>, implement the abstract methods.
+    /**
+     * Sets the camera source whose frame sharpness scores are used to rank recent results, whose
+     * frame transforms place the graphics of each result, and which measures how long results
+     * take to reach the overlay.
+     */
+    void setCameraSource(CameraSource cameraSource) {
+        this.cameraSource = cameraSource;
+    }
 
     @Override
-    public void receiveDetections(Detector.Detections<TextBlock> detections) {
-        graphicOverlay.clear();
-        items = detections.getDetectedItems();
-        for (int i = 0; i < items.size(); i++) {
-            TextBlock item = items.valueAt(i);
-            if (item != null && item.getValue() != null) {
-                Log.d("Processor", "Text detected! " + item.getValue());
-                OcrGraphic graphic = new OcrGraphic(graphicOverlay, item);
-                graphicOverlay.add(graphic);
+    public void receiveDetections(Detector.Detections<RecognizedText> detections) {
+        // The whole frame was detected at once, so the blocks are already in frame coordinates.
+        show(detections.getDetectedItems(), detections.getFrameMetadata());
+    }
+
+    private void show(SparseArray<RecognizedText> items, Frame.Metadata metadata) {
+        // Once frames are cropped or scaled differently, such as after the region of interest
+        // changed, block positions no longer compare to those of earlier frames, so tracking and
+        // fusion start over.
+        CameraSource cameraSource = this.cameraSource;
+        FrameTransform transform = (cameraSource != null)
+                ? cameraSource.getFrameTransform(metadata.getId()) : null;
+        if ((transform != null) && (frameTransform != null) && !transform.equals(frameTransform)) {
+            tracker.clear();
+            lineFusion.clear();
+        }
+        frameTransform = transform;
+
+        items = tracker.update(items);
+        this.items = items;
+        rememberResult(items, metadata);
+        lineFusion.update(items);
+
+        shownItems = items;
+        graphicOverlay.batch(updateGraphics);
+        shownItems = null;
+
+        if (cameraSource != null) {
+            cameraSource.recordOverlayUpdate(metadata);
+        }
+    }
+
+    private void rememberResult(SparseArray<RecognizedText> items, Frame.Metadata metadata) {
+        if ((items == null) || (items.size() == 0)) {
+            return;
+        }
+        CameraSource cameraSource = this.cameraSource;
+        float sharpness = (cameraSource != null)
+                ? cameraSource.getFrameSharpness(metadata.getId()) : Float.NaN;
+
+        synchronized (recentLock) {
+            recentItems[recentNext] = items;
+            recentSharpness[recentNext] = sharpness;
+            recentTimestamps[recentNext] = metadata.getTimestampMillis();
+            recentNext = (recentNext + 1) % RECENT_RESULTS;
+        }
+    }
+
+    /**
+     * Makes the overlay show the given result, keeping the graphic of each block that was already
+     * shown, by its id, and only adding and removing graphics for blocks that came or went.
+     * Removed graphics are kept for reuse, so that a steady scene doesn't allocate any.  Each
+     * graphic is placed with the transform of the frame the result came from.
+     */
+    private void updateGraphics(SparseArray<RecognizedText> items) {
+        nextGraphics.clear();
+        for (int i = 0; i < items.size(); ++i) {
+            int id = items.keyAt(i);
+            OcrGraphic graphic = graphics.get(id);
+            if (graphic != null) {
+                graphic.set(items.valueAt(i), tracker.getSmoothedBox(id));
+                graphic.setFrameTransform(frameTransform);
+                nextGraphics.append(id, graphic);
             }
         }
+
+        // Graphics whose blocks are gone are removed first, so that new blocks can reuse them.
+        for (int i = 0; i < graphics.size(); ++i) {
+            if (nextGraphics.get(graphics.keyAt(i)) == null) {
+                OcrGraphic graphic = graphics.valueAt(i);
+                graphicOverlay.remove(graphic);
+                if (graphicPool.size() < MAX_POOLED_GRAPHICS) {
+                    graphicPool.add(graphic);
+                }
+            }
+        }
+
+        for (int i = 0; i < items.size(); ++i) {
+            int id = items.keyAt(i);
+            if (nextGraphics.get(id) != null) {
+                continue;
+            }
+            RecognizedText block = items.valueAt(i);
+            Rect box = tracker.getSmoothedBox(id);
+            OcrGraphic graphic = graphicPool.poll();
+            if (graphic != null) {
+                graphic.set(block, box);
+            } else {
+                graphic = new OcrGraphic(graphicOverlay, block, box);
+            }
+            graphic.setId(id);
+            graphic.setFrameTransform(frameTransform);
+            graphicOverlay.add(graphic);
+            nextGraphics.put(id, graphic);
+        }
+
+        SparseArray<OcrGraphic> previous = graphics;
+        graphics = nextGraphics;
+        nextGraphics = previous;
     }
 
     @Override
     public void release() {
-        graphicOverlay.clear();
+        graphicOverlay.batch(new Runnable() {
+            @Override
+            public void run() {
+                graphicOverlay.clear();
+                graphics.clear();
+                graphicPool.clear();
+            }
+        });
+        synchronized (recentLock) {
+            for (int i = 0; i < RECENT_RESULTS; ++i) {
+                recentItems[i] = null;
+            }
+        }
+        lineFusion.clear();
+        tracker.clear();
     }
 }
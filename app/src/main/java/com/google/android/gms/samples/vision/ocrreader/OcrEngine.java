@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Recognizes text in camera images, so that the app can run on different OCR engines.  Wrap an
+ * engine in an {@link OcrEngineDetector} to hand it to the camera source or the still capture.
+ * <p/>
+ * Engines are called from one thread at a time, but not always the same one.
+ */
+public interface OcrEngine {
+    /**
+     * Returns a short name for logs and benchmark reports.
+     */
+    String getName();
+
+    /**
+     * Returns whether the engine can recognize text yet.  Until it can, it returns no text.
+     */
+    boolean isOperational();
+
+    /**
+     * Recognizes the text in an image, which is either an NV21 camera frame or the luma of a still
+     * picture.  Engines only depend on the image and its layout, not on Mobile Vision, so that
+     * they can run wherever the image comes from.
+     *
+     * @param image    the image, starting with {@code width * height} bytes of luma, followed by
+     *                 the interleaved VU plane if it is an NV21 frame; its position and limit are
+     *                 left as they are, and it must not be kept after the call
+     * @param rotation how the image must be rotated to be upright, in quarter turns clockwise,
+     *                 from 0 to 3
+     * @return the blocks of text found, with bounding boxes in upright image coordinates; never
+     * null
+     */
+    List<RecognizedText> recognize(ByteBuffer image, int width, int height, int rotation);
+
+    /**
+     * Frees the engine's resources.  The engine can't be used afterwards.
+     */
+    void release();
+}
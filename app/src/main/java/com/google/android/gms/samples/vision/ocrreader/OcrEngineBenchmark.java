@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.util.Log;
+
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.CameraSource;
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.DetectorBenchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares OCR engines on the same frames, recorded with
+ * {@link CameraSource#startFrameRecording}, for evaluating an engine before the app is switched
+ * to it.  Each engine is run over every frame of the recording on the calling thread, and its
+ * latency, throughput and number of blocks found are logged and returned.
+ * <p/>
+ * Engines are handed the recorded frames directly, so engines that don't need Mobile Vision, such
+ * as {@link ReferenceOcrEngine}, can be benchmarked off the device too, while {@link GmsOcrEngine}
+ * only runs on it.  Call it from a background thread, with {@link ReferenceOcrEngine} as a
+ * baseline.
+ */
+public final class OcrEngineBenchmark {
+    private static final String TAG = "OcrEngineBenchmark";
+
+    /**
+     * Frames run untimed by each engine before it is measured.
+     */
+    private static final int WARM_UP_FRAMES = 3;
+
+    private OcrEngineBenchmark() {
+    }
+
+    /**
+     * Runs each engine over the recording, in order.  The engines are not released.
+     *
+     * @throws IOException if the file is not a frame recording
+     */
+    public static List<DetectorBenchmark.Result> run(File recording, List<OcrEngine> engines)
+            throws IOException {
+        DetectorBenchmark benchmark = new DetectorBenchmark(recording);
+        Log.i(TAG, "Running " + engines.size() + " engines over " + benchmark.getFrameCount() +
+                " frames of " + recording + ".");
+
+        List<DetectorBenchmark.Result> results = new ArrayList<>(engines.size());
+        for (OcrEngine engine : engines) {
+            if (!engine.isOperational()) {
+                Log.w(TAG, "Engine " + engine.getName() + " is not operational, skipping it.");
+                continue;
+            }
+            DetectorBenchmark.Result result = benchmark.run(engine.getName(),
+                    new EngineSubject(engine), WARM_UP_FRAMES);
+            Log.i(TAG, result.toString());
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Runs an engine as a benchmark subject.
+     */
+    private static final class EngineSubject implements DetectorBenchmark.Subject {
+        private final OcrEngine engine;
+
+        EngineSubject(OcrEngine engine) {
+            this.engine = engine;
+        }
+
+        @Override
+        public int detect(ByteBuffer nv21, int width, int height, int rotation) {
+            return engine.recognize(nv21, width, height, rotation).size();
+        }
+    }
+}
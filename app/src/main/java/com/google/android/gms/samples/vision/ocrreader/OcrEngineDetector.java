@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import java.util.List;
+
+/**
+ * Runs an {@link OcrEngine} as a {@link Detector}, so that it can be used wherever the camera
+ * source or the still capture take a detector.  Items are keyed by their index in the engine's
+ * result.
+ */
+public final class OcrEngineDetector extends Detector<RecognizedText> {
+    private final OcrEngine engine;
+
+    /**
+     * @param engine the engine to run, which this takes ownership of
+     */
+    public OcrEngineDetector(OcrEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("No engine supplied.");
+        }
+        this.engine = engine;
+    }
+
+    public OcrEngine getEngine() {
+        return engine;
+    }
+
+    @Override
+    public SparseArray<RecognizedText> detect(Frame frame) {
+        // NV21 frames are handed over without a copy, while bitmaps are converted to luma.
+        Frame.Metadata metadata = frame.getMetadata();
+        List<RecognizedText> blocks = engine.recognize(frame.getGrayscaleImageData(),
+                metadata.getWidth(), metadata.getHeight(), metadata.getRotation());
+
+        SparseArray<RecognizedText> items = new SparseArray<>(blocks.size());
+        for (int i = 0; i < blocks.size(); ++i) {
+            items.append(i, blocks.get(i));
+        }
+        return items;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return engine.isOperational();
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        engine.release();
+    }
+}
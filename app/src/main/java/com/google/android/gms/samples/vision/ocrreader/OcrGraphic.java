@@ -24,13 +24,12 @@ import android.util.Log;
 
 import com.google.android.gms.samples.vision.ocrreader.ui.camera.GraphicOverlay;
 import com.google.android.gms.vision.text.Text;
-import com.google.android.gms.vision.text.TextBlock;
 
 import java.util.List;
 
 /**
- * Graphic instance for rendering TextBlock position, size, and ID within an associated graphic
- * overlay view.
+ * Graphic instance for rendering the position, size, and ID of a block of recognized text within
+ * an associated graphic overlay view.
  */
 public class OcrGraphic extends GraphicOverlay.Graphic {
 
@@ -40,12 +39,22 @@ public class OcrGraphic extends GraphicOverlay.Graphic {
 
     private static Paint rectPaint;
     private static Paint textPaint;
-    private final TextBlock text;
 
-    OcrGraphic(GraphicOverlay overlay, TextBlock text) {
+    // Changed in place as the text moves, within a batch of the overlay, so that drawing, which
+    // holds the overlay's lock, always sees the two together.
+    private volatile RecognizedText text;
+    private Rect boundingBox;
+
+    /**
+     * @param boundingBox the bounding box of the text block in the coordinates of the whole
+     *                    detected frame, which differ from the block's own if it was detected in
+     *                    a tile
+     */
+    OcrGraphic(GraphicOverlay overlay, RecognizedText text, Rect boundingBox) {
         super(overlay);
 
         this.text = text;
+        this.boundingBox = boundingBox;
 
         if (rectPaint == null) {
             rectPaint = new Paint();
@@ -59,8 +68,26 @@ public class OcrGraphic extends GraphicOverlay.Graphic {
             textPaint.setColor(TEXT_COLOR);
             textPaint.setTextSize(54.0f);
         }
-        // Redraw the overlay, as this graphic has been added.
-        postInvalidate();
+        // The overlay redraws when this graphic is added to it.
+    }
+
+    /**
+     * Shows another text block, or the same one at its new position, so that the graphic can be
+     * reused rather than replaced.  Must be called within a {@link GraphicOverlay#batch} of the
+     * overlay, which redraws once the batch is done.
+     *
+     * @param boundingBox see {@link #OcrGraphic}
+     */
+    void set(RecognizedText text, Rect boundingBox) {
+        this.text = text;
+        this.boundingBox = boundingBox;
+    }
+
+    /**
+     * Returns the bounding box of the text block in the coordinates of the whole detected frame.
+     */
+    Rect getBoundingBox() {
+        return boundingBox;
     }
 
     public int getId() {
@@ -71,7 +98,7 @@ public class OcrGraphic extends GraphicOverlay.Graphic {
         this.id = id;
     }
 
-    public TextBlock getTextBlock() {
+    public RecognizedText getText() {
         return text;
     }
 
@@ -87,7 +114,7 @@ public class OcrGraphic extends GraphicOverlay.Graphic {
         if (text == null)
             return false;
 
-        RectF rect = new RectF(text.getBoundingBox());
+        RectF rect = new RectF(boundingBox);
         rect = translateRect(rect);
         return rect.contains(x, y);
     }
@@ -101,8 +128,8 @@ public class OcrGraphic extends GraphicOverlay.Graphic {
         if (text == null)
             return;
 
-        // Draw the bounding box around the TextBlock
-        RectF rect = new RectF(text.getBoundingBox());
+        // Draw the bounding box around the block
+        RectF rect = new RectF(boundingBox);
         rect = translateRect(rect);
         canvas.drawRect(rect, rectPaint);
 //        canvas.drawText(text.getValue(), rect.left, rect.bottom, textPaint);
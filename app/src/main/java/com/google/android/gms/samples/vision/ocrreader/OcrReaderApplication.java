@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.app.Application;
+
+/**
+ * Starts getting the text recognizer ready as soon as the process starts, before any activity
+ * asks for it.
+ */
+public class OcrReaderApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        RecognizerReadiness.getInstance(this);
+    }
+}
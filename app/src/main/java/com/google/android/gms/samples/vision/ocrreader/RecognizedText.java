@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A block, line or word of text found by an {@link OcrEngine}, independent of the engine that
+ * found it.  Blocks are made of lines, and lines of words, like the Mobile Vision
+ * {@link com.google.android.gms.vision.text.Text} hierarchy.
+ */
+public final class RecognizedText {
+    private final String value;
+    private final Rect boundingBox;
+    private final List<RecognizedText> components;
+
+    /**
+     * @param boundingBox the bounding box in upright image coordinates
+     * @param components  the lines of a block or the words of a line, or an empty list for a word
+     */
+    public RecognizedText(String value, Rect boundingBox, List<RecognizedText> components) {
+        if ((value == null) || (boundingBox == null) || (components == null)) {
+            throw new IllegalArgumentException("No value, bounding box or components supplied.");
+        }
+        this.value = value;
+        this.boundingBox = boundingBox;
+        this.components = Collections.unmodifiableList(components);
+    }
+
+    /**
+     * Returns the text.  Lines of a block are separated by newlines, and words of a line by
+     * spaces.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    public Rect getBoundingBox() {
+        return boundingBox;
+    }
+
+    /**
+     * Returns the lines of a block or the words of a line, or an empty list for a word.
+     */
+    public List<RecognizedText> getComponents() {
+        return components;
+    }
+
+    /**
+     * Returns a copy moved by the given offset, along with all of its components, or this if the
+     * offset is zero.
+     */
+    public RecognizedText offset(int dx, int dy) {
+        if ((dx == 0) && (dy == 0)) {
+            return this;
+        }
+        Rect box = new Rect(boundingBox);
+        box.offset(dx, dy);
+        List<RecognizedText> moved = new ArrayList<>(components.size());
+        for (RecognizedText component : components) {
+            moved.add(component.offset(dx, dy));
+        }
+        return new RecognizedText(value, box, moved);
+    }
+
+    @Override
+    public String toString() {
+        return "RecognizedText{\"" + value + "\", " + boundingBox.left + "," + boundingBox.top +
+                "-" + boundingBox.right + "," + boundingBox.bottom + "}";
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.text.TextRecognizer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Gets a {@link TextRecognizer} ready in the background, so that the first camera frames aren't
+ * wasted on a recognizer whose native dependencies are still being downloaded or loaded.
+ * <p/>
+ * A recognizer is built on a background thread as soon as the process starts, and polled until
+ * it is operational.  It is then run once on a blank frame, which makes it load its models, and
+ * only then handed to whoever asked for it.  If it isn't operational within
+ * {@link #AWAIT_TIMEOUT_MS} of being asked for, it is handed over anyway, as the dependencies may
+ * never arrive, for example when storage is low.
+ * <p/>
+ * Each recognizer is handed over once, and whoever takes it owns it.  The next one is prepared
+ * when it is asked for, which is quick once the dependencies are in place.
+ */
+final class RecognizerReadiness {
+    private static final String TAG = "RecognizerReadiness";
+
+    /**
+     * Receives a recognizer, on the main thread.
+     */
+    interface Callback {
+        /**
+         * @param recognizer  the recognizer, which the callback takes ownership of
+         * @param operational whether the recognizer is operational and warmed up, false if it was
+         *                    handed over because waiting for it timed out
+         */
+        void onRecognizerReady(TextRecognizer recognizer, boolean operational);
+    }
+
+    /**
+     * How long a caller waits for a recognizer to become operational.
+     */
+    static final long AWAIT_TIMEOUT_MS = 10000;
+
+    private static final long POLL_INTERVAL_MS = 100;
+
+    // Size of the blank frame that the recognizer is warmed up with.
+    private static final int WARM_UP_FRAME_WIDTH = 320;
+    private static final int WARM_UP_FRAME_HEIGHT = 240;
+
+    private static RecognizerReadiness instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Time from the start of a preparation to the recognizer being ready, or -1 if none was ready
+    // yet.  The first preparation starts with the process.
+    private volatile long timeToReadyMillis = -1;
+
+    // Only used on the main thread.
+    private Callback pendingCallback;
+
+    // Only used on the background thread.
+    private TextRecognizer recognizer;
+    private boolean warmedUp;
+    private boolean wanted;
+    private long preparationStartMillis;
+    private long wantedSinceMillis;
+
+    private final Runnable prepareRunnable = new Runnable() {
+        @Override
+        public void run() {
+            prepare();
+        }
+    };
+
+    private RecognizerReadiness(Context context) {
+        this.context = context;
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(prepareRunnable);
+    }
+
+    /**
+     * Returns the process-wide instance, which starts preparing a recognizer when it is created.
+     */
+    static synchronized RecognizerReadiness getInstance(Context context) {
+        if (instance == null) {
+            instance = new RecognizerReadiness(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Asks for a recognizer.  The callback is called on the main thread once one is ready, or once
+     * waiting for it has timed out.  Replaces any callback that is still waiting.  Must be called
+     * on the main thread.
+     */
+    void takeWhenReady(Callback callback) {
+        pendingCallback = callback;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (wanted) {
+                    return;
+                }
+                wanted = true;
+                wantedSinceMillis = SystemClock.elapsedRealtime();
+                prepare();
+            }
+        });
+    }
+
+    /**
+     * Stops waiting for a recognizer, if the given callback is still waiting.  A recognizer that
+     * becomes ready afterwards is kept for the next caller.  Must be called on the main thread.
+     */
+    void cancel(Callback callback) {
+        if (pendingCallback == callback) {
+            pendingCallback = null;
+        }
+    }
+
+    /**
+     * Returns how long the latest recognizer took from the start of its preparation to being
+     * ready, in milliseconds, or -1 if none was ready yet.  For the first recognizer, this is the
+     * time from process start, which is what delays the first scan after install or launch.
+     */
+    long getTimeToReadyMillis() {
+        return timeToReadyMillis;
+    }
+
+    /**
+     * Builds a recognizer if there is none, hands it over if it's ready, and polls it again later
+     * if it isn't.  Runs on the background thread.
+     */
+    private void prepare() {
+        handler.removeCallbacks(prepareRunnable);
+        if (recognizer == null) {
+            preparationStartMillis = SystemClock.elapsedRealtime();
+            recognizer = new TextRecognizer.Builder(context).build();
+            warmedUp = false;
+        }
+
+        if (!warmedUp && recognizer.isOperational()) {
+            warmUp();
+            warmedUp = true;
+            timeToReadyMillis = SystemClock.elapsedRealtime() - preparationStartMillis;
+            Log.d(TAG, "Text recognizer ready in " + timeToReadyMillis + " ms.");
+        }
+
+        offer();
+        if ((recognizer != null) && !warmedUp) {
+            handler.postDelayed(prepareRunnable, POLL_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Hands the recognizer over if it was asked for, and it's ready or the caller has waited long
+     * enough.  Runs on the background thread.
+     */
+    private void offer() {
+        if (!wanted || (recognizer == null)) {
+            return;
+        }
+        if (!warmedUp) {
+            if (SystemClock.elapsedRealtime() - wantedSinceMillis < AWAIT_TIMEOUT_MS) {
+                return;
+            }
+            Log.w(TAG, "Text recognizer not operational after " + AWAIT_TIMEOUT_MS + " ms.");
+        }
+
+        final TextRecognizer handedOver = recognizer;
+        final boolean operational = warmedUp;
+        recognizer = null;
+        warmedUp = false;
+        wanted = false;
+        handler.removeCallbacks(prepareRunnable);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliver(handedOver, operational);
+            }
+        });
+    }
+
+    /**
+     * Calls the waiting callback with the recognizer, or takes the recognizer back if the callback
+     * was cancelled in the meantime.  Runs on the main thread.
+     */
+    private void deliver(final TextRecognizer handedOver, final boolean operational) {
+        Callback callback = pendingCallback;
+        pendingCallback = null;
+        if (callback != null) {
+            callback.onRecognizerReady(handedOver, operational);
+            return;
+        }
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (recognizer != null) {
+                    handedOver.release();
+                    return;
+                }
+                recognizer = handedOver;
+                warmedUp = operational;
+                if (!warmedUp) {
+                    prepare();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the recognizer once on a blank frame, so that it loads its models now rather than on
+     * the first camera frame.  The result is discarded.
+     */
+    private void warmUp() {
+        int size = WARM_UP_FRAME_WIDTH * WARM_UP_FRAME_HEIGHT * 3 / 2;
+        Frame blankFrame = new Frame.Builder()
+                .setImageData(ByteBuffer.wrap(new byte[size]), WARM_UP_FRAME_WIDTH,
+                        WARM_UP_FRAME_HEIGHT, ImageFormat.NV21)
+                .build();
+        long startMillis = SystemClock.elapsedRealtime();
+        try {
+            recognizer.detect(blankFrame);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Exception thrown while warming up the text recognizer.", e);
+        }
+        Log.d(TAG, "Text recognizer warmed up in " +
+                (SystemClock.elapsedRealtime() - startMillis) + " ms.");
+    }
+}
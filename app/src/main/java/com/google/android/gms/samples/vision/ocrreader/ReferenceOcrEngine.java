@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.graphics.Rect;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A simple, deterministic {@link OcrEngine} in plain Java, for running and benchmarking the app
+ * where no real engine is available, and as a baseline to compare real engines against.
+ * <p/>
+ * It finds the layout of dark text on a light background the way a real engine's first stage
+ * would: the image is binarized with Otsu's threshold, rows with ink are grouped into lines, and
+ * columns with ink within a line are grouped into words, split wherever the gap is wide compared
+ * to the line height.  Lines that follow each other closely are grouped into blocks.  It doesn't
+ * read characters.  Instead, each word gets a made-up text with one letter per glyph that would
+ * fit in it, derived from the ink in that part of the word, so that the same image always gives
+ * the same text and different words usually give different texts.
+ * <p/>
+ * Its cost grows with the number of pixels, like a real engine's, but it is much faster.  Not
+ * thread-safe, as it keeps its scratch buffers between calls.
+ */
+public final class ReferenceOcrEngine implements OcrEngine {
+    // Lines shorter than this many pixels are taken as noise, and lines taller than this fraction
+    // of the image as pictures.
+    private static final int MIN_LINE_HEIGHT = 6;
+    private static final int MAX_LINE_FRACTION = 4;
+
+    // Gaps wider than these fractions of the line height separate words, and separate text that
+    // is only side by side, such as columns, into different lines.
+    private static final float WORD_GAP = 0.35f;
+    private static final float LINE_GAP = 2.5f;
+
+    // Glyphs are assumed to be this wide relative to the line height, to guess how many of them a
+    // word has.
+    private static final float GLYPH_ASPECT = 0.6f;
+
+    // Images whose luma spans less than this are taken as blank.
+    private static final int MIN_CONTRAST = 32;
+
+    // Only every SAMPLE_STEP-th pixel of every SAMPLE_STEP-th row is used for the threshold.
+    private static final int SAMPLE_STEP = 4;
+
+    // Scratch space, kept between calls.
+    private byte[] row = new byte[0];
+    private byte[] mask = new byte[0];
+    private int[] rowInk = new int[0];
+    private int[] columnInk = new int[0];
+    private final int[] histogram = new int[256];
+
+    @Override
+    public String getName() {
+        return "reference";
+    }
+
+    @Override
+    public boolean isOperational() {
+        return true;
+    }
+
+    /**
+     * Recognizes the luma of the image; the chroma of NV21 frames is ignored.
+     */
+    @Override
+    public List<RecognizedText> recognize(ByteBuffer image, int width, int height,
+                                          int rotation) {
+        if ((width <= 0) || (height <= 0) || (image.capacity() < width * height)) {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        }
+        boolean sideways = (rotation & 1) != 0;
+        int uprightWidth = sideways ? height : width;
+        int uprightHeight = sideways ? width : height;
+        if (row.length < width) {
+            row = new byte[width];
+        }
+        if (mask.length < width * height) {
+            mask = new byte[width * height];
+        }
+        if (rowInk.length < uprightHeight) {
+            rowInk = new int[uprightHeight];
+        }
+        if (columnInk.length < uprightWidth) {
+            columnInk = new int[uprightWidth];
+        }
+
+        ByteBuffer source = image.duplicate();
+        int threshold = findThreshold(source, width, height);
+        if (threshold < 0) {
+            return Collections.emptyList();
+        }
+        binarize(source, width, height, rotation, threshold, uprightWidth);
+
+        List<RecognizedText> lines = findLines(uprightWidth, uprightHeight);
+        return groupBlocks(lines);
+    }
+
+    @Override
+    public void release() {
+        row = new byte[0];
+        mask = new byte[0];
+        rowInk = new int[0];
+        columnInk = new int[0];
+    }
+
+    /**
+     * Returns the luma below which pixels are ink, by Otsu's method over a sample of the pixels,
+     * or -1 if the image has too little contrast to hold text.
+     */
+    private int findThreshold(ByteBuffer source, int width, int height) {
+        for (int i = 0; i < histogram.length; ++i) {
+            histogram[i] = 0;
+        }
+        int samples = 0;
+        for (int y = 0; y < height; y += SAMPLE_STEP) {
+            source.position(y * width);
+            source.get(row, 0, width);
+            for (int x = 0; x < width; x += SAMPLE_STEP) {
+                histogram[row[x] & 0xFF]++;
+                samples++;
+            }
+        }
+
+        int min = 0;
+        while (histogram[min] == 0) {
+            min++;
+        }
+        int max = histogram.length - 1;
+        while (histogram[max] == 0) {
+            max--;
+        }
+        if (max - min < MIN_CONTRAST) {
+            return -1;
+        }
+
+        long sum = 0;
+        for (int i = 0; i < histogram.length; ++i) {
+            sum += (long) i * histogram[i];
+        }
+        long sumBelow = 0;
+        int countBelow = 0;
+        double bestVariance = -1;
+        int best = min;
+        for (int t = min; t < max; ++t) {
+            countBelow += histogram[t];
+            sumBelow += (long) t * histogram[t];
+            int countAbove = samples - countBelow;
+            if ((countBelow == 0) || (countAbove == 0)) {
+                continue;
+            }
+            double meanBelow = (double) sumBelow / countBelow;
+            double meanAbove = (double) (sum - sumBelow) / countAbove;
+            double variance = (double) countBelow * countAbove * (meanAbove - meanBelow) *
+                    (meanAbove - meanBelow);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                best = t;
+            }
+        }
+        return best + 1;
+    }
+
+    /**
+     * Fills the mask with 1 for ink and 0 for background, rotated upright, and counts the ink in
+     * each upright row.
+     */
+    private void binarize(ByteBuffer source, int width, int height, int rotation, int threshold,
+                          int uprightWidth) {
+        for (int y = 0; y < height; ++y) {
+            // Where the first pixel of this row goes upright, and how far apart the next ones are.
+            int start;
+            int step;
+            switch (rotation) {
+                case 1:
+                    start = height - 1 - y;
+                    step = uprightWidth;
+                    break;
+                case 2:
+                    start = (height - 1 - y) * uprightWidth + width - 1;
+                    step = -1;
+                    break;
+                case 3:
+                    start = (width - 1) * uprightWidth + y;
+                    step = -uprightWidth;
+                    break;
+                default:
+                    start = y * uprightWidth;
+                    step = 1;
+                    break;
+            }
+
+            source.position(y * width);
+            source.get(row, 0, width);
+            for (int x = 0, index = start; x < width; ++x, index += step) {
+                // The sign bit of the difference is set exactly for ink.
+                mask[index] = (byte) (((row[x] & 0xFF) - threshold) >>> 31);
+            }
+        }
+
+        int uprightHeight = width * height / uprightWidth;
+        for (int y = 0; y < uprightHeight; ++y) {
+            int ink = 0;
+            for (int i = y * uprightWidth, end = i + uprightWidth; i < end; ++i) {
+                ink += mask[i];
+            }
+            rowInk[y] = ink;
+        }
+    }
+
+    /**
+     * Finds the lines of text, top to bottom, each with its words.
+     */
+    private List<RecognizedText> findLines(int uprightWidth, int uprightHeight) {
+        List<RecognizedText> lines = new ArrayList<>();
+        int minInk = Math.max(2, uprightWidth / 200);
+        int maxLineHeight = uprightHeight / MAX_LINE_FRACTION;
+
+        int y = 0;
+        while (y < uprightHeight) {
+            if (rowInk[y] < minInk) {
+                y++;
+                continue;
+            }
+            int top = y;
+            while ((y < uprightHeight) && (rowInk[y] >= minInk)) {
+                y++;
+            }
+            int bottom = y;
+            if ((bottom - top >= MIN_LINE_HEIGHT) && (bottom - top <= maxLineHeight)) {
+                findWords(top, bottom, uprightWidth, lines);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Finds the words in a band of rows, and adds them to the lines as one line per run of words
+     * that aren't too far apart.
+     */
+    private void findWords(int top, int bottom, int uprightWidth, List<RecognizedText> lines) {
+        for (int x = 0; x < uprightWidth; ++x) {
+            columnInk[x] = 0;
+        }
+        for (int y = top; y < bottom; ++y) {
+            for (int x = 0, i = y * uprightWidth; x < uprightWidth; ++x, ++i) {
+                columnInk[x] += mask[i];
+            }
+        }
+
+        int lineHeight = bottom - top;
+        int wordGap = Math.max(2, Math.round(WORD_GAP * lineHeight));
+        int lineGap = Math.round(LINE_GAP * lineHeight);
+
+        List<RecognizedText> words = new ArrayList<>();
+        int x = 0;
+        int lastRight = -1;
+        while (x < uprightWidth) {
+            if (columnInk[x] == 0) {
+                x++;
+                continue;
+            }
+            // Extend the word over gaps too narrow to separate words.
+            int left = x;
+            int right = x;
+            while (x < uprightWidth) {
+                if (columnInk[x] > 0) {
+                    right = ++x;
+                } else if (x - right < wordGap) {
+                    x++;
+                } else {
+                    break;
+                }
+            }
+
+            if ((lastRight >= 0) && (left - lastRight > lineGap)) {
+                addLine(words, top, bottom, lines);
+                words = new ArrayList<>();
+            }
+            words.add(new RecognizedText(makeUpWord(left, right, lineHeight),
+                    new Rect(left, top, right, bottom), Collections.<RecognizedText>emptyList()));
+            lastRight = right;
+        }
+        addLine(words, top, bottom, lines);
+    }
+
+    private static void addLine(List<RecognizedText> words, int top, int bottom,
+                                List<RecognizedText> lines) {
+        if (words.isEmpty()) {
+            return;
+        }
+        StringBuilder value = new StringBuilder();
+        for (RecognizedText word : words) {
+            if (value.length() > 0) {
+                value.append(' ');
+            }
+            value.append(word.getValue());
+        }
+        Rect box = new Rect(words.get(0).getBoundingBox().left, top,
+                words.get(words.size() - 1).getBoundingBox().right, bottom);
+        lines.add(new RecognizedText(value.toString(), box, words));
+    }
+
+    /**
+     * Returns one letter for each glyph that would fit in the word, picked by the amount of ink
+     * under that glyph.
+     */
+    private String makeUpWord(int left, int right, int lineHeight) {
+        int width = right - left;
+        int glyphs = Math.max(1, Math.round(width / (GLYPH_ASPECT * lineHeight)));
+        char[] letters = new char[glyphs];
+        for (int i = 0; i < glyphs; ++i) {
+            int ink = 0;
+            for (int x = left + width * i / glyphs, end = left + width * (i + 1) / glyphs;
+                 x < end; ++x) {
+                ink += columnInk[x];
+            }
+            letters[i] = (char) ('a' + ink % 26);
+        }
+        return new String(letters);
+    }
+
+    /**
+     * Groups lines into blocks: a line joins the block above it if it is close below it and
+     * overlaps it horizontally.
+     */
+    private static List<RecognizedText> groupBlocks(List<RecognizedText> lines) {
+        List<RecognizedText> blocks = new ArrayList<>();
+        List<List<RecognizedText>> blockLines = new ArrayList<>();
+        List<Rect> blockBoxes = new ArrayList<>();
+
+        for (RecognizedText line : lines) {
+            Rect box = line.getBoundingBox();
+            int target = -1;
+            for (int i = blockLines.size() - 1; i >= 0; --i) {
+                List<RecognizedText> candidate = blockLines.get(i);
+                Rect last = candidate.get(candidate.size() - 1).getBoundingBox();
+                Rect blockBox = blockBoxes.get(i);
+                if ((box.top - last.bottom <= last.height()) && (box.left < blockBox.right) &&
+                        (blockBox.left < box.right)) {
+                    target = i;
+                    break;
+                }
+            }
+            if (target < 0) {
+                blockLines.add(new ArrayList<RecognizedText>());
+                blockBoxes.add(new Rect(box));
+                target = blockLines.size() - 1;
+            }
+            blockLines.get(target).add(line);
+            Rect blockBox = blockBoxes.get(target);
+            blockBox.set(Math.min(blockBox.left, box.left), Math.min(blockBox.top, box.top),
+                    Math.max(blockBox.right, box.right), Math.max(blockBox.bottom, box.bottom));
+        }
+
+        for (int i = 0; i < blockLines.size(); ++i) {
+            StringBuilder value = new StringBuilder();
+            for (RecognizedText line : blockLines.get(i)) {
+                if (value.length() > 0) {
+                    value.append('\n');
+                }
+                value.append(line.getValue());
+            }
+            blocks.add(new RecognizedText(value.toString(), blockBoxes.get(i), blockLines.get(i)));
+        }
+        return blocks;
+    }
+}
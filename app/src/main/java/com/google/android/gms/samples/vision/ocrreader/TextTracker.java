@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+
+/**
+ * Follows text blocks from frame to frame and gives each one an id that stays the same for as
+ * long as the block is in view, so that whatever is kept per block, such as its graphic, can be
+ * kept by id instead of being rebuilt every frame.
+ * <p/>
+ * Each block of a frame is matched to the track it scores best with, best scores first.  The score
+ * weighs how much the bounding boxes overlap, as intersection over union, equally with how similar
+ * the texts are, by edit distance, so that neighbouring blocks that move a little aren't swapped
+ * and a block that is misread in one frame keeps its id.  Only tracks that share a cell of a
+ * uniform grid with a block are scored, so matching stays close to linear in the number of blocks.
+ * <p/>
+ * The bounding box of each track is smoothed over the frames, so that its graphic doesn't jitter,
+ * and tracks that weren't matched for more than a given number of frames are dropped.
+ */
+final class TextTracker {
+    // Smallest overlap, as intersection over union, for a block to be matched to a track at all.
+    private static final float MIN_IOU = 0.2f;
+
+    // Smallest score for a block to be matched to a track, weighing the overlap and the
+    // similarity of the texts.  A block whose text changed completely has to overlap its track
+    // well to keep its id.
+    private static final float MIN_SCORE = 0.4f;
+    private static final float TEXT_WEIGHT = 0.5f;
+
+    // How far each frame moves the smoothed bounding box towards the block's, from 0 for not at
+    // all to 1 for all the way.
+    private static final float SMOOTHING = 0.5f;
+
+    // Number of buckets that the grid cells are hashed into, a power of two, and the smallest cell
+    // size in pixels.  The cell size follows the average size of the tracks' boxes.
+    private static final int GRID_BUCKETS = 256;
+    private static final int MIN_CELL_SIZE = 16;
+
+    private final int maxMissedFrames;
+
+    // All of the member variables below are guarded by this object.
+    private final SparseArray<Track> tracks = new SparseArray<>();
+    private int nextId = 1;
+
+    // The grid, as a linked list of track indices per bucket, ended by -1.
+    private final int[] bucketHeads = new int[GRID_BUCKETS];
+    private int[] entryTracks = new int[0];
+    private int[] entryNext = new int[0];
+    private int cellSize;
+
+    // Scratch space for matching.
+    private final GreedyMatcher matcher = new GreedyMatcher();
+    private int[] scoredFor = new int[0];
+    private int[] previousRow = new int[0];
+    private int[] currentRow = new int[0];
+
+    /**
+     * @param maxMissedFrames how many frames in a row a track may go unmatched before it is
+     *                        dropped and its id is given up
+     */
+    TextTracker(int maxMissedFrames) {
+        if (maxMissedFrames < 0) {
+            throw new IllegalArgumentException("Invalid missed frames: " + maxMissedFrames);
+        }
+        this.maxMissedFrames = maxMissedFrames;
+    }
+
+    /**
+     * Matches the blocks of a new frame to the tracks, and returns the same blocks keyed by the
+     * ids of their tracks.  Blocks that match no track start a new one.  Null blocks are left
+     * out.
+     */
+    synchronized SparseArray<RecognizedText> update(SparseArray<RecognizedText> items) {
+        int itemCount = (items != null) ? items.size() : 0;
+        int trackCount = tracks.size();
+        if (scoredFor.length < trackCount) {
+            scoredFor = new int[trackCount];
+        }
+        Arrays.fill(scoredFor, 0, trackCount, -1);
+
+        buildGrid();
+        matcher.clear();
+        for (int i = 0; i < itemCount; ++i) {
+            if (items.valueAt(i) != null) {
+                scoreCandidates(i, items.valueAt(i));
+            }
+        }
+        int[] trackOfItem = matcher.match(itemCount, trackCount);
+
+        SparseArray<RecognizedText> tracked = new SparseArray<>(itemCount);
+        for (int i = 0; i < itemCount; ++i) {
+            if (trackOfItem[i] >= 0) {
+                Track track = tracks.valueAt(trackOfItem[i]);
+                track.follow(items.valueAt(i));
+                tracked.put(track.id, items.valueAt(i));
+            }
+        }
+
+        // Tracks are dropped only once the indices above are no longer needed.
+        for (int j = trackCount - 1; j >= 0; --j) {
+            if (!matcher.isRightMatched(j) && (++tracks.valueAt(j).missedFrames > maxMissedFrames)) {
+                tracks.removeAt(j);
+            }
+        }
+
+        // Ids only grow, so new tracks go at the end.
+        for (int i = 0; i < itemCount; ++i) {
+            RecognizedText item = items.valueAt(i);
+            if ((trackOfItem[i] < 0) && (item != null)) {
+                Track track = new Track(nextId++, item);
+                tracks.append(track.id, track);
+                tracked.append(track.id, item);
+            }
+        }
+        return tracked;
+    }
+
+    /**
+     * Returns the smoothed bounding box of the track with the given id, in the coordinates of the
+     * whole detected frame, or null if there is no such track.  The box is not changed afterwards.
+     */
+    synchronized Rect getSmoothedBox(int id) {
+        Track track = tracks.get(id);
+        return (track != null) ? track.smoothedBox : null;
+    }
+
+    /**
+     * Forgets all tracks.  Ids aren't reused.
+     */
+    synchronized void clear() {
+        tracks.clear();
+    }
+
+    /**
+     * Hashes each track into the grid cells its box covers, with cells about the size of an
+     * average box, so that a box covers a few cells.
+     */
+    private void buildGrid() {
+        Arrays.fill(bucketHeads, -1);
+        int trackCount = tracks.size();
+        if (trackCount == 0) {
+            return;
+        }
+
+        long size = 0;
+        for (int j = 0; j < trackCount; ++j) {
+            Rect box = tracks.valueAt(j).box;
+            size += box.width() + box.height();
+        }
+        cellSize = (int) Math.max(MIN_CELL_SIZE, size / (2 * trackCount));
+
+        int entryCount = 0;
+        for (int j = 0; j < trackCount; ++j) {
+            Rect box = tracks.valueAt(j).box;
+            int left = cell(box.left);
+            int right = cell(box.right);
+            int top = cell(box.top);
+            int bottom = cell(box.bottom);
+            for (int y = top; y <= bottom; ++y) {
+                for (int x = left; x <= right; ++x) {
+                    if (entryCount == entryTracks.length) {
+                        entryTracks = Arrays.copyOf(entryTracks, Math.max(16, 2 * entryCount));
+                        entryNext = Arrays.copyOf(entryNext, entryTracks.length);
+                    }
+                    int bucket = bucket(x, y);
+                    entryTracks[entryCount] = j;
+                    entryNext[entryCount] = bucketHeads[bucket];
+                    bucketHeads[bucket] = entryCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scores the block against every track that shares a grid cell with it, and adds each pair
+     * that may be matched to the matcher.
+     */
+    private void scoreCandidates(int i, RecognizedText item) {
+        if (tracks.size() == 0) {
+            return;
+        }
+        Rect box = item.getBoundingBox();
+        String text = item.getValue();
+        int left = cell(box.left);
+        int right = cell(box.right);
+        int top = cell(box.top);
+        int bottom = cell(box.bottom);
+        for (int y = top; y <= bottom; ++y) {
+            for (int x = left; x <= right; ++x) {
+                for (int e = bucketHeads[bucket(x, y)]; e >= 0; e = entryNext[e]) {
+                    // Tracks span several cells, and cells share buckets, so each track is
+                    // scored once per block.
+                    int j = entryTracks[e];
+                    if (scoredFor[j] == i) {
+                        continue;
+                    }
+                    scoredFor[j] = i;
+
+                    Track track = tracks.valueAt(j);
+                    float iou = LineFusion.iou(box, track.box);
+                    if (iou < MIN_IOU) {
+                        continue;
+                    }
+                    // The length difference bounds the similarity, which skips the edit distance
+                    // of texts that can't score high enough anyway.
+                    float overlapScore = (1 - TEXT_WEIGHT) * iou;
+                    int longer = Math.max(text.length(), track.text.length());
+                    if ((longer > 0) && (overlapScore + TEXT_WEIGHT *
+                            (1 - (float) Math.abs(text.length() - track.text.length()) / longer)
+                            < MIN_SCORE)) {
+                        continue;
+                    }
+                    float score = overlapScore + TEXT_WEIGHT * similarity(text, track.text);
+                    if (score < MIN_SCORE) {
+                        continue;
+                    }
+                    matcher.add(i, j, score);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns how similar two texts are, from 0 for nothing in common to 1 for equal texts, as one
+     * minus their edit distance over the length of the longer one.
+     */
+    private float similarity(String a, String b) {
+        if (a.equals(b)) {
+            return 1;
+        }
+        int cols = b.length() + 1;
+        if (previousRow.length < cols) {
+            previousRow = new int[cols];
+            currentRow = new int[cols];
+        }
+        for (int j = 0; j < cols; ++j) {
+            previousRow[j] = j;
+        }
+        for (int i = 1; i <= a.length(); ++i) {
+            char c = a.charAt(i - 1);
+            currentRow[0] = i;
+            for (int j = 1; j < cols; ++j) {
+                int substitute = previousRow[j - 1] + ((c == b.charAt(j - 1)) ? 0 : 1);
+                currentRow[j] = Math.min(substitute,
+                        Math.min(previousRow[j], currentRow[j - 1]) + 1);
+            }
+            int[] row = previousRow;
+            previousRow = currentRow;
+            currentRow = row;
+        }
+        return 1 - (float) previousRow[cols - 1] / Math.max(a.length(), b.length());
+    }
+
+    private int cell(int coordinate) {
+        return (int) Math.floor((float) coordinate / cellSize);
+    }
+
+    private static int bucket(int x, int y) {
+        return ((x * 73856093) ^ (y * 19349663)) & (GRID_BUCKETS - 1);
+    }
+
+    /**
+     * A text block followed across frames.
+     */
+    private static final class Track {
+        final int id;
+
+        // The block's latest text and bounding box, which it is matched by.
+        String text;
+        Rect box;
+
+        // Replaced rather than changed, since it is handed out.
+        Rect smoothedBox;
+        int missedFrames;
+
+        Track(int id, RecognizedText item) {
+            this.id = id;
+            text = item.getValue();
+            box = item.getBoundingBox();
+            smoothedBox = new Rect(box);
+        }
+
+        void follow(RecognizedText item) {
+            text = item.getValue();
+            box = item.getBoundingBox();
+            missedFrames = 0;
+            smoothedBox = new Rect(smooth(smoothedBox.left, box.left),
+                    smooth(smoothedBox.top, box.top),
+                    smooth(smoothedBox.right, box.right),
+                    smooth(smoothedBox.bottom, box.bottom));
+        }
+
+        private static int smooth(int from, int to) {
+            return Math.round(from + SMOOTHING * (to - from));
+        }
+    }
+}
@@ -0,0 +1,635 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.Manifest;
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresPermission;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Camera2 implementation of the camera behind {@link CameraSource}, used when it is built with
+ * {@link CameraSource.Builder#setUseCamera2(boolean)}.
+ * <p/>
+ * Frames are read from an {@link ImageReader} in YUV_420_888 and copied into the camera source's
+ * frame buffer pool as NV21, so that the rest of the pipeline doesn't need to know which camera
+ * API produced them.  The copy is a single bulk copy of the luma plane whenever its rows are not
+ * padded, and of the chroma planes whenever the HAL already lays them out as interleaved VU.  Only
+ * padded or planar layouts are repacked pixel by pixel.  Images are closed right after the copy,
+ * so the reader never runs out of images while the detector holds on to a frame.
+ * <p/>
+ * A backend is opened by one {@link CameraSource#start()} and closed by the next
+ * {@link CameraSource#stop()}.  Everything but the frame handoff runs under the camera source's
+ * camera lock.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class Camera2Backend implements FrameSource {
+    private static final String TAG = "Camera2Backend";
+
+    // How long to wait for the camera to open and for the capture session to be configured.
+    private static final long OPEN_TIMEOUT_MS = 3000;
+
+    // Images are copied and closed right away, so the reader never needs to hold many.
+    private static final int MAX_IMAGES = 2;
+
+    private final CameraManager cameraManager;
+    private final FrameBufferPool frameBuffers;
+    private final Listener listener;
+
+    // Pool indices of the buffers that the backend may copy the next frame into.
+    private final ArrayBlockingQueue<Integer> freeBuffers;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    // Guards closed, and is held while a frame is copied so that closing never overlaps a copy.
+    private final Object copyLock = new Object();
+    private boolean closed;
+
+    private String cameraId;
+    private CameraCharacteristics characteristics;
+
+    private CameraDevice device;
+    private CameraCaptureSession session;
+    private ImageReader imageReader;
+    private CaptureRequest.Builder requestBuilder;
+
+    Camera2Backend(Context context, FrameBufferPool frameBuffers, Listener listener) {
+        this.cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        this.frameBuffers = frameBuffers;
+        this.listener = listener;
+
+        freeBuffers = new ArrayBlockingQueue<>(FrameBufferPool.MAX_BUFFERS);
+        thread = new HandlerThread("Camera2Backend");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Selects the first camera facing the given direction.
+     *
+     * @param facing one of {@link CameraSource#CAMERA_FACING_BACK} or
+     *               {@link CameraSource#CAMERA_FACING_FRONT}
+     * @return false if there is no such camera
+     */
+    boolean selectCamera(int facing) throws IOException {
+        int lensFacing = (facing == CameraSource.CAMERA_FACING_FRONT)
+                ? CameraMetadata.LENS_FACING_FRONT : CameraMetadata.LENS_FACING_BACK;
+        try {
+            for (String id : cameraManager.getCameraIdList()) {
+                CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(id);
+                Integer cameraFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                if ((cameraFacing != null) && (cameraFacing == lensFacing)) {
+                    cameraId = id;
+                    this.characteristics = characteristics;
+                    return true;
+                }
+            }
+        } catch (CameraAccessException e) {
+            throw new IOException("Could not list cameras.", e);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the clockwise angle by which the sensor image must be rotated to be upright in the
+     * device's natural orientation.
+     */
+    int getSensorOrientation() {
+        Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        return (orientation != null) ? orientation : 0;
+    }
+
+    /**
+     * Selects the YUV output size closest to the desired size, in the same way as the legacy
+     * camera's preview size selection.  Returns null if the camera has no YUV outputs.
+     */
+    @Nullable
+    Size selectPreviewSize(int desiredWidth, int desiredHeight) {
+        StreamConfigurationMap map =
+                characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map == null) {
+            return null;
+        }
+
+        Size selectedSize = null;
+        int minDiff = Integer.MAX_VALUE;
+        for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            int diff = Math.abs(size.getWidth() - desiredWidth) +
+                    Math.abs(size.getHeight() - desiredHeight);
+            if (diff < minDiff) {
+                selectedSize = new Size(size.getWidth(), size.getHeight());
+                minDiff = diff;
+            }
+        }
+        return selectedSize;
+    }
+
+    /**
+     * Returns the sizes the selected camera can stream frames at.
+     */
+    List<Size> getPreviewSizes() {
+        List<Size> sizes = new ArrayList<>();
+        StreamConfigurationMap map =
+                characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map != null) {
+            for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+                sizes.add(new Size(size.getWidth(), size.getHeight()));
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Returns the auto exposure frame rate ranges of the selected camera, scaled by 1000 and
+     * indexed like the legacy camera's preview fps ranges.
+     */
+    List<int[]> getFpsRanges() {
+        List<int[]> fpsRanges = new ArrayList<>();
+        Range<Integer>[] ranges =
+                characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges != null) {
+            for (Range<Integer> range : ranges) {
+                int[] fpsRange = new int[2];
+                fpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] = range.getLower() * 1000;
+                fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] = range.getUpper() * 1000;
+                fpsRanges.add(fpsRange);
+            }
+        }
+        return fpsRanges;
+    }
+
+    /**
+     * Selects the auto exposure frame rate range closest to the desired frame rate.  The range is
+     * returned scaled by 1000 and indexed like the legacy camera's preview fps ranges, so that
+     * both backends can share the frame rate bookkeeping.
+     */
+    @Nullable
+    int[] selectFpsRange(float desiredFps) {
+        Range<Integer>[] ranges =
+                characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) {
+            return null;
+        }
+
+        int desiredFpsScaled = (int) (desiredFps * 1000.0f);
+        int[] selectedRange = null;
+        int minDiff = Integer.MAX_VALUE;
+        for (Range<Integer> range : ranges) {
+            int lower = range.getLower() * 1000;
+            int upper = range.getUpper() * 1000;
+            int diff = Math.abs(desiredFpsScaled - lower) + Math.abs(desiredFpsScaled - upper);
+            if (diff < minDiff) {
+                selectedRange = new int[2];
+                selectedRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] = lower;
+                selectedRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] = upper;
+                minDiff = diff;
+            }
+        }
+        return selectedRange;
+    }
+
+    /**
+     * Returns whether the camera supports the given legacy focus mode.
+     */
+    boolean isFocusModeSupported(String focusMode) {
+        int[] modes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        int afMode = toAfMode(focusMode);
+        if (modes != null) {
+            for (int mode : modes) {
+                if (mode == afMode) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the camera supports the given legacy flash mode during preview.  Only off
+     * and torch have a meaning without still captures.
+     */
+    boolean isFlashModeSupported(String flashMode) {
+        if (Camera.Parameters.FLASH_MODE_OFF.equals(flashMode)) {
+            return true;
+        }
+        Boolean hasFlash = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+        return Camera.Parameters.FLASH_MODE_TORCH.equals(flashMode) &&
+                (hasFlash != null) && hasFlash;
+    }
+
+    /**
+     * Returns the largest supported digital zoom ratio.
+     */
+    float getMaxZoom() {
+        Float maxZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        return (maxZoom != null) ? maxZoom : 1.0f;
+    }
+
+    /**
+     * Opens the camera and starts streaming frames at the given size into the frame buffer pool,
+     * and into the preview surface if there is one.  Blocks until the stream is running.
+     *
+     * @param focusMode a supported legacy focus mode, or null for the camera's default
+     * @param flashMode a supported legacy flash mode, or null for the camera's default
+     * @throws IOException if the camera could not be opened or configured
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    void start(Size previewSize, int[] fpsRange, @Nullable String focusMode,
+               @Nullable String flashMode, @Nullable Surface previewSurface) throws IOException {
+        for (int i = 0; i < frameBuffers.size(); ++i) {
+            freeBuffers.offer(i);
+        }
+
+        imageReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(),
+                ImageFormat.YUV_420_888, MAX_IMAGES);
+        imageReader.setOnImageAvailableListener(new ImageAvailableListener(), handler);
+
+        try {
+            device = openDevice();
+
+            List<Surface> outputs = new ArrayList<>();
+            outputs.add(imageReader.getSurface());
+            if (previewSurface != null) {
+                outputs.add(previewSurface);
+            }
+            session = createSession(outputs);
+
+            requestBuilder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            for (Surface output : outputs) {
+                requestBuilder.addTarget(output);
+            }
+            requestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON);
+            setFpsRangeInRequest(fpsRange);
+            if (focusMode != null) {
+                setFocusModeInRequest(focusMode);
+            }
+            if (flashMode != null) {
+                setFlashModeInRequest(flashMode);
+            }
+            session.setRepeatingRequest(requestBuilder.build(), null, handler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            close();
+            throw new IOException("Could not start camera " + cameraId + ".", e);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Changes the frame rate range of the running camera.
+     */
+    boolean setFpsRange(int[] fpsRange) {
+        setFpsRangeInRequest(fpsRange);
+        return updateRequest();
+    }
+
+    /**
+     * Changes the focus mode of the running camera.
+     */
+    boolean setFocusMode(String focusMode) {
+        setFocusModeInRequest(focusMode);
+        return updateRequest();
+    }
+
+    /**
+     * Changes the flash mode of the running camera.
+     */
+    boolean setFlashMode(String flashMode) {
+        setFlashModeInRequest(flashMode);
+        return updateRequest();
+    }
+
+    /**
+     * Crops the center of the sensor to zoom in by the given ratio, between 1 and
+     * {@link #getMaxZoom()}.
+     */
+    boolean setZoom(float ratio) {
+        Rect activeArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        if ((activeArray == null) || (requestBuilder == null)) {
+            return false;
+        }
+        ratio = Math.max(1.0f, Math.min(getMaxZoom(), ratio));
+        int cropWidth = (int) (activeArray.width() / ratio);
+        int cropHeight = (int) (activeArray.height() / ratio);
+        int left = (activeArray.width() - cropWidth) / 2;
+        int top = (activeArray.height() - cropHeight) / 2;
+        requestBuilder.set(CaptureRequest.SCALER_CROP_REGION,
+                new Rect(left, top, left + cropWidth, top + cropHeight));
+        return updateRequest();
+    }
+
+    @Override
+    public void recycle(int bufferIndex) {
+        freeBuffers.offer(bufferIndex);
+    }
+
+    /**
+     * Stops the camera.  This doesn't wait for the backend's thread to finish, since that thread
+     * may be waiting on the camera source's lock, which the caller is usually holding.
+     */
+    @Override
+    public void close() {
+        synchronized (copyLock) {
+            closed = true;
+        }
+
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (device != null) {
+            device.close();
+            device = null;
+        }
+        if (imageReader != null) {
+            imageReader.close();
+            imageReader = null;
+        }
+        requestBuilder = null;
+        thread.quitSafely();
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    @RequiresPermission(Manifest.permission.CAMERA)
+    private CameraDevice openDevice() throws CameraAccessException, IOException {
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CameraDevice[] result = new CameraDevice[1];
+        cameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
+            @Override
+            public void onOpened(CameraDevice camera) {
+                result[0] = camera;
+                opened.countDown();
+            }
+
+            @Override
+            public void onDisconnected(CameraDevice camera) {
+                Log.w(TAG, "Camera " + camera.getId() + " disconnected.");
+                camera.close();
+                opened.countDown();
+            }
+
+            @Override
+            public void onError(CameraDevice camera, int error) {
+                Log.e(TAG, "Camera " + camera.getId() + " error " + error + ".");
+                camera.close();
+                opened.countDown();
+            }
+        }, handler);
+
+        await(opened);
+        if (result[0] == null) {
+            throw new IOException("Could not open camera " + cameraId + ".");
+        }
+        return result[0];
+    }
+
+    private CameraCaptureSession createSession(List<Surface> outputs)
+            throws CameraAccessException, IOException {
+        final CountDownLatch configured = new CountDownLatch(1);
+        final CameraCaptureSession[] result = new CameraCaptureSession[1];
+        device.createCaptureSession(outputs, new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(CameraCaptureSession session) {
+                result[0] = session;
+                configured.countDown();
+            }
+
+            @Override
+            public void onConfigureFailed(CameraCaptureSession session) {
+                configured.countDown();
+            }
+        }, handler);
+
+        await(configured);
+        if (result[0] == null) {
+            throw new IOException("Could not configure camera " + cameraId + ".");
+        }
+        return result[0];
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            if (!latch.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for the camera.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the camera.", e);
+        }
+    }
+
+    private void setFpsRangeInRequest(int[] fpsRange) {
+        requestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, new Range<>(
+                fpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] / 1000,
+                fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000));
+    }
+
+    private void setFocusModeInRequest(String focusMode) {
+        int afMode = toAfMode(focusMode);
+        requestBuilder.set(CaptureRequest.CONTROL_AF_MODE, afMode);
+        if (Camera.Parameters.FOCUS_MODE_INFINITY.equals(focusMode)) {
+            requestBuilder.set(CaptureRequest.LENS_FOCUS_DISTANCE, 0.0f);
+        }
+    }
+
+    private void setFlashModeInRequest(String flashMode) {
+        requestBuilder.set(CaptureRequest.FLASH_MODE,
+                Camera.Parameters.FLASH_MODE_TORCH.equals(flashMode)
+                        ? CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+    }
+
+    private boolean updateRequest() {
+        if ((session == null) || (requestBuilder == null)) {
+            return false;
+        }
+        try {
+            session.setRepeatingRequest(requestBuilder.build(), null, handler);
+            return true;
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Failed to update the capture request.", e);
+            return false;
+        }
+    }
+
+    private static int toAfMode(String focusMode) {
+        if (Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO.equals(focusMode)) {
+            return CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO;
+        } else if (Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE.equals(focusMode)) {
+            return CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE;
+        } else if (Camera.Parameters.FOCUS_MODE_AUTO.equals(focusMode)) {
+            return CameraMetadata.CONTROL_AF_MODE_AUTO;
+        } else if (Camera.Parameters.FOCUS_MODE_MACRO.equals(focusMode)) {
+            return CameraMetadata.CONTROL_AF_MODE_MACRO;
+        } else if (Camera.Parameters.FOCUS_MODE_EDOF.equals(focusMode)) {
+            return CameraMetadata.CONTROL_AF_MODE_EDOF;
+        }
+        // Fixed and infinity focus.
+        return CameraMetadata.CONTROL_AF_MODE_OFF;
+    }
+
+    /**
+     * Copies each image into a free pool buffer and hands it to the listener.  If the pipeline
+     * holds all of the buffers, the image is dropped, as the legacy camera does when it runs out
+     * of callback buffers.
+     */
+    private class ImageAvailableListener implements ImageReader.OnImageAvailableListener {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image = reader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
+
+            int bufferIndex = -1;
+            try {
+                synchronized (copyLock) {
+                    Integer free = freeBuffers.poll();
+                    if (!closed && (free != null)) {
+                        bufferIndex = free;
+                        copyToNv21(image, frameBuffers.array(bufferIndex));
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to copy camera image.", e);
+                if (bufferIndex != -1) {
+                    freeBuffers.offer(bufferIndex);
+                    bufferIndex = -1;
+                }
+            } finally {
+                image.close();
+            }
+
+            if (bufferIndex != -1) {
+                listener.onFrame(Camera2Backend.this, bufferIndex);
+            }
+        }
+    }
+
+    //==============================================================================================
+    // YUV_420_888 to NV21
+    //==============================================================================================
+
+    /**
+     * Copies a YUV_420_888 image into an NV21 array of at least width * height * 3 / 2 bytes.
+     */
+    static void copyToNv21(Image image, byte[] out) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Image.Plane[] planes = image.getPlanes();
+
+        // Luma, in one bulk copy unless the rows are padded.
+        ByteBuffer luma = planes[0].getBuffer();
+        int lumaRowStride = planes[0].getRowStride();
+        if (lumaRowStride == width) {
+            luma.get(out, 0, width * height);
+        } else {
+            for (int row = 0; row < height; ++row) {
+                luma.position(row * lumaRowStride);
+                luma.get(out, row * width, width);
+            }
+        }
+
+        Image.Plane u = planes[1];
+        Image.Plane v = planes[2];
+        int chromaOffset = width * height;
+        int chromaSize = width * height / 2;
+        if (isInterleavedVu(u, v, width, chromaSize)) {
+            // The V plane is already V, U, V, U, ... except for the very last U.
+            ByteBuffer vBuffer = v.getBuffer();
+            vBuffer.get(out, chromaOffset, chromaSize - 1);
+            out[chromaOffset + chromaSize - 1] = u.getBuffer().get(chromaSize - 2);
+        } else {
+            ByteBuffer uBuffer = u.getBuffer();
+            ByteBuffer vBuffer = v.getBuffer();
+            int uRowStride = u.getRowStride();
+            int uPixelStride = u.getPixelStride();
+            int vRowStride = v.getRowStride();
+            int vPixelStride = v.getPixelStride();
+            int offset = chromaOffset;
+            for (int row = 0; row < height / 2; ++row) {
+                for (int col = 0; col < width / 2; ++col) {
+                    out[offset++] = vBuffer.get(row * vRowStride + col * vPixelStride);
+                    out[offset++] = uBuffer.get(row * uRowStride + col * uPixelStride);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether the U and V planes are views of one interleaved VU plane without padding,
+     * which is NV21's chroma layout.  Overlap is detected by changing the V plane's second byte
+     * and checking whether the U plane's first byte follows.
+     */
+    private static boolean isInterleavedVu(Image.Plane u, Image.Plane v, int width,
+                                           int chromaSize) {
+        if ((u.getPixelStride() != 2) || (v.getPixelStride() != 2) ||
+                (u.getRowStride() != width) || (v.getRowStride() != width)) {
+            return false;
+        }
+        ByteBuffer uBuffer = u.getBuffer();
+        ByteBuffer vBuffer = v.getBuffer();
+        if ((vBuffer.remaining() < chromaSize - 1) || (uBuffer.remaining() < chromaSize - 1)) {
+            return false;
+        }
+
+        try {
+            byte saved = vBuffer.get(1);
+            byte probe = (byte) ~saved;
+            vBuffer.put(1, probe);
+            boolean interleaved = (uBuffer.get(0) == probe);
+            vBuffer.put(1, saved);
+            return interleaved;
+        } catch (RuntimeException e) {
+            // Read-only planes can't be probed.
+            return false;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.hardware.Camera;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a legacy camera supports, as reported by its parameters: preview and picture sizes, preview
+ * frame rate ranges, focus and flash modes, and zoom.
+ * <p/>
+ * Querying {@link Camera#getParameters()} is a binder call that returns one long string to parse,
+ * so the result is captured once in this immutable form, which can also be written to and read
+ * back from a {@link CameraCapabilityCache} file.
+ */
+@SuppressWarnings("deprecation")
+final class CameraCapabilities {
+    private final List<Size> previewSizes;
+    private final List<Size> pictureSizes;
+    private final List<int[]> previewFpsRanges;
+    private final List<String> focusModes;
+    private final List<String> flashModes;
+    private final int maxZoom;
+    private final boolean smoothZoomSupported;
+
+    private CameraCapabilities(List<Size> previewSizes, List<Size> pictureSizes,
+                               List<int[]> previewFpsRanges, List<String> focusModes,
+                               List<String> flashModes, int maxZoom,
+                               boolean smoothZoomSupported) {
+        this.previewSizes = Collections.unmodifiableList(previewSizes);
+        this.pictureSizes = Collections.unmodifiableList(pictureSizes);
+        this.previewFpsRanges = Collections.unmodifiableList(previewFpsRanges);
+        this.focusModes = Collections.unmodifiableList(focusModes);
+        this.flashModes = Collections.unmodifiableList(flashModes);
+        this.maxZoom = maxZoom;
+        this.smoothZoomSupported = smoothZoomSupported;
+    }
+
+    /**
+     * Captures the capabilities from a camera's parameters.
+     */
+    static CameraCapabilities query(Camera.Parameters parameters) {
+        List<Size> previewSizes = toSizes(parameters.getSupportedPreviewSizes());
+        List<Size> pictureSizes = toSizes(parameters.getSupportedPictureSizes());
+
+        List<int[]> previewFpsRanges = new ArrayList<>();
+        List<int[]> supportedRanges = parameters.getSupportedPreviewFpsRange();
+        if (supportedRanges != null) {
+            for (int[] range : supportedRanges) {
+                previewFpsRanges.add(new int[]{
+                        range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                        range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]});
+            }
+        }
+
+        // Cameras without a flash report null rather than an empty list.
+        int maxZoom = parameters.isZoomSupported() ? parameters.getMaxZoom() : 0;
+        return new CameraCapabilities(previewSizes, pictureSizes, previewFpsRanges,
+                toStrings(parameters.getSupportedFocusModes()),
+                toStrings(parameters.getSupportedFlashModes()), maxZoom,
+                (maxZoom > 0) && parameters.isSmoothZoomSupported());
+    }
+
+    List<Size> getPreviewSizes() {
+        return previewSizes;
+    }
+
+    /**
+     * Returns the supported picture sizes, largest first as reported by the camera.
+     */
+    List<Size> getPictureSizes() {
+        return pictureSizes;
+    }
+
+    /**
+     * Returns the supported preview frame rate ranges, as frame rates scaled by 1000 and indexed
+     * by {@link Camera.Parameters#PREVIEW_FPS_MIN_INDEX} and
+     * {@link Camera.Parameters#PREVIEW_FPS_MAX_INDEX}.
+     */
+    List<int[]> getPreviewFpsRanges() {
+        return previewFpsRanges;
+    }
+
+    boolean isFocusModeSupported(String mode) {
+        return focusModes.contains(mode);
+    }
+
+    boolean isFlashModeSupported(String mode) {
+        return flashModes.contains(mode);
+    }
+
+    boolean isZoomSupported() {
+        return maxZoom > 0;
+    }
+
+    int getMaxZoom() {
+        return maxZoom;
+    }
+
+    /**
+     * Returns true if the camera can zoom gradually by itself, see
+     * {@link Camera#startSmoothZoom(int)}.
+     */
+    boolean isSmoothZoomSupported() {
+        return smoothZoomSupported;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        writeSizes(out, previewSizes);
+        writeSizes(out, pictureSizes);
+        out.writeShort(previewFpsRanges.size());
+        for (int[] range : previewFpsRanges) {
+            out.writeInt(range[0]);
+            out.writeInt(range[1]);
+        }
+        writeStrings(out, focusModes);
+        writeStrings(out, flashModes);
+        out.writeInt(maxZoom);
+        out.writeBoolean(smoothZoomSupported);
+    }
+
+    static CameraCapabilities read(DataInputStream in) throws IOException {
+        List<Size> previewSizes = readSizes(in);
+        List<Size> pictureSizes = readSizes(in);
+        int rangeCount = in.readUnsignedShort();
+        List<int[]> previewFpsRanges = new ArrayList<>(rangeCount);
+        for (int i = 0; i < rangeCount; ++i) {
+            previewFpsRanges.add(new int[]{in.readInt(), in.readInt()});
+        }
+        List<String> focusModes = readStrings(in);
+        List<String> flashModes = readStrings(in);
+        int maxZoom = in.readInt();
+        boolean smoothZoomSupported = in.readBoolean();
+        return new CameraCapabilities(previewSizes, pictureSizes, previewFpsRanges, focusModes,
+                flashModes, maxZoom, smoothZoomSupported);
+    }
+
+    private static List<Size> toSizes(List<Camera.Size> cameraSizes) {
+        List<Size> sizes = new ArrayList<>();
+        if (cameraSizes != null) {
+            for (Camera.Size size : cameraSizes) {
+                sizes.add(new Size(size.width, size.height));
+            }
+        }
+        return sizes;
+    }
+
+    private static List<String> toStrings(List<String> strings) {
+        return (strings != null) ? new ArrayList<>(strings) : new ArrayList<String>();
+    }
+
+    private static void writeSizes(DataOutputStream out, List<Size> sizes) throws IOException {
+        out.writeShort(sizes.size());
+        for (Size size : sizes) {
+            out.writeShort(size.getWidth());
+            out.writeShort(size.getHeight());
+        }
+    }
+
+    private static List<Size> readSizes(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        List<Size> sizes = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            sizes.add(new Size(in.readUnsignedShort(), in.readUnsignedShort()));
+        }
+        return sizes;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings)
+            throws IOException {
+        out.writeShort(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+}
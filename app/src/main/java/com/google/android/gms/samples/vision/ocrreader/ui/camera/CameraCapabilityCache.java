@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.hardware.Camera;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the {@link CameraCapabilities} of the device's legacy cameras in a small file, so that
+ * they are queried from the camera only once rather than on every start.
+ * <p/>
+ * The file is tied to the build fingerprint, since a system update may change what the cameras
+ * report.  If the fingerprint doesn't match, or the file can't be read, the whole file is ignored
+ * and cameras are queried again.  The file is read lazily on the first lookup, and rewritten
+ * whenever a camera had to be queried:
+ * <pre>
+ * int magic, int version, UTF fingerprint, short cameraCount,
+ * then per camera: int cameraId, capabilities
+ * </pre>
+ */
+@SuppressWarnings("deprecation")
+final class CameraCapabilityCache {
+    private static final String TAG = "CameraCapabilityCache";
+
+    static final String FILE_NAME = "camera_capabilities.bin";
+
+    private static final int MAGIC = 0x43415053; // "CAPS"
+    private static final int VERSION = 2;
+
+    private final File file;
+    private final String fingerprint;
+
+    // Guarded by this.  Null until the file was read.
+    private SparseArray<CameraCapabilities> capabilities;
+
+    CameraCapabilityCache(File file) {
+        this(file, Build.FINGERPRINT);
+    }
+
+    CameraCapabilityCache(File file, String fingerprint) {
+        this.file = file;
+        this.fingerprint = (fingerprint != null) ? fingerprint : "";
+    }
+
+    /**
+     * Returns the capabilities of the given open camera, from the cache if they are known, or
+     * else queried from the camera and added to the cache.
+     */
+    synchronized CameraCapabilities get(int cameraId, Camera camera) {
+        if (capabilities == null) {
+            capabilities = load();
+        }
+
+        CameraCapabilities cached = capabilities.get(cameraId);
+        if (cached != null) {
+            return cached;
+        }
+
+        CameraCapabilities queried = CameraCapabilities.query(camera.getParameters());
+        capabilities.put(cameraId, queried);
+        save();
+        return queried;
+    }
+
+    /**
+     * Forgets the capabilities of the given camera, so that they're queried again on the next
+     * lookup.  Used when the camera rejected settings that were chosen from the cache.
+     */
+    synchronized void invalidate(int cameraId) {
+        if ((capabilities != null) && (capabilities.get(cameraId) != null)) {
+            capabilities.remove(cameraId);
+            save();
+        }
+    }
+
+    private SparseArray<CameraCapabilities> load() {
+        SparseArray<CameraCapabilities> loaded = new SparseArray<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                Log.d(TAG, "Ignoring camera capabilities in an unknown format.");
+                return loaded;
+            }
+            if (!fingerprint.equals(in.readUTF())) {
+                Log.d(TAG, "Ignoring camera capabilities from another build.");
+                return loaded;
+            }
+            int cameraCount = in.readUnsignedShort();
+            for (int i = 0; i < cameraCount; ++i) {
+                int cameraId = in.readInt();
+                loaded.put(cameraId, CameraCapabilities.read(in));
+            }
+            return loaded;
+        } catch (FileNotFoundException e) {
+            return loaded;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read camera capabilities, querying them again.", e);
+            return new SparseArray<>();
+        }
+    }
+
+    private void save() {
+        // Written next to the file and then renamed over it, so that a crash never leaves a
+        // partial file behind.
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(fingerprint);
+            out.writeShort(capabilities.size());
+            for (int i = 0; i < capabilities.size(); ++i) {
+                out.writeInt(capabilities.keyAt(i));
+                capabilities.valueAt(i).write(out);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write camera capabilities.", e);
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(file)) {
+            Log.w(TAG, "Could not replace " + file);
+            temporary.delete();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.hardware.Camera;
+
+/**
+ * Batches zoom, focus mode and flash mode changes for the legacy camera into transactions, each
+ * applied with a single {@link Camera#setParameters(Camera.Parameters)}.
+ * <p/>
+ * Requests only record the latest wanted value of each setting, and never touch the camera, so
+ * they are cheap enough for a pinch gesture that fires many times per frame.  The first request
+ * after a transaction was applied opens a new one, which the caller schedules to be applied no
+ * sooner than one frame interval after the previous one; all requests until then join it.
+ * <p/>
+ * The camera's parameters are fetched once when the camera is configured, and the same snapshot
+ * is modified and applied from then on, instead of being fetched again for every change.  All
+ * parameter changes for the camera must therefore go through this class, or they would be undone
+ * by the next transaction.  Where supported, zoom changes are made with smooth zoom instead, and
+ * other changes wait until the zoom has stopped, as the camera must not change its parameters
+ * while zooming.
+ */
+@SuppressWarnings("deprecation")
+final class CameraParameterUpdater {
+    private static final int NONE = -1;
+
+    private final Camera camera;
+    private final CameraCapabilities capabilities;
+    private final boolean smoothZoom;
+
+    // The parameters last applied to the camera.  Only used while holding the camera lock.
+    private final Camera.Parameters parameters;
+
+    // Guarded by this.  While zooming, a transaction that was due waits for the zoom to stop.
+    private boolean zooming;
+    private boolean waitingForZoom;
+    private int targetZoom;
+    private int pendingZoom = NONE;
+    private String pendingFocusMode;
+    private String pendingFlashMode;
+    private boolean transactionOpen;
+    private long frameIntervalMillis;
+    private long lastApplyMillis;
+
+    /**
+     * @param parameters the parameters that were just applied to the camera
+     */
+    CameraParameterUpdater(Camera camera, Camera.Parameters parameters,
+                           CameraCapabilities capabilities, long frameIntervalMillis) {
+        this.camera = camera;
+        this.capabilities = capabilities;
+        this.parameters = parameters;
+        this.smoothZoom = capabilities.isSmoothZoomSupported();
+        this.frameIntervalMillis = frameIntervalMillis;
+        targetZoom = capabilities.isZoomSupported() ? parameters.getZoom() : 0;
+    }
+
+    CameraCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Returns the zoom level that the camera is at, or will be at once pending changes are
+     * applied.
+     */
+    synchronized int getTargetZoom() {
+        return targetZoom;
+    }
+
+    /**
+     * Requests a zoom level.
+     *
+     * @return true if the request joined a transaction that is already scheduled, false if a new
+     * one was opened and needs to be scheduled with {@link #getApplyDelayMillis(long)}
+     */
+    synchronized boolean requestZoom(int zoom) {
+        targetZoom = zoom;
+        pendingZoom = zoom;
+        return joinTransaction();
+    }
+
+    /**
+     * Requests a focus mode, see {@link #requestZoom(int)}.
+     */
+    synchronized boolean requestFocusMode(String mode) {
+        pendingFocusMode = mode;
+        return joinTransaction();
+    }
+
+    /**
+     * Requests a flash mode, see {@link #requestZoom(int)}.
+     */
+    synchronized boolean requestFlashMode(String mode) {
+        pendingFlashMode = mode;
+        return joinTransaction();
+    }
+
+    /**
+     * Returns how long to wait before applying a newly opened transaction, so that transactions
+     * are at least a frame interval apart.
+     */
+    synchronized long getApplyDelayMillis(long nowMillis) {
+        return Math.max(0, lastApplyMillis + frameIntervalMillis - nowMillis);
+    }
+
+    /**
+     * Applies the pending changes to the camera.  Must be called while holding the camera lock.
+     *
+     * @return the number of calls made to the camera, 0 if nothing needed to change
+     */
+    int apply(long nowMillis) {
+        int zoom;
+        String focusMode;
+        String flashMode;
+        synchronized (this) {
+            if (zooming) {
+                // The transaction stays open and is applied once the zoom has stopped, see
+                // onZoomChange().  A new zoom target cuts the current zoom short.
+                waitingForZoom = true;
+                if (pendingZoom != NONE) {
+                    camera.stopSmoothZoom();
+                    return 1;
+                }
+                return 0;
+            }
+            transactionOpen = false;
+            lastApplyMillis = nowMillis;
+            zoom = pendingZoom;
+            focusMode = pendingFocusMode;
+            flashMode = pendingFlashMode;
+            pendingZoom = NONE;
+            pendingFocusMode = null;
+            pendingFlashMode = null;
+        }
+
+        int calls = 0;
+        boolean changed = false;
+        if ((focusMode != null) && !focusMode.equals(parameters.getFocusMode())) {
+            parameters.setFocusMode(focusMode);
+            changed = true;
+        }
+        if ((flashMode != null) && !flashMode.equals(parameters.getFlashMode())) {
+            parameters.setFlashMode(flashMode);
+            changed = true;
+        }
+        if ((zoom != NONE) && (zoom != parameters.getZoom()) && !smoothZoom) {
+            parameters.setZoom(zoom);
+            changed = true;
+        }
+        if (changed) {
+            camera.setParameters(parameters);
+            calls++;
+        }
+        if ((zoom != NONE) && (zoom != parameters.getZoom()) && smoothZoom) {
+            synchronized (this) {
+                zooming = true;
+            }
+            camera.startSmoothZoom(zoom);
+            calls++;
+        }
+        return calls;
+    }
+
+    /**
+     * Applies a preview frame rate range right away, and makes it the new frame interval.  Must be
+     * called while holding the camera lock.
+     */
+    void applyPreviewFpsRange(int[] range, long frameIntervalMillis) {
+        parameters.setPreviewFpsRange(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        camera.setParameters(parameters);
+        synchronized (this) {
+            this.frameIntervalMillis = frameIntervalMillis;
+        }
+    }
+
+    /**
+     * Tracks the progress of a smooth zoom.  Must be called while holding the camera lock.
+     *
+     * @return true if a transaction was waiting for the zoom to stop, and now needs to be
+     * scheduled
+     */
+    boolean onZoomChange(int zoom, boolean stopped) {
+        // The snapshot must follow the zoom, or the next transaction would jump back.
+        parameters.setZoom(zoom);
+        if (!stopped) {
+            return false;
+        }
+        synchronized (this) {
+            zooming = false;
+            if (!waitingForZoom) {
+                return false;
+            }
+            waitingForZoom = false;
+            return true;
+        }
+    }
+
+    private boolean joinTransaction() {
+        if (transactionOpen) {
+            return true;
+        }
+        transactionOpen = true;
+        return false;
+    }
+}
@@ -20,11 +20,16 @@ import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.SystemClock;
+import android.support.annotation.IntDef;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresPermission;
 import android.support.annotation.StringDef;
@@ -38,15 +43,17 @@ import com.google.android.gms.common.images.Size;
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.Thread.State;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 // Note: This requires Google Play Services 8.1 or higher, due to using indirect byte buffers for
 // storing images.
@@ -91,6 +98,55 @@ public class CameraSource {
      */
     private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
 
+    /**
+     * The fewest frame buffers the pipeline can run with: one for the frame that detection is
+     * running on, one for the next pending frame, and one for the camera to fill.
+     */
+    private static final int MIN_FRAME_BUFFER_COUNT = 3;
+
+    /**
+     * Downscaling by more than this leaves too few pixels for any text to be readable.
+     */
+    private static final int MAX_DOWNSCALE_FACTOR = 16;
+
+    /**
+     * Tiles smaller than this cut too many lines of text to be worth detecting separately.
+     */
+    private static final int MIN_TILE_SIZE = 256;
+
+    /**
+     * The Camera2 backend zooms continuously, so {@link #doZoom(float)} maps its digital zoom
+     * range onto this many integer levels, like the legacy camera's zoom levels.
+     */
+    private static final int CAMERA2_ZOOM_STEPS = 99;
+
+    /**
+     * Size of the blank frame that each detector is warmed up with before the first camera frame.
+     * The detector loads its models on the first frame it sees, whatever the size.
+     */
+    private static final int WARM_UP_FRAME_WIDTH = 320;
+    private static final int WARM_UP_FRAME_HEIGHT = 240;
+
+    /**
+     * Contrast enhancement off, frames are detected as the camera delivers them.
+     */
+    public static final int CONTRAST_NONE = ContrastStage.MODE_NONE;
+
+    /**
+     * Adaptive thresholding of the luma plane, which turns faded text black on white.
+     */
+    public static final int CONTRAST_BINARIZE = ContrastStage.MODE_BINARIZE;
+
+    /**
+     * Contrast limited adaptive histogram equalization of the luma plane, which brings out faded
+     * text while keeping gray levels.
+     */
+    public static final int CONTRAST_CLAHE = ContrastStage.MODE_CLAHE;
+
+    @IntDef({CONTRAST_NONE, CONTRAST_BINARIZE, CONTRAST_CLAHE})
+    @Retention(RetentionPolicy.SOURCE)
+    private @interface ContrastEnhancement {}
+
     @StringDef({
             Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE,
             Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO,
@@ -117,11 +173,53 @@ public class CameraSource {
 
     private final Object cameraLock = new Object();
 
-    // Guarded by cameraLock
+    // Guarded by cameraLock.  Either the legacy camera or a frame source is open.  The frame
+    // source is also referenced by its specific type, as camera2 or replay, while it's open.
     private Camera camera;
+    private FrameSource frameSource;
+    private Camera2Backend camera2;
+    private ReplayFrameSource replay;
+
+    private boolean useCamera2 = false;
+
+    // Recording to play back instead of opening a camera, if any.
+    private File replayRecording;
+    private boolean replayRealTime;
+
+    // Records camera frames to a file while set.
+    private volatile FrameRecorder frameRecorder;
+
+    // Zoom level of the Camera2 backend, out of CAMERA2_ZOOM_STEPS.  Guarded by cameraLock.
+    private int camera2Zoom = 0;
+
+    // Thread that asynchronous starts and stops run on, in the order they were requested, created
+    // on the first of them.  Legacy camera callbacks are delivered on it too.  Guarded by
+    // controlLock, which may be taken while holding cameraLock but not the other way around.
+    private final Object controlLock = new Object();
+    private HandlerThread controlThread;
+    private Handler controlHandler;
+
+    // Incremented by every stop, so that an asynchronous start that was requested before the stop
+    // doesn't open the camera after it.
+    private final AtomicInteger startGeneration = new AtomicInteger();
+
+    // Asynchronous stops that haven't completed yet, which a synchronous start waits for.
+    private final AtomicInteger pendingStops = new AtomicInteger();
+    private volatile boolean released;
 
     private int mFacing = CAMERA_FACING_BACK;
 
+    // What the legacy cameras support, kept across starts and processes.  The capabilities of the
+    // open legacy camera are guarded by cameraLock.
+    private CameraCapabilityCache capabilityCache;
+    private CameraCapabilities capabilities;
+
+    // Batches zoom, focus and flash changes of the open legacy camera.  Replaced while holding
+    // cameraLock, but read without it, so that these changes never wait for the camera.
+    private volatile CameraParameterUpdater parameterUpdater;
+    private final AtomicLong parameterUpdatesApplied = new AtomicLong();
+    private final AtomicLong parameterUpdatesCoalesced = new AtomicLong();
+
     /**
      * Rotation of the device, and thus the associated preview images captured from the device.
      * See {@link Frame.Metadata#getRotation()}.
@@ -130,16 +228,68 @@ public class CameraSource {
 
     private Size previewSize;
 
+    // The still picture size set on the legacy camera, if any.
+    private Size pictureSize;
+
     // These values may be requested by the caller.  Due to hardware limitations, we may need to
     // select close, but not exactly the same values for these.
     private float requestedFps = 30.0f;
     private int requestedPreviewWidth = 1024;
     private int requestedPreviewHeight = 768;
 
+    // If set, the preview size and frame rate range are selected for a detection throughput, using
+    // the detector speed measured on earlier runs.
+    private PreviewSizeSelector previewSizeSelector;
+    private DetectorCalibration detectorCalibration;
+
+    // If set, the frame rate is adapted between this and the requested frame rate at runtime.
+    private float minimumAdaptiveFps = 0;
+    private FrameRateGovernor fpsGovernor;
+
+    // Guarded by cameraLock
+    private int[] previewFpsRange;
+
+    // Region of the upright frame to detect on, or null to detect on the whole frame.
+    private final AtomicReference<Rect> regionOfInterest = new AtomicReference<>();
+
+    // Frames are downscaled before detection by the fixed factor if set, or else to the width.
+    private int downscaleFactor = 0;
+    private int detectionWidth = 0;
+
+    // How the results of each recent frame map back to the full frame, as the frame was cropped
+    // and scaled when it reached the detector.
+    private final FrameTransformHistory frameTransforms = new FrameTransformHistory();
+
+    // Threshold and counters for skipping detection on unchanged frames.
+    private final FrameChangeGate.Settings frameChangeSettings = new FrameChangeGate.Settings();
+
+    // Frame counters and latency histograms, recorded without locking or allocating.
+    private final AtomicLong framesDelivered = new AtomicLong();
+    private final AtomicLong framesOverwritten = new AtomicLong();
+    private final LatencyHistogram detectorLatency = new LatencyHistogram();
+    private final LatencyHistogram cameraToOverlayLatency = new LatencyHistogram();
+
+    // Threshold, counters and scores for focus quality, if frames are scored at all.
+    private final SharpnessStage.Settings sharpnessSettings = new SharpnessStage.Settings();
+    private boolean sharpnessScoring = false;
+
+    // Contrast enhancement applied to frames right before detection.
+    private final ContrastStage.Settings contrastSettings = new ContrastStage.Settings();
 
     private String focusMode = null;
     private String flashMode = null;
 
+    private int frameBufferCount = 4;
+
+    // Set if the builder's detector has already seen a frame, and so needn't be warmed up.
+    private boolean detectorWarmedUp = false;
+
+    // Set only when detection is spread over several worker threads.
+    private ParallelDetector<?> parallelDetector;
+
+    // Set only when frames are detected as tiles.
+    private TiledDetector<?> tiledDetector;
+
     // These instances need to be held onto to avoid GC of their underlying resources.  Even though
     // these aren't used outside of the method that creates them, they still must have hard
     // references maintained to them.
@@ -147,23 +297,36 @@ public class CameraSource {
     private SurfaceTexture dummySurfaceTexture;
 
     /**
-     * Dedicated thread and associated runnable for calling into the detector with frames, as the
-     * frames become available from the camera.
+     * Dedicated threads and associated runnable for calling into the detector with frames, as the
+     * frames become available from the camera.  There is a single thread unless a detector
+     * parallelism was requested.
      */
-    private Thread processingThread;
+    private Thread[] processingThreads;
     private FrameProcessingRunnable frameProcessor;
 
     /**
-     * Map to convert between a byte array, received from the camera, and its associated byte
-     * buffer.  We use byte buffers internally because this is a more efficient way to call into
-     * native code later (avoids a potential copy).
+     * Preview frame buffers, shared between the camera and the frame processor.  These are kept
+     * across {@link #stop()} and {@link #start()} as long as the preview size doesn't change, and
+     * are only freed on {@link #release()}.
      */
-    private Map<byte[], ByteBuffer> bytesToByteBuffer = new HashMap<>();
+    private final FrameBufferPool frameBuffers = new FrameBufferPool();
 
     //==============================================================================================
     // Builder
     //==============================================================================================
 
+    /**
+     * Creates additional detector instances for running detection on several frames in parallel.
+     * See {@link Builder#setDetectorParallelism(int, DetectorFactory, Detector.Processor)}.
+     */
+    public interface DetectorFactory<T> {
+        /**
+         * Creates a new detector, configured the same way as the one given to the builder.  The
+         * detector's own processor, if any, is not used.
+         */
+        Detector<T> create();
+    }
+
     /**
      * Builder for configuring and creating an associated camera source.
      */
@@ -171,6 +334,13 @@ public class CameraSource {
         private final Detector<?> detector;
         private CameraSource cameraSource = new CameraSource();
 
+        // Set if the preview size is selected for a throughput target.
+        private int minTextHeightPixels = 0;
+        private float smallestTextFraction = 0;
+
+        // Name the detector's measured speed is kept under, or null for the detector's class.
+        private String detectorName;
+
         /**
          * Creates a camera source builder with the supplied context and detector.  Camera preview
          * images will be streamed to the associated detector upon starting the camera source.
@@ -185,6 +355,8 @@ public class CameraSource {
 
             this.detector = detector;
             cameraSource.context = context;
+            cameraSource.capabilityCache = new CameraCapabilityCache(
+                    new File(context.getCacheDir(), CameraCapabilityCache.FILE_NAME));
         }
 
         /**
@@ -228,6 +400,290 @@ public class CameraSource {
             return this;
         }
 
+        /**
+         * Selects the preview size and frame rate range from what detection needs, instead of
+         * from {@link #setRequestedPreviewSize(int, int)}.  The smallest preview size is picked on
+         * which the smallest text is still {@code minTextHeightPixels} tall once downscaled for
+         * detection, and on which the detector can keep up with {@code detectionFps}.  The
+         * detector's speed is measured while running and remembered for the next start, so the
+         * first start on a device only takes the text height into account.  This also sets the
+         * requested frame rate to {@code detectionFps}.
+         *
+         * @param detectionFps         the rate at which frames should go through detection
+         * @param minTextHeightPixels  how tall text must be, in pixels of the detected frame, to be
+         *                             recognized reliably
+         * @param smallestTextFraction how tall the smallest text to read appears in the preview,
+         *                             as a fraction of its shorter side
+         */
+        public Builder setThroughputTarget(float detectionFps, int minTextHeightPixels,
+                                           float smallestTextFraction) {
+            if (detectionFps <= 0) {
+                throw new IllegalArgumentException("Invalid detection fps: " + detectionFps);
+            }
+            if (minTextHeightPixels <= 0) {
+                throw new IllegalArgumentException(
+                        "Invalid minimum text height: " + minTextHeightPixels);
+            }
+            if ((smallestTextFraction <= 0) || (smallestTextFraction > 1)) {
+                throw new IllegalArgumentException(
+                        "Invalid smallest text fraction: " + smallestTextFraction);
+            }
+            cameraSource.requestedFps = detectionFps;
+            this.minTextHeightPixels = minTextHeightPixels;
+            this.smallestTextFraction = smallestTextFraction;
+            return this;
+        }
+
+        /**
+         * Names the detector whose speed {@link #setThroughputTarget(float, int, float)} measures
+         * and remembers for the next start.  Set this when a detector class can run at different
+         * speeds, such as one that wraps different OCR engines, so that each keeps its own
+         * measurement.  Default: the detector's class name.
+         */
+        public Builder setDetectorName(String detectorName) {
+            if ((detectorName == null) || detectorName.isEmpty()) {
+                throw new IllegalArgumentException("No detector name supplied.");
+            }
+            this.detectorName = detectorName;
+            return this;
+        }
+
+        /**
+         * Tells that the detector given to this builder has already been run on a frame, such as
+         * a recognizer warmed up while the camera permission was being asked for, so that the
+         * camera source doesn't warm it up again with a blank frame before the first camera frame.
+         * Detectors created by a factory for parallel or tiled detection are still warmed up.
+         * Default: false, and every detector is warmed up.
+         */
+        public Builder setDetectorWarmedUp(boolean warmedUp) {
+            cameraSource.detectorWarmedUp = warmedUp;
+            return this;
+        }
+
+        /**
+         * Uses the Camera2 API instead of the legacy camera API, on devices which have it.  Frames
+         * are read from an {@link android.media.ImageReader} and reach the detector with less
+         * copying on devices where the legacy API is emulated on top of Camera2.  Picture taking
+         * and explicit auto focus are only supported with the legacy API.  Default: false.
+         */
+        public Builder setUseCamera2(boolean useCamera2) {
+            if (useCamera2 && (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)) {
+                Log.w(TAG, "Camera2 is not available, using the legacy camera API.");
+                useCamera2 = false;
+            }
+            cameraSource.useCamera2 = useCamera2;
+            return this;
+        }
+
+        /**
+         * Plays back a raw frame recording instead of opening a camera, so that the detection
+         * pipeline can be run and measured without a device camera.  Frames are either paced by
+         * their recorded timestamps, dropping frames like a live camera if the detector can't keep
+         * up, or played as fast as the detector takes them without dropping any.  Use
+         * {@link CameraSource#awaitReplay(long)} to wait for the end of the recording.
+         *
+         * @param recording the recording file
+         * @param realTime  true to pace frames by their timestamps
+         */
+        public Builder setReplayRecording(File recording, boolean realTime) {
+            if (recording == null) {
+                throw new IllegalArgumentException("No recording supplied.");
+            }
+            cameraSource.replayRecording = recording;
+            cameraSource.replayRealTime = realTime;
+            return this;
+        }
+
+        /**
+         * Lets the camera frame rate follow what the detector can actually keep up with, anywhere
+         * between {@code minFps} and the requested frame rate.  The detection latency and the
+         * number of dropped frames are measured while running, and the camera's preview frame rate
+         * range is re-selected when they show that the camera is producing frames that would only
+         * be thrown away.  Default: disabled, the camera runs at the requested frame rate.
+         */
+        public Builder setAdaptiveFps(float minFps) {
+            if (minFps <= 0) {
+                throw new IllegalArgumentException("Invalid minimum fps: " + minFps);
+            }
+            cameraSource.minimumAdaptiveFps = minFps;
+            return this;
+        }
+
+        /**
+         * Restricts detection to a region of the camera frames, given in upright frame
+         * coordinates like the detection results.  Frames are cropped to the region before
+         * detection, which makes detection faster, and detection results are relative to the
+         * region.  Use {@link CameraSource#getFrameTransform(int)} to map them back.  Default:
+         * null, detection runs on the whole frame.
+         */
+        public Builder setRegionOfInterest(@Nullable Rect region) {
+            cameraSource.setRegionOfInterest(region);
+            return this;
+        }
+
+        /**
+         * Downscales frames by the given integer factor before detection, averaging each block of
+         * factor x factor pixels.  Detection results are relative to the downscaled frames.  Use
+         * {@link CameraSource#getFrameTransform(int)} to map them back.  Default: 1, no
+         * downscaling.
+         */
+        public Builder setDownscaleFactor(int factor) {
+            if ((factor <= 0) || (factor > MAX_DOWNSCALE_FACTOR)) {
+                throw new IllegalArgumentException("Invalid downscale factor: " + factor);
+            }
+            cameraSource.downscaleFactor = factor;
+            cameraSource.detectionWidth = 0;
+            return this;
+        }
+
+        /**
+         * Downscales frames before detection by the integer factor which brings the width of the
+         * upright frame (after cropping to the region of interest, if any) closest to, but not
+         * below, the given width.  This replaces any fixed downscale factor.  Default: 0, no
+         * downscaling.
+         */
+        public Builder setDetectionWidth(int width) {
+            if (width < 0) {
+                throw new IllegalArgumentException("Invalid detection width: " + width);
+            }
+            cameraSource.detectionWidth = width;
+            cameraSource.downscaleFactor = 0;
+            return this;
+        }
+
+        /**
+         * Skips detection on frames which hardly differ from the last detected frame, in which case
+         * the detector's processor keeps the previous result.  Frames are compared through a coarse
+         * grid of mean luma values, and count as unchanged if the mean absolute difference of the
+         * grid is below the given threshold, in luma levels from 0 to 255.  A threshold of around 2
+         * tolerates sensor noise but catches a moving receipt.  Default: 0, every frame is
+         * detected.
+         */
+        public Builder setStaticSceneThreshold(float threshold) {
+            cameraSource.setStaticSceneThreshold(threshold);
+            return this;
+        }
+
+        /**
+         * Scores the focus quality of every frame, and skips detection on frames scoring below the
+         * given minimum.  The score is the variance of the Laplacian of the luma plane, which is in
+         * the hundreds or more for sharp text and falls towards zero with blur.  The score of a
+         * frame can be looked up with {@link CameraSource#getFrameSharpness(int)}.  A minimum of 0
+         * only scores frames.  Default: frames are not scored.
+         */
+        public Builder setMinimumSharpness(float minSharpness) {
+            if (minSharpness < 0) {
+                throw new IllegalArgumentException("Invalid minimum sharpness: " + minSharpness);
+            }
+            cameraSource.sharpnessSettings.minSharpness = minSharpness;
+            cameraSource.sharpnessScoring = true;
+            return this;
+        }
+
+        /**
+         * Enhances the contrast of frames before detection, which helps with faded prints such as
+         * thermal paper receipts.  Only the luma plane is changed, after any cropping and
+         * downscaling.  Default: {@link CameraSource#CONTRAST_NONE}.
+         */
+        public Builder setContrastEnhancement(@ContrastEnhancement int mode) {
+            cameraSource.setContrastEnhancement(mode);
+            return this;
+        }
+
+        /**
+         * Sets the number of preview frame buffers shared between the camera and the detector.
+         * More buffers let the camera keep delivering frames while detection is busy, at the cost
+         * of one full preview frame of memory each.  Default: 4.
+         */
+        public Builder setFrameBufferCount(int count) {
+            if ((count < MIN_FRAME_BUFFER_COUNT) || (count > FrameBufferPool.MAX_BUFFERS)) {
+                throw new IllegalArgumentException("Invalid frame buffer count: " + count);
+            }
+            cameraSource.frameBufferCount = count;
+            return this;
+        }
+
+        /**
+         * Runs detection on up to {@code parallelism} frames at once, each on its own thread with
+         * its own detector instance.  The detector given to this builder is used by the first
+         * worker, and the factory creates the rest, so they must all detect the same item type.
+         * <p/>
+         * In this mode the detectors' processors are bypassed.  Instead, results are handed to the
+         * supplied processor in frame id order, from whichever worker finished the most recent
+         * frame; results which arrive after a newer frame's results are dropped.  Default: 1, in
+         * which case frames are passed directly to the builder's detector.
+         */
+        public <T> Builder setDetectorParallelism(int parallelism, DetectorFactory<T> factory,
+                                                  Detector.Processor<T> processor) {
+            if ((parallelism <= 0) ||
+                    (parallelism > FrameBufferPool.MAX_BUFFERS - MIN_FRAME_BUFFER_COUNT)) {
+                throw new IllegalArgumentException("Invalid detector parallelism: " + parallelism);
+            }
+            cameraSource.tiledDetector = null;
+            if (parallelism == 1) {
+                cameraSource.parallelDetector = null;
+                return this;
+            }
+            if ((factory == null) || (processor == null)) {
+                throw new IllegalArgumentException("No detector factory or processor supplied.");
+            }
+
+            cameraSource.parallelDetector = new ParallelDetector<>(
+                    createDetectors(parallelism, factory), processor);
+            return this;
+        }
+
+        /**
+         * Detects each frame as a grid of overlapping tiles of at most {@code tileSize} pixels
+         * square, for frames too large to detect at once in reasonable time, such as full
+         * resolution frames of a long receipt.  Up to {@code parallelism} tiles are detected at
+         * once, each on its own thread with its own detector instance.  The detector given to this
+         * builder is used by the first thread, and the factory creates the rest.  This replaces
+         * {@link #setDetectorParallelism(int, DetectorFactory, Detector.Processor)}, since the
+         * tiles of one frame already keep all threads busy.
+         * <p/>
+         * In this mode the detectors' processors are bypassed.  Instead, the items of all tiles
+         * are handed to the supplied processor as one result per frame, each with its bounding box
+         * translated to the whole frame, and with duplicates found in the overlap of two tiles
+         * merged.  The adapter tells the position and text of items, which duplicates are found
+         * by.  Default: frames are detected whole.
+         */
+        public <T> Builder setTiledDetection(int tileSize, int parallelism,
+                                             DetectorFactory<T> factory,
+                                             TileItem.Adapter<T> adapter,
+                                             Detector.Processor<TileItem<T>> processor) {
+            if (tileSize < MIN_TILE_SIZE) {
+                throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+            }
+            if (parallelism <= 0) {
+                throw new IllegalArgumentException("Invalid tile parallelism: " + parallelism);
+            }
+            if (((parallelism > 1) && (factory == null)) || (adapter == null) ||
+                    (processor == null)) {
+                throw new IllegalArgumentException(
+                        "No detector factory, item adapter or processor supplied.");
+            }
+
+            cameraSource.parallelDetector = null;
+            cameraSource.tiledDetector = new TiledDetector<>(
+                    createDetectors(parallelism, factory), adapter, processor, tileSize);
+            return this;
+        }
+
+        /**
+         * Returns the builder's detector followed by as many new ones from the factory as needed
+         * to make up the given number.
+         */
+        @SuppressWarnings("unchecked")
+        private <T> List<Detector<T>> createDetectors(int count, DetectorFactory<T> factory) {
+            List<Detector<T>> detectors = new ArrayList<>(count);
+            detectors.add((Detector<T>) detector);
+            for (int i = 1; i < count; ++i) {
+                detectors.add(factory.create());
+            }
+            return detectors;
+        }
+
         /**
          * Sets the camera to use (either {@link #CAMERA_FACING_BACK} or
          * {@link #CAMERA_FACING_FRONT}). Default: back facing.
@@ -244,7 +700,21 @@ public class CameraSource {
          * Creates an instance of the camera source.
          */
         public CameraSource build() {
-            cameraSource.frameProcessor = cameraSource.new FrameProcessingRunnable(detector);
+            cameraSource.frameProcessor = cameraSource.new FrameProcessingRunnable(detector,
+                    cameraSource.parallelDetector, cameraSource.tiledDetector);
+            if (cameraSource.minimumAdaptiveFps > 0) {
+                cameraSource.fpsGovernor = new FrameRateGovernor(cameraSource.minimumAdaptiveFps,
+                        cameraSource.requestedFps, cameraSource.frameProcessor.getWorkerCount());
+            }
+            if (minTextHeightPixels > 0) {
+                cameraSource.detectorCalibration = new DetectorCalibration(
+                        cameraSource.context.getCacheDir(),
+                        (detectorName != null) ? detectorName : detector.getClass().getName());
+                cameraSource.previewSizeSelector = new PreviewSizeSelector(
+                        cameraSource.requestedFps, minTextHeightPixels, smallestTextFraction,
+                        cameraSource.frameProcessor.getWorkerCount(), cameraSource.downscaleFactor,
+                        cameraSource.detectionWidth, cameraSource.detectorCalibration);
+            }
             return cameraSource;
         }
     }
@@ -253,6 +723,23 @@ public class CameraSource {
     // Bridge Functionality for the Camera1 API
     //==============================================================================================
 
+    /**
+     * Callback interface used to signal the outcome of {@link #startAsync(SurfaceHolder,
+     * StartCallback)}.  Both methods are called on the main thread.
+     */
+    public interface StartCallback {
+        /**
+         * Called once the camera is open and sending preview frames, so that the preview size is
+         * known.
+         */
+        void onStarted(CameraSource cameraSource);
+
+        /**
+         * Called if the camera could not be opened or configured.
+         */
+        void onStartFailed(Exception e);
+    }
+
     /**
      * Callback interface used to signal the moment of actual image capture.
      */
@@ -320,9 +807,43 @@ public class CameraSource {
      * Stops the camera and releases the resources of the camera and underlying detector.
      */
     public void release() {
+        released = true;
+        stopFrameRecording();
         synchronized (cameraLock) {
             stop();
             frameProcessor.release();
+            frameBuffers.clear();
+
+            synchronized (controlLock) {
+                if (controlThread != null) {
+                    // Not joined, since this may be running on it, or it may be waiting for the
+                    // camera lock to deliver a frame.
+                    controlThread.quitSafely();
+                    controlThread = null;
+                    controlHandler = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases this camera source like {@link #release()}, but on a background thread, after any
+     * start or stop requested before it.  Returns immediately, without waiting for detection of
+     * the current frame to finish.  Nothing can be started anymore once this was called.
+     */
+    public void releaseAsync() {
+        startGeneration.incrementAndGet();
+        boolean posted = postControl(new Runnable() {
+            @Override
+            public void run() {
+                release();
+            }
+        });
+        // Set after posting, since posting fails once released.  A start posted in between is
+        // still abandoned, since it runs after the release.
+        released = true;
+        if (!posted) {
+            Log.d(TAG, "Camera source already released.");
         }
     }
 
@@ -334,27 +855,40 @@ public class CameraSource {
      */
     @RequiresPermission(Manifest.permission.CAMERA)
     public CameraSource start() throws IOException {
+        awaitPendingStops();
         synchronized (cameraLock) {
-            if (camera != null) {
+            if ((camera != null) || (frameSource != null)) {
                 return this;
             }
 
-            camera = createCamera();
+            // The processing threads are started first, so that they warm up the detector while
+            // the camera is being opened.
+            startProcessingThreads();
+            try {
+                if (replayRecording != null) {
+                    startReplay();
+                    return this;
+                } else if (useCamera2) {
+                    frameSource = camera2 = createCamera2(null);
+                    return this;
+                }
 
-            // SurfaceTexture was introduced in Honeycomb (11), so if we are running and
-            // old version of Android. fall back to use SurfaceView.
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                dummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
-                camera.setPreviewTexture(dummySurfaceTexture);
-            } else {
-                dummySurfaceView = new SurfaceView(context);
-                camera.setPreviewDisplay(dummySurfaceView.getHolder());
-            }
-            camera.startPreview();
+                camera = createCamera();
 
-            processingThread = new Thread(frameProcessor);
-            frameProcessor.setActive(true);
-            processingThread.start();
+                // SurfaceTexture was introduced in Honeycomb (11), so if we are running and
+                // old version of Android. fall back to use SurfaceView.
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    dummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
+                    camera.setPreviewTexture(dummySurfaceTexture);
+                } else {
+                    dummySurfaceView = new SurfaceView(context);
+                    camera.setPreviewDisplay(dummySurfaceView.getHolder());
+                }
+                camera.startPreview();
+            } catch (IOException | RuntimeException e) {
+                stopCamera();
+                throw e;
+            }
         }
         return this;
     }
@@ -368,22 +902,77 @@ public class CameraSource {
      */
     @RequiresPermission(Manifest.permission.CAMERA)
     public CameraSource start(SurfaceHolder surfaceHolder) throws IOException {
+        awaitPendingStops();
         synchronized (cameraLock) {
-            if (camera != null) {
+            if ((camera != null) || (frameSource != null)) {
                 return this;
             }
 
-            camera = createCamera();
-            camera.setPreviewDisplay(surfaceHolder);
-            camera.startPreview();
-
-            processingThread = new Thread(frameProcessor);
-            frameProcessor.setActive(true);
-            processingThread.start();
+            startProcessingThreads();
+            try {
+                if (replayRecording != null) {
+                    // Recorded frames are only detected, not displayed.
+                    startReplay();
+                } else if (useCamera2) {
+                    frameSource = camera2 = createCamera2(surfaceHolder);
+                } else {
+                    camera = createCamera();
+                    camera.setPreviewDisplay(surfaceHolder);
+                    camera.startPreview();
+                }
+            } catch (IOException | RuntimeException e) {
+                stopCamera();
+                throw e;
+            }
         }
         return this;
     }
 
+    /**
+     * Opens the camera and starts sending preview frames to the underlying detector like
+     * {@link #start(SurfaceHolder)}, but on a background thread, so that opening and configuring
+     * the camera doesn't block the calling thread.  The detector is warmed up with a blank frame
+     * in the meantime.
+     * <p/>
+     * The callback is called on the main thread once the camera has started or failed to.  If
+     * this camera source is stopped before the background thread got to open the camera, the start
+     * is abandoned and the callback is not called.  A start requested after
+     * {@link #stopAsync()} runs once that stop has completed.
+     *
+     * @param surfaceHolder the surface holder to use for the preview frames, or null to not
+     *                      display them, like {@link #start()}
+     * @param callback      called with the outcome, may be null
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public void startAsync(@Nullable final SurfaceHolder surfaceHolder,
+                           @Nullable final StartCallback callback) {
+        final int generation = startGeneration.get();
+        postControl(new Runnable() {
+            @Override
+            public void run() {
+                Exception error = null;
+                synchronized (cameraLock) {
+                    if (released || (generation != startGeneration.get())) {
+                        Log.d(TAG, "Camera source stopped before it was started.");
+                        return;
+                    }
+                    try {
+                        if (surfaceHolder != null) {
+                            start(surfaceHolder);
+                        } else {
+                            start();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        error = e;
+                    }
+                }
+                if (callback != null) {
+                    postStartResult(callback, error);
+                }
+            }
+        });
+    }
+
     /**
      * Closes the camera and stops sending frames to the underlying frame detector.
      * <p/>
@@ -394,24 +983,64 @@ public class CameraSource {
      * resources of the underlying detector.
      */
     public void stop() {
+        startGeneration.incrementAndGet();
+        stopCamera();
+    }
+
+    /**
+     * Stops this camera source like {@link #stop()}, but on a background thread, so that the
+     * calling thread doesn't wait for detection of the current frame to finish.  Returns
+     * immediately.  An asynchronous start that is still queued is abandoned, and any start
+     * requested afterwards, synchronous or not, only opens the camera once this stop completed.
+     */
+    public void stopAsync() {
+        startGeneration.incrementAndGet();
+        pendingStops.incrementAndGet();
+        boolean posted = postControl(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stopCamera();
+                } finally {
+                    pendingStops.decrementAndGet();
+                }
+            }
+        });
+        if (!posted) {
+            pendingStops.decrementAndGet();
+        }
+    }
+
+    /**
+     * Does the work of {@link #stop()}, without abandoning queued asynchronous starts.
+     */
+    private void stopCamera() {
         synchronized (cameraLock) {
             frameProcessor.setActive(false);
-            if (processingThread != null) {
-                try {
-                    // Wait for the thread to complete to ensure that we can't have multiple threads
-                    // executing at the same time (i.e., which would happen if we called start too
-                    // quickly after stop).
-                    processingThread.join();
-                } catch (InterruptedException e) {
-                    Log.d(TAG, "Frame processing thread interrupted on release.");
+            if (parallelDetector != null) {
+                // Results that finish while the workers are stopping belong to the old session.
+                parallelDetector.reset();
+            }
+            if (processingThreads != null) {
+                for (Thread processingThread : processingThreads) {
+                    try {
+                        // Wait for the thread to complete to ensure that we can't have multiple
+                        // threads executing at the same time (i.e., which would happen if we
+                        // called start too quickly after stop).
+                        processingThread.join();
+                    } catch (InterruptedException e) {
+                        Log.d(TAG, "Frame processing thread interrupted on release.");
+                    }
                 }
-                processingThread = null;
+                processingThreads = null;
             }
 
-            // clear the buffer to prevent oom exceptions
-            bytesToByteBuffer.clear();
+            if (detectorCalibration != null) {
+                detectorCalibration.save();
+            }
 
             if (camera != null) {
+                parameterUpdater = null;
                 camera.stopPreview();
                 camera.setPreviewCallbackWithBuffer(null);
                 try {
@@ -433,7 +1062,71 @@ public class CameraSource {
                 camera.release();
                 camera = null;
             }
+
+            if (frameSource != null) {
+                frameSource.close();
+                frameSource = null;
+                camera2 = null;
+                replay = null;
+            }
+
+            // The frame buffers are deliberately kept, so that a restart with the same preview size
+            // doesn't need to reallocate them.  Only a pending frame needs to be forgotten, as it
+            // was queued by the camera that has just been released.
+            frameProcessor.clearPendingFrame();
+        }
+    }
+
+    /**
+     * Starts recording camera frames into a fixed-size ring file, which can later be played back
+     * with {@link Builder#setReplayRecording(File, boolean)}.  Once the ring is full, the oldest
+     * frames are overwritten.  Frames are written on a background thread, and are left out of the
+     * recording if the writer falls behind, so recording never slows down the camera.  Any
+     * recording in progress is stopped first.
+     *
+     * @param file          the file to record into, which is replaced
+     * @param slotCount     the number of frames the file holds
+     * @param frameInterval record every this many frames, 1 to record all of them
+     */
+    public void startFrameRecording(File file, int slotCount, int frameInterval) {
+        if (file == null) {
+            throw new IllegalArgumentException("No recording file supplied.");
+        }
+        if (slotCount <= 0) {
+            throw new IllegalArgumentException("Invalid slot count: " + slotCount);
+        }
+        if (frameInterval <= 0) {
+            throw new IllegalArgumentException("Invalid frame interval: " + frameInterval);
+        }
+        stopFrameRecording();
+        FrameRecorder recorder = new FrameRecorder(file, slotCount, frameInterval);
+        recorder.start();
+        frameRecorder = recorder;
+    }
+
+    /**
+     * Stops recording camera frames, and waits for the recorded frames to be written.
+     */
+    public void stopFrameRecording() {
+        FrameRecorder recorder = frameRecorder;
+        frameRecorder = null;
+        if (recorder != null) {
+            recorder.stop();
+        }
+    }
+
+    /**
+     * Waits until the recording set with {@link Builder#setReplayRecording(File, boolean)} has
+     * been played back completely, and every frame went through detection or was dropped.
+     *
+     * @return false if the timeout elapsed first, or if no recording is being played
+     */
+    public boolean awaitReplay(long timeoutMillis) throws InterruptedException {
+        ReplayFrameSource replay;
+        synchronized (cameraLock) {
+            replay = this.replay;
         }
+        return (replay != null) && replay.awaitFinished(timeoutMillis);
     }
 
     /**
@@ -443,6 +1136,190 @@ public class CameraSource {
         return previewSize;
     }
 
+    /**
+     * Returns the size of the pictures taken by {@link #takePicture}, in camera coordinates, or
+     * null if the camera doesn't take pictures.
+     */
+    public Size getPictureSize() {
+        return pictureSize;
+    }
+
+    /**
+     * Returns the rotation that turns camera frames upright, as one of the
+     * {@code Frame.ROTATION_*} constants.
+     */
+    int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * Returns the region of the upright frame that detection is restricted to, or null.
+     */
+    Rect getRegionOfInterest() {
+        return regionOfInterest.get();
+    }
+
+    /**
+     * Changes the region of the camera frames that detection runs on, in upright frame coordinates.
+     * This takes effect with the next frame.  See {@link Builder#setRegionOfInterest(Rect)}.
+     *
+     * @param region the region to detect on, or null to detect on the whole frame
+     */
+    public void setRegionOfInterest(@Nullable Rect region) {
+        regionOfInterest.set((region != null) ? new Rect(region) : null);
+    }
+
+    /**
+     * Changes the threshold for skipping detection on unchanged frames.  This takes effect with the
+     * next frame.  See {@link Builder#setStaticSceneThreshold(float)}.
+     */
+    public void setStaticSceneThreshold(float threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Invalid static scene threshold: " + threshold);
+        }
+        frameChangeSettings.threshold = threshold;
+    }
+
+    /**
+     * Changes the contrast enhancement applied to frames before detection.  This takes effect with
+     * the next frame.  See {@link Builder#setContrastEnhancement(int)}.
+     */
+    public void setContrastEnhancement(@ContrastEnhancement int mode) {
+        if ((mode != CONTRAST_NONE) && (mode != CONTRAST_BINARIZE) && (mode != CONTRAST_CLAHE)) {
+            throw new IllegalArgumentException("Invalid contrast enhancement: " + mode);
+        }
+        contrastSettings.mode = mode;
+    }
+
+    /**
+     * Returns the number of frames whose detection was skipped because they hardly differed from
+     * the last detected frame.
+     */
+    public long getStaticFramesSkipped() {
+        return frameChangeSettings.skippedFrames.get();
+    }
+
+    /**
+     * Returns the number of frames which differed enough from the last detected frame to be
+     * detected, while skipping unchanged frames is enabled.
+     */
+    public long getChangedFramesDetected() {
+        return frameChangeSettings.changedFrames.get();
+    }
+
+    /**
+     * Returns the focus quality score of a recent frame, as computed for
+     * {@link Builder#setMinimumSharpness(float)}, or NaN if the frame wasn't scored.  Frames are
+     * identified by the id in their metadata, see {@link Frame.Metadata#getId()}.
+     */
+    public float getFrameSharpness(int frameId) {
+        return sharpnessSettings.scores.get(frameId);
+    }
+
+    /**
+     * Returns the number of frames that were not detected because they were too blurry.
+     */
+    public long getBlurryFramesSkipped() {
+        return sharpnessSettings.blurryFrames.get();
+    }
+
+    /**
+     * Returns the number of tiles detected so far, if frames are detected as tiles.  See
+     * {@link Builder#setTiledDetection}.
+     */
+    public long getTilesDetected() {
+        return (tiledDetector != null) ? tiledDetector.getTilesDetected() : 0;
+    }
+
+    /**
+     * Returns the number of items dropped as duplicates of items in a neighboring tile, if frames
+     * are detected as tiles.
+     */
+    public long getTileDuplicatesMerged() {
+        return (tiledDetector != null) ? tiledDetector.getDuplicatesMerged() : 0;
+    }
+
+    /**
+     * Returns the transform from the coordinates of detection results to the coordinates of the
+     * full, upright camera frame, for frames cropped to the current region of interest.  This
+     * accounts for the region of interest and downscaling, and is only valid once the camera has
+     * been started.  Frames already on their way to the detector may have been cropped to an
+     * earlier region, so map results with {@link #getFrameTransform(int)} instead.
+     */
+    public FrameTransform getFrameTransform() {
+        Size size = previewSize;
+        if (size == null) {
+            return FrameTransform.IDENTITY;
+        }
+
+        Rect region = regionOfInterest.get();
+        int[] cropRect = new int[4];
+        if ((region == null) || !RegionCropStage.computeCropRect(region,
+                size.getWidth(), size.getHeight(), rotation, cropRect)) {
+            cropRect[0] = 0;
+            cropRect[1] = 0;
+            cropRect[2] = size.getWidth();
+            cropRect[3] = size.getHeight();
+        }
+
+        int factor = DownscaleStage.factorFor(cropRect[2] - cropRect[0],
+                cropRect[3] - cropRect[1], rotation, downscaleFactor, detectionWidth);
+        return FrameTransform.forRegion(cropRect, factor, size.getWidth(), size.getHeight(),
+                rotation);
+    }
+
+    /**
+     * Returns the transform from the coordinates of a recent frame's detection results to the
+     * coordinates of the full, upright camera frame, as the frame was cropped and scaled when it
+     * reached the detector.  Returns null if the frame never reached the detector or is too old.
+     * Frames are identified by the id in their metadata, see {@link Frame.Metadata#getId()}.
+     */
+    @Nullable
+    public FrameTransform getFrameTransform(int frameId) {
+        return frameTransforms.get(frameId);
+    }
+
+    /**
+     * Returns a snapshot of how the preview frame buffers are currently shared between the camera
+     * and the detector.
+     */
+    public FrameBufferStats getFrameBufferStats() {
+        return frameBuffers.getStats();
+    }
+
+    /**
+     * Returns a snapshot of the frame counters and latency percentiles since the camera source
+     * was created, or since the last {@link #resetFrameMetrics()}.  Taking a snapshot doesn't
+     * block frame processing.
+     */
+    public FrameMetrics getFrameMetrics() {
+        return new FrameMetrics(framesDelivered.get(), framesOverwritten.get(),
+                frameBuffers.getUnknownBufferCount(), detectorLatency.snapshot(),
+                cameraToOverlayLatency.snapshot());
+    }
+
+    /**
+     * Restarts the latency histograms and the frame counters of {@link #getFrameMetrics()}, for
+     * example before measuring a new configuration.  Unknown buffers are counted by the buffer
+     * pool, and are not reset.
+     */
+    public void resetFrameMetrics() {
+        framesDelivered.set(0);
+        framesOverwritten.set(0);
+        detectorLatency.reset();
+        cameraToOverlayLatency.reset();
+    }
+
+    /**
+     * Records that the results of the frame with the given metadata were handed to the overlay.
+     * Processors call this to measure the camera to overlay latency, since only they know when
+     * their results are shown.
+     */
+    public void recordOverlayUpdate(Frame.Metadata metadata) {
+        long latencyMillis = frameProcessor.getElapsedMillis() - metadata.getTimestampMillis();
+        cameraToOverlayLatency.recordNanos(latencyMillis * 1000000L);
+    }
+
     /**
      * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or
      * {@link #CAMERA_FACING_FRONT}.
@@ -451,39 +1328,63 @@ public class CameraSource {
         return mFacing;
     }
 
+    /**
+     * Zooms by a pinch gesture's scale factor.  With the legacy camera, the zoom is applied in the
+     * background together with other pending parameter changes, at most once per frame, so this
+     * can be called for every gesture event.
+     *
+     * @return the zoom level the camera is at, or is going to
+     */
     public int doZoom(float scale) {
-        synchronized (cameraLock) {
-            if (camera == null) {
-                return 0;
-            }
-            int currentZoom = 0;
-            int maxZoom;
-            Camera.Parameters parameters = camera.getParameters();
-            if (!parameters.isZoomSupported()) {
+        CameraParameterUpdater updater = parameterUpdater;
+        if (updater != null) {
+            if (!updater.getCapabilities().isZoomSupported()) {
                 Log.w(TAG, "Zoom is not supported on this device");
-                return currentZoom;
+                return 0;
             }
-            maxZoom = parameters.getMaxZoom();
+            int zoom = nextZoomLevel(updater.getTargetZoom(),
+                    updater.getCapabilities().getMaxZoom(), scale);
+            scheduleParameterUpdate(updater, updater.requestZoom(zoom));
+            return zoom;
+        }
 
-            currentZoom = parameters.getZoom() + 1;
-            float newZoom;
-            if (scale > 1) {
-                newZoom = currentZoom + scale * (maxZoom / 10);
-            } else {
-                newZoom = currentZoom * scale;
-            }
-            currentZoom = Math.round(newZoom) - 1;
-            if (currentZoom < 0) {
-                currentZoom = 0;
-            } else if (currentZoom > maxZoom) {
-                currentZoom = maxZoom;
+        synchronized (cameraLock) {
+            if (camera2 != null) {
+                if (camera2.getMaxZoom() <= 1.0f) {
+                    Log.w(TAG, "Zoom is not supported on this device");
+                    return 0;
+                }
+                int zoom = nextZoomLevel(camera2Zoom, CAMERA2_ZOOM_STEPS, scale);
+                float ratio = 1.0f + (camera2.getMaxZoom() - 1.0f) * zoom / CAMERA2_ZOOM_STEPS;
+                if (camera2.setZoom(ratio)) {
+                    camera2Zoom = zoom;
+                }
+                return camera2Zoom;
             }
-            parameters.setZoom(currentZoom);
-            camera.setParameters(parameters);
-            return currentZoom;
+            return 0;
         }
     }
 
+    /**
+     * Scales a zoom level out of {@code maxZoom} by a pinch gesture's scale factor.
+     */
+    private static int nextZoomLevel(int zoom, int maxZoom, float scale) {
+        int currentZoom = zoom + 1;
+        float newZoom;
+        if (scale > 1) {
+            newZoom = currentZoom + scale * (maxZoom / 10);
+        } else {
+            newZoom = currentZoom * scale;
+        }
+        currentZoom = Math.round(newZoom) - 1;
+        if (currentZoom < 0) {
+            currentZoom = 0;
+        } else if (currentZoom > maxZoom) {
+            currentZoom = maxZoom;
+        }
+        return currentZoom;
+    }
+
     /**
      * Initiates taking a picture, which happens asynchronously.  The camera source should have been
      * activated previously with {@link #start()} or {@link #start(SurfaceHolder)}.  The camera
@@ -492,16 +1393,26 @@ public class CameraSource {
      *
      * @param shutter the callback for image capture moment, or null
      * @param jpeg    the callback for JPEG image data, or null
+     * @return false if no picture can be taken, since the camera isn't open or is not a legacy
+     * camera, in which case neither callback is called
      */
-    public void takePicture(ShutterCallback shutter, PictureCallback jpeg) {
+    public boolean takePicture(ShutterCallback shutter, PictureCallback jpeg) {
         synchronized (cameraLock) {
-            if (camera != null) {
-                PictureStartCallback startCallback = new PictureStartCallback();
-                startCallback.mDelegate = shutter;
-                PictureDoneCallback doneCallback = new PictureDoneCallback();
-                doneCallback.mDelegate = jpeg;
+            if (camera == null) {
+                return false;
+            }
+            PictureStartCallback startCallback = new PictureStartCallback();
+            startCallback.mDelegate = shutter;
+            PictureDoneCallback doneCallback = new PictureDoneCallback();
+            doneCallback.mDelegate = jpeg;
+            try {
                 camera.takePicture(startCallback, null, null, doneCallback);
+            } catch (RuntimeException e) {
+                // Thrown if a picture is already being taken, or the preview isn't running.
+                Log.e(TAG, "Failed to take picture.", e);
+                return false;
             }
+            return true;
         }
     }
 
@@ -526,19 +1437,27 @@ public class CameraSource {
     }
 
     /**
-     * Sets the focus mode.
+     * Sets the focus mode.  With the legacy camera, the mode is applied in the background, see
+     * {@link #doZoom(float)}.
      *
      * @param mode the focus mode
      * @return {@code true} if the focus mode is set, {@code false} otherwise
      * @see #getFocusMode()
      */
     public boolean setFocusMode(@FocusMode String mode) {
+        CameraParameterUpdater updater = parameterUpdater;
+        if (updater != null && mode != null) {
+            if (updater.getCapabilities().isFocusModeSupported(mode)) {
+                scheduleParameterUpdate(updater, updater.requestFocusMode(mode));
+                focusMode = mode;
+                return true;
+            }
+            return false;
+        }
+
         synchronized (cameraLock) {
-            if (camera != null && mode != null) {
-                Camera.Parameters parameters = camera.getParameters();
-                if (parameters.getSupportedFocusModes().contains(mode)) {
-                    parameters.setFocusMode(mode);
-                    camera.setParameters(parameters);
+            if (camera2 != null && mode != null) {
+                if (camera2.isFocusModeSupported(mode) && camera2.setFocusMode(mode)) {
                     focusMode = mode;
                     return true;
                 }
@@ -566,19 +1485,27 @@ public class CameraSource {
     }
 
     /**
-     * Sets the flash mode.
+     * Sets the flash mode.  With the legacy camera, the mode is applied in the background, see
+     * {@link #doZoom(float)}.
      *
      * @param mode flash mode.
      * @return {@code true} if the flash mode is set, {@code false} otherwise
      * @see #getFlashMode()
      */
     public boolean setFlashMode(@FlashMode String mode) {
+        CameraParameterUpdater updater = parameterUpdater;
+        if (updater != null && mode != null) {
+            if (updater.getCapabilities().isFlashModeSupported(mode)) {
+                scheduleParameterUpdate(updater, updater.requestFlashMode(mode));
+                flashMode = mode;
+                return true;
+            }
+            return false;
+        }
+
         synchronized (cameraLock) {
-            if (camera != null && mode != null) {
-                Camera.Parameters parameters = camera.getParameters();
-                if (parameters.getSupportedFlashModes().contains(mode)) {
-                    parameters.setFlashMode(mode);
-                    camera.setParameters(parameters);
+            if (camera2 != null && mode != null) {
+                if (camera2.isFlashModeSupported(mode) && camera2.setFlashMode(mode)) {
                     flashMode = mode;
                     return true;
                 }
@@ -588,6 +1515,22 @@ public class CameraSource {
         }
     }
 
+    /**
+     * Returns the number of calls made to the legacy camera to apply zoom, focus mode and flash
+     * mode changes.
+     */
+    public long getParameterUpdatesApplied() {
+        return parameterUpdatesApplied.get();
+    }
+
+    /**
+     * Returns the number of zoom, focus mode and flash mode changes that joined an already
+     * scheduled update of the legacy camera's parameters, instead of needing one of their own.
+     */
+    public long getParameterUpdatesCoalesced() {
+        return parameterUpdatesCoalesced.get();
+    }
+
     /**
      * Starts camera auto-focus and registers a callback function to run when
      * the camera is focused.  This method is only valid when preview is active
@@ -643,34 +1586,186 @@ public class CameraSource {
      * @return {@code true} if the operation is supported (i.e. from Jelly Bean), {@code false}
      * otherwise
      */
-    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    public boolean setAutoFocusMoveCallback(@Nullable AutoFocusMoveCallback cb) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
-            return false;
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public boolean setAutoFocusMoveCallback(@Nullable AutoFocusMoveCallback cb) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return false;
+        }
+
+        synchronized (cameraLock) {
+            if (camera != null) {
+                CameraAutoFocusMoveCallback autoFocusMoveCallback = null;
+                if (cb != null) {
+                    autoFocusMoveCallback = new CameraAutoFocusMoveCallback();
+                    autoFocusMoveCallback.mDelegate = cb;
+                }
+                camera.setAutoFocusMoveCallback(autoFocusMoveCallback);
+            }
+        }
+
+        return true;
+    }
+
+    //==============================================================================================
+    // Private
+    //==============================================================================================
+
+    /**
+     * Only allow creation via the builder class.
+     */
+    private CameraSource() {
+    }
+
+    /**
+     * Creates the chain of stages that runs on each frame before detection.  Every detection
+     * worker gets its own chain, but all of them share the given change gate.
+     */
+    private FramePipeline createFramePipeline(FrameChangeGate changeGate) {
+        List<FrameStage> stages = new ArrayList<>();
+        stages.add(new RegionCropStage(regionOfInterest));
+        if (sharpnessScoring) {
+            // Blurry frames are dropped before the change gate, so that they never become its
+            // reference frame.
+            stages.add(new SharpnessStage(sharpnessSettings));
+        }
+        stages.add(changeGate);
+        if ((downscaleFactor > 1) || (detectionWidth > 0)) {
+            stages.add(new DownscaleStage(downscaleFactor, detectionWidth));
+        }
+        // Always present, as the mode can be switched on while running.  Enhancement runs last so
+        // that it only touches the pixels that are detected, and doesn't disturb the change gate.
+        stages.add(new ContrastStage(contrastSettings));
+        return new FramePipeline(stages.toArray(new FrameStage[stages.size()]));
+    }
+
+    /**
+     * Starts one processing thread per detection worker.  Must be called with the camera lock held.
+     */
+    private void startProcessingThreads() {
+        frameProcessor.setActive(true);
+        processingThreads = new Thread[frameProcessor.getWorkerCount()];
+        for (int i = 0; i < processingThreads.length; ++i) {
+            processingThreads[i] = new Thread(frameProcessor.createWorker(i));
+            processingThreads[i].start();
+        }
+    }
+
+    /**
+     * Runs the given task on the control thread, after every task posted before it, creating the
+     * thread if needed.
+     *
+     * @return false if this camera source was already released, so the task won't run
+     */
+    private boolean postControl(Runnable task) {
+        return postControl(task, 0);
+    }
+
+    /**
+     * Runs the given task on the control thread after the given delay, creating the thread if
+     * needed.
+     *
+     * @return false if this camera source was already released, so the task won't run
+     */
+    private boolean postControl(Runnable task, long delayMillis) {
+        synchronized (controlLock) {
+            if (controlThread == null) {
+                if (released) {
+                    return false;
+                }
+                controlThread = new HandlerThread("CameraSource");
+                controlThread.start();
+                controlHandler = new Handler(controlThread.getLooper());
+            }
+            return controlHandler.postDelayed(task, delayMillis);
+        }
+    }
+
+    /**
+     * Counts a requested parameter change, and schedules the transaction it opened, if any, on
+     * the control thread.
+     *
+     * @param joined true if the change joined a transaction that was already scheduled
+     */
+    private void scheduleParameterUpdate(final CameraParameterUpdater updater, boolean joined) {
+        if (joined) {
+            parameterUpdatesCoalesced.incrementAndGet();
+            return;
+        }
+        postControl(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (cameraLock) {
+                    // The camera may have been closed in the meantime.
+                    if (updater != parameterUpdater) {
+                        return;
+                    }
+                    try {
+                        parameterUpdatesApplied.addAndGet(
+                                updater.apply(SystemClock.elapsedRealtime()));
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed to apply camera parameters.", e);
+                    }
+                }
+            }
+        }, updater.getApplyDelayMillis(SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * Returns the time between frames at the top of the given preview fps range, which is scaled
+     * by 1000.
+     */
+    private static long getFrameIntervalMillis(int[] previewFpsRange) {
+        return 1000000L / Math.max(1, previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+    }
+
+    /**
+     * Waits for asynchronous stops requested so far to complete, so that a synchronous start is
+     * sequenced after them.  Does nothing on the control thread itself, where they have already
+     * run.
+     */
+    private void awaitPendingStops() {
+        if (pendingStops.get() == 0) {
+            return;
         }
-
-        synchronized (cameraLock) {
-            if (camera != null) {
-                CameraAutoFocusMoveCallback autoFocusMoveCallback = null;
-                if (cb != null) {
-                    autoFocusMoveCallback = new CameraAutoFocusMoveCallback();
-                    autoFocusMoveCallback.mDelegate = cb;
-                }
-                camera.setAutoFocusMoveCallback(autoFocusMoveCallback);
+        synchronized (controlLock) {
+            if ((controlThread == null) || (Looper.myLooper() == controlThread.getLooper())) {
+                return;
             }
         }
 
-        return true;
+        final CountDownLatch stopped = new CountDownLatch(1);
+        boolean posted = postControl(new Runnable() {
+            @Override
+            public void run() {
+                stopped.countDown();
+            }
+        });
+        try {
+            if (posted) {
+                stopped.await();
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Interrupted while waiting for the camera to stop.");
+            Thread.currentThread().interrupt();
+        }
     }
 
-    //==============================================================================================
-    // Private
-    //==============================================================================================
-
     /**
-     * Only allow creation via the builder class.
+     * Hands the outcome of an asynchronous start to its callback on the main thread.
+     *
+     * @param error the reason the start failed, or null if it succeeded
      */
-    private CameraSource() {
+    private void postStartResult(final StartCallback callback, @Nullable final Exception error) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                if (error == null) {
+                    callback.onStarted(CameraSource.this);
+                } else {
+                    callback.onStartFailed(error);
+                }
+            }
+        });
     }
 
     /**
@@ -748,21 +1843,54 @@ public class CameraSource {
             throw new RuntimeException("Could not find requested camera.");
         }
         Camera camera = Camera.open(requestedCameraId);
+        try {
+            configureCamera(camera, requestedCameraId);
+        } catch (RuntimeException e) {
+            camera.release();
+            throw e;
+        }
+
+        camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
+        ensureFrameBuffers();
+        for (int i = 0; i < frameBuffers.size(); ++i) {
+            camera.addCallbackBuffer(frameBuffers.array(i));
+        }
 
-        SizePair sizePair = selectSizePair(camera, requestedPreviewWidth, requestedPreviewHeight);
+        return camera;
+    }
+
+    /**
+     * Picks the preview size, frame rate range and modes for a newly opened legacy camera, from
+     * its cached capabilities, and applies them along with the rotation.
+     *
+     * @throws RuntimeException if there is no suitable setting, or the camera rejected them
+     */
+    @SuppressLint("InlinedApi")
+    private void configureCamera(Camera camera, int cameraId) {
+        CameraCapabilities capabilities = capabilityCache.get(cameraId, camera);
+        Camera.Parameters parameters = camera.getParameters();
+
+        // The rotation is needed first, as the throughput target depends on the upright width.
+        setRotation(camera, parameters, cameraId);
+
+        SizePair sizePair = (previewSizeSelector != null)
+                ? selectSizePair(capabilities, previewSizeSelector, rotation)
+                : selectSizePair(capabilities, requestedPreviewWidth, requestedPreviewHeight);
         if (sizePair == null) {
             throw new RuntimeException("Could not find suitable preview size.");
         }
-        Size pictureSize = sizePair.pictureSize();
+        pictureSize = sizePair.pictureSize();
         previewSize = sizePair.previewSize();
 
-        int[] previewFpsRange = selectPreviewFpsRange(camera, requestedFps);
+        // Start from the frame rate the governor settled on last time, if it's enabled.
+        float fps = (fpsGovernor != null) ? fpsGovernor.getCurrentFps() : requestedFps;
+        int[] previewFpsRange = (previewSizeSelector != null)
+                ? previewSizeSelector.selectFpsRange(capabilities.getPreviewFpsRanges(), fps)
+                : selectPreviewFpsRange(capabilities, fps);
         if (previewFpsRange == null) {
             throw new RuntimeException("Could not find suitable preview frames per second range.");
         }
 
-        Camera.Parameters parameters = camera.getParameters();
-
         if (pictureSize != null) {
             parameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
         }
@@ -773,11 +1901,8 @@ public class CameraSource {
                 previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
         parameters.setPreviewFormat(ImageFormat.NV21);
 
-        setRotation(camera, parameters, requestedCameraId);
-
         if (focusMode != null) {
-            if (parameters.getSupportedFocusModes().contains(
-                    focusMode)) {
+            if (capabilities.isFocusModeSupported(focusMode)) {
                 parameters.setFocusMode(focusMode);
             } else {
                 Log.i(TAG, "Camera focus mode: " + focusMode +
@@ -789,8 +1914,7 @@ public class CameraSource {
         focusMode = parameters.getFocusMode();
 
         if (flashMode != null) {
-            if (parameters.getSupportedFlashModes().contains(
-                    flashMode)) {
+            if (capabilities.isFlashModeSupported(flashMode)) {
                 parameters.setFlashMode(flashMode);
             } else {
                 Log.i(TAG, "Camera flash mode: " + flashMode +
@@ -801,20 +1925,149 @@ public class CameraSource {
         // setting flashMode to the one set in the params
         flashMode = parameters.getFlashMode();
 
-        camera.setParameters(parameters);
+        try {
+            camera.setParameters(parameters);
+        } catch (RuntimeException e) {
+            // The settings were chosen from cached capabilities that may no longer be accurate,
+            // so query them again on the next start.
+            capabilityCache.invalidate(cameraId);
+            throw e;
+        }
+        this.capabilities = capabilities;
+        parameterUpdater = new CameraParameterUpdater(camera, parameters, capabilities,
+                getFrameIntervalMillis(previewFpsRange));
+        camera.setZoomChangeListener(new CameraZoomChangeListener());
+
+        this.previewFpsRange = previewFpsRange;
+        if (fpsGovernor != null) {
+            fpsGovernor.setCurrentFps(
+                    previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000.0f,
+                    SystemClock.elapsedRealtimeNanos());
+        }
+    }
+
+    /**
+     * Opens the camera through the Camera2 backend, applies the user settings and starts
+     * streaming frames, to the given preview surface too if there is one.
+     *
+     * @throws IOException if the camera could not be opened or configured
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    private Camera2Backend createCamera2(@Nullable SurfaceHolder surfaceHolder)
+            throws IOException {
+        Camera2Backend backend =
+                new Camera2Backend(context, frameBuffers, new Camera2FrameListener());
+        try {
+            if (!backend.selectCamera(mFacing)) {
+                throw new RuntimeException("Could not find requested camera.");
+            }
 
-        // Four frame buffers are needed for working with the camera:
-        //
-        //   one for the frame that is currently being executed upon in doing detection
-        //   one for the next pending frame to process immediately upon completing detection
-        //   two for the frames that the camera uses to populate future preview images
-        camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
+            // Camera2 rotates the preview surface by itself, only frames need the rotation.
+            this.rotation = getFrameAngle(mFacing == CAMERA_FACING_FRONT,
+                    backend.getSensorOrientation()) / 90;
 
-        return camera;
+            previewSize = (previewSizeSelector != null)
+                    ? previewSizeSelector.selectPreviewSize(backend.getPreviewSizes(), rotation)
+                    : backend.selectPreviewSize(requestedPreviewWidth, requestedPreviewHeight);
+            if (previewSize == null) {
+                throw new RuntimeException("Could not find suitable preview size.");
+            }
+
+            float fps = (fpsGovernor != null) ? fpsGovernor.getCurrentFps() : requestedFps;
+            int[] previewFpsRange = (previewSizeSelector != null)
+                    ? previewSizeSelector.selectFpsRange(backend.getFpsRanges(), fps)
+                    : backend.selectFpsRange(fps);
+            if (previewFpsRange == null) {
+                throw new RuntimeException(
+                        "Could not find suitable preview frames per second range.");
+            }
+
+            if ((focusMode != null) && !backend.isFocusModeSupported(focusMode)) {
+                Log.i(TAG, "Camera focus mode: " + focusMode +
+                        " is not supported on this device.");
+                focusMode = null;
+            }
+            if ((flashMode != null) && !backend.isFlashModeSupported(flashMode)) {
+                Log.i(TAG, "Camera flash mode: " + flashMode +
+                        " is not supported on this device.");
+                flashMode = null;
+            }
+
+            ensureFrameBuffers();
+
+            Surface previewSurface = null;
+            if (surfaceHolder != null) {
+                surfaceHolder.setFixedSize(previewSize.getWidth(), previewSize.getHeight());
+                previewSurface = surfaceHolder.getSurface();
+            }
+            backend.start(previewSize, previewFpsRange, focusMode, flashMode, previewSurface);
+            camera2Zoom = 0;
+
+            this.previewFpsRange = previewFpsRange;
+            if (fpsGovernor != null) {
+                fpsGovernor.setCurrentFps(
+                        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000.0f,
+                        SystemClock.elapsedRealtimeNanos());
+            }
+            return backend;
+        } catch (RuntimeException | IOException e) {
+            backend.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the recording to play back, takes the preview size and rotation from it, and starts
+     * playing it as the frame source.
+     *
+     * @throws IOException if the recording could not be read
+     */
+    private void startReplay() throws IOException {
+        ReplayFrameSource source = new ReplayFrameSource(replayRecording, replayRealTime,
+                frameBuffers, new ReplayFrameListener());
+        previewSize = source.getPreviewSize();
+        rotation = source.getRotation();
+        ensureFrameBuffers();
+
+        // The replay thread hands frames to the workers without taking the camera lock, and the
+        // workers recycle them through the frame source, so it has to be set before the first
+        // frame is played.
+        frameSource = replay = source;
+        source.start();
+    }
+
+    /**
+     * Makes sure the frame buffer pool matches the current preview size.
+     * <p/>
+     * At least three frame buffers are needed for working with the camera:
+     * <ul>
+     * <li>one for the frame that is currently being executed upon in doing detection</li>
+     * <li>one for the next pending frame to process immediately upon completing detection</li>
+     * <li>the rest for the frames that the camera uses to populate future preview images</li>
+     * </ul>
+     * With parallel detection, every worker holds on to one buffer while detecting.
+     */
+    private void ensureFrameBuffers() {
+        int bufferCount = Math.max(frameBufferCount,
+                frameProcessor.getWorkerCount() + MIN_FRAME_BUFFER_COUNT - 1);
+        if (!frameBuffers.ensure(bufferCount, getPreviewBufferSize(previewSize))) {
+            Log.d(TAG, "Reusing " + bufferCount + " preview buffers.");
+        }
+    }
+
+    /**
+     * Hands a frame buffer that the pipeline is done with back to whichever camera fills them.
+     * Only called by the detection workers, which stopping waits for before it closes the camera,
+     * so the camera is still open.
+     */
+    private void recycleFrameBuffer(int bufferIndex) {
+        FrameSource frameSource = this.frameSource;
+        if (frameSource != null) {
+            frameSource.recycle(bufferIndex);
+        } else {
+            camera.addCallbackBuffer(frameBuffers.array(bufferIndex));
+        }
+        frameBuffers.markReleased();
     }
 
     /**
@@ -842,13 +2095,14 @@ public class CameraSource {
      * ratio.  On some hardware, if you would only set the preview size, you will get a distorted
      * image.
      *
-     * @param camera        the camera to select a preview size from
+     * @param capabilities  the capabilities of the camera to select a preview size from
      * @param desiredWidth  the desired width of the camera preview frames
      * @param desiredHeight the desired height of the camera preview frames
      * @return the selected preview and picture size pair
      */
-    private static SizePair selectSizePair(Camera camera, int desiredWidth, int desiredHeight) {
-        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(camera);
+    private static SizePair selectSizePair(CameraCapabilities capabilities, int desiredWidth,
+                                           int desiredHeight) {
+        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(capabilities);
 
         // The method for selecting the best size is to minimize the sum of the differences between
         // the desired values and the actual values for width and height.  This is certainly not the
@@ -869,6 +2123,26 @@ public class CameraSource {
         return selectedPair;
     }
 
+    /**
+     * Selects the preview size that the given selector prefers among those that have a matching
+     * picture size.
+     *
+     * @param rotation the frame rotation, as one of the {@code Frame.ROTATION_*} constants
+     * @return the selected preview size, or null if there are no valid preview sizes
+     */
+    private static SizePair selectSizePair(CameraCapabilities capabilities,
+                                           PreviewSizeSelector selector, int rotation) {
+        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(capabilities);
+        List<Size> previewSizes = new ArrayList<>(validPreviewSizes.size());
+        for (SizePair sizePair : validPreviewSizes) {
+            previewSizes.add(sizePair.previewSize());
+        }
+
+        Size selected = selector.selectPreviewSize(previewSizes, rotation);
+        int index = previewSizes.indexOf(selected);
+        return (index != -1) ? validPreviewSizes.get(index) : null;
+    }
+
     /**
      * Stores a preview size and a corresponding same-aspect-ratio picture size.  To avoid distorted
      * preview images on some devices, the picture size must be set to a size that is the same
@@ -879,19 +2153,15 @@ public class CameraSource {
         private Size mPreview;
         private Size mPicture;
 
-        public SizePair(android.hardware.Camera.Size previewSize,
-                        android.hardware.Camera.Size pictureSize) {
-            mPreview = new Size(previewSize.width, previewSize.height);
-            if (pictureSize != null) {
-                mPicture = new Size(pictureSize.width, pictureSize.height);
-            }
+        public SizePair(Size previewSize, Size pictureSize) {
+            mPreview = previewSize;
+            mPicture = pictureSize;
         }
 
         public Size previewSize() {
             return mPreview;
         }
 
-        @SuppressWarnings("unused")
         public Size pictureSize() {
             return mPicture;
         }
@@ -906,21 +2176,20 @@ public class CameraSource {
      * set to a size that is the same aspect ratio as the preview size we choose.  Otherwise, the
      * preview images may be distorted on some devices.
      */
-    private static List<SizePair> generateValidPreviewSizeList(Camera camera) {
-        Camera.Parameters parameters = camera.getParameters();
-        List<android.hardware.Camera.Size> supportedPreviewSizes =
-                parameters.getSupportedPreviewSizes();
-        List<android.hardware.Camera.Size> supportedPictureSizes =
-                parameters.getSupportedPictureSizes();
+    private static List<SizePair> generateValidPreviewSizeList(CameraCapabilities capabilities) {
+        List<Size> supportedPreviewSizes = capabilities.getPreviewSizes();
+        List<Size> supportedPictureSizes = capabilities.getPictureSizes();
         List<SizePair> validPreviewSizes = new ArrayList<>();
-        for (android.hardware.Camera.Size previewSize : supportedPreviewSizes) {
-            float previewAspectRatio = (float) previewSize.width / (float) previewSize.height;
+        for (Size previewSize : supportedPreviewSizes) {
+            float previewAspectRatio =
+                    (float) previewSize.getWidth() / (float) previewSize.getHeight();
 
             // By looping through the picture sizes in order, we favor the higher resolutions.
             // We choose the highest resolution in order to support taking the full resolution
             // picture later.
-            for (android.hardware.Camera.Size pictureSize : supportedPictureSizes) {
-                float pictureAspectRatio = (float) pictureSize.width / (float) pictureSize.height;
+            for (Size pictureSize : supportedPictureSizes) {
+                float pictureAspectRatio =
+                        (float) pictureSize.getWidth() / (float) pictureSize.getHeight();
                 if (Math.abs(previewAspectRatio - pictureAspectRatio) < ASPECT_RATIO_TOLERANCE) {
                     validPreviewSizes.add(new SizePair(previewSize, pictureSize));
                     break;
@@ -933,7 +2202,7 @@ public class CameraSource {
         // still account for it.
         if (validPreviewSizes.size() == 0) {
             Log.w(TAG, "No preview sizes have a corresponding same-aspect-ratio picture size");
-            for (android.hardware.Camera.Size previewSize : supportedPreviewSizes) {
+            for (Size previewSize : supportedPreviewSizes) {
                 // The null picture size will let us know that we shouldn't set a picture size.
                 validPreviewSizes.add(new SizePair(previewSize, null));
             }
@@ -946,11 +2215,12 @@ public class CameraSource {
      * Selects the most suitable preview frames per second range, given the desired frames per
      * second.
      *
-     * @param camera            the camera to select a frames per second range from
+     * @param capabilities      the capabilities of the camera to select a frames per second range
+     *                          from
      * @param desiredPreviewFps the desired frames per second for the camera preview frames
      * @return the selected preview frames per second range
      */
-    private int[] selectPreviewFpsRange(Camera camera, float desiredPreviewFps) {
+    private int[] selectPreviewFpsRange(CameraCapabilities capabilities, float desiredPreviewFps) {
         // The camera API uses integers scaled by a factor of 1000 instead of floating-point frame
         // rates.
         int desiredPreviewFpsScaled = (int) (desiredPreviewFps * 1000.0f);
@@ -962,7 +2232,7 @@ public class CameraSource {
         // range (15, 30).
         int[] selectedFpsRange = null;
         int minDiff = Integer.MAX_VALUE;
-        List<int[]> previewFpsRangeList = camera.getParameters().getSupportedPreviewFpsRange();
+        List<int[]> previewFpsRangeList = capabilities.getPreviewFpsRanges();
         for (int[] range : previewFpsRangeList) {
             int deltaMin = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
             int deltaMax = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
@@ -975,6 +2245,52 @@ public class CameraSource {
         return selectedFpsRange;
     }
 
+    /**
+     * Switches the running camera to the preview frame rate range closest to the given frame
+     * rate, as decided by the frame rate governor.  This is called on the camera's callback thread,
+     * never on a processing thread, since stopping the camera holds the camera lock while waiting
+     * for the processing threads to finish.
+     */
+    private void applyGovernedFps(float fps) {
+        synchronized (cameraLock) {
+            if ((camera == null) && (camera2 == null)) {
+                return;
+            }
+
+            int[] range = (camera2 != null)
+                    ? camera2.selectFpsRange(fps) : selectPreviewFpsRange(capabilities, fps);
+            if ((range != null) && ((previewFpsRange == null) ||
+                    (range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] !=
+                            previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX]) ||
+                    (range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] !=
+                            previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]))) {
+                Log.d(TAG, "Adapting preview fps range to " +
+                        range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] + "-" +
+                        range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] + " for " + fps + " fps");
+                try {
+                    if (camera2 != null) {
+                        if (camera2.setFpsRange(range)) {
+                            previewFpsRange = range;
+                        }
+                    } else {
+                        parameterUpdater.applyPreviewFpsRange(range,
+                                getFrameIntervalMillis(range));
+                        previewFpsRange = range;
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to change preview fps range.", e);
+                }
+            }
+
+            // Either way, the governor now knows what the camera really runs at.
+            if (previewFpsRange != null) {
+                fpsGovernor.setCurrentFps(
+                        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000.0f,
+                        SystemClock.elapsedRealtimeNanos());
+            }
+        }
+    }
+
     /**
      * Calculates the correct rotation for the given camera id and sets the rotation in the
      * parameters.  It also sets the camera's display orientation and rotation.
@@ -983,6 +2299,29 @@ public class CameraSource {
      * @param cameraId   the camera id to set rotation based on
      */
     private void setRotation(Camera camera, Camera.Parameters parameters, int cameraId) {
+        CameraInfo cameraInfo = new CameraInfo();
+        Camera.getCameraInfo(cameraId, cameraInfo);
+
+        boolean frontFacing = (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT);
+        int angle = getFrameAngle(frontFacing, cameraInfo.orientation);
+        // Compensate for the front camera's preview being mirrored.
+        int displayAngle = frontFacing ? (360 - angle) : angle;
+
+        // This corresponds to the rotation constants in {@link Frame}.
+        this.rotation = angle / 90;
+
+        camera.setDisplayOrientation(displayAngle);
+        parameters.setRotation(angle);
+    }
+
+    /**
+     * Returns the clockwise angle by which camera images must be rotated to be upright on the
+     * display in its current orientation.
+     *
+     * @param frontFacing       whether the camera faces the user
+     * @param sensorOrientation the camera's orientation relative to the device's natural orientation
+     */
+    private int getFrameAngle(boolean frontFacing, int sensorOrientation) {
         WindowManager windowManager =
                 (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
         int degrees = 0;
@@ -1004,53 +2343,25 @@ public class CameraSource {
                 Log.e(TAG, "Bad rotation value: " + rotation);
         }
 
-        CameraInfo cameraInfo = new CameraInfo();
-        Camera.getCameraInfo(cameraId, cameraInfo);
-
-        int angle;
-        int displayAngle;
-        if (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            angle = (cameraInfo.orientation + degrees) % 360;
-            displayAngle = (360 - angle); // compensate for it being mirrored
+        if (frontFacing) {
+            return (sensorOrientation + degrees) % 360;
         } else {  // back-facing
-            angle = (cameraInfo.orientation - degrees + 360) % 360;
-            displayAngle = angle;
+            return (sensorOrientation - degrees + 360) % 360;
         }
-
-        // This corresponds to the rotation constants in {@link Frame}.
-        this.rotation = angle / 90;
-
-        camera.setDisplayOrientation(displayAngle);
-        parameters.setRotation(angle);
     }
 
     /**
-     * Creates one buffer for the camera preview callback.  The size of the buffer is based off of
-     * the camera preview size and the format of the camera image.
+     * Computes the size of one camera preview frame.  The size is based off of the camera preview
+     * size and the format of the camera image.
+     * <p/>
+     * NOTICE: The buffers created from this only work when using play services v. 8.1 or higher.
      *
-     * @return a new preview buffer of the appropriate size for the current camera settings
+     * @return the number of bytes in a preview frame for the current camera settings
      */
-    private byte[] createPreviewBuffer(Size previewSize) {
+    private static int getPreviewBufferSize(Size previewSize) {
         int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
         long sizeInBits = previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
-        int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
-
-        //
-        // NOTICE: This code only works when using play services v. 8.1 or higher.
-        //
-
-        // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-        // should guarantee that there will be an array to work with.
-        byte[] byteArray = new byte[bufferSize];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-            // I don't think that this will ever happen.  But if it does, then we wouldn't be
-            // passing the preview content to the underlying detector later.
-            throw new IllegalStateException("Failed to create valid buffer for camera source.");
-        }
-
-        bytesToByteBuffer.put(byteArray, buffer);
-        return byteArray;
+        return (int) Math.ceil(sizeInBits / 8.0d);
     }
 
     //==============================================================================================
@@ -1063,7 +2374,101 @@ public class CameraSource {
     private class CameraPreviewCallback implements Camera.PreviewCallback {
         @Override
         public void onPreviewFrame(byte[] data, Camera camera) {
-            frameProcessor.setNextFrame(data, camera);
+            applyPendingFps();
+            synchronized (cameraLock) {
+                // A synchronous stop on another thread may have released the camera since it
+                // delivered the frame, in which case the buffer is simply forgotten along with it.
+                if (camera != CameraSource.this.camera) {
+                    return;
+                }
+                int bufferIndex = frameBuffers.indexOf(data);
+                recordFrame(bufferIndex);
+                int displaced = frameProcessor.setNextFrame(bufferIndex, false);
+                if (displaced != FrameHandoff.EMPTY) {
+                    camera.addCallbackBuffer(frameBuffers.array(displaced));
+                    frameBuffers.markReleased();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called on the legacy camera's callback thread while a smooth zoom progresses.
+     */
+    private class CameraZoomChangeListener implements Camera.OnZoomChangeListener {
+        @Override
+        public void onZoomChange(int zoomValue, boolean stopped, Camera camera) {
+            synchronized (cameraLock) {
+                CameraParameterUpdater updater = parameterUpdater;
+                if ((updater != null) && updater.onZoomChange(zoomValue, stopped)) {
+                    scheduleParameterUpdate(updater, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called on the Camera2 backend's thread when it has copied a new frame.
+     */
+    private class Camera2FrameListener implements FrameSource.Listener {
+        @Override
+        public void onFrame(FrameSource backend, int bufferIndex) {
+            applyPendingFps();
+            synchronized (cameraLock) {
+                // The backend may have been stopped since it copied the frame, in which case the
+                // buffer is simply forgotten along with it.
+                if (backend == camera2) {
+                    recordFrame(bufferIndex);
+                    int displaced = frameProcessor.setNextFrame(bufferIndex, false);
+                    if (displaced != FrameHandoff.EMPTY) {
+                        backend.recycle(displaced);
+                        frameBuffers.markReleased();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Called on the replay thread with each recorded frame.  This must not take the camera lock,
+     * since stopping waits for the replay thread while holding it.  When frames aren't paced in
+     * real time, the replay waits for the pending frame to be taken, so that no frame is dropped.
+     */
+    private class ReplayFrameListener implements FrameSource.Listener {
+        @Override
+        public void onFrame(FrameSource source, int bufferIndex) {
+            int displaced = frameProcessor.setNextFrame(bufferIndex, !replayRealTime);
+            if (displaced != FrameHandoff.EMPTY) {
+                source.recycle(displaced);
+                frameBuffers.markReleased();
+            }
+        }
+    }
+
+    /**
+     * Hands a copy of a camera frame to the frame recorder, if recording.  Called on the camera's
+     * callback thread just before the frame is passed on to processing, so that the recorded id and
+     * timestamp are the ones the frame is about to get.
+     */
+    private void recordFrame(int bufferIndex) {
+        FrameRecorder recorder = frameRecorder;
+        if ((recorder != null) && (bufferIndex != -1)) {
+            recorder.record(frameBuffers.array(bufferIndex), getPreviewBufferSize(previewSize),
+                    previewSize.getWidth(), previewSize.getHeight(), rotation,
+                    frameProcessor.getNextFrameId(), frameProcessor.getElapsedMillis());
+        }
+    }
+
+    /**
+     * Applies the frame rate the governor asked for, if any.  Only called from the camera's
+     * callback threads, see {@link #applyGovernedFps(float)}.
+     */
+    private void applyPendingFps() {
+        if (fpsGovernor != null) {
+            float fps = fpsGovernor.takePendingFps();
+            if (fps > 0) {
+                applyGovernedFps(fps);
+            }
         }
     }
 
@@ -1079,70 +2484,168 @@ public class CameraSource {
      */
     private class FrameProcessingRunnable implements Runnable {
         private Detector<?> mDetector;
+        private final ParallelDetector<?> mParallelDetector;
+        private final TiledDetector<?> mTiledDetector;
+
+        // The frame pipeline of each detection worker.
+        private final FramePipeline[] mPipelines;
         private long mStartTimeMillis = SystemClock.elapsedRealtime();
 
-        // This lock guards all of the member variables below.
-        private final Object mLock = new Object();
-        private boolean mActive = true;
+        // Hands the pending frame, by its index in the frame buffer pool, to the workers.
+        private final FrameHandoff mHandoff;
+
+        // The id and timestamp of the frame in each buffer.  Written by the thread delivering
+        // frames before the buffer is published, and read by the worker that takes it.
+        private final int[] mFrameIds = new int[FrameBufferPool.MAX_BUFFERS];
+        private final long[] mFrameTimesMillis = new long[FrameBufferPool.MAX_BUFFERS];
 
-        // These pending variables hold the state associated with the new frame awaiting processing.
-        private long mPendingTimeMillis;
+        // The id of the last delivered frame.  Only changed by the thread delivering frames.
         private int mPendingFrameId = 0;
-        private ByteBuffer mPendingFrameData;
 
-        FrameProcessingRunnable(Detector<?> detector) {
+        // The id of the last frame taken for detection, and the number of frames dropped before
+        // each worker's frame.  Only used while taking a frame, which the handoff serializes.
+        private int mLastTakenFrameId = 0;
+        private final int[] mDroppedBefore;
+
+        // Whether each worker's detector has seen a frame yet.  Only used by that worker.
+        private final boolean[] mWarmedUp;
+
+        FrameProcessingRunnable(Detector<?> detector, ParallelDetector<?> parallelDetector,
+                                TiledDetector<?> tiledDetector) {
             mDetector = detector;
+            mParallelDetector = parallelDetector;
+            mTiledDetector = tiledDetector;
+            mHandoff = new FrameHandoff(new FrameHandoff.TakeListener() {
+                @Override
+                public void onTaken(int worker, int bufferIndex) {
+                    int frameId = mFrameIds[bufferIndex];
+                    mDroppedBefore[worker] = frameId - mLastTakenFrameId - 1;
+                    mLastTakenFrameId = frameId;
+                    if (mParallelDetector != null) {
+                        mParallelDetector.begin(worker, frameId);
+                    }
+                }
+            });
+            mDroppedBefore = new int[getWorkerCount()];
+            mWarmedUp = new boolean[getWorkerCount()];
+
+            FrameChangeGate changeGate = new FrameChangeGate(frameChangeSettings);
+            mPipelines = new FramePipeline[getWorkerCount()];
+            for (int i = 0; i < mPipelines.length; ++i) {
+                mPipelines[i] = createFramePipeline(changeGate);
+            }
         }
 
         /**
-         * Releases the underlying receiver.  This is only safe to do after the associated thread
-         * has completed, which is managed in camera source's release method above.
+         * Releases the underlying receiver.  This is only safe to do after the associated threads
+         * have completed, which is managed in camera source's release method above.
          */
         @SuppressLint("Assert")
         void release() {
-            assert (processingThread.getState() == State.TERMINATED);
-            mDetector.release();
+            assert (processingThreads == null);
+            if (mParallelDetector != null) {
+                // This also releases mDetector, which is the first worker's detector.
+                mParallelDetector.release();
+            } else if (mTiledDetector != null) {
+                // Likewise, mDetector is the first tile worker's detector.
+                mTiledDetector.release();
+            } else {
+                mDetector.release();
+            }
             mDetector = null;
         }
 
+        /**
+         * Returns the number of threads that should run detection.
+         */
+        int getWorkerCount() {
+            return (mParallelDetector != null) ? mParallelDetector.getParallelism() : 1;
+        }
+
+        /**
+         * Creates the runnable for the given detection worker.
+         */
+        Runnable createWorker(final int worker) {
+            if (worker == 0) {
+                return this;
+            }
+            return new Runnable() {
+                @Override
+                public void run() {
+                    processFrames(worker);
+                }
+            };
+        }
+
+        /**
+         * Returns the id the next frame passed to {@link #setNextFrame(int, boolean)} will get.
+         * Only the thread delivering frames may call this, since only it changes the id.
+         */
+        int getNextFrameId() {
+            return mPendingFrameId + 1;
+        }
+
+        /**
+         * Returns the time since this runnable was created, which is the time base of the frame
+         * timestamps.
+         */
+        long getElapsedMillis() {
+            return SystemClock.elapsedRealtime() - mStartTimeMillis;
+        }
+
         /**
          * Marks the runnable as active/not active.  Signals any blocked threads to continue.
          */
         void setActive(boolean active) {
-            synchronized (mLock) {
-                mActive = active;
-                mLock.notifyAll();
+            mHandoff.setActive(active);
+        }
+
+        /**
+         * Forgets the pending frame, if any, without handing it back to the camera.  This is only
+         * safe once the processing thread has completed and the camera is about to be released.
+         */
+        void clearPendingFrame() {
+            if (mHandoff.clear() != FrameHandoff.EMPTY) {
+                frameBuffers.markReleased();
             }
         }
 
         /**
-         * Sets the frame data received from the camera.  This adds the previous unused frame buffer
-         * (if present) back to the camera, and keeps a pending reference to the frame data for
-         * future use.
+         * Sets the frame data received from the camera, by its index in the frame buffer pool, or
+         * -1 if the camera returned an unknown buffer.  This keeps the frame as pending for the
+         * next free worker, and returns the previous unused frame buffer, if any, which the caller
+         * hands back to the camera that delivered the frame.  Frames must only be delivered by one
+         * thread at a time.
+         *
+         * @param lossless true to wait for the pending frame to be taken by a worker, instead of
+         *                 dropping it
+         * @return the index of the displaced frame buffer, or {@link FrameHandoff#EMPTY}
          */
-        void setNextFrame(byte[] data, Camera camera) {
-            synchronized (mLock) {
-                if (mPendingFrameData != null) {
-                    camera.addCallbackBuffer(mPendingFrameData.array());
-                    mPendingFrameData = null;
-                }
+        int setNextFrame(int bufferIndex, boolean lossless) {
+            framesDelivered.incrementAndGet();
+            if (bufferIndex == -1) {
+                Log.d(TAG,
+                        "Skipping frame.  Could not find ByteBuffer associated with the image " +
+                                "data from the camera.");
+                return FrameHandoff.EMPTY;
+            }
 
-                if (!bytesToByteBuffer.containsKey(data)) {
-                    Log.d(TAG,
-                            "Skipping frame.  Could not find ByteBuffer associated with the image " +
-                                    "data from the camera.");
-                    return;
-                }
+            // Timestamp and frame ID are maintained here, which will give downstream code some
+            // idea of the timing of frames received and when frames were dropped along the way.
+            mPendingFrameId++;
+            mFrameIds[bufferIndex] = mPendingFrameId;
+            mFrameTimesMillis[bufferIndex] = getElapsedMillis();
+            frameBuffers.markAcquired();
 
-                // Timestamp and frame ID are maintained here, which will give downstream code some
-                // idea of the timing of frames received and when frames were dropped along the way.
-                mPendingTimeMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
-                mPendingFrameId++;
-                mPendingFrameData = bytesToByteBuffer.get(data);
+            int displaced = lossless
+                    ? mHandoff.publishWhenTaken(bufferIndex) : mHandoff.publish(bufferIndex);
 
-                // Notify the processor thread if it is waiting on the next frame (see below).
-                mLock.notifyAll();
+            // The displaced frame is recycled by the caller after the handoff, so that the
+            // handoff holds no lock while calling back into the camera.
+            if (displaced != FrameHandoff.EMPTY) {
+                framesOverwritten.incrementAndGet();
             }
+            return displaced;
         }
 
         /**
@@ -1161,57 +2664,141 @@ public class CameraSource {
          */
         @Override
         public void run() {
-            Frame outputFrame;
-            ByteBuffer data;
+            processFrames(0);
+        }
+
+        /**
+         * Runs the frame processing loop for one detection worker.  With parallel detection, each
+         * worker takes whichever frame is pending when it becomes free, and the parallel detector
+         * puts the results back in order.
+         */
+        private void processFrames(int worker) {
+            FramePipeline pipeline = mPipelines[worker];
+            int[] uprightRect = new int[4];
+            if (!mWarmedUp[worker]) {
+                warmUp(worker);
+                mWarmedUp[worker] = true;
+            }
 
             while (true) {
-                synchronized (mLock) {
-                    while (mActive && (mPendingFrameData == null)) {
-                        try {
-                            // Wait for the next frame to be received from the camera, since we
-                            // don't have it yet.
-                            mLock.wait();
-                        } catch (InterruptedException e) {
-                            Log.d(TAG, "Frame processing loop terminated.", e);
-                            return;
+                // Wait for the next frame to be received from the camera, since we may not have it
+                // yet.  Taking the frame empties the pending slot, which ensures that this buffer
+                // isn't recycled back to the camera before we are done using that data.
+                int bufferIndex = mHandoff.take(worker);
+                if (bufferIndex == FrameHandoff.EMPTY) {
+                    // Exit the loop once this camera source is stopped or released, or the thread
+                    // was interrupted.
+                    return;
+                }
+
+                // The handoff has already numbered the frame in take order, and marked it as in
+                // flight for in-order delivery.
+                int frameId = mFrameIds[bufferIndex];
+                long timeMillis = mFrameTimesMillis[bufferIndex];
+                int droppedBefore = mDroppedBefore[worker];
+
+                // The camera can add pending frame(s) while we are running detection on the
+                // current frame.
+
+                long detectStartNanos = SystemClock.elapsedRealtimeNanos();
+                try {
+                    pipeline.getInput().set(frameId, frameBuffers.array(bufferIndex),
+                            frameBuffers.buffer(bufferIndex), previewSize.getWidth(),
+                            previewSize.getHeight(), rotation);
+                    YuvFrame frame = pipeline.process();
+                    if (frame == null) {
+                        if (mParallelDetector != null) {
+                            mParallelDetector.cancel(worker);
                         }
+                        continue;
                     }
+                    recordFrameTransform(frameId, frame, uprightRect);
+
+                    Frame outputFrame = new Frame.Builder()
+                            .setImageData(frame.buffer(), frame.width, frame.height,
+                                    ImageFormat.NV21)
+                            .setId(frameId)
+                            .setTimestampMillis(timeMillis)
+                            .setRotation(frame.rotation)
+                            .build();
 
-                    if (!mActive) {
-                        // Exit the loop once this camera source is stopped or released.  We check
-                        // this here, immediately after the wait() above, to handle the case where
-                        // setActive(false) had been called, triggering the termination of this
-                        // loop.
-                        return;
+                    long detectorStartNanos = SystemClock.elapsedRealtimeNanos();
+                    if (mTiledDetector != null) {
+                        mTiledDetector.detect(frame, outputFrame.getMetadata());
+                    } else if (mParallelDetector != null) {
+                        mParallelDetector.detect(worker, outputFrame);
+                    } else {
+                        mDetector.receiveFrame(outputFrame);
                     }
+                    long detectorNanos = SystemClock.elapsedRealtimeNanos() - detectorStartNanos;
+                    detectorLatency.recordNanos(detectorNanos);
+                    if (detectorCalibration != null) {
+                        detectorCalibration.record(frame.width * frame.height, detectorNanos);
+                    }
+                } catch (Throwable t) {
+                    Log.e(TAG, "Exception thrown from receiver.", t);
+                    if (mParallelDetector != null) {
+                        mParallelDetector.cancel(worker);
+                    }
+                } finally {
+                    recycleFrameBuffer(bufferIndex);
+                }
 
-                    outputFrame = new Frame.Builder()
-                            .setImageData(mPendingFrameData, previewSize.getWidth(),
-                                    previewSize.getHeight(), ImageFormat.NV21)
-                            .setId(mPendingFrameId)
-                            .setTimestampMillis(mPendingTimeMillis)
-                            .setRotation(rotation)
-                            .build();
-
-                    // Hold onto the frame data locally, so that we can use this for detection
-                    // below.  We need to clear mPendingFrameData to ensure that this buffer isn't
-                    // recycled back to the camera before we are done using that data.
-                    data = mPendingFrameData;
-                    mPendingFrameData = null;
+                if (fpsGovernor != null) {
+                    long nowNanos = SystemClock.elapsedRealtimeNanos();
+                    fpsGovernor.onFrameProcessed(droppedBefore, nowNanos - detectStartNanos,
+                            nowNanos);
                 }
+            }
+        }
 
-                // The code below needs to run outside of synchronization, because this will allow
-                // the camera to add pending frame(s) while we are running detection on the current
-                // frame.
+        /**
+         * Remembers how the results of detecting the given frame map back to the full, upright
+         * frame, from the part of the camera frame that the pipeline cropped and scaled it from.
+         * The region of interest may change while frames are in flight, so this is recorded now
+         * rather than worked out from the region when results arrive.
+         *
+         * @param uprightRect scratch space for four coordinates
+         */
+        private void recordFrameTransform(int frameId, YuvFrame frame, int[] uprightRect) {
+            int right = frame.left + Math.round(frame.width * frame.scale);
+            int bottom = frame.top + Math.round(frame.height * frame.scale);
+            FrameTransform.toUpright(frame.left, frame.top, right, bottom,
+                    previewSize.getWidth(), previewSize.getHeight(), frame.rotation, uprightRect);
+            frameTransforms.record(frameId, uprightRect[0], uprightRect[1], frame.scale);
+        }
 
-                try {
-                    mDetector.receiveFrame(outputFrame);
-                } catch (Throwable t) {
-                    Log.e(TAG, "Exception thrown from receiver.", t);
-                } finally {
-                    camera.addCallbackBuffer(data.array());
+        /**
+         * Runs the given worker's detector once on a blank frame, so that it loads its models
+         * while the camera is still being opened rather than on the first camera frame.  The
+         * result is discarded, and never reaches the processor.  The builder's detector, which
+         * the first worker uses, is skipped if it was already warmed up.
+         */
+        private void warmUp(int worker) {
+            if (detectorWarmedUp && (worker == 0) &&
+                    ((mTiledDetector == null) || (mTiledDetector.getDetectorCount() == 1))) {
+                return;
+            }
+            int size = getPreviewBufferSize(new Size(WARM_UP_FRAME_WIDTH, WARM_UP_FRAME_HEIGHT));
+            Frame blankFrame = new Frame.Builder()
+                    .setImageData(ByteBuffer.wrap(new byte[size]), WARM_UP_FRAME_WIDTH,
+                            WARM_UP_FRAME_HEIGHT, ImageFormat.NV21)
+                    .build();
+
+            long startMillis = SystemClock.elapsedRealtime();
+            try {
+                if (mTiledDetector != null) {
+                    mTiledDetector.warmUp(blankFrame, detectorWarmedUp);
+                } else if (mParallelDetector != null) {
+                    mParallelDetector.warmUp(worker, blankFrame);
+                } else {
+                    mDetector.detect(blankFrame);
                 }
+            } catch (Throwable t) {
+                Log.e(TAG, "Exception thrown while warming up the detector.", t);
             }
+            Log.d(TAG, "Detector " + worker + " warmed up in " +
+                    (SystemClock.elapsedRealtime() - startMillis) + " ms.");
         }
     }
 }
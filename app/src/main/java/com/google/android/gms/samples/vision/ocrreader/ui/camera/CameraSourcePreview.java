@@ -18,6 +18,7 @@ package com.google.android.gms.samples.vision.ocrreader.ui.camera;
 import android.Manifest;
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.Rect;
 import android.support.annotation.RequiresPermission;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -71,37 +72,85 @@ public class CameraSourcePreview extends ViewGroup {
         start(cameraSource);
     }
 
+    /**
+     * Stops the camera source in the background, so that the caller doesn't wait for detection of
+     * the current frame.  Starting it again is sequenced after the stop.
+     */
     public void stop() {
         if (cameraSource != null) {
-            cameraSource.stop();
+            cameraSource.stopAsync();
         }
     }
 
+    /**
+     * Releases the camera source in the background, after any pending start or stop.
+     */
     public void release() {
         if (cameraSource != null) {
-            cameraSource.release();
+            cameraSource.releaseAsync();
             cameraSource = null;
         }
     }
 
+    /**
+     * Restricts detection to a region of the preview, given in the coordinates of the graphic
+     * overlay view, and keeps the overlay graphics lined up with the full preview.  Null restores
+     * detection on the whole preview.
+     */
+    public void setRegionOfInterest(Rect overlayRect) {
+        if (cameraSource == null) {
+            return;
+        }
+        Rect region = null;
+        if (overlayRect != null) {
+            region = (overlay != null) ? overlay.viewToPreviewRect(overlayRect) : overlayRect;
+        }
+        cameraSource.setRegionOfInterest(region);
+        if (overlay != null) {
+            overlay.setFrameTransform(cameraSource.getFrameTransform());
+        }
+    }
+
+    /**
+     * Starts the camera source once the preview surface exists.  The camera is opened on a
+     * background thread, and the overlay and layout are updated once the preview size is known.
+     */
     @RequiresPermission(Manifest.permission.CAMERA)
-    private void startIfReady() throws IOException, SecurityException {
+    private void startIfReady() throws SecurityException {
         if (startRequested && surfaceAvailable) {
-            cameraSource.start(surfaceView.getHolder());
+            cameraSource.startAsync(surfaceView.getHolder(), new StartCallback());
+            startRequested = false;
+        }
+    }
+
+    private class StartCallback implements CameraSource.StartCallback {
+        @Override
+        public void onStarted(CameraSource startedSource) {
+            if (startedSource != cameraSource) {
+                // The preview moved on to another camera source while this one was starting.
+                return;
+            }
             if (overlay != null) {
-                Size size = cameraSource.getPreviewSize();
+                Size size = startedSource.getPreviewSize();
                 int min = Math.min(size.getWidth(), size.getHeight());
                 int max = Math.max(size.getWidth(), size.getHeight());
                 if (isPortraitMode()) {
                     // Swap width and height sizes when in portrait, since it will be rotated by
                     // 90 degrees
-                    overlay.setCameraInfo(min, max, cameraSource.getCameraFacing());
+                    overlay.setCameraInfo(min, max, startedSource.getCameraFacing());
                 } else {
-                    overlay.setCameraInfo(max, min, cameraSource.getCameraFacing());
+                    overlay.setCameraInfo(max, min, startedSource.getCameraFacing());
                 }
+                overlay.setFrameTransform(startedSource.getFrameTransform());
                 overlay.clear();
             }
-            startRequested = false;
+            // The preview size wasn't known at the last layout.
+            requestLayout();
+        }
+
+        @Override
+        public void onStartFailed(Exception e) {
+            Log.e(TAG, "Could not start camera source.", e);
         }
     }
 
@@ -113,8 +162,6 @@ public class CameraSourcePreview extends ViewGroup {
                 startIfReady();
             } catch (SecurityException se) {
                 Log.e(TAG,"Do not have permission to start the camera", se);
-            } catch (IOException e) {
-                Log.e(TAG, "Could not start camera source.", e);
             }
         }
 
@@ -183,8 +230,6 @@ public class CameraSourcePreview extends ViewGroup {
             startIfReady();
         } catch (SecurityException se) {
             Log.e(TAG,"Do not have permission to start the camera", se);
-        } catch (IOException e) {
-            Log.e(TAG, "Could not start camera source.", e);
         }
     }
 
@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Frame stage which enhances the contrast of the luma plane before detection, for faded prints
+ * such as thermal paper receipts.  The chroma plane is left as it is, since the detector only
+ * looks at luma.  Two methods are available:
+ * <ul>
+ * <li>binarization, which turns each pixel black or white depending on whether it is darker than
+ * the mean of its neighborhood by some margin (Bradley's adaptive threshold)</li>
+ * <li>CLAHE, contrast limited adaptive histogram equalization, which equalizes the histogram of
+ * each tile of an 8x8 grid with a limit on the contrast gain, and interpolates between tiles</li>
+ * </ul>
+ * The frame is modified in place, and all scratch buffers are kept from frame to frame, so the
+ * stage doesn't allocate once it has seen the first frame of a given size.  The passes over the
+ * pixels are split into bands of rows that run in parallel on a shared fork-join pool.  The band
+ * tasks are created once and reinitialized for every pass.
+ * <p/>
+ * Both methods work on statistics which are far coarser than a pixel, so they are gathered
+ * coarsely to stay within a few milliseconds per frame: the neighborhood means come from an
+ * integral image of 8x8 pixel block sums rather than of pixels, and the tile histograms sample
+ * every other pixel of every other row.
+ */
+final class ContrastStage implements FrameStage {
+    static final int MODE_NONE = 0;
+    static final int MODE_BINARIZE = 1;
+    static final int MODE_CLAHE = 2;
+
+    /**
+     * Settings shared by the stages of all detection workers, which can be changed while running.
+     */
+    static final class Settings {
+        volatile int mode = MODE_NONE;
+    }
+
+    // Bradley's threshold: a pixel is black if it is this many percent darker than the mean of
+    // the window around it, which is this fraction of the larger frame side wide.
+    private static final int THRESHOLD_PERCENT = 10;
+    private static final int WINDOW_DIVISOR = 8;
+
+    // Binarization gathers sums over blocks of 2^BLOCK_SHIFT pixels square.
+    private static final int BLOCK_SHIFT = 3;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    // CLAHE tile grid size, and how many times the average count a histogram bin may hold before
+    // it is clipped.
+    private static final int TILE_GRID = 8;
+    private static final int CLIP_LIMIT = 3;
+
+    // CLAHE blends the tables of the tiles above and below once for each group of this many rows,
+    // rather than for every pixel.  The blend weight moves by less than 1% per row.
+    private static final int ROW_GROUP = 4;
+
+    // The passes that the band tasks run.
+    private static final int PASS_BLOCK_SUMS = 0;
+    private static final int PASS_THRESHOLD = 1;
+    private static final int PASS_HISTOGRAMS = 2;
+    private static final int PASS_EQUALIZE = 3;
+
+    private static ForkJoinPool sharedPool;
+
+    private final Settings settings;
+    private final ForkJoinPool pool;
+    private final BandTask[] tasks;
+    private final RecursiveAction root;
+
+    // The frame being processed, and the pass the band tasks should run.
+    private byte[] data;
+    private int width;
+    private int height;
+    private int pass;
+
+    // Binarization scratch: the luma sum of each block, their integral image with an extra
+    // leading row and column of zeros, and the resulting threshold of each block.
+    private int[] blockSums = new int[0];
+    private int[] blockIntegral = new int[0];
+    private int[] blockThresholds = new int[0];
+    private int blocksWide;
+    private int blocksHigh;
+
+    // CLAHE scratch: a histogram and lookup table per tile, and the table of each tile paired
+    // with that of its right neighbor in one int per luma value, so that equalizing a pixel takes
+    // a single lookup.  For each row and column, the nearest tile at or before it and the
+    // interpolation weight of the next one, out of 256.  Columns are also grouped into runs that
+    // share the same tile.
+    private final int[] histograms = new int[TILE_GRID * TILE_GRID * 256];
+    private final byte[] lookupTables = new byte[TILE_GRID * TILE_GRID * 256];
+    private final int[] pairTables = new int[TILE_GRID * TILE_GRID * 256];
+    private final int[] columnRunEnds = new int[TILE_GRID];
+    private int[] columnTiles = new int[0];
+    private int[] columnWeights = new int[0];
+    private int[] rowTiles = new int[0];
+    private int[] rowWeights = new int[0];
+    private int tileWidth;
+    private int tileHeight;
+
+    ContrastStage(Settings settings) {
+        this(settings, getSharedPool());
+    }
+
+    /**
+     * @param pool the pool to run bands on, or null to run them on the calling thread
+     */
+    ContrastStage(Settings settings, ForkJoinPool pool) {
+        this.settings = settings;
+        this.pool = pool;
+
+        // A couple of bands per thread evens out bands that finish early.
+        int bandCount = (pool != null) ? 2 * pool.getParallelism() : 1;
+        tasks = new BandTask[bandCount];
+        for (int i = 0; i < bandCount; ++i) {
+            tasks[i] = new BandTask(i);
+        }
+        root = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        };
+    }
+
+    /**
+     * Returns the pool shared by the stages of all detection workers, with one thread per core,
+     * or null on a single core.
+     */
+    private static synchronized ForkJoinPool getSharedPool() {
+        if (sharedPool == null) {
+            int parallelism = Runtime.getRuntime().availableProcessors();
+            if (parallelism <= 1) {
+                return null;
+            }
+            sharedPool = new ForkJoinPool(parallelism);
+        }
+        return sharedPool;
+    }
+
+    @Override
+    public YuvFrame process(YuvFrame frame) {
+        int mode = settings.mode;
+        if (mode == MODE_NONE) {
+            return frame;
+        }
+
+        data = frame.data;
+        width = frame.width;
+        height = frame.height;
+        if (mode == MODE_BINARIZE) {
+            prepareBinarize();
+            runPass(PASS_BLOCK_SUMS);
+            computeBlockThresholds();
+            runPass(PASS_THRESHOLD);
+        } else {
+            prepareClahe();
+            runPass(PASS_HISTOGRAMS);
+            packPairTables();
+            runPass(PASS_EQUALIZE);
+        }
+        data = null;
+        return frame;
+    }
+
+    private void prepareBinarize() {
+        blocksWide = (width + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        blocksHigh = (height + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        int blocks = blocksWide * blocksHigh;
+        if (blockSums.length < blocks) {
+            blockSums = new int[blocks];
+            blockThresholds = new int[blocks];
+        }
+        int size = (blocksWide + 1) * (blocksHigh + 1);
+        if (blockIntegral.length < size) {
+            blockIntegral = new int[size];
+        }
+    }
+
+    /**
+     * Derives the threshold of each block from the mean of the window of blocks around it.  This
+     * runs on the calling thread, as there are only a few thousand blocks.
+     */
+    private void computeBlockThresholds() {
+        int stride = blocksWide + 1;
+        for (int bx = 0; bx <= blocksWide; ++bx) {
+            blockIntegral[bx] = 0;
+        }
+        for (int by = 0; by < blocksHigh; ++by) {
+            int in = by * blocksWide;
+            int above = by * stride;
+            int out = above + stride;
+            int rowSum = 0;
+            blockIntegral[out] = 0;
+            for (int bx = 0; bx < blocksWide; ++bx) {
+                rowSum += blockSums[in + bx];
+                blockIntegral[out + bx + 1] = blockIntegral[above + bx + 1] + rowSum;
+            }
+        }
+
+        int window = Math.max(width, height) / WINDOW_DIVISOR;
+        int half = Math.max(1, window >> BLOCK_SHIFT) / 2;
+        for (int by = 0; by < blocksHigh; ++by) {
+            int top = Math.max(0, by - half);
+            int bottom = Math.min(blocksHigh, by + half + 1);
+            int rows = Math.min(height, bottom << BLOCK_SHIFT) - (top << BLOCK_SHIFT);
+            for (int bx = 0; bx < blocksWide; ++bx) {
+                int left = Math.max(0, bx - half);
+                int right = Math.min(blocksWide, bx + half + 1);
+                int columns = Math.min(width, right << BLOCK_SHIFT) - (left << BLOCK_SHIFT);
+                long sum = (long) blockIntegral[bottom * stride + right] -
+                        blockIntegral[top * stride + right] -
+                        blockIntegral[bottom * stride + left] + blockIntegral[top * stride + left];
+                // A pixel is black if value * pixels * 100 <= sum * (100 - percent), which for an
+                // integer value is the same as comparing against this quotient.
+                blockThresholds[by * blocksWide + bx] = (int) ((sum * (100 - THRESHOLD_PERCENT)) /
+                        ((long) rows * columns * 100));
+            }
+        }
+    }
+
+    private void prepareClahe() {
+        tileWidth = (width + TILE_GRID - 1) / TILE_GRID;
+        tileHeight = (height + TILE_GRID - 1) / TILE_GRID;
+        if (columnTiles.length < width) {
+            columnTiles = new int[width];
+            columnWeights = new int[width];
+        }
+        if (rowTiles.length < height) {
+            rowTiles = new int[height];
+            rowWeights = new int[height];
+        }
+        interpolation(width, tileWidth, columnTiles, columnWeights);
+        interpolation(height, tileHeight, rowTiles, rowWeights);
+
+        int tile = 0;
+        for (int x = 0; x < width; ++x) {
+            while (columnTiles[x] > tile) {
+                columnRunEnds[tile++] = x;
+            }
+        }
+        while (tile < TILE_GRID) {
+            columnRunEnds[tile++] = width;
+        }
+    }
+
+    /**
+     * For each pixel along one axis, finds the tile whose center is at or before it, and the
+     * weight of the next tile, so that pixels between two tile centers blend their tables.
+     */
+    private static void interpolation(int length, int tileSize, int[] tiles, int[] weights) {
+        for (int i = 0; i < length; ++i) {
+            // Position relative to the first tile center, in 1/256 of a tile.
+            int position = ((2 * i + 1 - tileSize) << 8) / (2 * tileSize);
+            if (position < 0) {
+                tiles[i] = 0;
+                weights[i] = 0;
+            } else if ((position >> 8) >= TILE_GRID - 1) {
+                tiles[i] = TILE_GRID - 1;
+                weights[i] = 0;
+            } else {
+                tiles[i] = position >> 8;
+                weights[i] = position & 0xFF;
+            }
+        }
+    }
+
+    private void runPass(int pass) {
+        this.pass = pass;
+        if (pool == null) {
+            for (BandTask task : tasks) {
+                task.compute();
+            }
+            return;
+        }
+        for (BandTask task : tasks) {
+            task.reinitialize();
+        }
+        root.reinitialize();
+        pool.invoke(root);
+    }
+
+    /**
+     * Runs the current pass on one band of the frame.
+     */
+    private final class BandTask extends RecursiveAction {
+        private final int band;
+
+        // The tables of the tiles to the left and right of each tile center, blended vertically
+        // for the current group of rows.
+        private final int[] rowTables = new int[TILE_GRID * 256];
+
+        BandTask(int band) {
+            this.band = band;
+        }
+
+        @Override
+        protected void compute() {
+            switch (pass) {
+                case PASS_BLOCK_SUMS:
+                    blockSums(start(blocksHigh), end(blocksHigh));
+                    break;
+                case PASS_THRESHOLD:
+                    threshold(start(height), end(height));
+                    break;
+                case PASS_HISTOGRAMS:
+                    histograms(start(TILE_GRID), end(TILE_GRID));
+                    break;
+                case PASS_EQUALIZE:
+                    equalize(start(height), end(height), rowTables);
+                    break;
+            }
+        }
+
+        private int start(int length) {
+            return (int) ((long) length * band / tasks.length);
+        }
+
+        private int end(int length) {
+            return (int) ((long) length * (band + 1) / tasks.length);
+        }
+    }
+
+    /**
+     * Sums the luma of each block in the given rows of blocks.
+     */
+    private void blockSums(int startBlockRow, int endBlockRow) {
+        byte[] data = this.data;
+        int[] sums = blockSums;
+        for (int by = startBlockRow; by < endBlockRow; ++by) {
+            int row = by * blocksWide;
+            for (int bx = 0; bx < blocksWide; ++bx) {
+                sums[row + bx] = 0;
+            }
+            int top = by << BLOCK_SHIFT;
+            int bottom = Math.min(height, top + BLOCK_SIZE);
+            for (int y = top; y < bottom; ++y) {
+                int offset = y * width;
+                for (int bx = 0; bx < blocksWide; ++bx) {
+                    int sum = 0;
+                    int end = offset + Math.min(width, (bx + 1) << BLOCK_SHIFT);
+                    for (int i = offset + (bx << BLOCK_SHIFT); i < end; ++i) {
+                        sum += data[i] & 0xFF;
+                    }
+                    sums[row + bx] += sum;
+                }
+            }
+        }
+    }
+
+    /**
+     * Binarizes each pixel in the given rows against the threshold of its block.
+     */
+    private void threshold(int startRow, int endRow) {
+        byte[] data = this.data;
+        int[] thresholds = blockThresholds;
+        for (int y = startRow; y < endRow; ++y) {
+            int row = (y >> BLOCK_SHIFT) * blocksWide;
+            int offset = y * width;
+            for (int bx = 0; bx < blocksWide; ++bx) {
+                int threshold = thresholds[row + bx];
+                int end = offset + Math.min(width, (bx + 1) << BLOCK_SHIFT);
+                for (int i = offset + (bx << BLOCK_SHIFT); i < end; ++i) {
+                    // The sign of the difference gives 0 for black and all ones for white.
+                    data[i] = (byte) ((threshold - (data[i] & 0xFF)) >> 31);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the clipped histogram and equalization table of each tile in the given tile rows,
+     * from every other pixel of every other row.
+     */
+    private void histograms(int startTileRow, int endTileRow) {
+        byte[] data = this.data;
+        int[] histograms = this.histograms;
+        for (int ty = startTileRow; ty < endTileRow; ++ty) {
+            int top = ty * tileHeight;
+            int bottom = Math.min(height, top + tileHeight);
+            for (int tx = 0; tx < TILE_GRID; ++tx) {
+                int left = tx * tileWidth;
+                int right = Math.min(width, left + tileWidth);
+                int tile = (ty * TILE_GRID + tx) << 8;
+                for (int i = 0; i < 256; ++i) {
+                    histograms[tile + i] = 0;
+                }
+                int samples = 0;
+                for (int y = top; y < bottom; y += 2) {
+                    int offset = y * width;
+                    for (int x = left; x < right; x += 2) {
+                        histograms[tile + (data[offset + x] & 0xFF)]++;
+                        samples++;
+                    }
+                }
+                buildLookupTable(tile, samples);
+            }
+        }
+    }
+
+    /**
+     * Clips the histogram of a tile, spreads the clipped counts evenly over all bins, and turns
+     * the cumulative histogram into the tile's lookup table.
+     */
+    private void buildLookupTable(int tile, int samples) {
+        if (samples == 0) {
+            for (int i = 0; i < 256; ++i) {
+                lookupTables[tile + i] = (byte) i;
+            }
+            return;
+        }
+
+        int limit = Math.max(1, CLIP_LIMIT * samples / 256);
+        int excess = 0;
+        for (int i = 0; i < 256; ++i) {
+            int count = histograms[tile + i];
+            if (count > limit) {
+                excess += count - limit;
+                histograms[tile + i] = limit;
+            }
+        }
+        int share = excess / 256;
+        int remainder = excess % 256;
+
+        int cumulative = 0;
+        for (int i = 0; i < 256; ++i) {
+            cumulative += histograms[tile + i] + share + ((i < remainder) ? 1 : 0);
+            lookupTables[tile + i] = (byte) Math.min(255, (int) ((cumulative * 255L) / samples));
+        }
+    }
+
+    /**
+     * Packs the table of each tile and that of its right neighbor into the low and high half of
+     * an int per luma value.  Tiles on the last column are their own neighbors.  This runs on the
+     * calling thread, as there are only 64 tiles.
+     */
+    private void packPairTables() {
+        for (int tile = 0; tile < TILE_GRID * TILE_GRID; ++tile) {
+            int tx = tile % TILE_GRID;
+            int own = tile << 8;
+            int right = (tile - tx + Math.min(tx + 1, TILE_GRID - 1)) << 8;
+            for (int value = 0; value < 256; ++value) {
+                pairTables[own + value] = (lookupTables[own + value] & 0xFF) |
+                        ((lookupTables[right + value] & 0xFF) << 16);
+            }
+        }
+    }
+
+    /**
+     * Maps each pixel in the given rows through the tables of the four nearest tiles, blended by
+     * distance.  The vertical part of the blend is done on the tables, once per group of rows.
+     */
+    private void equalize(int startRow, int endRow, int[] rowTables) {
+        byte[] data = this.data;
+        int[] weights = columnWeights;
+        int tileRow = -1;
+        for (int y = startRow; y < endRow; ++y) {
+            if ((y == startRow) || (y % ROW_GROUP == 0) || (rowTiles[y] * TILE_GRID != tileRow)) {
+                // Groups are aligned to the frame and split where the tile changes, with the
+                // weight of their first row, so that the result doesn't depend on the bands.
+                int first = y - y % ROW_GROUP;
+                while (rowTiles[first] != rowTiles[y]) {
+                    first++;
+                }
+                tileRow = rowTiles[y] * TILE_GRID;
+                blendRowTables(tileRow, rowWeights[first], rowTables);
+            }
+            int offset = y * width;
+
+            int x = 0;
+            for (int tx = 0; tx < TILE_GRID; ++tx) {
+                int table = tx << 8;
+                for (int end = columnRunEnds[tx]; x < end; ++x) {
+                    int sides = rowTables[table + (data[offset + x] & 0xFF)];
+                    int wx = weights[x];
+                    int left = sides & 0xFFFF;
+                    data[offset + x] = (byte) (((left << 8) + ((sides >>> 16) - left) * wx + 32768)
+                            >> 16);
+                }
+            }
+        }
+    }
+
+    /**
+     * Blends the pair tables of the given row of tiles and the row below vertically by the given
+     * weight, into a pair of 8.8 fixed point values per tile and luma value: the left tile's in
+     * the low half, and the right tile's in the high half.  Tiles on the last row are their own
+     * neighbors.  Both halves are blended at once, as the low one stays within 16 bits and
+     * doesn't carry into the high one.
+     */
+    private void blendRowTables(int tileRow, int wy, int[] rowTables) {
+        int[] tables = pairTables;
+        int upper = tileRow << 8;
+        int lower = Math.min(tileRow + TILE_GRID, (TILE_GRID - 1) * TILE_GRID) << 8;
+        for (int i = 0; i < TILE_GRID * 256; ++i) {
+            int top = tables[upper + i];
+            rowTables[i] = (top << 8) + (tables[lower + i] - top) * wy;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Runs detectors over the frames of a recording made with
+ * {@link CameraSource#startFrameRecording}, one frame at a time, and measures how long each
+ * detection takes.  Every detector sees exactly the same frames, so that OCR engines, or settings
+ * of one engine, can be compared on the same corpus.
+ * <p/>
+ * Frames are copied out of the recording before the clock starts, so only detection is timed.
+ * Throughput is for a single thread detecting frames back to back.  Nothing here depends on Mobile
+ * Vision, so that detectors which don't need it can be benchmarked without it.
+ */
+public final class DetectorBenchmark {
+    /**
+     * Something to benchmark, which detects items in one frame at a time.
+     */
+    public interface Subject {
+        /**
+         * Detects the items in a frame.
+         *
+         * @param nv21     the NV21 frame, which must not be kept after the call
+         * @param rotation how the frame must be rotated to be upright, in quarter turns clockwise
+         * @return the number of items detected
+         */
+        int detect(ByteBuffer nv21, int width, int height, int rotation);
+    }
+
+    /**
+     * The outcome of running one detector over the recording.
+     */
+    public static final class Result {
+        private final String name;
+        private final long frames;
+        private final long items;
+        private final long totalNanos;
+        private final FrameMetrics.Latency latency;
+
+        Result(String name, long frames, long items, long totalNanos,
+               FrameMetrics.Latency latency) {
+            this.name = name;
+            this.frames = frames;
+            this.items = items;
+            this.totalNanos = totalNanos;
+            this.latency = latency;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of timed frames.
+         */
+        public long getFrames() {
+            return frames;
+        }
+
+        /**
+         * Returns the number of items detected over all timed frames.
+         */
+        public long getItems() {
+            return items;
+        }
+
+        /**
+         * Returns the distribution of the time to detect one frame.
+         */
+        public FrameMetrics.Latency getLatency() {
+            return latency;
+        }
+
+        /**
+         * Returns the number of frames detected per second.
+         */
+        public double getFramesPerSecond() {
+            return (totalNanos > 0) ? frames * 1e9 / totalNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + name + ", frames=" + frames + ", items=" + items + ", fps=" +
+                    Math.round(getFramesPerSecond() * 10) / 10.0 + ", latency=" + latency + "}";
+        }
+    }
+
+    private final FrameRecording recording;
+    private final int[] slots;
+    private final byte[] data;
+    private final ByteBuffer frame;
+
+    /**
+     * @throws IOException if the file is not a frame recording
+     */
+    public DetectorBenchmark(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            recording = FrameRecording.read(buffer);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            randomAccessFile.close();
+        }
+        slots = recording.getSlotsInOrder();
+        data = new byte[recording.getFrameSize()];
+        frame = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Returns the number of frames in the recording.
+     */
+    public int getFrameCount() {
+        return slots.length;
+    }
+
+    /**
+     * Runs a detector over every frame of the recording, after running it untimed over the first
+     * few, so that lazy initialization isn't counted.  The detector is not released.
+     *
+     * @param name         the name to report the result under
+     * @param warmUpFrames how many frames to run untimed first
+     */
+    public Result run(String name, Subject detector, int warmUpFrames) {
+        if (warmUpFrames < 0) {
+            throw new IllegalArgumentException("Invalid warm-up frame count: " + warmUpFrames);
+        }
+        int width = recording.getWidth();
+        int height = recording.getHeight();
+        for (int i = 0; (i < warmUpFrames) && (slots.length > 0); ++i) {
+            int slot = slots[i % slots.length];
+            recording.readFrame(slot, data);
+            detector.detect(frame, width, height, recording.getRotation(slot));
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        long items = 0;
+        long totalNanos = 0;
+        for (int slot : slots) {
+            recording.readFrame(slot, data);
+            int rotation = recording.getRotation(slot);
+            long startNanos = System.nanoTime();
+            int detected = detector.detect(frame, width, height, rotation);
+            long nanos = System.nanoTime() - startNanos;
+
+            histogram.recordNanos(nanos);
+            totalNanos += nanos;
+            items += detected;
+        }
+        return new Result(name, slots.length, items, totalNanos, histogram.snapshot());
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * How long the detector takes per megapixel of frame on this device, measured from the frames it
+ * actually detects and kept in a small file for the next run.
+ * <p/>
+ * Each detected frame updates a moving average of its latency divided by its size in megapixels.
+ * Nothing is known until the first run has detected enough frames, so the estimate is only
+ * available from the second start on.  Each detector has a file of its own, by its name, so
+ * that switching between detectors, such as OCR engines run by the same detector class, doesn't
+ * mix their speeds.  The file is tied to the build fingerprint and the detector's name, and
+ * ignored if either differs:
+ * <pre>
+ * int magic, int version, UTF key, double nanosPerMegapixel, int samples
+ * </pre>
+ */
+final class DetectorCalibration {
+    private static final String TAG = "DetectorCalibration";
+
+    private static final String FILE_PREFIX = "detector_calibration_";
+    private static final String FILE_SUFFIX = ".bin";
+
+    private static final int MAGIC = 0x43414C49; // "CALI"
+    private static final int VERSION = 1;
+
+    // Frames that need to be measured before the estimate is trusted.
+    private static final int MIN_SAMPLES = 30;
+
+    // Weight of the newest frame in the moving average.
+    private static final double SMOOTHING = 0.05;
+
+    private final File file;
+    private final String key;
+
+    // Guarded by this.
+    private boolean loaded;
+    private boolean changed;
+    private double nanosPerMegapixel;
+    private int samples;
+
+    /**
+     * @param directory    the directory to keep the file in
+     * @param detectorName a name that tells the detector apart from others that run at a different
+     *                     speed
+     */
+    DetectorCalibration(File directory, String detectorName) {
+        this.file = new File(directory,
+                FILE_PREFIX + detectorName.replaceAll("[^A-Za-z0-9._-]", "_") + FILE_SUFFIX);
+        this.key = Build.FINGERPRINT + "/" + detectorName;
+    }
+
+    /**
+     * Records how long detection took on a frame of the given number of pixels.
+     */
+    synchronized void record(int pixels, long latencyNanos) {
+        if ((pixels <= 0) || (latencyNanos <= 0)) {
+            return;
+        }
+        ensureLoaded();
+
+        double sample = latencyNanos / (pixels / 1e6);
+        if (samples == 0) {
+            nanosPerMegapixel = sample;
+        } else {
+            nanosPerMegapixel += SMOOTHING * (sample - nanosPerMegapixel);
+        }
+        samples++;
+        changed = true;
+    }
+
+    /**
+     * Returns the estimated detection latency for a frame of the given number of pixels, or -1 if
+     * too few frames have been measured yet.
+     */
+    synchronized long estimateLatencyNanos(int pixels) {
+        ensureLoaded();
+        if (samples < MIN_SAMPLES) {
+            return -1;
+        }
+        return (long) (nanosPerMegapixel * (pixels / 1e6));
+    }
+
+    /**
+     * Writes the estimate to the file if it changed and is trusted.
+     */
+    synchronized void save() {
+        if (!changed || (samples < MIN_SAMPLES)) {
+            return;
+        }
+        changed = false;
+
+        // Written next to the file and then renamed over it, so that a crash never leaves a
+        // partial file behind.
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeDouble(nanosPerMegapixel);
+            out.writeInt(samples);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write detector calibration.", e);
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(file)) {
+            Log.w(TAG, "Could not replace " + file);
+            temporary.delete();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION) || !key.equals(in.readUTF())) {
+                Log.d(TAG, "Ignoring detector calibration from another build or detector.");
+                return;
+            }
+            double nanosPerMegapixel = in.readDouble();
+            int samples = in.readInt();
+            if ((nanosPerMegapixel > 0) && (samples > 0)) {
+                this.nanosPerMegapixel = nanosPerMegapixel;
+                this.samples = samples;
+            }
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "No detector calibration yet, it will be measured on this run.");
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read detector calibration, measuring it again.", e);
+        }
+    }
+}
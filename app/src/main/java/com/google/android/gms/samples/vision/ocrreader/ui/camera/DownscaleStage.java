@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+/**
+ * Frame stage which downscales frames before detection.  Short range text is still readable at a
+ * fraction of the resolution of modern camera sensors, and detection cost grows with the number
+ * of pixels.  Frames are scaled either by a fixed integer factor, or by whichever integer factor
+ * brings the upright frame width closest to, but not below, a target width.  The output buffer is
+ * reused from frame to frame.
+ */
+final class DownscaleStage implements FrameStage {
+    private final int factor;
+    private final int targetWidth;
+
+    private final YuvFrame output = new YuvFrame();
+    private byte[] outputData = new byte[0];
+
+    /**
+     * @param factor      fixed downscale factor, or 0 to use the target width
+     * @param targetWidth the desired upright frame width, used if no factor is given
+     */
+    DownscaleStage(int factor, int targetWidth) {
+        this.factor = factor;
+        this.targetWidth = targetWidth;
+    }
+
+    @Override
+    public YuvFrame process(YuvFrame frame) {
+        int factor = factorFor(frame.width, frame.height, frame.rotation, this.factor, targetWidth);
+        if (factor <= 1) {
+            return frame;
+        }
+
+        int width = Nv21Scaler.scaledWidth(frame.width, factor);
+        int height = Nv21Scaler.scaledHeight(frame.height, factor);
+        int size = YuvFrame.sizeInBytes(width, height);
+        if (outputData.length < size) {
+            outputData = new byte[size];
+        }
+
+        Nv21Scaler.downscale(frame.data, frame.width, frame.height, factor, outputData);
+        output.setDerived(frame, outputData, width, height, frame.left, frame.top,
+                frame.scale * factor);
+        return output;
+    }
+
+    /**
+     * Returns the downscale factor to use for a frame of the given size.
+     *
+     * @param rotation    the frame rotation, as one of the {@code Frame.ROTATION_*} constants
+     * @param factor      fixed downscale factor, or 0 to use the target width
+     * @param targetWidth the desired upright frame width, used if no factor is given
+     */
+    static int factorFor(int width, int height, int rotation, int factor, int targetWidth) {
+        if (factor > 0) {
+            return factor;
+        }
+        if (targetWidth <= 0) {
+            return 1;
+        }
+        int uprightWidth = ((rotation & 1) == 1) ? height : width;
+        return Math.max(1, uprightWidth / targetWidth);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size pool of preview frame buffers shared between the camera and the frame processing
+ * pipeline.
+ * <p/>
+ * Each buffer is one byte larger than a full frame, and that trailing byte holds the buffer's
+ * index in the pool.  This lets the camera callback map the byte array it was handed back to its
+ * pool slot in constant time, without hashing or boxing.  The tag is always verified against the
+ * slot's identity, falling back to a scan of the (small) pool if a camera HAL ever touches it.
+ * <p/>
+ * Buffers are kept across camera restarts as long as the frame size and buffer count do not
+ * change, so that pausing and resuming the camera does not reallocate several megabytes.
+ */
+final class FrameBufferPool {
+    /**
+     * The pool index is stored in a single byte, so the pool can never hold more buffers than
+     * this.  In practice only a handful are ever useful.
+     */
+    static final int MAX_BUFFERS = 32;
+
+    // Replaced wholesale on reallocation, and read without locking from the camera callback.
+    private volatile byte[][] arrays = new byte[0][];
+    private volatile ByteBuffer[] buffers = new ByteBuffer[0];
+    private int frameSizeInBytes;
+
+    // Occupancy is updated from both the camera callback thread and the processing thread.
+    private final AtomicInteger inPipeline = new AtomicInteger();
+    private final AtomicInteger peakInPipeline = new AtomicInteger();
+    private final AtomicLong unknownBuffers = new AtomicLong();
+    private long allocations;
+    private long reuses;
+
+    /**
+     * Makes sure the pool holds {@code count} buffers large enough for a frame of
+     * {@code frameSizeInBytes}.  Existing buffers are reused if they already match.  All buffers
+     * are considered to be owned by the camera afterwards.
+     *
+     * @return true if new buffers were allocated
+     */
+    synchronized boolean ensure(int count, int frameSizeInBytes) {
+        if ((count <= 0) || (count > MAX_BUFFERS)) {
+            throw new IllegalArgumentException("Invalid frame buffer count: " + count);
+        }
+
+        inPipeline.set(0);
+        if ((arrays.length == count) && (this.frameSizeInBytes == frameSizeInBytes)) {
+            reuses++;
+            return false;
+        }
+
+        byte[][] newArrays = new byte[count][];
+        ByteBuffer[] newBuffers = new ByteBuffer[count];
+        for (int i = 0; i < count; ++i) {
+            // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
+            // should guarantee that there will be an array to work with.
+            byte[] byteArray = new byte[frameSizeInBytes + 1];
+            ByteBuffer buffer = ByteBuffer.wrap(byteArray);
+            if (!buffer.hasArray() || (buffer.array() != byteArray)) {
+                // I don't think that this will ever happen.  But if it does, then we wouldn't be
+                // passing the preview content to the underlying detector later.
+                throw new IllegalStateException("Failed to create valid buffer for camera source.");
+            }
+            byteArray[frameSizeInBytes] = (byte) i;
+            newArrays[i] = byteArray;
+            newBuffers[i] = buffer;
+        }
+
+        arrays = newArrays;
+        buffers = newBuffers;
+        this.frameSizeInBytes = frameSizeInBytes;
+        allocations += count;
+        return true;
+    }
+
+    /**
+     * Drops all buffers, so that their memory can be reclaimed.
+     */
+    synchronized void clear() {
+        arrays = new byte[0][];
+        buffers = new ByteBuffer[0];
+        frameSizeInBytes = 0;
+        inPipeline.set(0);
+    }
+
+    /**
+     * Returns the number of buffers in the pool.
+     */
+    int size() {
+        return arrays.length;
+    }
+
+    /**
+     * Returns the raw array of the buffer at the given index, which is what the camera fills.
+     */
+    byte[] array(int index) {
+        return arrays[index];
+    }
+
+    /**
+     * Returns the byte buffer wrapping the array at the given index.  We use byte buffers
+     * internally because this is a more efficient way to call into native code later (avoids a
+     * potential copy).
+     */
+    ByteBuffer buffer(int index) {
+        return buffers[index];
+    }
+
+    /**
+     * Returns the pool index of the given array, or -1 if the array does not belong to the pool.
+     */
+    int indexOf(byte[] data) {
+        byte[][] arrays = this.arrays;
+        if ((data != null) && (data.length > 0)) {
+            int tagged = data[data.length - 1] & 0xFF;
+            if ((tagged < arrays.length) && (arrays[tagged] == data)) {
+                return tagged;
+            }
+            for (int i = 0; i < arrays.length; ++i) {
+                if (arrays[i] == data) {
+                    return i;
+                }
+            }
+        }
+        unknownBuffers.incrementAndGet();
+        return -1;
+    }
+
+    /**
+     * Returns the number of arrays passed to {@link #indexOf} that did not belong to the pool.
+     */
+    long getUnknownBufferCount() {
+        return unknownBuffers.get();
+    }
+
+    /**
+     * Records that a buffer was taken from the camera and is now held by the pipeline.
+     */
+    void markAcquired() {
+        int held = inPipeline.incrementAndGet();
+        int peak = peakInPipeline.get();
+        while ((held > peak) && !peakInPipeline.compareAndSet(peak, held)) {
+            peak = peakInPipeline.get();
+        }
+    }
+
+    /**
+     * Records that a buffer held by the pipeline was handed back to the camera.
+     */
+    void markReleased() {
+        inPipeline.decrementAndGet();
+    }
+
+    /**
+     * Returns a snapshot of the pool's occupancy and allocation counters.
+     */
+    FrameBufferStats getStats() {
+        int capacity;
+        int bufferSize;
+        long allocations;
+        long reuses;
+        synchronized (this) {
+            capacity = arrays.length;
+            bufferSize = frameSizeInBytes;
+            allocations = this.allocations;
+            reuses = this.reuses;
+        }
+        int held = inPipeline.get();
+        return new FrameBufferStats(capacity, bufferSize, capacity - held, held,
+                peakInPipeline.get(), allocations, reuses, unknownBuffers.get());
+    }
+}
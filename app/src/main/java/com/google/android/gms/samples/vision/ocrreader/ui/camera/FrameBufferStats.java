@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+/**
+ * Immutable snapshot of the occupancy of a camera source's preview frame buffers.  See
+ * {@link CameraSource#getFrameBufferStats()}.
+ */
+public final class FrameBufferStats {
+    private final int capacity;
+    private final int bufferSizeInBytes;
+    private final int inCamera;
+    private final int inPipeline;
+    private final int peakInPipeline;
+    private final long allocations;
+    private final long reuses;
+    private final long unknownBuffers;
+
+    FrameBufferStats(int capacity, int bufferSizeInBytes, int inCamera, int inPipeline,
+                     int peakInPipeline, long allocations, long reuses, long unknownBuffers) {
+        this.capacity = capacity;
+        this.bufferSizeInBytes = bufferSizeInBytes;
+        this.inCamera = inCamera;
+        this.inPipeline = inPipeline;
+        this.peakInPipeline = peakInPipeline;
+        this.allocations = allocations;
+        this.reuses = reuses;
+        this.unknownBuffers = unknownBuffers;
+    }
+
+    /**
+     * Returns the number of buffers in the pool.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the size of a single frame buffer in bytes.
+     */
+    public int getBufferSizeInBytes() {
+        return bufferSizeInBytes;
+    }
+
+    /**
+     * Returns the number of buffers queued with the camera, waiting to be filled.
+     */
+    public int getInCamera() {
+        return inCamera;
+    }
+
+    /**
+     * Returns the number of buffers currently pending or being processed by the detector.
+     */
+    public int getInPipeline() {
+        return inPipeline;
+    }
+
+    /**
+     * Returns the largest number of buffers ever held by the pipeline at once.
+     */
+    public int getPeakInPipeline() {
+        return peakInPipeline;
+    }
+
+    /**
+     * Returns the total number of buffers allocated over the lifetime of the camera source.
+     */
+    public long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * Returns how many times the camera was started with the existing buffers, without allocating.
+     */
+    public long getReuses() {
+        return reuses;
+    }
+
+    /**
+     * Returns the number of frames skipped because the camera returned an unknown buffer.
+     */
+    public long getUnknownBuffers() {
+        return unknownBuffers;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameBufferStats{capacity=" + capacity + ", bufferSize=" + bufferSizeInBytes +
+                ", inCamera=" + inCamera + ", inPipeline=" + inPipeline +
+                ", peakInPipeline=" + peakInPipeline + ", allocations=" + allocations +
+                ", reuses=" + reuses + ", unknownBuffers=" + unknownBuffers + "}";
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame stage which skips detection on frames that barely differ from the last detected frame,
+ * e.g. while the phone lies still over a receipt.  The detector's processor then simply keeps the
+ * previous result, and the frame buffer goes straight back to the camera.
+ * <p/>
+ * Frames are compared through a coarse grid of mean luma values, computed from a sparse sample of
+ * each cell, which costs microseconds per frame.  A frame is detected if the mean absolute
+ * difference of the grid cells exceeds the threshold, if its size or position changed, or if too
+ * many frames in a row have been skipped.  The comparison is always against the last frame that
+ * was detected, so that slow drift still adds up to a change eventually.
+ * <p/>
+ * One gate is shared by all detection workers, so that each frame is compared against the last
+ * frame that any of them detected, and skips are counted across workers.  Frames pass the gate one
+ * at a time, which only takes microseconds.
+ */
+final class FrameChangeGate implements FrameStage {
+    private static final int GRID_SIZE = 32;
+    private static final int SAMPLES_PER_CELL_SIDE = 4;
+
+    /**
+     * Even a static scene is detected again after this many skipped frames, so that a missed
+     * detection doesn't stick forever.
+     */
+    private static final int MAX_CONSECUTIVE_SKIPS = 60;
+
+    /**
+     * Settings and counters of the gate, which may be used from any thread.
+     */
+    static final class Settings {
+        /**
+         * The mean absolute difference in luma levels (0-255) between grid cells, below which a
+         * frame counts as unchanged.  0 disables the gate.
+         */
+        volatile float threshold;
+
+        final AtomicLong skippedFrames = new AtomicLong();
+        final AtomicLong changedFrames = new AtomicLong();
+    }
+
+    private final Settings settings;
+
+    // All of the member variables below are guarded by this object.
+    private int[] grid = new int[GRID_SIZE * GRID_SIZE];
+    private int[] lastGrid = new int[GRID_SIZE * GRID_SIZE];
+    private boolean hasLastGrid;
+    private int lastWidth;
+    private int lastHeight;
+    private int lastLeft;
+    private int lastTop;
+    private int consecutiveSkips;
+
+    FrameChangeGate(Settings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public synchronized YuvFrame process(YuvFrame frame) {
+        float threshold = settings.threshold;
+        if (threshold <= 0) {
+            return frame;
+        }
+
+        computeGrid(frame.data, frame.width, frame.height, grid);
+
+        boolean sameRegion = hasLastGrid && (frame.width == lastWidth) &&
+                (frame.height == lastHeight) && (frame.left == lastLeft) && (frame.top == lastTop);
+        if (sameRegion && (consecutiveSkips < MAX_CONSECUTIVE_SKIPS) &&
+                (meanAbsoluteDifference(grid, lastGrid) < threshold)) {
+            consecutiveSkips++;
+            settings.skippedFrames.incrementAndGet();
+            return null;
+        }
+
+        // This frame will be detected, so it becomes the reference for the following frames.
+        int[] swap = lastGrid;
+        lastGrid = grid;
+        grid = swap;
+        hasLastGrid = true;
+        lastWidth = frame.width;
+        lastHeight = frame.height;
+        lastLeft = frame.left;
+        lastTop = frame.top;
+        consecutiveSkips = 0;
+        settings.changedFrames.incrementAndGet();
+        return frame;
+    }
+
+    /**
+     * Computes the mean luma of each grid cell, from a sparse sample of the cell's pixels.  The
+     * means are kept scaled by the number of samples, which is the same for every cell.
+     */
+    static void computeGrid(byte[] luma, int width, int height, int[] out) {
+        int cellWidth = Math.max(1, width / GRID_SIZE);
+        int cellHeight = Math.max(1, height / GRID_SIZE);
+        int stepX = Math.max(1, cellWidth / SAMPLES_PER_CELL_SIDE);
+        int stepY = Math.max(1, cellHeight / SAMPLES_PER_CELL_SIDE);
+
+        for (int cellY = 0; cellY < GRID_SIZE; ++cellY) {
+            int top = Math.min(cellY * cellHeight, height - 1);
+            for (int cellX = 0; cellX < GRID_SIZE; ++cellX) {
+                int left = Math.min(cellX * cellWidth, width - 1);
+                int sum = 0;
+                for (int j = 0; j < SAMPLES_PER_CELL_SIDE; ++j) {
+                    int row = Math.min(top + j * stepY, height - 1) * width;
+                    for (int i = 0; i < SAMPLES_PER_CELL_SIDE; ++i) {
+                        sum += luma[row + Math.min(left + i * stepX, width - 1)] & 0xFF;
+                    }
+                }
+                out[cellY * GRID_SIZE + cellX] = sum;
+            }
+        }
+    }
+
+    /**
+     * Returns the mean absolute difference between two grids, in luma levels.
+     */
+    static float meanAbsoluteDifference(int[] a, int[] b) {
+        long total = 0;
+        for (int i = 0; i < a.length; ++i) {
+            total += Math.abs(a[i] - b[i]);
+        }
+        return (float) total / (a.length * SAMPLES_PER_CELL_SIDE * SAMPLES_PER_CELL_SIDE);
+    }
+}
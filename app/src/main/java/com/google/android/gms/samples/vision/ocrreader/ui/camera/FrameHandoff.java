@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+/**
+ * Single-slot handoff of the latest frame from the camera's callback thread to the detection
+ * workers.
+ * <p/>
+ * The slot holds the pool index of the pending frame buffer.  Publishing a frame puts it into the
+ * slot, and the frame it displaces, if any, is handed back to the caller to recycle, so the
+ * camera thread never calls back into the camera while holding the lock.  Idle workers, and a
+ * lossless publisher waiting for the slot to empty, wait on the lock and are notified whenever
+ * the slot changes.
+ * <p/>
+ * Workers that need to see frames in the order they were taken, such as to number them for
+ * in-order delivery, get a {@link TakeListener}, which is called while the frame is taken.
+ */
+final class FrameHandoff {
+    /**
+     * Slot value when no frame is pending.
+     */
+    static final int EMPTY = -1;
+
+    /**
+     * Told about each frame as a worker takes it.
+     */
+    interface TakeListener {
+        /**
+         * Called on the worker that took the frame, before any other worker can take one, so
+         * that calls are made in the order the frames were taken.  Must not block.
+         */
+        void onTaken(int worker, int bufferIndex);
+    }
+
+    // Told about taken frames, may be null.
+    private final TakeListener takeListener;
+
+    // This lock guards all of the member variables below.
+    private final Object lock = new Object();
+    private int slot = EMPTY;
+    private boolean active = true;
+
+    /**
+     * @param takeListener told about each frame as it is taken, may be null
+     */
+    FrameHandoff(TakeListener takeListener) {
+        this.takeListener = takeListener;
+    }
+
+    /**
+     * Activates or deactivates the handoff.  Deactivating wakes all waiting threads, so that
+     * workers return {@link #EMPTY} from {@link #take(int)} and can exit.
+     */
+    void setActive(boolean active) {
+        synchronized (lock) {
+            this.active = active;
+            lock.notifyAll();
+        }
+    }
+
+    boolean isActive() {
+        synchronized (lock) {
+            return active;
+        }
+    }
+
+    /**
+     * Makes the given buffer the pending frame.
+     *
+     * @return the pending frame it displaced, which the caller must recycle, or {@link #EMPTY}
+     */
+    int publish(int bufferIndex) {
+        synchronized (lock) {
+            int displaced = slot;
+            slot = bufferIndex;
+            lock.notifyAll();
+            return displaced;
+        }
+    }
+
+    /**
+     * Makes the given buffer the pending frame once the current one has been taken, so that no
+     * frame is dropped.  Stops waiting if the handoff is deactivated or the thread is
+     * interrupted, and then displaces the pending frame.
+     *
+     * @return the pending frame it displaced, which the caller must recycle, or {@link #EMPTY}
+     */
+    int publishWhenTaken(int bufferIndex) {
+        synchronized (lock) {
+            while (active && (slot != EMPTY)) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return publish(bufferIndex);
+        }
+    }
+
+    /**
+     * Takes the pending frame, waiting for one if there is none.
+     *
+     * @param worker the index of the calling worker
+     * @return the buffer index of the frame, or {@link #EMPTY} if the handoff was deactivated or
+     * the thread was interrupted
+     */
+    int take(int worker) {
+        synchronized (lock) {
+            while (active && (slot == EMPTY)) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    return EMPTY;
+                }
+            }
+            if (!active) {
+                return EMPTY;
+            }
+
+            int bufferIndex = slot;
+            slot = EMPTY;
+            if (takeListener != null) {
+                takeListener.onTaken(worker, bufferIndex);
+            }
+            // A lossless publisher may be waiting for the slot to empty.
+            lock.notifyAll();
+            return bufferIndex;
+        }
+    }
+
+    /**
+     * Empties the slot without waking anyone.
+     *
+     * @return the frame that was pending, or {@link #EMPTY}
+     */
+    int clear() {
+        synchronized (lock) {
+            int bufferIndex = slot;
+            slot = EMPTY;
+            return bufferIndex;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+/**
+ * Immutable snapshot of the frame counters and latencies of a camera source.  See
+ * {@link CameraSource#getFrameMetrics()}.
+ */
+public final class FrameMetrics {
+    /**
+     * Percentiles of a latency distribution, in microseconds.  Percentiles are accurate to about
+     * 3% of their value.
+     */
+    public static final class Latency {
+        private final long count;
+        private final long p50Micros;
+        private final long p95Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+
+        Latency(long count, long p50Micros, long p95Micros, long p99Micros, long maxMicros) {
+            this.count = count;
+            this.p50Micros = p50Micros;
+            this.p95Micros = p95Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        /**
+         * Returns the number of recorded latencies.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP95Micros() {
+            return p95Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        /**
+         * Returns the exact largest recorded latency.
+         */
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count + ", p50=" + p50Micros + "us, p95=" + p95Micros +
+                    "us, p99=" + p99Micros + "us, max=" + maxMicros + "us}";
+        }
+    }
+
+    private final long framesDelivered;
+    private final long framesOverwritten;
+    private final long unknownBuffers;
+    private final Latency detectorLatency;
+    private final Latency cameraToOverlayLatency;
+
+    FrameMetrics(long framesDelivered, long framesOverwritten, long unknownBuffers,
+                 Latency detectorLatency, Latency cameraToOverlayLatency) {
+        this.framesDelivered = framesDelivered;
+        this.framesOverwritten = framesOverwritten;
+        this.unknownBuffers = unknownBuffers;
+        this.detectorLatency = detectorLatency;
+        this.cameraToOverlayLatency = cameraToOverlayLatency;
+    }
+
+    /**
+     * Returns the number of preview frames delivered by the camera.
+     */
+    public long getFramesDelivered() {
+        return framesDelivered;
+    }
+
+    /**
+     * Returns the number of frames dropped because a newer frame arrived before the detector got
+     * to them.
+     */
+    public long getFramesOverwritten() {
+        return framesOverwritten;
+    }
+
+    /**
+     * Returns the number of frames skipped because the camera returned an unknown buffer.
+     */
+    public long getUnknownBuffers() {
+        return unknownBuffers;
+    }
+
+    /**
+     * Returns the time spent in the detector per frame, including the processor when detection
+     * isn't parallel.
+     */
+    public Latency getDetectorLatency() {
+        return detectorLatency;
+    }
+
+    /**
+     * Returns the time from a frame's arrival from the camera until its results are handed to
+     * the overlay, as reported with {@link CameraSource#recordOverlayUpdate}.
+     */
+    public Latency getCameraToOverlayLatency() {
+        return cameraToOverlayLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameMetrics{delivered=" + framesDelivered + ", overwritten=" + framesOverwritten +
+                ", unknownBuffers=" + unknownBuffers + ", detector=" + detectorLatency +
+                ", cameraToOverlay=" + cameraToOverlayLatency + "}";
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+/**
+ * Chain of {@link FrameStage}s that runs on each camera frame of one detection worker.
+ */
+final class FramePipeline {
+    private final FrameStage[] stages;
+    private final YuvFrame input = new YuvFrame();
+
+    FramePipeline(FrameStage... stages) {
+        this.stages = stages;
+    }
+
+    /**
+     * Returns the reusable frame that the input of this pipeline should be written to.
+     */
+    YuvFrame getInput() {
+        return input;
+    }
+
+    /**
+     * Runs all stages on the input frame.
+     *
+     * @return the frame to detect, or null if a stage decided not to detect this frame
+     */
+    YuvFrame process() {
+        YuvFrame frame = input;
+        for (FrameStage stage : stages) {
+            frame = stage.process(frame);
+            if (frame == null) {
+                return null;
+            }
+        }
+        return frame;
+    }
+}
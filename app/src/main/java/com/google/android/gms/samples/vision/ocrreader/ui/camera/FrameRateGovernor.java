@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+/**
+ * Decides how fast the camera should deliver preview frames, based on how fast the detector
+ * actually consumes them.
+ * <p/>
+ * The processing threads report the detection latency of every frame along with the number of
+ * frames that were dropped before it.  Once per evaluation window, the governor estimates the frame
+ * rate that the detector can sustain.  The camera frame rate is lowered when frames are being
+ * dropped and the detector can't keep up, and raised again once it clearly can.  A change needs to
+ * differ from the current rate by a margin and is held for a minimum time, so that the camera
+ * doesn't flap between frame rate ranges.
+ */
+final class FrameRateGovernor {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    // How often the frame rate is re-evaluated, and how long a new frame rate is kept at least.
+    private static final long WINDOW_NANOS = NANOS_PER_SECOND;
+    private static final long HOLD_NANOS = 3 * NANOS_PER_SECOND;
+
+    // A new frame rate must differ from the current one by at least this fraction.
+    private static final float HYSTERESIS = 0.2f;
+
+    // Only ask for this fraction of what the detector can sustain, leaving some idle time.
+    private static final float HEADROOM = 0.9f;
+
+    // Drop rates above the high mark mean the camera is too fast.  Below the low mark, it may be
+    // raised if the detector got faster.
+    private static final float DROP_RATE_HIGH = 0.25f;
+    private static final float DROP_RATE_LOW = 0.05f;
+
+    // Weight of the newest sample in the latency moving average.
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final float minFps;
+    private final float maxFps;
+    private final int parallelism;
+
+    // Guarded by this.
+    private float currentFps;
+    private double averageLatencyNanos;
+    private int windowProcessed;
+    private int windowDropped;
+    private long windowStartNanos = -1;
+    private long lastChangeNanos;
+
+    // Set by the processing threads, taken by the camera callback thread.
+    private volatile float pendingFps;
+
+    /**
+     * @param minFps      the lowest frame rate the governor will ask for
+     * @param maxFps      the highest frame rate the governor will ask for, usually the requested
+     *                    frame rate
+     * @param parallelism the number of frames that are detected at once
+     */
+    FrameRateGovernor(float minFps, float maxFps, int parallelism) {
+        this.minFps = Math.min(minFps, maxFps);
+        this.maxFps = maxFps;
+        this.parallelism = parallelism;
+        currentFps = maxFps;
+    }
+
+    /**
+     * Returns the frame rate the camera should currently be running at.
+     */
+    synchronized float getCurrentFps() {
+        return currentFps;
+    }
+
+    /**
+     * Tells the governor which frame rate the camera actually runs at, which may differ from the
+     * one it asked for since cameras only support a few frame rate ranges.
+     */
+    synchronized void setCurrentFps(float fps, long nowNanos) {
+        currentFps = fps;
+        lastChangeNanos = nowNanos;
+        resetWindow(nowNanos);
+    }
+
+    /**
+     * Records a frame that went through detection.
+     *
+     * @param droppedBefore the number of camera frames dropped since the previous processed frame
+     * @param latencyNanos  how long detection took for this frame
+     * @param nowNanos      the current time
+     */
+    synchronized void onFrameProcessed(int droppedBefore, long latencyNanos, long nowNanos) {
+        if (averageLatencyNanos == 0) {
+            averageLatencyNanos = latencyNanos;
+        } else {
+            averageLatencyNanos += LATENCY_SMOOTHING * (latencyNanos - averageLatencyNanos);
+        }
+
+        if (windowStartNanos < 0) {
+            resetWindow(nowNanos);
+        }
+        windowProcessed++;
+        windowDropped += Math.max(0, droppedBefore);
+
+        if (nowNanos - windowStartNanos >= WINDOW_NANOS) {
+            evaluate(nowNanos);
+            resetWindow(nowNanos);
+        }
+    }
+
+    /**
+     * Returns the frame rate the camera should switch to, or 0 if it should stay as it is.  The
+     * change is only handed out once.
+     */
+    float takePendingFps() {
+        if (pendingFps == 0) {
+            return 0;
+        }
+        synchronized (this) {
+            float fps = pendingFps;
+            pendingFps = 0;
+            return fps;
+        }
+    }
+
+    private void evaluate(long nowNanos) {
+        if ((nowNanos - lastChangeNanos < HOLD_NANOS) || (averageLatencyNanos <= 0)) {
+            return;
+        }
+
+        float sustainableFps =
+                (float) (parallelism * NANOS_PER_SECOND / averageLatencyNanos) * HEADROOM;
+        sustainableFps = Math.max(minFps, Math.min(maxFps, sustainableFps));
+        float dropRate = (float) windowDropped / (float) (windowProcessed + windowDropped);
+
+        if ((dropRate > DROP_RATE_HIGH) && (sustainableFps < currentFps * (1 - HYSTERESIS))) {
+            pendingFps = sustainableFps;
+        } else if ((dropRate < DROP_RATE_LOW) &&
+                (sustainableFps > currentFps * (1 + HYSTERESIS))) {
+            pendingFps = sustainableFps;
+        }
+    }
+
+    private void resetWindow(long nowNanos) {
+        windowStartNanos = nowNanos;
+        windowProcessed = 0;
+        windowDropped = 0;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records raw preview frames into a fixed-size, memory-mapped ring file, in the format described
+ * by {@link FrameRecording}, for later replay.
+ * <p/>
+ * The camera callback only copies a frame into one of a few staging buffers, which never blocks:
+ * if the writer thread hasn't caught up and no staging buffer is free, the frame is dropped from
+ * the recording.  The writer thread creates and maps the file when the first frame arrives, and
+ * then writes each frame into the next slot of the ring, overwriting the oldest frames once the
+ * ring is full.
+ */
+final class FrameRecorder implements Runnable {
+    private static final String TAG = "FrameRecorder";
+
+    // Frames copied by the camera callback, waiting for the writer.  Two are enough to absorb a
+    // slow write without holding on to much memory.
+    private static final int STAGING_BUFFERS = 2;
+
+    // How often the writer checks whether it was stopped while no frames arrive.
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * A frame copied out of the camera's buffer, with what replay needs to know about it.
+     */
+    private static final class StagedFrame {
+        byte[] data;
+        int frameSize;
+        int width;
+        int height;
+        int rotation;
+        int frameId;
+        long timestampMillis;
+    }
+
+    private final File file;
+    private final int slotCount;
+    private final int frameInterval;
+
+    private final ArrayBlockingQueue<StagedFrame> freeFrames =
+            new ArrayBlockingQueue<>(STAGING_BUFFERS);
+    private final ArrayBlockingQueue<StagedFrame> pendingFrames =
+            new ArrayBlockingQueue<>(STAGING_BUFFERS);
+
+    private final AtomicLong recordedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    // Only touched by the camera callback thread.
+    private int framesSeen;
+
+    private Thread thread;
+    private volatile boolean stopped;
+
+    // Only touched by the writer thread.
+    private MappedByteBuffer mapping;
+    private int recordingWidth;
+    private int recordingHeight;
+    private int recordingFrameSize;
+    private long sequence;
+
+    /**
+     * @param file          the file to record into, which is replaced
+     * @param slotCount     the number of frames the ring holds
+     * @param frameInterval record every this many frames
+     */
+    FrameRecorder(File file, int slotCount, int frameInterval) {
+        this.file = file;
+        this.slotCount = slotCount;
+        this.frameInterval = frameInterval;
+        for (int i = 0; i < STAGING_BUFFERS; ++i) {
+            freeFrames.offer(new StagedFrame());
+        }
+    }
+
+    void start() {
+        thread = new Thread(this, TAG);
+        thread.start();
+    }
+
+    /**
+     * Copies a frame for recording if it's one of the selected frames and the writer has room for
+     * it.  Never blocks.
+     */
+    void record(byte[] data, int frameSize, int width, int height, int rotation, int frameId,
+                long timestampMillis) {
+        if ((framesSeen++ % frameInterval) != 0) {
+            return;
+        }
+        StagedFrame frame = freeFrames.poll();
+        if (frame == null) {
+            droppedFrames.incrementAndGet();
+            return;
+        }
+
+        if ((frame.data == null) || (frame.data.length < frameSize)) {
+            frame.data = new byte[frameSize];
+        }
+        System.arraycopy(data, 0, frame.data, 0, frameSize);
+        frame.frameSize = frameSize;
+        frame.width = width;
+        frame.height = height;
+        frame.rotation = rotation;
+        frame.frameId = frameId;
+        frame.timestampMillis = timestampMillis;
+        pendingFrames.offer(frame);
+    }
+
+    /**
+     * Writes the frames still waiting, flushes the file and stops the writer thread.
+     */
+    void stop() {
+        stopped = true;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Interrupted while stopping the recording.");
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        Log.d(TAG, "Recorded " + recordedFrames.get() + " frames to " + file + ", dropped " +
+                droppedFrames.get() + ".");
+    }
+
+    long getRecordedFrameCount() {
+        return recordedFrames.get();
+    }
+
+    long getDroppedFrameCount() {
+        return droppedFrames.get();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                StagedFrame frame = pendingFrames.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    if (stopped) {
+                        break;
+                    }
+                    continue;
+                }
+                try {
+                    write(frame);
+                } finally {
+                    freeFrames.offer(frame);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Recording interrupted.");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write frame recording " + file + ".", e);
+        } finally {
+            if (mapping != null) {
+                mapping.force();
+                mapping = null;
+            }
+        }
+    }
+
+    private void write(StagedFrame frame) throws IOException {
+        if (mapping == null) {
+            open(frame.width, frame.height, frame.frameSize);
+        } else if ((frame.width != recordingWidth) || (frame.height != recordingHeight)) {
+            // A recording has a single frame size, and the preview size changed since it started.
+            droppedFrames.incrementAndGet();
+            return;
+        }
+
+        int slot = (int) (sequence % slotCount);
+        sequence++;
+        FrameRecording.writeSlot(mapping, slot, recordingFrameSize, sequence, frame.frameId,
+                frame.timestampMillis, frame.rotation, frame.data);
+        recordedFrames.incrementAndGet();
+    }
+
+    private void open(int width, int height, int frameSize) throws IOException {
+        long size = FrameRecording.fileSize(frameSize, slotCount);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("A recording of " + slotCount + " frames can't be mapped.");
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            mapping = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            randomAccessFile.close();
+        }
+        FrameRecording.writeHeader(mapping, width, height, frameSize, slotCount);
+        recordingWidth = width;
+        recordingHeight = height;
+        recordingFrameSize = frameSize;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Layout of a raw NV21 frame recording, shared by the recorder and the replay source.
+ * <p/>
+ * A recording is a fixed-size file made of a header and a ring of equally sized frame slots, so
+ * that it can be memory-mapped once and written without ever growing:
+ * <pre>
+ * header:  int magic, int version, int width, int height, int frameSize, int slotCount,
+ *          8 bytes reserved
+ * slot:    long sequence, long timestampMillis, int frameId, int rotation, frameSize bytes of NV21,
+ *          padded to a multiple of 8 bytes
+ * </pre>
+ * The sequence number counts the frames written to the file, starting at 1.  A slot with sequence
+ * 0 is empty, or was being overwritten when the recording stopped.  Writers clear the sequence
+ * before writing a slot and set it last, so a torn slot is never mistaken for a frame.  Replay
+ * orders the slots by sequence, so a ring that has wrapped around still plays back in order.
+ */
+final class FrameRecording {
+    static final int MAGIC = 0x4E563231; // "NV21"
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+    static final int SLOT_HEADER_SIZE = 24;
+
+    private static final int SEQUENCE_OFFSET = 0;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int FRAME_ID_OFFSET = 16;
+    private static final int ROTATION_OFFSET = 20;
+
+    private final ByteBuffer buffer;
+    private final int width;
+    private final int height;
+    private final int frameSize;
+    private final int slotCount;
+
+    private FrameRecording(ByteBuffer buffer, int width, int height, int frameSize,
+                           int slotCount) {
+        this.buffer = buffer;
+        this.width = width;
+        this.height = height;
+        this.frameSize = frameSize;
+        this.slotCount = slotCount;
+    }
+
+    /**
+     * Reads the header of a recording.
+     *
+     * @throws IOException if the buffer doesn't hold a complete recording
+     */
+    static FrameRecording read(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE) {
+            throw new IOException("Frame recording is truncated.");
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a frame recording.");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported frame recording version: " + buffer.getInt(4));
+        }
+        int width = buffer.getInt(8);
+        int height = buffer.getInt(12);
+        int frameSize = buffer.getInt(16);
+        int slotCount = buffer.getInt(20);
+        if ((width <= 0) || (height <= 0) || (frameSize < width * height) || (slotCount <= 0) ||
+                (buffer.capacity() < fileSize(frameSize, slotCount))) {
+            throw new IOException("Frame recording is truncated or corrupt.");
+        }
+        return new FrameRecording(buffer, width, height, frameSize, slotCount);
+    }
+
+    /**
+     * Writes the header of an empty recording, and marks all of its slots as empty.
+     */
+    static void writeHeader(ByteBuffer buffer, int width, int height, int frameSize,
+                            int slotCount) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, width);
+        buffer.putInt(12, height);
+        buffer.putInt(16, frameSize);
+        buffer.putInt(20, slotCount);
+        for (int slot = 0; slot < slotCount; ++slot) {
+            buffer.putLong(slotOffset(slot, frameSize) + SEQUENCE_OFFSET, 0);
+        }
+    }
+
+    /**
+     * Writes a frame into a slot, committing it with the given sequence number only once the
+     * frame data is complete.
+     */
+    static void writeSlot(ByteBuffer buffer, int slot, int frameSize, long sequence, int frameId,
+                          long timestampMillis, int rotation, byte[] data) {
+        int offset = slotOffset(slot, frameSize);
+        buffer.putLong(offset + SEQUENCE_OFFSET, 0);
+        buffer.putLong(offset + TIMESTAMP_OFFSET, timestampMillis);
+        buffer.putInt(offset + FRAME_ID_OFFSET, frameId);
+        buffer.putInt(offset + ROTATION_OFFSET, rotation);
+
+        ByteBuffer frame = buffer.duplicate();
+        frame.position(offset + SLOT_HEADER_SIZE);
+        frame.put(data, 0, frameSize);
+
+        buffer.putLong(offset + SEQUENCE_OFFSET, sequence);
+    }
+
+    /**
+     * Returns the size of a recording file with the given number of slots.
+     */
+    static long fileSize(int frameSize, int slotCount) {
+        return HEADER_SIZE + (long) slotStride(frameSize) * slotCount;
+    }
+
+    private static int slotStride(int frameSize) {
+        return (SLOT_HEADER_SIZE + frameSize + 7) & ~7;
+    }
+
+    private static int slotOffset(int slot, int frameSize) {
+        return HEADER_SIZE + slot * slotStride(frameSize);
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Returns the slots holding complete frames, oldest first.
+     */
+    int[] getSlotsInOrder() {
+        long[] keys = new long[slotCount];
+        int count = 0;
+        for (int slot = 0; slot < slotCount; ++slot) {
+            long sequence = getSequence(slot);
+            if (sequence > 0) {
+                // Sequence numbers stay far below 2^31, so the sort key can carry the slot in its
+                // low 32 bits.
+                keys[count++] = (sequence << 32) | slot;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+
+        int[] slots = new int[count];
+        for (int i = 0; i < count; ++i) {
+            slots[i] = (int) keys[i];
+        }
+        return slots;
+    }
+
+    long getSequence(int slot) {
+        return buffer.getLong(slotOffset(slot, frameSize) + SEQUENCE_OFFSET);
+    }
+
+    long getTimestampMillis(int slot) {
+        return buffer.getLong(slotOffset(slot, frameSize) + TIMESTAMP_OFFSET);
+    }
+
+    int getFrameId(int slot) {
+        return buffer.getInt(slotOffset(slot, frameSize) + FRAME_ID_OFFSET);
+    }
+
+    int getRotation(int slot) {
+        return buffer.getInt(slotOffset(slot, frameSize) + ROTATION_OFFSET);
+    }
+
+    /**
+     * Copies the frame in the given slot into an array of at least the frame size.
+     */
+    void readFrame(int slot, byte[] out) {
+        ByteBuffer frame = buffer.duplicate();
+        frame.position(slotOffset(slot, frameSize) + SLOT_HEADER_SIZE);
+        frame.get(out, 0, frameSize);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+/**
+ * Remembers a score for each of the most recent frames, by frame id, so that results delivered
+ * some time after a frame was scored can still be matched to the score.
+ */
+final class FrameScoreHistory {
+    private static final int CAPACITY = 64;
+
+    // Ring buffer, indexed by frame id modulo the capacity.  Guarded by this.
+    private final int[] ids = new int[CAPACITY];
+    private final float[] scores = new float[CAPACITY];
+
+    FrameScoreHistory() {
+        for (int i = 0; i < CAPACITY; ++i) {
+            ids[i] = -1;
+        }
+    }
+
+    synchronized void record(int frameId, float score) {
+        int slot = slot(frameId);
+        ids[slot] = frameId;
+        scores[slot] = score;
+    }
+
+    /**
+     * Returns the score of the given frame, or NaN if it was never scored or is too old.
+     */
+    synchronized float get(int frameId) {
+        int slot = slot(frameId);
+        return (ids[slot] == frameId) ? scores[slot] : Float.NaN;
+    }
+
+    private static int slot(int frameId) {
+        return (frameId & Integer.MAX_VALUE) % CAPACITY;
+    }
+}
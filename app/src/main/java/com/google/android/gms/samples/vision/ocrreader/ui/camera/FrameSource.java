@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+/**
+ * Something other than the legacy camera which fills the camera source's frame buffer pool with
+ * NV21 frames, such as the Camera2 backend or a replayed recording.
+ * <p/>
+ * A source takes free buffers from the pool, fills them and hands them to its listener, which owns
+ * them until it gives them back with {@link #recycle(int)}.  This is the same contract as the
+ * legacy camera's callback buffers, so the frame processing loop works the same with any source.
+ */
+interface FrameSource {
+    /**
+     * Receives the frames of a source.
+     */
+    interface Listener {
+        /**
+         * Called on the source's thread when the buffer at the given pool index holds a new frame.
+         */
+        void onFrame(FrameSource source, int bufferIndex);
+    }
+
+    /**
+     * Hands a buffer back to the source, to be filled with a future frame.
+     */
+    void recycle(int bufferIndex);
+
+    /**
+     * Stops the source.  Once this returns, no further frames are filled or delivered.
+     */
+    void close();
+}
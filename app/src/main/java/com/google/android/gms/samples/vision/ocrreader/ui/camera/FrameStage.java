@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+/**
+ * One step of the frame pipeline, which runs on each camera frame before it is passed to the
+ * detector.  Each detection worker has its own instances of the stages, so a stage may keep its
+ * output buffers and other scratch state without locking.
+ */
+interface FrameStage {
+    /**
+     * Processes a frame.  A stage may return the same frame, possibly modified in place, or a
+     * frame backed by its own buffers.  Frames and buffers returned by a stage stay valid until the
+     * next call on the same stage.
+     *
+     * @return the frame to pass on to the next stage, or null if the frame should not be detected
+     */
+    YuvFrame process(YuvFrame frame);
+}
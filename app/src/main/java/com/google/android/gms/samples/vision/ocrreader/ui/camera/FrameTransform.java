@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Maps detection coordinates back to the coordinate system of the full, upright camera frame.
+ * <p/>
+ * The frame pipeline may crop and scale frames before detection, in which case the positions of
+ * detected items are relative to the cropped and scaled frame that the detector actually saw.  A
+ * detected position (x, y) corresponds to (x * scale + offsetX, y * scale + offsetY) in the full
+ * frame.
+ */
+public final class FrameTransform {
+    /**
+     * The transform for frames that are detected as they come from the camera.
+     */
+    public static final FrameTransform IDENTITY = new FrameTransform(0, 0, 1.0f);
+
+    private final float offsetX;
+    private final float offsetY;
+    private final float scale;
+
+    public FrameTransform(float offsetX, float offsetY, float scale) {
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.scale = scale;
+    }
+
+    public float getOffsetX() {
+        return offsetX;
+    }
+
+    public float getOffsetY() {
+        return offsetY;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * Maps a horizontal detection coordinate to the full frame.
+     */
+    public float mapX(float x) {
+        return x * scale + offsetX;
+    }
+
+    /**
+     * Maps a vertical detection coordinate to the full frame.
+     */
+    public float mapY(float y) {
+        return y * scale + offsetY;
+    }
+
+    /**
+     * Maps a detection bounding box to the full frame.
+     */
+    public RectF mapRect(Rect rect) {
+        return new RectF(mapX(rect.left), mapY(rect.top), mapX(rect.right), mapY(rect.bottom));
+    }
+
+    /**
+     * Returns the transform for detections on the given region of the camera frame, downscaled by
+     * the given factor.
+     *
+     * @param sensorRect  left, top, right and bottom of the region in camera coordinates
+     * @param frameWidth  the width of the full frame in camera coordinates
+     * @param frameHeight the height of the full frame in camera coordinates
+     * @param rotation    the frame rotation, as one of the {@code Frame.ROTATION_*} constants
+     */
+    static FrameTransform forRegion(int[] sensorRect, float scale, int frameWidth,
+                                    int frameHeight, int rotation) {
+        int[] upright = new int[4];
+        toUpright(sensorRect[0], sensorRect[1], sensorRect[2], sensorRect[3],
+                frameWidth, frameHeight, rotation, upright);
+        return new FrameTransform(upright[0], upright[1], scale);
+    }
+
+    /**
+     * Converts a rectangle from upright frame coordinates, as detections are reported, to camera
+     * coordinates, as frames are laid out in memory.  Rotations are clockwise, as needed to turn
+     * the camera frame upright.
+     */
+    static void toSensor(int left, int top, int right, int bottom, int frameWidth,
+                         int frameHeight, int rotation, int[] out) {
+        switch (rotation) {
+            case 1:
+                set(out, top, frameHeight - right, bottom, frameHeight - left);
+                break;
+            case 2:
+                set(out, frameWidth - right, frameHeight - bottom, frameWidth - left,
+                        frameHeight - top);
+                break;
+            case 3:
+                set(out, frameWidth - bottom, left, frameWidth - top, right);
+                break;
+            default:
+                set(out, left, top, right, bottom);
+                break;
+        }
+    }
+
+    /**
+     * Converts a rectangle from camera coordinates to upright frame coordinates.  This is the
+     * inverse of {@link #toSensor}.
+     */
+    static void toUpright(int left, int top, int right, int bottom, int frameWidth,
+                          int frameHeight, int rotation, int[] out) {
+        switch (rotation) {
+            case 1:
+                set(out, frameHeight - bottom, left, frameHeight - top, right);
+                break;
+            case 2:
+                set(out, frameWidth - right, frameHeight - bottom, frameWidth - left,
+                        frameHeight - top);
+                break;
+            case 3:
+                set(out, top, frameWidth - right, bottom, frameWidth - left);
+                break;
+            default:
+                set(out, left, top, right, bottom);
+                break;
+        }
+    }
+
+    private static void set(int[] out, int left, int top, int right, int bottom) {
+        out[0] = left;
+        out[1] = top;
+        out[2] = right;
+        out[3] = bottom;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FrameTransform)) {
+            return false;
+        }
+        FrameTransform other = (FrameTransform) o;
+        return (Float.compare(offsetX, other.offsetX) == 0) &&
+                (Float.compare(offsetY, other.offsetY) == 0) &&
+                (Float.compare(scale, other.scale) == 0);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Float.floatToIntBits(offsetX);
+        result = 31 * result + Float.floatToIntBits(offsetY);
+        return 31 * result + Float.floatToIntBits(scale);
+    }
+
+    @Override
+    public String toString() {
+        return "FrameTransform{offset=" + offsetX + "," + offsetY + ", scale=" + scale + "}";
+    }
+}
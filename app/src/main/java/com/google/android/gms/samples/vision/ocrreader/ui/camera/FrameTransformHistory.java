@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+/**
+ * Remembers the transform that applies to the detection results of each of the most recent
+ * frames, by frame id, so that results delivered some time after a frame was cropped can still be
+ * mapped with the region of interest that frame was actually cropped to.
+ * <p/>
+ * Frames in a row are usually cropped and scaled the same, so a transform is only created when
+ * it changes, and shared by the frames it applies to.
+ */
+final class FrameTransformHistory {
+    private static final int CAPACITY = 64;
+
+    // Ring buffer, indexed by frame id modulo the capacity, and the most recently recorded
+    // transform.  Guarded by this.
+    private final int[] ids = new int[CAPACITY];
+    private final FrameTransform[] transforms = new FrameTransform[CAPACITY];
+    private FrameTransform last;
+
+    FrameTransformHistory() {
+        for (int i = 0; i < CAPACITY; ++i) {
+            ids[i] = -1;
+        }
+    }
+
+    synchronized void record(int frameId, float offsetX, float offsetY, float scale) {
+        if ((last == null) || (last.getOffsetX() != offsetX) || (last.getOffsetY() != offsetY) ||
+                (last.getScale() != scale)) {
+            last = new FrameTransform(offsetX, offsetY, scale);
+        }
+        int slot = slot(frameId);
+        ids[slot] = frameId;
+        transforms[slot] = last;
+    }
+
+    /**
+     * Returns the transform of the given frame, or null if it never reached the detector or is
+     * too old.
+     */
+    synchronized FrameTransform get(int frameId) {
+        int slot = slot(frameId);
+        return (ids[slot] == frameId) ? transforms[slot] : null;
+    }
+
+    private static int slot(int frameId) {
+        return (frameId & Integer.MAX_VALUE) % CAPACITY;
+    }
+}
@@ -24,8 +24,8 @@ import android.view.View;
 
 import com.google.android.gms.vision.CameraSource;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A view which renders a series of custom graphics to be overlaid on top of an associated preview
@@ -44,6 +44,14 @@ import java.util.Set;
  * <li>{@link Graphic#translateX(float)} and {@link Graphic#translateY(float)} adjust the coordinate
  * from the preview's coordinate system to the view coordinate system.</li>
  * </ol>
+ * If detection only runs on a cropped or scaled part of the preview, set the matching
+ * {@link FrameTransform} so that these methods map detection coordinates back to the preview
+ * first.  Graphics of a frame that was cropped differently, such as one detected before the
+ * region of interest changed, can be given the transform of their own frame.
+ * <p/>
+ * Graphics are drawn in the order they were added.  To change several graphics at once, such as
+ * for each new detection result, make the changes in a {@link #batch(Runnable)}, so that they show
+ * up together and the view is only invalidated once.
  */
 public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     private final Object lock = new Object();
@@ -52,7 +60,12 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     private int previewHeight;
     private float heightScaleFactor = 1.0f;
     private int facing = CameraSource.CAMERA_FACING_BACK;
-    private Set<T> graphics = new HashSet<>();
+    private volatile FrameTransform frameTransform = FrameTransform.IDENTITY;
+    private final List<T> graphics = new ArrayList<>();
+
+    // Set while a batch of changes is made, so that the changes don't invalidate one by one.
+    // Guarded by lock.
+    private boolean batching;
 
     public int getFacing() {
         return facing;
@@ -73,6 +86,7 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
      */
     public static abstract class Graphic {
         private GraphicOverlay mOverlay;
+        private volatile FrameTransform mFrameTransform;
 
         public Graphic(GraphicOverlay overlay) {
             mOverlay = overlay;
@@ -97,19 +111,33 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
          */
         public abstract boolean contains(float x, float y);
 
+        /**
+         * Sets the transform from this graphic's coordinates to preview coordinates, for when it
+         * shows a result of a frame that was cropped or scaled differently from what the overlay
+         * assumes.  See {@link CameraSource#getFrameTransform(int)}.  Null uses the overlay's.
+         */
+        public void setFrameTransform(FrameTransform transform) {
+            mFrameTransform = transform;
+        }
+
+        private FrameTransform frameTransform() {
+            FrameTransform transform = mFrameTransform;
+            return (transform != null) ? transform : mOverlay.frameTransform;
+        }
+
         /**
          * Adjusts a horizontal value of the supplied value from the preview scale to the view
          * scale.
          */
         public float scaleX(float horizontal) {
-            return horizontal * mOverlay.widthScaleFactor;
+            return horizontal * frameTransform().getScale() * mOverlay.widthScaleFactor;
         }
 
         /**
          * Adjusts a vertical value of the supplied value from the preview scale to the view scale.
          */
         public float scaleY(float vertical) {
-            return vertical * mOverlay.heightScaleFactor;
+            return vertical * frameTransform().getScale() * mOverlay.heightScaleFactor;
         }
 
         /**
@@ -117,10 +145,11 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
          * system.
          */
         public float translateX(float x) {
+            float viewX = frameTransform().mapX(x) * mOverlay.widthScaleFactor;
             if (mOverlay.facing == CameraSource.CAMERA_FACING_FRONT) {
-                return mOverlay.getWidth() - scaleX(x);
+                return mOverlay.getWidth() - viewX;
             } else {
-                return scaleX(x);
+                return viewX;
             }
         }
 
@@ -129,7 +158,7 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
          * system.
          */
         public float translateY(float y) {
-            return scaleY(y);
+            return frameTransform().mapY(y) * mOverlay.heightScaleFactor;
         }
 
         /**
@@ -162,16 +191,24 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     public void clear() {
         synchronized (lock) {
             graphics.clear();
+            if (batching) {
+                return;
+            }
         }
         postInvalidate();
     }
 
     /**
-     * Adds a graphic to the overlay.
+     * Adds a graphic to the overlay, unless it was already added.
      */
     public void add(T graphic) {
         synchronized (lock) {
-            graphics.add(graphic);
+            if (!graphics.contains(graphic)) {
+                graphics.add(graphic);
+            }
+            if (batching) {
+                return;
+            }
         }
         postInvalidate();
     }
@@ -182,6 +219,26 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     public void remove(T graphic) {
         synchronized (lock) {
             graphics.remove(graphic);
+            if (batching) {
+                return;
+            }
+        }
+        postInvalidate();
+    }
+
+    /**
+     * Runs a batch of changes to the graphics, and invalidates the view once they are all made.
+     * The overlay isn't drawn while the changes run, so graphics may also be changed in place
+     * from within the batch, from any thread.  Changes should be quick, as they hold off drawing.
+     */
+    public void batch(Runnable changes) {
+        synchronized (lock) {
+            batching = true;
+            try {
+                changes.run();
+            } finally {
+                batching = false;
+            }
         }
         postInvalidate();
     }
@@ -218,6 +275,41 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
         postInvalidate();
     }
 
+    /**
+     * Sets the transform from detection coordinates to preview coordinates, for when detection
+     * runs on a cropped or scaled part of the preview.  This applies to the graphics that don't
+     * have a transform of their own.  See {@link CameraSource#getFrameTransform()}.
+     */
+    public void setFrameTransform(FrameTransform transform) {
+        frameTransform = (transform != null) ? transform : FrameTransform.IDENTITY;
+        postInvalidate();
+    }
+
+    /**
+     * Converts a rectangle in the coordinates of this view to upright preview frame coordinates,
+     * e.g. to turn an on-screen guide box into a region of interest for detection.
+     */
+    public Rect viewToPreviewRect(Rect viewRect) {
+        synchronized (lock) {
+            if ((previewWidth == 0) || (previewHeight == 0) || (getWidth() == 0) ||
+                    (getHeight() == 0)) {
+                return new Rect(viewRect);
+            }
+            float scaleX = (float) previewWidth / (float) getWidth();
+            float scaleY = (float) previewHeight / (float) getHeight();
+            int left = (int) (viewRect.left * scaleX);
+            int right = (int) Math.ceil(viewRect.right * scaleX);
+            if (facing == CameraSource.CAMERA_FACING_FRONT) {
+                // The preview is mirrored, so mirror the rectangle back.
+                int mirroredLeft = previewWidth - right;
+                right = previewWidth - left;
+                left = mirroredLeft;
+            }
+            return new Rect(left, (int) (viewRect.top * scaleY), right,
+                    (int) Math.ceil(viewRect.bottom * scaleY));
+        }
+    }
+
     /**
      * Draws the overlay with its associated graphic objects.
      */
@@ -231,8 +323,8 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
                 heightScaleFactor = (float) canvas.getHeight() / (float) previewHeight;
             }
 
-            for (Graphic graphic : graphics) {
-                graphic.draw(canvas);
+            for (int i = 0; i < graphics.size(); ++i) {
+                graphics.get(i).draw(canvas);
             }
         }
     }
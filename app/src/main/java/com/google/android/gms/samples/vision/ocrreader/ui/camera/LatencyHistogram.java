@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of latencies with a bounded relative error, in the spirit of
+ * HdrHistogram.  Values below 64 microseconds are counted exactly.  Above that, each power of two
+ * is split into 32 linear sub-buckets, so that any recorded value is off by at most about 3%.
+ * <p/>
+ * Recording is lock-free and doesn't allocate, so it can be done for every frame.  Snapshots read
+ * the buckets without locking; a snapshot taken while values are recorded may miss some of them,
+ * but is never inconsistent in a way that matters for percentiles.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Values are clamped to this, a little over 35 minutes, which covers any sane latency.
+    private static final long MAX_MICROS = Integer.MAX_VALUE;
+    private static final int BUCKET_COUNT = indexOf(MAX_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records a single latency.
+     */
+    void recordNanos(long nanos) {
+        long micros = Math.max(0, Math.min(MAX_MICROS, nanos / 1000));
+        counts.incrementAndGet(indexOf(micros));
+
+        long max = maxMicros.get();
+        while ((micros > max) && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    /**
+     * Forgets all recorded values.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            counts.set(i, 0);
+        }
+        maxMicros.set(0);
+    }
+
+    /**
+     * Returns the count and the p50, p95 and p99 of the recorded latencies.
+     */
+    FrameMetrics.Latency snapshot() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        // Bucket bounds can lie above the largest value actually recorded.
+        long max = maxMicros.get();
+        return new FrameMetrics.Latency(total, Math.min(max, valueAt(snapshot, total, 0.50)),
+                Math.min(max, valueAt(snapshot, total, 0.95)),
+                Math.min(max, valueAt(snapshot, total, 0.99)), max);
+    }
+
+    /**
+     * Returns the highest value equivalent to the one at the given quantile, or 0 if nothing was
+     * recorded.
+     */
+    private static long valueAt(long[] counts, long total, double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return highestEquivalentValue(counts.length - 1);
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(micros)) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (micros >> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestEquivalentValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
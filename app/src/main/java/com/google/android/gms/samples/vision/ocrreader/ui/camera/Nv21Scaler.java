@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+/**
+ * Downscales NV21 images by an integer factor with a box filter, averaging each factor x factor
+ * block of luma samples and of VU sample pairs.  The common factors of 2 and 4 have unrolled fast
+ * paths.  Nothing is allocated; callers supply the output array.
+ * <p/>
+ * This only depends on plain Java so that it can be benchmarked off-device.
+ */
+final class Nv21Scaler {
+    private Nv21Scaler() {
+    }
+
+    /**
+     * Returns the width of an image downscaled by the given factor, rounded down to an even number
+     * so that the result is still a valid NV21 image.
+     */
+    static int scaledWidth(int width, int factor) {
+        return (width / factor) & ~1;
+    }
+
+    /**
+     * Returns the height of an image downscaled by the given factor, rounded down to an even
+     * number so that the result is still a valid NV21 image.
+     */
+    static int scaledHeight(int height, int factor) {
+        return (height / factor) & ~1;
+    }
+
+    /**
+     * Downscales an NV21 image.
+     *
+     * @param src    source image, at least {@code width * height * 3 / 2} bytes
+     * @param width  width of the source image, which must be even
+     * @param height height of the source image, which must be even
+     * @param factor downscale factor, at least 1
+     * @param dst    receives the downscaled image, of {@link #scaledWidth} by
+     *               {@link #scaledHeight} pixels
+     */
+    static void downscale(byte[] src, int width, int height, int factor, byte[] dst) {
+        int dstWidth = scaledWidth(width, factor);
+        int dstHeight = scaledHeight(height, factor);
+        if (factor == 2) {
+            downscaleLuma2(src, width, dst, dstWidth, dstHeight);
+        } else if (factor == 4) {
+            downscaleLuma4(src, width, dst, dstWidth, dstHeight);
+        } else {
+            downscaleLuma(src, width, factor, dst, dstWidth, dstHeight);
+        }
+        downscaleChroma(src, width * height, width, factor,
+                dst, dstWidth * dstHeight, dstWidth, dstHeight / 2);
+    }
+
+    private static void downscaleLuma2(byte[] src, int stride, byte[] dst, int dstWidth,
+                                       int dstHeight) {
+        int d = 0;
+        for (int y = 0; y < dstHeight; ++y) {
+            int s0 = 2 * y * stride;
+            int s1 = s0 + stride;
+            for (int x = 0; x < dstWidth; ++x) {
+                int sum = (src[s0] & 0xFF) + (src[s0 + 1] & 0xFF) +
+                        (src[s1] & 0xFF) + (src[s1 + 1] & 0xFF);
+                dst[d++] = (byte) ((sum + 2) >> 2);
+                s0 += 2;
+                s1 += 2;
+            }
+        }
+    }
+
+    private static void downscaleLuma4(byte[] src, int stride, byte[] dst, int dstWidth,
+                                       int dstHeight) {
+        int d = 0;
+        for (int y = 0; y < dstHeight; ++y) {
+            int s0 = 4 * y * stride;
+            int s1 = s0 + stride;
+            int s2 = s1 + stride;
+            int s3 = s2 + stride;
+            for (int x = 0; x < dstWidth; ++x) {
+                int sum = (src[s0] & 0xFF) + (src[s0 + 1] & 0xFF) +
+                        (src[s0 + 2] & 0xFF) + (src[s0 + 3] & 0xFF) +
+                        (src[s1] & 0xFF) + (src[s1 + 1] & 0xFF) +
+                        (src[s1 + 2] & 0xFF) + (src[s1 + 3] & 0xFF) +
+                        (src[s2] & 0xFF) + (src[s2 + 1] & 0xFF) +
+                        (src[s2 + 2] & 0xFF) + (src[s2 + 3] & 0xFF) +
+                        (src[s3] & 0xFF) + (src[s3 + 1] & 0xFF) +
+                        (src[s3 + 2] & 0xFF) + (src[s3 + 3] & 0xFF);
+                dst[d++] = (byte) ((sum + 8) >> 4);
+                s0 += 4;
+                s1 += 4;
+                s2 += 4;
+                s3 += 4;
+            }
+        }
+    }
+
+    private static void downscaleLuma(byte[] src, int stride, int factor, byte[] dst,
+                                      int dstWidth, int dstHeight) {
+        int area = factor * factor;
+        int d = 0;
+        for (int y = 0; y < dstHeight; ++y) {
+            int rowStart = factor * y * stride;
+            for (int x = 0; x < dstWidth; ++x) {
+                int sum = 0;
+                int s = rowStart + factor * x;
+                for (int j = 0; j < factor; ++j) {
+                    for (int i = 0; i < factor; ++i) {
+                        sum += src[s + i] & 0xFF;
+                    }
+                    s += stride;
+                }
+                dst[d++] = (byte) ((sum + area / 2) / area);
+            }
+        }
+    }
+
+    /**
+     * Downscales the interleaved VU plane, averaging V and U separately.  Each row holds
+     * {@code stride / 2} VU pairs.
+     */
+    private static void downscaleChroma(byte[] src, int srcOffset, int stride, int factor,
+                                        byte[] dst, int dstOffset, int dstWidth, int dstRows) {
+        int area = factor * factor;
+        int pairs = dstWidth / 2;
+        int d = dstOffset;
+        for (int y = 0; y < dstRows; ++y) {
+            int rowStart = srcOffset + factor * y * stride;
+            for (int x = 0; x < pairs; ++x) {
+                int sumV = 0;
+                int sumU = 0;
+                int s = rowStart + 2 * factor * x;
+                for (int j = 0; j < factor; ++j) {
+                    for (int i = 0; i < 2 * factor; i += 2) {
+                        sumV += src[s + i] & 0xFF;
+                        sumU += src[s + i + 1] & 0xFF;
+                    }
+                    s += stride;
+                }
+                dst[d++] = (byte) ((sumV + area / 2) / area);
+                dst[d++] = (byte) ((sumU + area / 2) / area);
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs detection on several frames at once, one detector instance per worker thread, and hands
+ * the results to a single processor in frame id order.
+ * <p/>
+ * Workers finish out of order, so a result is held back while any older frame is still being
+ * detected.  Results for frames older than one that was already delivered are dropped as stale.
+ * The number of held results is bounded: if a slow frame holds back too many newer ones, the
+ * oldest held result is delivered anyway, and the slow frame's result will be dropped.
+ * <p/>
+ * When the camera stops, {@link #reset()} drops the held results, and the results of frames that
+ * are still being detected are dropped once they finish, so that nothing seen before the stop is
+ * delivered after it.
+ */
+final class ParallelDetector<T> {
+    private static final String TAG = "ParallelDetector";
+
+    private static final int NONE = -1;
+
+    private final List<Detector<T>> detectors;
+    private final Detector.Processor<T> processor;
+
+    // This lock guards all of the member variables below, and also serializes delivery to the
+    // processor so that results can't overtake each other.
+    private final Object lock = new Object();
+
+    // Ids of the frames currently being detected, or NONE, and the generation each was taken in.
+    private final int[] inFlightIds;
+    private final int[] inFlightGenerations;
+
+    // Finished results waiting for older frames to finish, in no particular order.
+    private final int[] heldIds;
+    private final Frame.Metadata[] heldMetadata;
+    private final SparseArray<?>[] heldItems;
+    private final boolean[] heldOperational;
+
+    // Bumped by every reset, so that frames taken before it can be told apart.
+    private int generation;
+
+    private int lastDeliveredId = NONE;
+    private long delivered;
+    private long stale;
+
+    ParallelDetector(List<Detector<T>> detectors, Detector.Processor<T> processor) {
+        this.detectors = detectors;
+        this.processor = processor;
+
+        int parallelism = detectors.size();
+        inFlightIds = new int[parallelism];
+        inFlightGenerations = new int[parallelism];
+        Arrays.fill(inFlightIds, NONE);
+        heldIds = new int[2 * parallelism];
+        heldMetadata = new Frame.Metadata[heldIds.length];
+        heldItems = new SparseArray<?>[heldIds.length];
+        heldOperational = new boolean[heldIds.length];
+        clearHeld();
+    }
+
+    /**
+     * Returns the number of workers, and thus of detector instances.
+     */
+    int getParallelism() {
+        return detectors.size();
+    }
+
+    /**
+     * Marks the given frame as taken by a worker.  This must be called in frame id order, which
+     * is the case when it's called from {@link FrameHandoff.TakeListener#onTaken}, while no other
+     * worker can take a frame.
+     */
+    void begin(int worker, int frameId) {
+        synchronized (lock) {
+            inFlightIds[worker] = frameId;
+            inFlightGenerations[worker] = generation;
+        }
+    }
+
+    /**
+     * Runs detection for the given worker's frame and delivers the result, or holds it until all
+     * older frames have finished.
+     */
+    void detect(int worker, Frame frame) {
+        Detector<T> detector = detectors.get(worker);
+        SparseArray<T> items = null;
+        try {
+            items = detector.detect(frame);
+        } finally {
+            // A failed detection still needs to be retired so that it doesn't hold back newer
+            // results forever.
+            complete(worker, frame.getMetadata(), items, detector.isOperational());
+        }
+    }
+
+    /**
+     * Runs the given worker's detector on a frame whose result is thrown away, to get it to
+     * initialize before real frames arrive.
+     */
+    void warmUp(int worker, Frame frame) {
+        detectors.get(worker).detect(frame);
+    }
+
+    /**
+     * Retires the given worker's frame without a result, for frames that never reached detection.
+     * Does nothing if the worker's frame was already retired.
+     */
+    void cancel(int worker) {
+        synchronized (lock) {
+            if (inFlightIds[worker] != NONE) {
+                inFlightIds[worker] = NONE;
+                deliverReady();
+            }
+        }
+    }
+
+    /**
+     * Drops the held results, and makes the results of the frames still being detected be
+     * dropped once they finish.  Call this when the camera stops, before waiting for the workers.
+     */
+    void reset() {
+        synchronized (lock) {
+            generation++;
+            clearHeld();
+        }
+    }
+
+    /**
+     * Returns the number of results handed to the processor.
+     */
+    long getDeliveredCount() {
+        synchronized (lock) {
+            return delivered;
+        }
+    }
+
+    /**
+     * Returns the number of results dropped because a newer one was already delivered, or because
+     * the detector was reset while they were detected.
+     */
+    long getStaleCount() {
+        synchronized (lock) {
+            return stale;
+        }
+    }
+
+    /**
+     * Releases all of the worker detectors and the processor.  This is only safe to do after all
+     * of the worker threads have completed.
+     */
+    void release() {
+        for (Detector<T> detector : detectors) {
+            detector.release();
+        }
+        processor.release();
+        synchronized (lock) {
+            clearHeld();
+        }
+    }
+
+    private void complete(int worker, Frame.Metadata metadata, SparseArray<T> items,
+                          boolean operational) {
+        synchronized (lock) {
+            int frameId = inFlightIds[worker];
+            inFlightIds[worker] = NONE;
+
+            if (frameId == NONE) {
+                return;
+            } else if ((inFlightGenerations[worker] != generation) ||
+                    (frameId <= lastDeliveredId)) {
+                stale++;
+            } else if (items != null) {
+                int slot = findFreeSlot();
+                if (slot == NONE) {
+                    // Too many results are waiting on an older frame, so stop waiting for it.
+                    slot = findOldestHeld();
+                    deliver(slot);
+                }
+                heldIds[slot] = frameId;
+                heldMetadata[slot] = new Frame.Metadata(metadata);
+                heldItems[slot] = items;
+                heldOperational[slot] = operational;
+            }
+
+            deliverReady();
+        }
+    }
+
+    /**
+     * Delivers held results, oldest first, for as long as no older frame is still in flight.
+     */
+    private void deliverReady() {
+        while (true) {
+            int next = findOldestHeld();
+            if (next == NONE) {
+                return;
+            }
+            for (int i = 0; i < inFlightIds.length; ++i) {
+                // Frames taken before a reset will be dropped, so they don't hold anything back.
+                if ((inFlightIds[i] != NONE) && (inFlightGenerations[i] == generation) &&
+                        (inFlightIds[i] < heldIds[next])) {
+                    return;
+                }
+            }
+            deliver(next);
+        }
+    }
+
+    /**
+     * Hands the result in the given slot to the processor, and frees the slot.
+     */
+    @SuppressWarnings("unchecked")
+    private void deliver(int slot) {
+        lastDeliveredId = heldIds[slot];
+        Detector.Detections<T> detections = new Detector.Detections<>(
+                (SparseArray<T>) heldItems[slot], heldMetadata[slot], heldOperational[slot]);
+        heldIds[slot] = NONE;
+        heldMetadata[slot] = null;
+        heldItems[slot] = null;
+
+        try {
+            processor.receiveDetections(detections);
+            delivered++;
+        } catch (Throwable t) {
+            Log.e(TAG, "Exception thrown from processor.", t);
+        }
+    }
+
+    private int findOldestHeld() {
+        int oldest = NONE;
+        for (int i = 0; i < heldIds.length; ++i) {
+            if ((heldIds[i] != NONE) && ((oldest == NONE) || (heldIds[i] < heldIds[oldest]))) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    private int findFreeSlot() {
+        for (int i = 0; i < heldIds.length; ++i) {
+            if (heldIds[i] == NONE) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    private void clearHeld() {
+        for (int i = 0; i < heldIds.length; ++i) {
+            heldIds[i] = NONE;
+            heldMetadata[i] = null;
+            heldItems[i] = null;
+        }
+    }
+}
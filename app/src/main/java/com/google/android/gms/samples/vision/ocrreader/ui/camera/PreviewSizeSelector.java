@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.hardware.Camera;
+import android.util.Log;
+
+import com.google.android.gms.common.images.Size;
+
+import java.util.List;
+
+/**
+ * Picks the preview size and frame rate range from what detection needs, rather than from a fixed
+ * requested size.
+ * <p/>
+ * A preview size qualifies if the smallest text to read is still tall enough to recognize once
+ * the frame was downscaled for detection, and if the detector can keep up with the target frame
+ * rate on frames of that size, as estimated from the {@link DetectorCalibration}.  The smallest
+ * qualifying size is picked, since it costs the least to capture, copy and detect.  If no size can
+ * keep up, the text height wins, as a size that is too small is useless however fast it is.  Until
+ * the detector is calibrated, only the text height is taken into account.
+ * <p/>
+ * The frame rate range is the lowest one that still reaches the target, or the frame rate the
+ * governor settled on, since frames beyond what the detector can take are only dropped.
+ */
+@SuppressWarnings("deprecation")
+final class PreviewSizeSelector {
+    private static final String TAG = "PreviewSizeSelector";
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final float targetFps;
+    private final int minTextHeightPixels;
+    private final float smallestTextFraction;
+    private final int parallelism;
+    private final int downscaleFactor;
+    private final int detectionWidth;
+    private final DetectorCalibration calibration;
+
+    /**
+     * @param targetFps            the rate at which frames should go through detection
+     * @param minTextHeightPixels  how tall text needs to be, in pixels of the detected frame, to be
+     *                             recognized
+     * @param smallestTextFraction how tall the smallest text to read appears, as a fraction of the
+     *                             preview's shorter side
+     * @param parallelism          the number of frames that are detected at once
+     * @param downscaleFactor      the fixed downscale factor before detection, or 0
+     * @param detectionWidth       the upright width frames are downscaled to, or 0
+     */
+    PreviewSizeSelector(float targetFps, int minTextHeightPixels, float smallestTextFraction,
+                        int parallelism, int downscaleFactor, int detectionWidth,
+                        DetectorCalibration calibration) {
+        this.targetFps = targetFps;
+        this.minTextHeightPixels = minTextHeightPixels;
+        this.smallestTextFraction = smallestTextFraction;
+        this.parallelism = parallelism;
+        this.downscaleFactor = downscaleFactor;
+        this.detectionWidth = detectionWidth;
+        this.calibration = calibration;
+    }
+
+    /**
+     * Returns the smallest of the given preview sizes that meets both the text height and the
+     * throughput target, or the closest one if none does.
+     *
+     * @param rotation the frame rotation, as one of the {@code Frame.ROTATION_*} constants
+     */
+    Size selectPreviewSize(List<Size> sizes, int rotation) {
+        Size smallestLegible = null;
+        Size smallestQualifying = null;
+        Size largest = null;
+        for (Size size : sizes) {
+            if ((largest == null) || (area(size) > area(largest))) {
+                largest = size;
+            }
+            if (!isLegible(size, rotation)) {
+                continue;
+            }
+            if ((smallestLegible == null) || (area(size) < area(smallestLegible))) {
+                smallestLegible = size;
+            }
+            if (canKeepUp(size, rotation) &&
+                    ((smallestQualifying == null) || (area(size) < area(smallestQualifying)))) {
+                smallestQualifying = size;
+            }
+        }
+
+        Size selected;
+        if (smallestQualifying != null) {
+            selected = smallestQualifying;
+        } else if (smallestLegible != null) {
+            Log.d(TAG, "No preview size keeps up with " + targetFps + " fps at a legible size.");
+            selected = smallestLegible;
+        } else {
+            Log.d(TAG, "No preview size makes the smallest text legible.");
+            selected = largest;
+        }
+        if (selected != null) {
+            long latencyNanos = estimateLatencyNanos(selected, rotation);
+            Log.d(TAG, "Selected preview size " + selected.getWidth() + "x" +
+                    selected.getHeight() + ((latencyNanos > 0)
+                    ? ", estimated detection latency " + latencyNanos / 1000000 + " ms"
+                    : ", detector not calibrated yet"));
+        }
+        return selected;
+    }
+
+    /**
+     * Returns the range with the lowest maximum that still reaches the given frame rate, out of
+     * ranges scaled by 1000, or the fastest range if none does.  Of ranges with the same maximum,
+     * the one with the highest minimum is preferred, which keeps the frame rate steadier.
+     */
+    int[] selectFpsRange(List<int[]> ranges, float fps) {
+        int targetFpsScaled = (int) Math.ceil(fps * 1000.0f);
+        int[] selected = null;
+        int[] fastest = null;
+        for (int[] range : ranges) {
+            if ((fastest == null) || isFaster(range, fastest)) {
+                fastest = range;
+            }
+            if ((range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] >= targetFpsScaled) &&
+                    ((selected == null) || isSlowerButSteadier(range, selected))) {
+                selected = range;
+            }
+        }
+        return (selected != null) ? selected : fastest;
+    }
+
+    private boolean isLegible(Size size, int rotation) {
+        int factor = downscaleFactorFor(size, rotation);
+        int shortSide = Math.min(size.getWidth(), size.getHeight()) / factor;
+        return shortSide * smallestTextFraction >= minTextHeightPixels;
+    }
+
+    private boolean canKeepUp(Size size, int rotation) {
+        long latencyNanos = estimateLatencyNanos(size, rotation);
+        if (latencyNanos <= 0) {
+            // Not calibrated yet, so every size is assumed to keep up.
+            return true;
+        }
+        return parallelism * NANOS_PER_SECOND >= targetFps * latencyNanos;
+    }
+
+    private long estimateLatencyNanos(Size size, int rotation) {
+        int factor = downscaleFactorFor(size, rotation);
+        int pixels = Nv21Scaler.scaledWidth(size.getWidth(), factor) *
+                Nv21Scaler.scaledHeight(size.getHeight(), factor);
+        return calibration.estimateLatencyNanos(pixels);
+    }
+
+    private int downscaleFactorFor(Size size, int rotation) {
+        return DownscaleStage.factorFor(size.getWidth(), size.getHeight(), rotation,
+                downscaleFactor, detectionWidth);
+    }
+
+    private static int area(Size size) {
+        return size.getWidth() * size.getHeight();
+    }
+
+    /**
+     * Returns true if range a reaches a higher frame rate than b, or the same one with a higher
+     * minimum.
+     */
+    private static boolean isFaster(int[] a, int[] b) {
+        int maxA = a[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        int maxB = b[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        if (maxA != maxB) {
+            return maxA > maxB;
+        }
+        return a[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] >
+                b[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+    }
+
+    /**
+     * Returns true if range a tops out at a lower frame rate than b, or at the same one with a
+     * higher minimum.
+     */
+    private static boolean isSlowerButSteadier(int[] a, int[] b) {
+        int maxA = a[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        int maxB = b[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        if (maxA != maxB) {
+            return maxA < maxB;
+        }
+        return a[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] >
+                b[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+    }
+}
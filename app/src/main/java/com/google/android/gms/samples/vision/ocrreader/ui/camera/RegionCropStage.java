@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.graphics.Rect;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Frame stage which crops frames to a region of interest before detection, since detection cost
+ * grows with the number of pixels.  Only the luma and chroma rows inside the region are copied,
+ * into a buffer that is reused from frame to frame.
+ * <p/>
+ * The region is given in upright full frame coordinates, the same as detection results, and may
+ * be changed at any time.  This stage has to be the first one in the pipeline, as it expects to
+ * see full camera frames.
+ */
+final class RegionCropStage implements FrameStage {
+    private final AtomicReference<Rect> region;
+
+    private final YuvFrame output = new YuvFrame();
+    private byte[] outputData = new byte[0];
+    private final int[] cropRect = new int[4];
+
+    /**
+     * @param region holder of the region of interest, or of null if frames shouldn't be cropped
+     */
+    RegionCropStage(AtomicReference<Rect> region) {
+        this.region = region;
+    }
+
+    @Override
+    public YuvFrame process(YuvFrame frame) {
+        Rect roi = region.get();
+        if ((roi == null) ||
+                !computeCropRect(roi, frame.width, frame.height, frame.rotation, cropRect)) {
+            return frame;
+        }
+
+        int cropLeft = cropRect[0];
+        int cropTop = cropRect[1];
+        int cropWidth = cropRect[2] - cropLeft;
+        int cropHeight = cropRect[3] - cropTop;
+
+        int size = YuvFrame.sizeInBytes(cropWidth, cropHeight);
+        if (outputData.length < size) {
+            outputData = new byte[size];
+        }
+
+        crop(frame.data, frame.width, frame.height, cropLeft, cropTop, cropWidth, cropHeight,
+                outputData);
+        output.setDerived(frame, outputData, cropWidth, cropHeight, frame.left + cropLeft,
+                frame.top + cropTop, frame.scale);
+        return output;
+    }
+
+    /**
+     * Copies a rectangle of an NV21 frame into a frame of its own.  The rectangle must be aligned
+     * to even coordinates, so that every VU pair is either fully inside or fully outside of it.
+     *
+     * @param dst receives the cropped frame, and must hold at least
+     *            {@link YuvFrame#sizeInBytes(int, int)} bytes for the rectangle
+     */
+    static void crop(byte[] src, int srcWidth, int srcHeight, int left, int top, int width,
+                     int height, byte[] dst) {
+        // Luma rows.
+        int srcOffset = top * srcWidth + left;
+        int dstOffset = 0;
+        for (int row = 0; row < height; ++row) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, width);
+            srcOffset += srcWidth;
+            dstOffset += width;
+        }
+
+        // Interleaved VU rows, at half the vertical resolution.
+        srcOffset = srcWidth * srcHeight + (top / 2) * srcWidth + left;
+        for (int row = 0; row < height / 2; ++row) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, width);
+            srcOffset += srcWidth;
+            dstOffset += width;
+        }
+    }
+
+    /**
+     * Computes the part of the frame to crop to, in camera coordinates, aligned to the 2x2 blocks
+     * that share chroma samples.
+     *
+     * @param roi         region of interest in upright frame coordinates
+     * @param frameWidth  the width of the full frame in camera coordinates
+     * @param frameHeight the height of the full frame in camera coordinates
+     * @param rotation    the frame rotation, as one of the {@code Frame.ROTATION_*} constants
+     * @param out         receives the left, top, right and bottom of the crop rectangle
+     * @return false if the frame should not be cropped, since the region is empty or covers the
+     * whole frame
+     */
+    static boolean computeCropRect(Rect roi, int frameWidth, int frameHeight, int rotation,
+                                   int[] out) {
+        FrameTransform.toSensor(roi.left, roi.top, roi.right, roi.bottom,
+                frameWidth, frameHeight, rotation, out);
+
+        int left = Math.max(0, out[0]) & ~1;
+        int top = Math.max(0, out[1]) & ~1;
+        int right = Math.min(frameWidth & ~1, (out[2] + 1) & ~1);
+        int bottom = Math.min(frameHeight & ~1, (out[3] + 1) & ~1);
+        if ((right <= left) || (bottom <= top) ||
+                ((left == 0) && (top == 0) && (right >= frameWidth - 1) &&
+                        (bottom >= frameHeight - 1))) {
+            return false;
+        }
+
+        out[0] = left;
+        out[1] = top;
+        out[2] = right;
+        out[3] = bottom;
+        return true;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.util.Log;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame source which plays back a raw frame recording, see {@link FrameRecording}, so that the
+ * frame processing pipeline can be run without a camera.
+ * <p/>
+ * The recording is memory-mapped, and each frame is copied from the mapping into a free buffer of
+ * the pool, just like a camera fills its buffers.  Frames are either paced by their recorded
+ * timestamps, which drops frames like a live camera would if the detector can't keep up, or played
+ * as fast as the pipeline takes them, without dropping any.  The latter makes runs repeatable,
+ * since every frame of the recording is detected exactly once.
+ */
+final class ReplayFrameSource implements FrameSource, Runnable {
+    private static final String TAG = "ReplayFrameSource";
+
+    private final FrameRecording recording;
+    private final boolean realTime;
+    private final FrameBufferPool frameBuffers;
+    private final Listener listener;
+
+    private final ArrayBlockingQueue<Integer> freeBuffers =
+            new ArrayBlockingQueue<>(FrameBufferPool.MAX_BUFFERS);
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private Thread thread;
+    private volatile boolean closed;
+    private volatile boolean allDelivered;
+
+    /**
+     * Maps the given recording.
+     *
+     * @param realTime true to pace frames by their timestamps, false to play them as fast as the
+     *                 pipeline takes them
+     * @throws IOException if the file is not a frame recording
+     */
+    ReplayFrameSource(File file, boolean realTime, FrameBufferPool frameBuffers,
+                      Listener listener) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            recording = FrameRecording.read(buffer);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            randomAccessFile.close();
+        }
+        this.realTime = realTime;
+        this.frameBuffers = frameBuffers;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the size of the recorded frames.
+     */
+    Size getPreviewSize() {
+        return new Size(recording.getWidth(), recording.getHeight());
+    }
+
+    /**
+     * Returns the rotation of the first recorded frame.  The camera source uses a single rotation
+     * for all frames, which is also how they were recorded unless the device was turned.
+     */
+    int getRotation() {
+        int[] slots = recording.getSlotsInOrder();
+        return (slots.length > 0) ? recording.getRotation(slots[0]) : 0;
+    }
+
+    /**
+     * Starts playing the recording into the pool's buffers, which must already be sized for it.
+     */
+    void start() {
+        if (frameBuffers.size() > 0) {
+            int bufferSize = frameBuffers.array(0).length - 1;
+            if (bufferSize < recording.getFrameSize()) {
+                throw new IllegalStateException("Frame buffers are too small for the recording.");
+            }
+        }
+        for (int i = 0; i < frameBuffers.size(); ++i) {
+            freeBuffers.offer(i);
+        }
+        thread = new Thread(this, TAG);
+        thread.start();
+    }
+
+    /**
+     * Waits until every frame of the recording has been delivered and handed back by the
+     * pipeline, that is, until all of them went through detection or were dropped.
+     *
+     * @return false if the timeout elapsed first
+     */
+    boolean awaitFinished(long timeoutMillis) throws InterruptedException {
+        return finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void recycle(int bufferIndex) {
+        freeBuffers.offer(bufferIndex);
+        checkFinished();
+    }
+
+    /**
+     * Stops playback, and waits for the playback thread to finish.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Interrupted while stopping replay.");
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        int[] slots = recording.getSlotsInOrder();
+        long startNanos = System.nanoTime();
+        long firstTimestampMillis = (slots.length > 0) ? recording.getTimestampMillis(slots[0]) : 0;
+
+        try {
+            for (int slot : slots) {
+                if (realTime) {
+                    long dueNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(
+                            recording.getTimestampMillis(slot) - firstTimestampMillis);
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                }
+
+                int bufferIndex = freeBuffers.take();
+                if (closed) {
+                    return;
+                }
+                recording.readFrame(slot, frameBuffers.array(bufferIndex));
+                listener.onFrame(this, bufferIndex);
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Replay stopped.");
+            return;
+        }
+
+        Log.d(TAG, "Replayed " + slots.length + " frames in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms.");
+        allDelivered = true;
+        checkFinished();
+    }
+
+    private void checkFinished() {
+        if (allDelivered && (freeBuffers.size() == frameBuffers.size())) {
+            finished.countDown();
+        }
+    }
+}
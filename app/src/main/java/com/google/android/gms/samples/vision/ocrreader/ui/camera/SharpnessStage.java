@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame stage which scores the focus quality of each frame, and keeps blurry frames away from the
+ * detector.  Continuous video focus hunts a lot, and detection on motion blurred or out of focus
+ * frames mostly returns garbage.
+ * <p/>
+ * The score is the variance of the Laplacian of the luma plane, sampled on a sparse grid of
+ * pixels.  Sharp edges give a large variance; blur flattens the Laplacian towards zero.  Scores are
+ * recorded by frame id, so that detection results can later be matched to the sharpness of the
+ * frame they came from.
+ */
+final class SharpnessStage implements FrameStage {
+    /**
+     * Distance between the sampled pixels.  Each sample still uses its direct neighbours, so this
+     * doesn't skip over fine edges, it only measures fewer of them.
+     */
+    private static final int SAMPLE_STEP = 3;
+
+    /**
+     * Settings, counters and scores shared by the stages of all detection workers.
+     */
+    static final class Settings {
+        /**
+         * Frames scoring below this are not detected.  0 scores frames without dropping any.
+         */
+        volatile float minSharpness;
+
+        final AtomicLong blurryFrames = new AtomicLong();
+        final FrameScoreHistory scores = new FrameScoreHistory();
+    }
+
+    private final Settings settings;
+
+    SharpnessStage(Settings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public YuvFrame process(YuvFrame frame) {
+        float sharpness = varianceOfLaplacian(frame.data, frame.width, frame.height, SAMPLE_STEP);
+        frame.sharpness = sharpness;
+        settings.scores.record(frame.id, sharpness);
+
+        if (sharpness < settings.minSharpness) {
+            settings.blurryFrames.incrementAndGet();
+            return null;
+        }
+        return frame;
+    }
+
+    /**
+     * Computes the variance of the 4-neighbour Laplacian over every {@code step}th pixel of every
+     * {@code step}th row, leaving out the border.
+     */
+    static float varianceOfLaplacian(byte[] luma, int width, int height, int step) {
+        long sum = 0;
+        long sumOfSquares = 0;
+        int count = 0;
+        for (int y = 1; y < height - 1; y += step) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x += step) {
+                int i = row + x;
+                int laplacian = (luma[i - 1] & 0xFF) + (luma[i + 1] & 0xFF) +
+                        (luma[i - width] & 0xFF) + (luma[i + width] & 0xFF) -
+                        4 * (luma[i] & 0xFF);
+                sum += laplacian;
+                sumOfSquares += laplacian * laplacian;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        double mean = (double) sum / count;
+        return (float) ((double) sumOfSquares / count - mean * mean);
+    }
+}
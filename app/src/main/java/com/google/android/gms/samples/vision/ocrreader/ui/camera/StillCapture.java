@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import java.io.IOException;
+
+/**
+ * Takes a full resolution still picture with the camera and runs a single detection pass on it,
+ * for reads that need more detail than preview frames have, such as small print.
+ * <p/>
+ * The JPEG is decoded on a background thread.  To bound memory, only the region of interest is
+ * decoded if one is set, and the picture is subsampled by a power of two until it has no more
+ * than a given number of pixels.  The still is detected by a detector of its own, since the
+ * preview's detector may be busy with a frame at the same time.
+ * <p/>
+ * Positions in the result are relative to the decoded picture, upright, which is neither the
+ * preview frame nor the full picture if it was cropped or subsampled.  Only the legacy camera can
+ * take pictures.
+ */
+public final class StillCapture<T> {
+    private static final String TAG = "StillCapture";
+
+    /**
+     * Receives the outcome of a capture, on the main thread.
+     */
+    public interface Callback<T> {
+        /**
+         * Called with the items detected in the picture.
+         */
+        void onDetected(SparseArray<T> items);
+
+        /**
+         * Called if the picture couldn't be decoded or detected.
+         */
+        void onFailed(Exception e);
+    }
+
+    // JPEG markers and the EXIF orientation tag, for reading how the picture must be rotated.
+    private static final int MARKER_SOI = 0xFFD8;
+    private static final int MARKER_APP1 = 0xFFE1;
+    private static final int MARKER_SOS = 0xFFDA;
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    /**
+     * A capture still in progress after this long is given up on, as the camera drops the
+     * picture if it's stopped before delivering it.
+     */
+    private static final long CAPTURE_TIMEOUT_MS = 10000;
+
+    private final CameraSource cameraSource;
+    private final Detector<T> detector;
+    private final int maxPixels;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Only used on the main thread.  Each capture gets a new generation, so that the result of a
+    // capture which was given up on is dropped if it turns up after all.
+    private boolean busy;
+    private long startedMillis;
+    private int generation;
+
+    /**
+     * @param detector  the detector to run on pictures, which this takes ownership of
+     * @param maxPixels the most pixels to decode a picture to
+     */
+    public StillCapture(CameraSource cameraSource, Detector<T> detector, int maxPixels) {
+        if ((cameraSource == null) || (detector == null)) {
+            throw new IllegalArgumentException("No camera source or detector supplied.");
+        }
+        if (maxPixels <= 0) {
+            throw new IllegalArgumentException("Invalid pixel count: " + maxPixels);
+        }
+        this.cameraSource = cameraSource;
+        this.detector = detector;
+        this.maxPixels = maxPixels;
+
+        thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Returns whether a capture is in progress.  Must be called on the main thread.
+     */
+    public boolean isBusy() {
+        if (busy && (SystemClock.elapsedRealtime() - startedMillis > CAPTURE_TIMEOUT_MS)) {
+            Log.w(TAG, "Gave up on a picture that never arrived.");
+            busy = false;
+        }
+        return busy;
+    }
+
+    /**
+     * Takes a picture and detects it.  The camera preview pauses while the picture is taken.
+     * Must be called on the main thread.
+     *
+     * @return false if no picture could be taken, because a capture is already in progress, or
+     * the camera isn't open or can't take pictures, in which case the callback isn't called
+     */
+    public boolean capture(final Callback<T> callback) {
+        final Size previewSize = cameraSource.getPreviewSize();
+        if ((previewSize == null) || (cameraSource.getPictureSize() == null) || isBusy()) {
+            return false;
+        }
+        final int captureGeneration = ++generation;
+
+        // The region is taken now, as it would be seen on the preview when the user asked.
+        final Rect region = cameraSource.getRegionOfInterest();
+        final int rotation = cameraSource.getRotation();
+        boolean started = cameraSource.takePicture(null, new CameraSource.PictureCallback() {
+            @Override
+            public void onPictureTaken(final byte[] data) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        detectPicture(data, region, previewSize, rotation, captureGeneration,
+                                callback);
+                    }
+                });
+            }
+        });
+        if (started) {
+            busy = true;
+            startedMillis = SystemClock.elapsedRealtime();
+        }
+        return started;
+    }
+
+    /**
+     * Releases the detector once any capture in progress is done, and stops the background
+     * thread.  Results of a capture in progress are still delivered.
+     */
+    public void release() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                detector.release();
+            }
+        });
+        thread.quitSafely();
+    }
+
+    private void detectPicture(byte[] data, Rect region, Size previewSize, int cameraRotation,
+                               final int captureGeneration, final Callback<T> callback) {
+        SparseArray<T> items = null;
+        Exception error = null;
+        Bitmap bitmap = null;
+        try {
+            long startMillis = SystemClock.elapsedRealtime();
+            int rotation = readRotation(data);
+            bitmap = decode(data, region, previewSize, cameraRotation, rotation);
+            Frame frame = new Frame.Builder()
+                    .setBitmap(bitmap)
+                    .setRotation(rotation)
+                    .build();
+            items = detector.detect(frame);
+            Log.d(TAG, "Detected " + bitmap.getWidth() + "x" + bitmap.getHeight() +
+                    " picture in " + (SystemClock.elapsedRealtime() - startMillis) + " ms.");
+        } catch (IOException | RuntimeException e) {
+            error = e;
+        } finally {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+
+        final SparseArray<T> result = items;
+        final Exception failure = error;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (captureGeneration != generation) {
+                    return;
+                }
+                busy = false;
+                if (failure != null) {
+                    callback.onFailed(failure);
+                } else {
+                    callback.onDetected(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Decodes the part of the picture that the region of interest covers, or all of it, with as
+     * little subsampling as fits the pixel budget.
+     *
+     * @param cameraRotation the rotation which turns preview frames upright
+     * @param rotation       the rotation which turns the decoded picture upright
+     */
+    private Bitmap decode(byte[] data, Rect region, Size previewSize, int cameraRotation,
+                          int rotation) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if ((width <= 0) || (height <= 0)) {
+            throw new IOException("Picture is not a valid JPEG.");
+        }
+
+        Rect crop = new Rect(0, 0, width, height);
+        if (region != null) {
+            mapRegion(region, previewSize, cameraRotation, width, height, rotation, crop);
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inSampleSize = 1;
+        while ((long) (crop.width() / options.inSampleSize) *
+                (crop.height() / options.inSampleSize) > maxPixels) {
+            options.inSampleSize *= 2;
+        }
+
+        Bitmap bitmap;
+        if ((crop.width() == width) && (crop.height() == height)) {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } else {
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(data, 0, data.length,
+                    false);
+            try {
+                bitmap = decoder.decodeRegion(crop, options);
+            } finally {
+                decoder.recycle();
+            }
+        }
+        if (bitmap == null) {
+            throw new IOException("Failed to decode picture.");
+        }
+        return bitmap;
+    }
+
+    /**
+     * Maps the region of interest from the upright preview frame to the picture as stored in the
+     * JPEG.  The picture has the same aspect ratio as the preview, so this is a matter of scale.
+     */
+    static void mapRegion(Rect region, Size previewSize, int cameraRotation, int width,
+                          int height, int rotation, Rect out) {
+        boolean previewSideways = (cameraRotation % 2) != 0;
+        boolean pictureSideways = (rotation % 2) != 0;
+        float previewWidth = previewSideways ? previewSize.getHeight() : previewSize.getWidth();
+        float previewHeight = previewSideways ? previewSize.getWidth() : previewSize.getHeight();
+        int uprightWidth = pictureSideways ? height : width;
+        int uprightHeight = pictureSideways ? width : height;
+
+        float scaleX = uprightWidth / previewWidth;
+        float scaleY = uprightHeight / previewHeight;
+        int[] stored = new int[4];
+        FrameTransform.toSensor((int) (region.left * scaleX), (int) (region.top * scaleY),
+                (int) Math.ceil(region.right * scaleX), (int) Math.ceil(region.bottom * scaleY),
+                width, height, rotation, stored);
+
+        out.set(Math.max(0, stored[0]), Math.max(0, stored[1]), Math.min(width, stored[2]),
+                Math.min(height, stored[3]));
+        if (out.isEmpty()) {
+            out.set(0, 0, width, height);
+        }
+    }
+
+    /**
+     * Reads the EXIF orientation of a JPEG, as one of the {@code Frame.ROTATION_*} constants.
+     * Cameras either rotate the picture data as requested, or store it as it comes from the sensor
+     * and record the rotation here.  Returns {@link Frame#ROTATION_0} if there's no orientation.
+     */
+    static int readRotation(byte[] jpeg) {
+        if ((jpeg.length < 4) || (readShort(jpeg, 0, false) != MARKER_SOI)) {
+            return Frame.ROTATION_0;
+        }
+
+        int offset = 2;
+        while (offset + 4 <= jpeg.length) {
+            int marker = readShort(jpeg, offset, false);
+            int length = readShort(jpeg, offset + 2, false);
+            if (((marker & 0xFF00) != 0xFF00) || (marker == MARKER_SOS) || (length < 2)) {
+                break;
+            }
+            if ((marker == MARKER_APP1) && (offset + 10 <= jpeg.length) &&
+                    (jpeg[offset + 4] == 'E') && (jpeg[offset + 5] == 'x') &&
+                    (jpeg[offset + 6] == 'i') && (jpeg[offset + 7] == 'f')) {
+                return readExifRotation(jpeg, offset + 10, Math.min(jpeg.length,
+                        offset + 2 + length));
+            }
+            offset += 2 + length;
+        }
+        return Frame.ROTATION_0;
+    }
+
+    /**
+     * Looks up the orientation tag in the first IFD of the TIFF structure at the given offset.
+     */
+    private static int readExifRotation(byte[] jpeg, int tiff, int end) {
+        if (tiff + 8 > end) {
+            return Frame.ROTATION_0;
+        }
+        boolean littleEndian = (jpeg[tiff] == 'I');
+        int ifd = tiff + readInt(jpeg, tiff + 4, littleEndian);
+        if ((ifd < tiff) || (ifd + 2 > end)) {
+            return Frame.ROTATION_0;
+        }
+        int entries = readShort(jpeg, ifd, littleEndian);
+        for (int i = 0; i < entries; ++i) {
+            int entry = ifd + 2 + 12 * i;
+            if (entry + 12 > end) {
+                break;
+            }
+            if (readShort(jpeg, entry, littleEndian) == TAG_ORIENTATION) {
+                switch (readShort(jpeg, entry + 8, littleEndian)) {
+                    case 6:
+                        return Frame.ROTATION_90;
+                    case 3:
+                        return Frame.ROTATION_180;
+                    case 8:
+                        return Frame.ROTATION_270;
+                    default:
+                        return Frame.ROTATION_0;
+                }
+            }
+        }
+        return Frame.ROTATION_0;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int first = data[offset] & 0xFF;
+        int second = data[offset + 1] & 0xFF;
+        return littleEndian ? (second << 8) | first : (first << 8) | second;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean littleEndian) {
+        int high = readShort(data, offset, littleEndian);
+        int low = readShort(data, offset + 2, littleEndian);
+        return littleEndian ? (low << 16) | high : (high << 16) | low;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.graphics.Rect;
+
+/**
+ * A detected item together with its bounding box in the coordinates of the whole detected frame.
+ * <p/>
+ * With tiled detection, each tile is detected as a frame of its own, so the positions that the
+ * detector reports for an item are relative to its tile.  Items can't always be rebuilt with
+ * other positions, so instead they are wrapped along with their translated bounding box.  Results
+ * of detecting a whole frame at once are not wrapped.
+ */
+public final class TileItem<T> {
+    /**
+     * Gives access to the position and text of detected items, which is what duplicates found in
+     * the overlap of two tiles are recognized by.
+     */
+    public interface Adapter<T> {
+        /**
+         * Returns the bounding box of the item, as reported by the detector.
+         */
+        Rect getBoundingBox(T item);
+
+        /**
+         * Returns the text of the item, or null if it has none.
+         */
+        String getText(T item);
+    }
+
+    private final T item;
+    private final Rect boundingBox;
+    private final int tile;
+
+    /**
+     * @param boundingBox the bounding box of the item in the coordinates of the whole frame
+     * @param tile        the index of the tile in which the item was detected
+     */
+    public TileItem(T item, Rect boundingBox, int tile) {
+        this.item = item;
+        this.boundingBox = boundingBox;
+        this.tile = tile;
+    }
+
+    /**
+     * Returns the item as reported by the detector, with positions relative to its tile.
+     */
+    public T getItem() {
+        return item;
+    }
+
+    /**
+     * Returns the bounding box of the item in the coordinates of the whole frame.  This is in the
+     * same coordinates as results of detecting the whole frame at once, so
+     * {@link CameraSource#getFrameTransform(int)} applies to it.
+     */
+    public Rect getBoundingBox() {
+        return boundingBox;
+    }
+
+    /**
+     * Returns the index of the tile in which the item was detected.
+     */
+    public int getTile() {
+        return tile;
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs detection on a large frame as a grid of overlapping tiles, several tiles at once, one
+ * detector instance per worker thread, and hands the merged result to a single processor.
+ * <p/>
+ * A single detector only uses one core, so a high resolution frame is detected much sooner as
+ * tiles in parallel.  Tiles overlap
+ * by an eighth of their size, so that text cut by the edge of one tile is whole in the next.  The
+ * positions of items are translated from their tile to the whole frame, and text found twice in
+ * an overlap is reported once: two items from different tiles are duplicates if they overlap and
+ * have the same text, if they mostly overlap, or if one lies within the other and its text is
+ * part of the other's.  The larger of the two is kept, since the smaller one was likely cut off.
+ * <p/>
+ * Only one frame is detected at a time, from the frame processing thread, which waits for its
+ * tiles to be done.
+ */
+final class TiledDetector<T> {
+    private static final String TAG = "TiledDetector";
+
+    private static final int OVERLAP_DIVISOR = 8;
+
+    // Overlapping items from different tiles are duplicates if their intersection over union is
+    // at least this, or if this fraction of the smaller one is within the larger one and its text
+    // is part of the larger one's.
+    private static final float DUPLICATE_IOU = 0.5f;
+    private static final float CONTAINED_FRACTION = 0.8f;
+
+    private final List<Detector<T>> detectors;
+    private final TileItem.Adapter<T> adapter;
+    private final Detector.Processor<TileItem<T>> processor;
+    private final int tileSize;
+    private final int overlap;
+
+    private final ExecutorService executor;
+    private final List<Callable<Void>> workers;
+
+    // The frame being detected, and the layout of its tiles.  Written by the frame processing
+    // thread before the workers are started, and only read by them.
+    private byte[] frameData;
+    private int frameWidth;
+    private int frameHeight;
+    private int frameId;
+    private long timestampMillis;
+    private int rotation;
+    private int tileCount;
+    private int[] tileRects = new int[0];
+    private byte[][] tileData = new byte[0][];
+    private ByteBuffer[] tileBuffers = new ByteBuffer[0];
+
+    // The next tile for a worker to take, and the result of each tile.
+    private final AtomicInteger nextTile = new AtomicInteger();
+    private SparseArray<?>[] tileResults = new SparseArray<?>[0];
+    private boolean[] tileOperational = new boolean[0];
+
+    // Only used by the frame processing thread while merging.
+    private final int[] upright = new int[4];
+    private final List<TileItem<T>> merged = new ArrayList<>();
+
+    private final AtomicLong tilesDetected = new AtomicLong();
+    private final AtomicLong duplicatesMerged = new AtomicLong();
+
+    /**
+     * @param detectors one detector per worker thread
+     * @param tileSize  the width and height of the tiles, in pixels
+     */
+    TiledDetector(List<Detector<T>> detectors, TileItem.Adapter<T> adapter,
+                  Detector.Processor<TileItem<T>> processor, int tileSize) {
+        this.detectors = detectors;
+        this.adapter = adapter;
+        this.processor = processor;
+        this.tileSize = tileSize & ~1;
+        overlap = (tileSize / OVERLAP_DIVISOR) & ~1;
+
+        executor = Executors.newFixedThreadPool(detectors.size());
+        workers = new ArrayList<>(detectors.size());
+        for (int i = 0; i < detectors.size(); ++i) {
+            workers.add(new TileWorker(detectors.get(i)));
+        }
+    }
+
+    /**
+     * Returns the number of tiles detected so far.
+     */
+    long getTilesDetected() {
+        return tilesDetected.get();
+    }
+
+    /**
+     * Returns the number of items dropped as duplicates found in the overlap of two tiles.
+     */
+    long getDuplicatesMerged() {
+        return duplicatesMerged.get();
+    }
+
+    /**
+     * Returns the number of detectors that tiles are spread over.
+     */
+    int getDetectorCount() {
+        return detectors.size();
+    }
+
+    /**
+     * Runs each detector on a frame whose result is thrown away, to get them to initialize before
+     * real frames arrive.
+     *
+     * @param skipFirst whether to skip the first detector, which was already warmed up
+     */
+    void warmUp(Frame frame, boolean skipFirst) {
+        for (int i = skipFirst ? 1 : 0; i < detectors.size(); ++i) {
+            detectors.get(i).detect(frame);
+        }
+    }
+
+    /**
+     * Detects the given frame tile by tile and delivers the merged result.  Returns early without
+     * a result if the thread is interrupted.
+     *
+     * @param metadata the metadata of the whole frame, which the result is reported with
+     */
+    @SuppressWarnings("unchecked")
+    void detect(YuvFrame frame, Frame.Metadata metadata) {
+        frameData = frame.data;
+        frameWidth = frame.width;
+        frameHeight = frame.height;
+        frameId = metadata.getId();
+        timestampMillis = metadata.getTimestampMillis();
+        rotation = frame.rotation;
+        layoutTiles();
+
+        nextTile.set(0);
+        try {
+            List<Future<Void>> results = executor.invokeAll(workers);
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Tile detection failed.", e.getCause());
+        } finally {
+            frameData = null;
+        }
+        tilesDetected.addAndGet(tileCount);
+
+        boolean operational = true;
+        merged.clear();
+        for (int tile = 0; tile < tileCount; ++tile) {
+            operational &= tileOperational[tile];
+            SparseArray<T> items = (SparseArray<T>) tileResults[tile];
+            tileResults[tile] = null;
+            if (items != null) {
+                mergeTile(tile, items);
+            }
+        }
+
+        SparseArray<TileItem<T>> result = new SparseArray<>(merged.size());
+        for (int i = 0; i < merged.size(); ++i) {
+            result.append(i, merged.get(i));
+        }
+        merged.clear();
+
+        try {
+            processor.receiveDetections(new Detector.Detections<>(result, metadata, operational));
+        } catch (Throwable t) {
+            Log.e(TAG, "Exception thrown from processor.", t);
+        }
+    }
+
+    /**
+     * Releases all of the detectors and the processor, and stops the worker threads.  This is
+     * only safe to do once no more frames will be detected.
+     */
+    void release() {
+        executor.shutdownNow();
+        for (Detector<T> detector : detectors) {
+            detector.release();
+        }
+        processor.release();
+    }
+
+    /**
+     * Spreads the tiles evenly over the frame, in camera coordinates, and makes sure that there
+     * is a buffer for each of them.
+     */
+    private void layoutTiles() {
+        int columns = tileCount(frameWidth);
+        int rows = tileCount(frameHeight);
+        int width = Math.min(tileSize, frameWidth & ~1);
+        int height = Math.min(tileSize, frameHeight & ~1);
+
+        tileCount = columns * rows;
+        if (tileRects.length < 4 * tileCount) {
+            tileRects = new int[4 * tileCount];
+            tileData = new byte[tileCount][];
+            tileBuffers = new ByteBuffer[tileCount];
+            tileResults = new SparseArray<?>[tileCount];
+            tileOperational = new boolean[tileCount];
+        }
+
+        int size = YuvFrame.sizeInBytes(width, height);
+        for (int row = 0; row < rows; ++row) {
+            int top = tileStart(row, rows, frameHeight, height);
+            for (int column = 0; column < columns; ++column) {
+                int tile = row * columns + column;
+                int left = tileStart(column, columns, frameWidth, width);
+                tileRects[4 * tile] = left;
+                tileRects[4 * tile + 1] = top;
+                tileRects[4 * tile + 2] = left + width;
+                tileRects[4 * tile + 3] = top + height;
+
+                if ((tileData[tile] == null) || (tileData[tile].length != size)) {
+                    tileData[tile] = new byte[size];
+                    tileBuffers[tile] = ByteBuffer.wrap(tileData[tile]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns how many tiles it takes to cover the given length with the configured overlap.
+     */
+    private int tileCount(int length) {
+        if (length <= tileSize) {
+            return 1;
+        }
+        int step = tileSize - overlap;
+        return (length - overlap + step - 1) / step;
+    }
+
+    /**
+     * Returns the start of the given tile along an axis, with the tiles spread evenly so that the
+     * first starts at 0 and the last ends at the end of the frame.  Starts are even, so that tiles
+     * don't split the 2x2 blocks that share chroma samples.
+     */
+    private static int tileStart(int index, int count, int length, int size) {
+        if (count == 1) {
+            return 0;
+        }
+        return (int) ((long) ((length & ~1) - size) * index / (count - 1)) & ~1;
+    }
+
+    /**
+     * Adds the items of one tile to the merged result, translated to the whole frame, unless an
+     * item from another tile already covers them.
+     */
+    private void mergeTile(int tile, SparseArray<T> items) {
+        int[] rect = tileRects;
+        FrameTransform.toUpright(rect[4 * tile], rect[4 * tile + 1], rect[4 * tile + 2],
+                rect[4 * tile + 3], frameWidth, frameHeight, rotation, upright);
+        int offsetX = upright[0];
+        int offsetY = upright[1];
+
+        for (int i = 0; i < items.size(); ++i) {
+            T item = items.valueAt(i);
+            Rect box = (item != null) ? adapter.getBoundingBox(item) : null;
+            if (box == null) {
+                continue;
+            }
+            Rect frameBox = new Rect(box);
+            frameBox.offset(offsetX, offsetY);
+            String text = adapter.getText(item);
+
+            boolean keep = true;
+            for (int j = 0; j < merged.size(); ++j) {
+                TileItem<T> other = merged.get(j);
+                if ((other.getTile() == tile) ||
+                        !isDuplicate(frameBox, text, other.getBoundingBox(),
+                                adapter.getText(other.getItem()))) {
+                    continue;
+                }
+                duplicatesMerged.incrementAndGet();
+                if (area(frameBox) > area(other.getBoundingBox())) {
+                    merged.set(j, new TileItem<>(item, frameBox, tile));
+                }
+                keep = false;
+                break;
+            }
+            if (keep) {
+                merged.add(new TileItem<>(item, frameBox, tile));
+            }
+        }
+    }
+
+    private static boolean isDuplicate(Rect a, String textA, Rect b, String textB) {
+        int width = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+        int height = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+        if ((width <= 0) || (height <= 0)) {
+            return false;
+        }
+        if ((textA != null) && textA.equals(textB)) {
+            return true;
+        }
+
+        long intersection = (long) width * height;
+        long areaA = area(a);
+        long areaB = area(b);
+        if (intersection >= DUPLICATE_IOU * (areaA + areaB - intersection)) {
+            return true;
+        }
+
+        if ((textA == null) || (textB == null)) {
+            return false;
+        }
+        return (areaA <= areaB)
+                ? (intersection >= CONTAINED_FRACTION * areaA) && textB.contains(textA)
+                : (intersection >= CONTAINED_FRACTION * areaB) && textA.contains(textB);
+    }
+
+    private static long area(Rect rect) {
+        return (long) Math.max(0, rect.width()) * Math.max(0, rect.height());
+    }
+
+    /**
+     * Takes tiles until there are none left, and detects each with this worker's detector.
+     */
+    private final class TileWorker implements Callable<Void> {
+        private final Detector<T> mDetector;
+
+        TileWorker(Detector<T> detector) {
+            mDetector = detector;
+        }
+
+        @Override
+        public Void call() {
+            int tile;
+            while ((tile = nextTile.getAndIncrement()) < tileCount) {
+                int left = tileRects[4 * tile];
+                int top = tileRects[4 * tile + 1];
+                int width = tileRects[4 * tile + 2] - left;
+                int height = tileRects[4 * tile + 3] - top;
+                RegionCropStage.crop(frameData, frameWidth, frameHeight, left, top, width, height,
+                        tileData[tile]);
+
+                Frame frame = new Frame.Builder()
+                        .setImageData(tileBuffers[tile], width, height, ImageFormat.NV21)
+                        .setId(frameId)
+                        .setTimestampMillis(timestampMillis)
+                        .setRotation(rotation)
+                        .build();
+                tileResults[tile] = mDetector.detect(frame);
+                tileOperational[tile] = mDetector.isOperational();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A preview frame in NV21 layout as it moves through the frame pipeline: a full resolution luma
+ * plane followed by an interleaved, half resolution VU plane.
+ * <p/>
+ * Pipeline stages may crop or scale the frame, so each frame also records which part of the full
+ * camera frame it covers, in the camera's (unrotated) coordinate system.  A pixel at (x, y) in this
+ * frame corresponds to ({@link #left} + x * {@link #scale}, {@link #top} + y * {@link #scale}) in
+ * the full frame.
+ * <p/>
+ * Frames are mutable and reused from frame to frame, so that the pipeline doesn't allocate.
+ */
+final class YuvFrame {
+    int id;
+    byte[] data;
+    int width;
+    int height;
+
+    /**
+     * Rotation needed to display the frame upright, as one of the {@code Frame.ROTATION_*}
+     * constants.
+     */
+    int rotation;
+
+    int left;
+    int top;
+    float scale = 1.0f;
+
+    /**
+     * Focus quality of the frame, or NaN if it wasn't measured.  See {@link SharpnessStage}.
+     */
+    float sharpness = Float.NaN;
+
+    private ByteBuffer buffer;
+
+    /**
+     * Points this frame at a full camera frame.
+     */
+    void set(int id, byte[] data, ByteBuffer buffer, int width, int height, int rotation) {
+        this.id = id;
+        this.data = data;
+        this.buffer = buffer;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        left = 0;
+        top = 0;
+        scale = 1.0f;
+        sharpness = Float.NaN;
+    }
+
+    /**
+     * Points this frame at the given pixel data, covering part of the same full frame as the given
+     * source frame.  The data array is wrapped in a byte buffer only if it changed.
+     */
+    void setDerived(YuvFrame source, byte[] data, int width, int height, int left, int top,
+                    float scale) {
+        if ((this.data != data) || (buffer == null)) {
+            buffer = ByteBuffer.wrap(data);
+        }
+        this.id = source.id;
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.rotation = source.rotation;
+        this.sharpness = source.sharpness;
+        this.left = left;
+        this.top = top;
+        this.scale = scale;
+    }
+
+    /**
+     * Returns the pixel data wrapped in a byte buffer, as the detector expects it.
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the size of an NV21 frame with the given dimensions, which should be even.
+     */
+    static int sizeInBytes(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+}
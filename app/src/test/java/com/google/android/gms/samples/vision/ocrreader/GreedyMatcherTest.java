@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link GreedyMatcher}.
+ */
+public class GreedyMatcherTest {
+    @Test
+    public void bestPairsAreMatchedFirst() {
+        GreedyMatcher matcher = new GreedyMatcher();
+        matcher.add(0, 0, 0.5f);
+        matcher.add(0, 1, 0.9f);
+        matcher.add(1, 1, 0.8f);
+        matcher.add(1, 0, 0.1f);
+
+        int[] matches = matcher.match(2, 2);
+        assertEquals(1, matches[0]);
+        assertEquals(0, matches[1]);
+        assertTrue(matcher.isRightMatched(0));
+        assertTrue(matcher.isRightMatched(1));
+    }
+
+    @Test
+    public void indicesWithoutCandidatesStayUnmatched() {
+        GreedyMatcher matcher = new GreedyMatcher();
+        matcher.add(0, 2, 0.7f);
+        matcher.add(2, 2, 0.6f);
+
+        int[] matches = matcher.match(3, 3);
+        assertEquals(2, matches[0]);
+        assertEquals(-1, matches[1]);
+        assertEquals(-1, matches[2]);
+        assertFalse(matcher.isRightMatched(0));
+        assertFalse(matcher.isRightMatched(1));
+        assertTrue(matcher.isRightMatched(2));
+    }
+
+    @Test
+    public void clearForgetsCandidates() {
+        GreedyMatcher matcher = new GreedyMatcher();
+        matcher.add(0, 0, 1);
+        matcher.match(1, 1);
+
+        matcher.clear();
+        int[] matches = matcher.match(1, 1);
+        assertEquals(-1, matches[0]);
+        assertFalse(matcher.isRightMatched(0));
+    }
+
+    @Test
+    public void manyCandidatesAreAllKept() {
+        GreedyMatcher matcher = new GreedyMatcher();
+        int count = 100;
+        for (int i = 0; i < count; ++i) {
+            for (int j = 0; j < count; ++j) {
+                matcher.add(i, j, (i == j) ? 1 : 0.5f);
+            }
+        }
+
+        int[] matches = matcher.match(count, count);
+        for (int i = 0; i < count; ++i) {
+            assertEquals(i, matches[i]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void indexBeyondKeyIsRejected() {
+        new GreedyMatcher().add(GreedyMatcher.MAX_INDEX + 1, 0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeScoreIsRejected() {
+        new GreedyMatcher().add(0, 0, -0.5f);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LineFusion}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LineFusionTest {
+    private static final int WINDOW_FRAMES = 4;
+    private static final float DELTA = 1e-6f;
+
+    @Test
+    public void unanimousReadingsKeepTheirText() {
+        LineFusion fusion = new LineFusion(WINDOW_FRAMES);
+        List<FusedLine> fused = null;
+        for (int i = 0; i < 3; ++i) {
+            fused = fusion.update(items(block(line("TOTAL 12.50", 0, 0, 200, 20))));
+        }
+
+        assertEquals(1, fused.size());
+        assertEquals("TOTAL 12.50", fused.get(0).getText());
+        assertEquals(1f, fused.get(0).getAgreement(), DELTA);
+        assertEquals(3, fused.get(0).getObservations());
+        assertEquals(fused, fusion.getFusedLines());
+    }
+
+    @Test
+    public void misreadCharacterIsOutvoted() {
+        LineFusion fusion = new LineFusion(WINDOW_FRAMES);
+        fusion.update(items(block(line("TOTAL 12.50", 0, 0, 200, 20))));
+        fusion.update(items(block(line("T0TAL 12.50", 1, 0, 201, 20))));
+        List<FusedLine> fused = fusion.update(items(block(line("TOTAL 12.50", 2, 1, 202, 21))));
+
+        assertEquals(1, fused.size());
+        assertEquals("TOTAL 12.50", fused.get(0).getText());
+        assertTrue(fused.get(0).getAgreement() < 1f);
+        assertEquals(new Rect(2, 1, 202, 21), fused.get(0).getBoundingBox());
+    }
+
+    @Test
+    public void droppedAndAddedCharactersAreOutvoted() {
+        LineFusion fusion = new LineFusion(WINDOW_FRAMES);
+        fusion.update(items(block(line("TOTAL 12.50", 0, 0, 200, 20))));
+        fusion.update(items(block(line("TOTAL 1250", 0, 0, 200, 20))));
+        fusion.update(items(block(line("TOTAL 12.50", 0, 0, 200, 20))));
+        List<FusedLine> fused = fusion.update(items(block(line("TOTAL. 12.50", 0, 0, 200, 20))));
+
+        assertEquals("TOTAL 12.50", fused.get(0).getText());
+    }
+
+    @Test
+    public void tieGoesToNewestReading() {
+        LineFusion fusion = new LineFusion(WINDOW_FRAMES);
+        fusion.update(items(block(line("MILK", 0, 0, 100, 20))));
+        List<FusedLine> fused = fusion.update(items(block(line("M1LK", 0, 0, 100, 20))));
+
+        assertEquals("M1LK", fused.get(0).getText());
+        assertEquals(0.875f, fused.get(0).getAgreement(), DELTA);
+    }
+
+    @Test
+    public void linesKeepTheirOwnReadings() {
+        LineFusion fusion = new LineFusion(WINDOW_FRAMES);
+        fusion.update(items(block(line("MILK", 0, 0, 100, 20), line("2.99", 0, 30, 100, 50))));
+        fusion.update(items(block(line("MILK", 0, 2, 100, 22), line("2.99", 0, 32, 100, 52))));
+        List<FusedLine> fused = fusion.update(items(
+                block(line("M1LK", 0, 4, 100, 24), line("2.99", 0, 34, 100, 54))));
+
+        assertEquals(2, fused.size());
+        assertEquals("MILK", fused.get(0).getText());
+        assertEquals("2.99", fused.get(1).getText());
+        assertEquals(1f, fused.get(1).getAgreement(), DELTA);
+    }
+
+    @Test
+    public void linesAreOrderedTopToBottom() {
+        LineFusion fusion = new LineFusion(WINDOW_FRAMES);
+        List<FusedLine> fused = fusion.update(items(
+                block(line("BOTTOM", 0, 200, 100, 220)),
+                block(line("RIGHT", 150, 0, 250, 20), line("MIDDLE", 0, 100, 100, 120)),
+                block(line("LEFT", 0, 0, 100, 20))));
+
+        assertEquals(Arrays.asList("LEFT", "RIGHT", "MIDDLE", "BOTTOM"), texts(fused));
+    }
+
+    @Test
+    public void linesOfMovedBlocksAreMovedWithTheBlock() {
+        LineFusion fusion = new LineFusion(WINDOW_FRAMES);
+        RecognizedText block = block(line("TILE", 10, 10, 60, 30)).offset(100, 200);
+        List<FusedLine> fused = fusion.update(items(block));
+
+        assertEquals(new Rect(110, 210, 160, 230), block.getBoundingBox());
+        assertEquals(new Rect(110, 210, 160, 230), fused.get(0).getBoundingBox());
+    }
+
+    @Test
+    public void steadyLinesAreHandedOutAgain() {
+        LineFusion fusion = new LineFusion(WINDOW_FRAMES);
+        List<FusedLine> fused = null;
+        for (int i = 0; i < WINDOW_FRAMES; ++i) {
+            fused = fusion.update(items(block(line("MILK", 0, 0, 100, 20))));
+        }
+        assertSame(fused, fusion.update(items(block(line("MILK", 0, 0, 100, 20)))));
+
+        List<FusedLine> moved = fusion.update(items(block(line("MILK", 2, 0, 102, 20))));
+        assertNotSame(fused, moved);
+        assertEquals(new Rect(2, 0, 102, 20), moved.get(0).getBoundingBox());
+    }
+
+    @Test
+    public void linesUnseenForTheWindowAreForgotten() {
+        LineFusion fusion = new LineFusion(WINDOW_FRAMES);
+        fusion.update(items(block(line("GONE", 0, 0, 100, 20))));
+        for (int i = 1; i < WINDOW_FRAMES - 1; ++i) {
+            assertEquals(1, fusion.update(items()).size());
+        }
+        assertEquals(1, fusion.update(items()).get(0).getObservations());
+
+        assertEquals(0, fusion.update(items()).size());
+    }
+
+    @Test
+    public void clearForgetsAllLines() {
+        LineFusion fusion = new LineFusion(WINDOW_FRAMES);
+        fusion.update(items(block(line("TOTAL", 0, 0, 100, 20))));
+        fusion.clear();
+
+        assertEquals(0, fusion.getFusedLines().size());
+        List<FusedLine> fused = fusion.update(items(block(line("T0TAL", 0, 0, 100, 20))));
+        assertEquals("T0TAL", fused.get(0).getText());
+        assertEquals(1, fused.get(0).getObservations());
+    }
+
+    @Test
+    public void iouOfBoxes() {
+        Rect box = new Rect(0, 0, 100, 20);
+        assertEquals(1f, LineFusion.iou(box, new Rect(box)), DELTA);
+        assertEquals(0f, LineFusion.iou(box, new Rect(100, 0, 200, 20)), DELTA);
+        assertEquals(1f / 3, LineFusion.iou(box, new Rect(50, 0, 150, 20)), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyWindowIsRejected() {
+        new LineFusion(0);
+    }
+
+    private static RecognizedText line(String text, int left, int top, int right, int bottom) {
+        return new RecognizedText(text, new Rect(left, top, right, bottom),
+                Collections.<RecognizedText>emptyList());
+    }
+
+    private static RecognizedText block(RecognizedText... lines) {
+        Rect box = new Rect(lines[0].getBoundingBox());
+        StringBuilder text = new StringBuilder();
+        for (RecognizedText line : lines) {
+            box.union(line.getBoundingBox());
+            text.append((text.length() > 0) ? "\n" : "").append(line.getValue());
+        }
+        return new RecognizedText(text.toString(), box, Arrays.asList(lines));
+    }
+
+    private static SparseArray<RecognizedText> items(RecognizedText... blocks) {
+        SparseArray<RecognizedText> items = new SparseArray<>();
+        for (int i = 0; i < blocks.length; ++i) {
+            items.append(i, blocks[i]);
+        }
+        return items;
+    }
+
+    private static List<String> texts(List<FusedLine> lines) {
+        String[] texts = new String[lines.size()];
+        for (int i = 0; i < texts.length; ++i) {
+            texts[i] = lines.get(i).getText();
+        }
+        return Arrays.asList(texts);
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.CameraSource;
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.DetectorBenchmark;
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.FrameMetrics;
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.FrameTransform;
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.GraphicOverlay;
+import com.google.android.gms.samples.vision.ocrreader.ui.camera.TestRecordings;
+import com.google.android.gms.vision.Detector;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays a recording of a synthetic page back through the camera source, with the reference OCR
+ * engine as detector, and checks that every frame reaches the processor once and in order, and
+ * what the processor makes of them.  One frame of the recording is missing a glyph, which the
+ * fused result has to outvote.  The same recording is also run through the engine benchmark, and
+ * cropped to a region of interest that changes while frames are detected.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ReplayPipelineTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int FRAMES = 10;
+    private static final int MISREAD_FRAME = 4;
+    private static final long FRAME_INTERVAL_MILLIS = 33;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final byte PAPER = (byte) 220;
+    private static final byte INK = (byte) 30;
+
+    // The page has three lines far enough apart to be blocks of their own, each given as the
+    // number of glyphs of every word.
+    private static final int[] LINE_TOPS = {40, 110, 180};
+    private static final int[][] LINE_WORDS = {{3, 5}, {4, 2}, {2, 3, 2}};
+    private static final int LINE_HEIGHT = 16;
+    private static final int GLYPH_WIDTH = 9;
+    private static final int GLYPH_GAP = 3;
+    private static final int WORD_GAP = 18;
+    private static final int MARGIN = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayedFramesReachProcessor() throws Exception {
+        byte[] page = drawPage(false);
+        byte[] misreadPage = drawPage(true);
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < FRAMES; ++i) {
+            frames.add((i == MISREAD_FRAME) ? misreadPage : page);
+        }
+        File recording = folder.newFile("page.nv21");
+        TestRecordings.write(recording, WIDTH, HEIGHT, frames, FRAME_INTERVAL_MILLIS);
+
+        List<String> expected = readLines(page);
+        assertEquals(LINE_TOPS.length, expected.size());
+        assertNotEquals(expected, readLines(misreadPage));
+
+        GraphicOverlay<OcrGraphic> overlay =
+                new GraphicOverlay<>(RuntimeEnvironment.application, null);
+        final OcrDetectorProcessor processor = new OcrDetectorProcessor(overlay);
+        final List<Integer> frameIds = Collections.synchronizedList(new ArrayList<Integer>());
+        OcrEngineDetector detector = new OcrEngineDetector(new ReferenceOcrEngine());
+        detector.setProcessor(new Detector.Processor<RecognizedText>() {
+            @Override
+            public void receiveDetections(Detector.Detections<RecognizedText> detections) {
+                frameIds.add(detections.getFrameMetadata().getId());
+                processor.receiveDetections(detections);
+            }
+
+            @Override
+            public void release() {
+                processor.release();
+            }
+        });
+        CameraSource cameraSource = new CameraSource.Builder(RuntimeEnvironment.application,
+                detector)
+                .setReplayRecording(recording, false)
+                .build();
+        processor.setCameraSource(cameraSource);
+
+        try {
+            cameraSource.start();
+            assertTrue(cameraSource.awaitReplay(TIMEOUT_MILLIS));
+
+            // Frames aren't paced in real time, so none of them are dropped.
+            FrameMetrics metrics = cameraSource.getFrameMetrics();
+            assertEquals(FRAMES, metrics.getFramesDelivered());
+            assertEquals(0, metrics.getFramesOverwritten());
+            assertEquals(FRAMES, metrics.getDetectorLatency().getCount());
+            assertEquals(FRAMES, frameIds.size());
+            for (int i = 1; i < FRAMES; ++i) {
+                assertTrue(frameIds.toString(), frameIds.get(i) > frameIds.get(i - 1));
+            }
+
+            // The last frame is a clean one.
+            assertEquals(expected, sortedTexts(processor.getItems()));
+
+            List<String> fusedTexts = new ArrayList<>();
+            for (FusedLine line : processor.getFusedLines()) {
+                fusedTexts.add(line.getText());
+            }
+            assertEquals(expected, fusedTexts);
+        } finally {
+            cameraSource.release();
+        }
+    }
+
+    @Test
+    public void resultsMapBackWithTheRegionTheirFrameWasCroppedTo() throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < FRAMES; ++i) {
+            frames.add(drawPage(false));
+        }
+        File recording = folder.newFile("region.nv21");
+        TestRecordings.write(recording, WIDTH, HEIGHT, frames, FRAME_INTERVAL_MILLIS);
+
+        // Each region holds a single line, with enough paper around it not to be taken for a
+        // picture.  The region is moved once the detector has seen half of the frames, by which
+        // time the next frame may already be cropped to the old one.
+        final Rect firstRegion = new Rect(0, LINE_TOPS[1] - 30, WIDTH, LINE_TOPS[1] + 50);
+        final Rect secondRegion = new Rect(0, LINE_TOPS[0] - 20, WIDTH, LINE_TOPS[0] + 60);
+        final List<Integer> frameIds = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> tops = Collections.synchronizedList(new ArrayList<Integer>());
+        final CameraSource[] source = new CameraSource[1];
+        OcrEngineDetector detector = new OcrEngineDetector(new ReferenceOcrEngine());
+        detector.setProcessor(new Detector.Processor<RecognizedText>() {
+            @Override
+            public void receiveDetections(Detector.Detections<RecognizedText> detections) {
+                SparseArray<RecognizedText> items = detections.getDetectedItems();
+                assertEquals(1, items.size());
+                frameIds.add(detections.getFrameMetadata().getId());
+                tops.add(items.valueAt(0).getBoundingBox().top);
+                if (frameIds.size() == FRAMES / 2) {
+                    source[0].setRegionOfInterest(secondRegion);
+                }
+            }
+
+            @Override
+            public void release() {
+            }
+        });
+        CameraSource cameraSource = new CameraSource.Builder(RuntimeEnvironment.application,
+                detector)
+                .setReplayRecording(recording, false)
+                .setRegionOfInterest(firstRegion)
+                .build();
+        source[0] = cameraSource;
+
+        try {
+            cameraSource.start();
+            assertTrue(cameraSource.awaitReplay(TIMEOUT_MILLIS));
+            assertEquals(FRAMES, frameIds.size());
+
+            int moved = 0;
+            for (int i = 0; i < FRAMES; ++i) {
+                FrameTransform transform = cameraSource.getFrameTransform(frameIds.get(i));
+                float top = transform.mapY(tops.get(i));
+                if (top == LINE_TOPS[0]) {
+                    moved++;
+                } else {
+                    assertEquals(LINE_TOPS[1], top, 0);
+                    assertEquals(0, moved);
+                }
+            }
+            assertTrue(moved > 0);
+            assertTrue(moved < FRAMES);
+            assertNull(cameraSource.getFrameTransform(frameIds.get(FRAMES - 1) + 1));
+        } finally {
+            cameraSource.release();
+        }
+    }
+
+    @Test
+    public void benchmarkRunsReferenceEngine() throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < FRAMES; ++i) {
+            frames.add(drawPage(i == MISREAD_FRAME));
+        }
+        File recording = folder.newFile("benchmark.nv21");
+        TestRecordings.write(recording, WIDTH, HEIGHT, frames, FRAME_INTERVAL_MILLIS);
+
+        List<OcrEngine> engines = Collections.<OcrEngine>singletonList(new ReferenceOcrEngine());
+        List<DetectorBenchmark.Result> results = OcrEngineBenchmark.run(recording, engines);
+
+        assertEquals(1, results.size());
+        DetectorBenchmark.Result result = results.get(0);
+        assertEquals("reference", result.getName());
+        assertEquals(FRAMES, result.getFrames());
+        assertEquals(FRAMES * LINE_TOPS.length, result.getItems());
+        assertEquals(FRAMES, result.getLatency().getCount());
+    }
+
+    /**
+     * Returns the texts of the lines that the reference engine reads on the frame, top to
+     * bottom.
+     */
+    private static List<String> readLines(byte[] frame) {
+        List<String> lines = new ArrayList<>();
+        for (RecognizedText block : new ReferenceOcrEngine().recognize(ByteBuffer.wrap(frame),
+                WIDTH, HEIGHT, 0)) {
+            for (RecognizedText line : block.getComponents()) {
+                lines.add(line.getValue());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the texts of the blocks, top to bottom.
+     */
+    private static List<String> sortedTexts(SparseArray<RecognizedText> items) {
+        List<RecognizedText> sorted = new ArrayList<>();
+        for (int i = 0; i < items.size(); ++i) {
+            sorted.add(items.valueAt(i));
+        }
+        Collections.sort(sorted, new Comparator<RecognizedText>() {
+            @Override
+            public int compare(RecognizedText a, RecognizedText b) {
+                return Integer.compare(a.getBoundingBox().top, b.getBoundingBox().top);
+            }
+        });
+        List<String> texts = new ArrayList<>();
+        for (RecognizedText item : sorted) {
+            texts.add(item.getValue());
+        }
+        return texts;
+    }
+
+    /**
+     * Draws the page as an NV21 frame: dark glyphs on light paper, each glyph a bar with a notch
+     * at a different place, so that the words read differently.
+     *
+     * @param misread whether to leave out the last glyph of the middle line
+     */
+    private static byte[] drawPage(boolean misread) {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(frame, 0, WIDTH * HEIGHT, PAPER);
+        Arrays.fill(frame, WIDTH * HEIGHT, frame.length, (byte) 128);
+
+        for (int line = 0; line < LINE_TOPS.length; ++line) {
+            int x = MARGIN;
+            int glyph = 0;
+            int[] words = LINE_WORDS[line];
+            for (int word = 0; word < words.length; ++word) {
+                int glyphs = words[word];
+                if (misread && (line == 1) && (word == words.length - 1)) {
+                    glyphs--;
+                }
+                for (int i = 0; i < glyphs; ++i) {
+                    drawGlyph(frame, x, LINE_TOPS[line], glyph++);
+                    x += GLYPH_WIDTH + GLYPH_GAP;
+                }
+                x += WORD_GAP - GLYPH_GAP;
+            }
+        }
+        return frame;
+    }
+
+    private static void drawGlyph(byte[] frame, int left, int top, int glyph) {
+        int notchColumn = 1 + glyph % (GLYPH_WIDTH - 2);
+        for (int y = top; y < top + LINE_HEIGHT; ++y) {
+            for (int x = left; x < left + GLYPH_WIDTH; ++x) {
+                boolean notch = (x - left == notchColumn) && (y - top > 2) &&
+                        (y - top < LINE_HEIGHT - 3);
+                frame[y * WIDTH + x] = notch ? PAPER : INK;
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link TextTracker}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TextTrackerTest {
+    private static final int MAX_MISSED_FRAMES = 2;
+
+    @Test
+    public void newBlocksGetNewIds() {
+        TextTracker tracker = new TextTracker(MAX_MISSED_FRAMES);
+        SparseArray<RecognizedText> tracked = tracker.update(items(
+                block("HELLO", 0, 0, 100, 20),
+                block("WORLD", 0, 40, 100, 60)));
+
+        assertEquals(2, tracked.size());
+        assertNotEquals(tracked.keyAt(0), tracked.keyAt(1));
+    }
+
+    @Test
+    public void movingBlocksKeepTheirIds() {
+        TextTracker tracker = new TextTracker(MAX_MISSED_FRAMES);
+        SparseArray<RecognizedText> first = tracker.update(items(
+                block("HELLO", 0, 0, 100, 20),
+                block("WORLD", 0, 25, 100, 45)));
+        // The blocks come in the other order, and have moved down a little, so that HELLO now
+        // overlaps where WORLD was almost as much as where it was itself.
+        SparseArray<RecognizedText> second = tracker.update(items(
+                block("WORLD", 3, 30, 103, 50),
+                block("HELLO", 3, 6, 103, 26)));
+
+        assertEquals(idOf(first, "HELLO"), idOf(second, "HELLO"));
+        assertEquals(idOf(first, "WORLD"), idOf(second, "WORLD"));
+    }
+
+    @Test
+    public void misreadBlockKeepsItsId() {
+        TextTracker tracker = new TextTracker(MAX_MISSED_FRAMES);
+        SparseArray<RecognizedText> first = tracker.update(items(
+                block("WORLD", 0, 0, 100, 20)));
+        SparseArray<RecognizedText> second = tracker.update(items(
+                block("W0RLD", 2, 1, 102, 21)));
+
+        assertEquals(first.keyAt(0), second.keyAt(0));
+    }
+
+    @Test
+    public void differentTextElsewhereGetsNewId() {
+        TextTracker tracker = new TextTracker(MAX_MISSED_FRAMES);
+        SparseArray<RecognizedText> first = tracker.update(items(
+                block("HELLO", 0, 0, 100, 20)));
+        SparseArray<RecognizedText> second = tracker.update(items(
+                block("TOTALLY DIFFERENT", 30, 6, 200, 26)));
+
+        assertNotEquals(first.keyAt(0), second.keyAt(0));
+    }
+
+    @Test
+    public void blockMissedForAFewFramesKeepsItsId() {
+        TextTracker tracker = new TextTracker(MAX_MISSED_FRAMES);
+        int id = tracker.update(items(block("HELLO", 0, 0, 100, 20))).keyAt(0);
+        for (int i = 0; i < MAX_MISSED_FRAMES; ++i) {
+            assertEquals(0, tracker.update(items()).size());
+        }
+
+        assertEquals(id, tracker.update(items(block("HELLO", 0, 0, 100, 20))).keyAt(0));
+    }
+
+    @Test
+    public void blockMissedForTooLongGetsNewId() {
+        TextTracker tracker = new TextTracker(MAX_MISSED_FRAMES);
+        int id = tracker.update(items(block("HELLO", 0, 0, 100, 20))).keyAt(0);
+        for (int i = 0; i <= MAX_MISSED_FRAMES; ++i) {
+            tracker.update(items());
+        }
+
+        assertNull(tracker.getSmoothedBox(id));
+        assertNotEquals(id, tracker.update(items(block("HELLO", 0, 0, 100, 20))).keyAt(0));
+    }
+
+    @Test
+    public void nullBlocksAreLeftOut() {
+        TextTracker tracker = new TextTracker(MAX_MISSED_FRAMES);
+        SparseArray<RecognizedText> tracked = tracker.update(items(
+                null,
+                block("WORLD", 0, 80, 100, 100)));
+
+        assertEquals(1, tracked.size());
+        assertEquals("WORLD", tracked.valueAt(0).getValue());
+        assertEquals(0, tracker.update(null).size());
+    }
+
+    @Test
+    public void smoothedBoxFollowsHalfway() {
+        TextTracker tracker = new TextTracker(MAX_MISSED_FRAMES);
+        int id = tracker.update(items(block("HELLO", 0, 0, 100, 20))).keyAt(0);
+        assertEquals(new Rect(0, 0, 100, 20), tracker.getSmoothedBox(id));
+
+        tracker.update(items(block("HELLO", 10, 4, 110, 24)));
+        assertEquals(new Rect(5, 2, 105, 22), tracker.getSmoothedBox(id));
+    }
+
+    @Test
+    public void clearDoesNotReuseIds() {
+        TextTracker tracker = new TextTracker(MAX_MISSED_FRAMES);
+        int id = tracker.update(items(block("HELLO", 0, 0, 100, 20))).keyAt(0);
+        tracker.clear();
+
+        assertNull(tracker.getSmoothedBox(id));
+        assertNotEquals(id, tracker.update(items(block("HELLO", 0, 0, 100, 20))).keyAt(0));
+    }
+
+    @Test
+    public void manyBlocksKeepTheirIds() {
+        TextTracker tracker = new TextTracker(MAX_MISSED_FRAMES);
+        int count = 500;
+        RecognizedText[] blocks = new RecognizedText[count];
+        for (int i = 0; i < count; ++i) {
+            int x = (i % 20) * 60;
+            int y = (i / 20) * 30;
+            blocks[i] = block("BLOCK" + i, x, y, x + 50, y + 20);
+        }
+        SparseArray<RecognizedText> first = tracker.update(items(blocks));
+        SparseArray<RecognizedText> second = tracker.update(items(blocks));
+
+        assertEquals(count, first.size());
+        assertEquals(count, second.size());
+        for (int i = 0; i < count; ++i) {
+            assertEquals(first.keyAt(i), second.keyAt(i));
+            assertEquals(first.valueAt(i), second.valueAt(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeMissedFramesAreRejected() {
+        new TextTracker(-1);
+    }
+
+    private static RecognizedText block(String text, int left, int top, int right, int bottom) {
+        return new RecognizedText(text, new Rect(left, top, right, bottom),
+                Collections.<RecognizedText>emptyList());
+    }
+
+    private static SparseArray<RecognizedText> items(RecognizedText... blocks) {
+        SparseArray<RecognizedText> items = new SparseArray<>();
+        for (int i = 0; i < blocks.length; ++i) {
+            items.append(i, blocks[i]);
+        }
+        return items;
+    }
+
+    private static int idOf(SparseArray<RecognizedText> items, String text) {
+        for (int i = 0; i < items.size(); ++i) {
+            if (text.equals(items.valueAt(i).getValue())) {
+                return items.keyAt(i);
+            }
+        }
+        throw new AssertionError("No block reads " + text);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import com.google.android.gms.common.images.Size;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for reading and writing {@link CameraCapabilities}, as kept by the capability cache.
+ */
+public class CameraCapabilitiesTest {
+    @Test
+    public void readsWrittenFields() throws IOException {
+        CameraCapabilities capabilities = read(typicalCamera());
+
+        assertEquals(Arrays.asList(new Size(1920, 1080), new Size(640, 480)),
+                capabilities.getPreviewSizes());
+        assertEquals(Arrays.asList(new Size(4608, 3456)), capabilities.getPictureSizes());
+        assertEquals(2, capabilities.getPreviewFpsRanges().size());
+        assertArrayEquals(new int[] {15000, 30000}, capabilities.getPreviewFpsRanges().get(1));
+        assertTrue(capabilities.isFocusModeSupported("continuous-video"));
+        assertFalse(capabilities.isFocusModeSupported("macro"));
+        assertTrue(capabilities.isFlashModeSupported("torch"));
+        assertTrue(capabilities.isZoomSupported());
+        assertEquals(60, capabilities.getMaxZoom());
+        assertTrue(capabilities.isSmoothZoomSupported());
+    }
+
+    @Test
+    public void writeProducesWhatWasRead() throws IOException {
+        byte[] bytes = typicalCamera();
+        assertArrayEquals(bytes, write(read(bytes)));
+    }
+
+    @Test
+    public void cameraWithoutFlashOrZoom() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeSizes(out, 640, 480);
+        writeSizes(out);
+        out.writeShort(0);
+        writeStrings(out, "fixed");
+        writeStrings(out);
+        out.writeInt(0);
+        out.writeBoolean(false);
+
+        CameraCapabilities capabilities = read(bytes.toByteArray());
+        assertFalse(capabilities.isFlashModeSupported("torch"));
+        assertFalse(capabilities.isZoomSupported());
+        assertTrue(capabilities.getPreviewFpsRanges().isEmpty());
+        assertArrayEquals(bytes.toByteArray(), write(capabilities));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedInputIsRejected() throws IOException {
+        byte[] bytes = typicalCamera();
+        read(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void listsCannotBeChanged() throws IOException {
+        read(typicalCamera()).getPreviewSizes().add(new Size(1, 1));
+    }
+
+    /**
+     * Returns the capabilities of a typical camera, in the layout that the cache file uses.
+     */
+    static byte[] typicalCamera() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeSizes(out, 1920, 1080, 640, 480);
+        writeSizes(out, 4608, 3456);
+        out.writeShort(2);
+        out.writeInt(7500);
+        out.writeInt(30000);
+        out.writeInt(15000);
+        out.writeInt(30000);
+        writeStrings(out, "auto", "continuous-video");
+        writeStrings(out, "off", "torch");
+        out.writeInt(60);
+        out.writeBoolean(true);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeSizes(DataOutputStream out, int... dimensions) throws IOException {
+        out.writeShort(dimensions.length / 2);
+        for (int dimension : dimensions) {
+            out.writeShort(dimension);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, String... strings) throws IOException {
+        out.writeShort(strings.length);
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static CameraCapabilities read(byte[] bytes) throws IOException {
+        return CameraCapabilities.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static byte[] write(CameraCapabilities capabilities) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        capabilities.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link CameraCapabilityCache}.  The cache is given a null camera wherever it should
+ * answer from the file, so that querying the camera instead fails.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CameraCapabilityCacheTest {
+    private static final int MAGIC = 0x43415053;
+    private static final int VERSION = 2;
+    private static final String BUILD = "vendor/device/1.0:user/release-keys";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void camerasAreReadFromFileOfSameBuild() throws IOException {
+        File file = writeCache(BUILD, VERSION, 0, 1);
+
+        CameraCapabilityCache cache = new CameraCapabilityCache(file, BUILD);
+        assertEquals(60, cache.get(0, null).getMaxZoom());
+        assertEquals(60, cache.get(1, null).getMaxZoom());
+    }
+
+    @Test
+    public void fileOfAnotherBuildIsIgnored() throws IOException {
+        File file = writeCache(BUILD, VERSION, 0);
+        assertQueriesCamera(new CameraCapabilityCache(file, "vendor/device/1.1:user/release-keys"),
+                0);
+    }
+
+    @Test
+    public void fileOfAnotherVersionIsIgnored() throws IOException {
+        File file = writeCache(BUILD, VERSION + 1, 0);
+        assertQueriesCamera(new CameraCapabilityCache(file, BUILD), 0);
+    }
+
+    @Test
+    public void unknownCameraIsQueried() throws IOException {
+        File file = writeCache(BUILD, VERSION, 0);
+        assertQueriesCamera(new CameraCapabilityCache(file, BUILD), 1);
+    }
+
+    @Test
+    public void truncatedFileIsIgnored() throws IOException {
+        File file = writeCache(BUILD, VERSION, 0);
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        try {
+            truncated.setLength(truncated.length() - 4);
+        } finally {
+            truncated.close();
+        }
+        assertQueriesCamera(new CameraCapabilityCache(file, BUILD), 0);
+    }
+
+    @Test
+    public void invalidatedCameraIsRemovedFromFile() throws IOException {
+        File file = writeCache(BUILD, VERSION, 0, 1);
+        CameraCapabilityCache cache = new CameraCapabilityCache(file, BUILD);
+        cache.get(0, null);
+        cache.invalidate(0);
+
+        CameraCapabilityCache reread = new CameraCapabilityCache(file, BUILD);
+        assertEquals(60, reread.get(1, null).getMaxZoom());
+        assertQueriesCamera(reread, 0);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    /**
+     * Writes a cache file with the capabilities of a typical camera for each of the given ids.
+     */
+    private File writeCache(String fingerprint, int version, int... cameraIds)
+            throws IOException {
+        File file = new File(folder.getRoot(), CameraCapabilityCache.FILE_NAME);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(version);
+            out.writeUTF(fingerprint);
+            out.writeShort(cameraIds.length);
+            for (int cameraId : cameraIds) {
+                out.writeInt(cameraId);
+                out.write(CameraCapabilitiesTest.typicalCamera());
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void assertQueriesCamera(CameraCapabilityCache cache, int cameraId) {
+        try {
+            cache.get(cameraId, null);
+            fail("Camera " + cameraId + " was answered from the file");
+        } catch (NullPointerException e) {
+            // The cache asked the camera.
+        }
+    }
+}
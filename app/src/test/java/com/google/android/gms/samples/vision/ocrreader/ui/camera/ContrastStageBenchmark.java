@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Microbenchmark for {@link ContrastStage}, which runs on a plain JVM so that the cost of contrast
+ * enhancement can be checked against its budget of 5 ms per frame off-device.  It enhances a
+ * 1280x1024 frame of faded, unevenly lit text with each mode, on a single thread and on a
+ * fork-join pool with one thread per core, and prints the best and median time per frame over
+ * several rounds.  Only the best time is checked against the budget, as the median also takes in
+ * whatever else the machine was doing.  Desktop timings only bound what a phone does; the budget
+ * holds on a device only once the same check passes there.
+ * <p/>
+ * The stage works in place, so each iteration first restores the frame from a pristine copy.  The
+ * best time of that copy is measured separately and subtracted.
+ * <p/>
+ * Run with: {@code java -cp <test classes>:<classes> ...ui.camera.ContrastStageBenchmark [width height]}
+ */
+public final class ContrastStageBenchmark {
+    private static final int WARMUP_ITERATIONS = 100;
+    private static final int MEASURED_ITERATIONS = 200;
+    private static final int ROUNDS = 5;
+    private static final double BUDGET_MILLIS = 5.0;
+
+    public static void main(String[] args) {
+        int width = (args.length >= 2) ? Integer.parseInt(args[0]) : 1280;
+        int height = (args.length >= 2) ? Integer.parseInt(args[1]) : 1024;
+
+        byte[] original = createFadedText(width, height);
+        byte[] data = new byte[original.length];
+        YuvFrame frame = new YuvFrame();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println(String.format(Locale.US,
+                "NV21 %dx%d, %d rounds of %d iterations, %d cores", width, height, ROUNDS,
+                MEASURED_ITERATIONS, cores));
+        double copyNanos = measure(null, frame, original, data, width, height)[0];
+
+        ForkJoinPool pool = (cores > 1) ? new ForkJoinPool(cores) : null;
+        int[] modes = {ContrastStage.MODE_BINARIZE, ContrastStage.MODE_CLAHE};
+        String[] names = {"binarize", "clahe   "};
+        for (int i = 0; i < modes.length; ++i) {
+            ContrastStage.Settings settings = new ContrastStage.Settings();
+            settings.mode = modes[i];
+            report(names[i] + "  1 thread ", measure(new ContrastStage(settings, null), frame,
+                    original, data, width, height), copyNanos);
+            if (pool != null) {
+                report(names[i] + String.format(Locale.US, " %2d threads", cores),
+                        measure(new ContrastStage(settings, pool), frame, original, data, width,
+                                height), copyNanos);
+            }
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private static void report(String label, double[] nanos, double copyNanos) {
+        double best = (nanos[0] - copyNanos) / 1e6;
+        double median = (nanos[nanos.length / 2] - copyNanos) / 1e6;
+        System.out.println(String.format(Locale.US,
+                "  %s %8.3f ms/frame best  %8.3f median  %s", label, best, median,
+                (best <= BUDGET_MILLIS) ? "within budget" : "OVER BUDGET"));
+    }
+
+    /**
+     * Returns the time per round to restore and then enhance one frame, or only to restore it if
+     * there is no stage, in ascending order.
+     */
+    private static double[] measure(ContrastStage stage, YuvFrame frame, byte[] original,
+                                    byte[] data, int width, int height) {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            run(stage, frame, original, data, width, height);
+        }
+        double[] rounds = new double[ROUNDS];
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; ++i) {
+                run(stage, frame, original, data, width, height);
+            }
+            rounds[round] = (double) (System.nanoTime() - start) / MEASURED_ITERATIONS;
+        }
+        Arrays.sort(rounds);
+
+        // Keep the output alive so that the work can't be optimized away.
+        if (data[data.length / 2] == 42 && data[0] == 42) {
+            System.out.print("");
+        }
+        return rounds;
+    }
+
+    private static void run(ContrastStage stage, YuvFrame frame, byte[] original, byte[] data,
+                            int width, int height) {
+        System.arraycopy(original, 0, data, 0, original.length);
+        if (stage != null) {
+            frame.set(0, data, null, width, height, 0);
+            stage.process(frame);
+        }
+    }
+
+    /**
+     * Creates a frame of light gray paper with a lighting gradient and noise, crossed by rows of
+     * text strokes only slightly darker than the paper, like a faded receipt.
+     */
+    private static byte[] createFadedText(int width, int height) {
+        byte[] data = new byte[YuvFrame.sizeInBytes(width, height)];
+        Random random = new Random(42);
+        for (int y = 0; y < height; ++y) {
+            boolean textRow = (y / 8) % 3 == 0;
+            for (int x = 0; x < width; ++x) {
+                int paper = 140 + 80 * x / width + 20 * y / height;
+                boolean stroke = textRow && ((x / 3) % 4 != 0) && (random.nextInt(3) != 0);
+                int value = paper - (stroke ? 25 : 0) + random.nextInt(7) - 3;
+                data[y * width + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+        for (int i = width * height; i < data.length; ++i) {
+            data[i] = (byte) 128;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link DownscaleStage}.
+ */
+public class DownscaleStageTest {
+    private static final float DELTA = 1e-6f;
+
+    @Test
+    public void fixedFactorWins() {
+        assertEquals(3, DownscaleStage.factorFor(1280, 720, 0, 3, 640));
+    }
+
+    @Test
+    public void targetWidthIsUpright() {
+        assertEquals(2, DownscaleStage.factorFor(1280, 720, 0, 0, 640));
+        // Turned upright, the frame is only 720 wide.
+        assertEquals(1, DownscaleStage.factorFor(1280, 720, 1, 0, 640));
+        assertEquals(2, DownscaleStage.factorFor(720, 1280, 3, 0, 640));
+    }
+
+    @Test
+    public void targetWidthIsNotUndershot() {
+        assertEquals(2, DownscaleStage.factorFor(1280, 720, 0, 0, 500));
+        assertEquals(1, DownscaleStage.factorFor(1280, 720, 0, 0, 700));
+        assertEquals(1, DownscaleStage.factorFor(1280, 720, 0, 0, 2000));
+        assertEquals(1, DownscaleStage.factorFor(1280, 720, 0, 0, 0));
+    }
+
+    @Test
+    public void scaledFrameKeepsOffsetAndMultipliesScale() {
+        YuvFrame cropped = frame(64, 48);
+        cropped.left = 100;
+        cropped.top = 40;
+        cropped.scale = 2;
+
+        YuvFrame scaled = new DownscaleStage(4, 0).process(cropped);
+        assertEquals(16, scaled.width);
+        assertEquals(12, scaled.height);
+        assertEquals(100, scaled.left);
+        assertEquals(40, scaled.top);
+        assertEquals(8f, scaled.scale, DELTA);
+        assertEquals(0, scaled.rotation);
+    }
+
+    @Test
+    public void frameAlreadyNarrowerThanTargetIsPassedOn() {
+        YuvFrame frame = frame(64, 48);
+        assertSame(frame, new DownscaleStage(0, 640).process(frame));
+    }
+
+    private static YuvFrame frame(int width, int height) {
+        byte[] data = new byte[YuvFrame.sizeInBytes(width, height)];
+        YuvFrame frame = new YuvFrame();
+        frame.set(1, data, ByteBuffer.wrap(data), width, height, 0);
+        return frame;
+    }
+}
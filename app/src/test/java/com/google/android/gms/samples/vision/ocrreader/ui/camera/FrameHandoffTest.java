@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link FrameHandoff}.
+ */
+public class FrameHandoffTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Test
+    public void publishDisplacesThePendingFrame() {
+        FrameHandoff handoff = new FrameHandoff(null);
+        assertEquals(FrameHandoff.EMPTY, handoff.publish(1));
+        assertEquals(1, handoff.publish(2));
+
+        assertEquals(2, handoff.take(0));
+        assertEquals(FrameHandoff.EMPTY, handoff.clear());
+    }
+
+    @Test
+    public void listenerIsToldInTakeOrder() {
+        final List<Integer> taken = new ArrayList<>();
+        FrameHandoff handoff = new FrameHandoff(new FrameHandoff.TakeListener() {
+            @Override
+            public void onTaken(int worker, int bufferIndex) {
+                taken.add(bufferIndex);
+            }
+        });
+        handoff.publish(3);
+        handoff.take(0);
+        handoff.publish(1);
+        handoff.take(1);
+
+        assertEquals(Arrays.asList(3, 1), taken);
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void waitingWorkerGetsThePublishedFrame() throws InterruptedException {
+        final FrameHandoff handoff = new FrameHandoff(null);
+        final int[] taken = {FrameHandoff.EMPTY};
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                taken[0] = handoff.take(0);
+            }
+        });
+        worker.start();
+        handoff.publish(2);
+        worker.join();
+
+        assertEquals(2, taken[0]);
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void losslessPublishWaitsForTheFrameToBeTaken() throws InterruptedException {
+        final FrameHandoff handoff = new FrameHandoff(null);
+        handoff.publish(1);
+        final int[] displaced = {0};
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                displaced[0] = handoff.publishWhenTaken(2);
+            }
+        });
+        publisher.start();
+
+        assertEquals(1, handoff.take(0));
+        publisher.join();
+        assertEquals(FrameHandoff.EMPTY, displaced[0]);
+        assertEquals(2, handoff.take(0));
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void deactivatingReleasesWaitingWorkers() throws InterruptedException {
+        final FrameHandoff handoff = new FrameHandoff(null);
+        final int[] taken = {0};
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                taken[0] = handoff.take(0);
+            }
+        });
+        worker.start();
+        handoff.setActive(false);
+        worker.join();
+
+        assertEquals(FrameHandoff.EMPTY, taken[0]);
+    }
+}
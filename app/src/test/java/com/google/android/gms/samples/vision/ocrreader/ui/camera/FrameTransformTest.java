@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link FrameTransform}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FrameTransformTest {
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+    private static final float DELTA = 1e-4f;
+
+    @Test
+    public void identityLeavesCoordinates() {
+        assertEquals(12.5f, FrameTransform.IDENTITY.mapX(12.5f), DELTA);
+        assertEquals(7f, FrameTransform.IDENTITY.mapY(7f), DELTA);
+    }
+
+    @Test
+    public void coordinatesAreScaledThenOffset() {
+        FrameTransform transform = new FrameTransform(100, 50, 2);
+        assertEquals(120f, transform.mapX(10), DELTA);
+        assertEquals(90f, transform.mapY(20), DELTA);
+
+        RectF mapped = transform.mapRect(new Rect(10, 20, 30, 40));
+        assertEquals(120f, mapped.left, DELTA);
+        assertEquals(90f, mapped.top, DELTA);
+        assertEquals(160f, mapped.right, DELTA);
+        assertEquals(130f, mapped.bottom, DELTA);
+    }
+
+    @Test
+    public void cornerOfSensorTurnsUpright() {
+        // The top left corner of the camera frame, turned clockwise.
+        assertUpright(0, new int[] {0, 0, 10, 20});
+        assertUpright(1, new int[] {460, 0, 480, 10});
+        assertUpright(2, new int[] {630, 460, 640, 480});
+        assertUpright(3, new int[] {0, 630, 20, 640});
+    }
+
+    @Test
+    public void toSensorUndoesToUpright() {
+        int[] sensor = {10, 20, 110, 70};
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            int[] upright = new int[4];
+            FrameTransform.toUpright(sensor[0], sensor[1], sensor[2], sensor[3], FRAME_WIDTH,
+                    FRAME_HEIGHT, rotation, upright);
+            int[] back = new int[4];
+            FrameTransform.toSensor(upright[0], upright[1], upright[2], upright[3], FRAME_WIDTH,
+                    FRAME_HEIGHT, rotation, back);
+            assertArrayEquals("rotation " + rotation, sensor, back);
+        }
+    }
+
+    @Test
+    public void regionTransformStartsAtUprightCorner() {
+        FrameTransform transform = FrameTransform.forRegion(new int[] {100, 40, 300, 140}, 2,
+                FRAME_WIDTH, FRAME_HEIGHT, 1);
+
+        assertEquals(340f, transform.getOffsetX(), DELTA);
+        assertEquals(100f, transform.getOffsetY(), DELTA);
+        assertEquals(2f, transform.getScale(), DELTA);
+        // The top left corner of the detected, upright region maps to the corner of the region.
+        assertEquals(340f, transform.mapX(0), DELTA);
+        assertEquals(100f, transform.mapY(0), DELTA);
+    }
+
+    private static void assertUpright(int rotation, int[] expected) {
+        int[] upright = new int[4];
+        FrameTransform.toUpright(0, 0, 10, 20, FRAME_WIDTH, FRAME_HEIGHT, rotation, upright);
+        assertArrayEquals("rotation " + rotation, expected, upright);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+    // Largest relative error of a recorded value above the exact range.
+    private static final double MAX_ERROR = 1.0 / 32;
+
+    @Test
+    public void emptyHistogramReportsZeros() {
+        FrameMetrics.Latency latency = new LatencyHistogram().snapshot();
+        assertEquals(0, latency.getCount());
+        assertEquals(0, latency.getP50Micros());
+        assertEquals(0, latency.getP99Micros());
+        assertEquals(0, latency.getMaxMicros());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 60; ++micros) {
+            histogram.recordNanos(micros * 1000L);
+        }
+
+        FrameMetrics.Latency latency = histogram.snapshot();
+        assertEquals(60, latency.getCount());
+        assertEquals(30, latency.getP50Micros());
+        assertEquals(57, latency.getP95Micros());
+        assertEquals(60, latency.getP99Micros());
+        assertEquals(60, latency.getMaxMicros());
+    }
+
+    @Test
+    public void percentilesStayWithinRelativeError() {
+        Random random = new Random(7);
+        long[] values = new long[10000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = 100 + (long) (random.nextDouble() * random.nextDouble() * 5000000);
+            histogram.recordNanos(values[i] * 1000);
+        }
+        Arrays.sort(values);
+
+        FrameMetrics.Latency latency = histogram.snapshot();
+        assertEquals(values.length, latency.getCount());
+        assertClose(values[values.length / 2 - 1], latency.getP50Micros());
+        assertClose(values[values.length * 95 / 100 - 1], latency.getP95Micros());
+        assertClose(values[values.length * 99 / 100 - 1], latency.getP99Micros());
+        assertEquals(values[values.length - 1], latency.getMaxMicros());
+    }
+
+    @Test
+    public void percentilesDontExceedMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(1000001000L);
+
+        FrameMetrics.Latency latency = histogram.snapshot();
+        assertEquals(1000001, latency.getMaxMicros());
+        assertEquals(1000001, latency.getP50Micros());
+        assertEquals(1000001, latency.getP99Micros());
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(-5000);
+        histogram.recordNanos(Long.MAX_VALUE);
+
+        FrameMetrics.Latency latency = histogram.snapshot();
+        assertEquals(2, latency.getCount());
+        assertEquals(0, latency.getP50Micros());
+        assertEquals(Integer.MAX_VALUE, latency.getMaxMicros());
+    }
+
+    @Test
+    public void resetForgetsValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(5000000);
+        histogram.reset();
+
+        FrameMetrics.Latency latency = histogram.snapshot();
+        assertEquals(0, latency.getCount());
+        assertEquals(0, latency.getMaxMicros());
+    }
+
+    @Test
+    public void concurrentRecordingCountsEveryValue() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int perThread = 20000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; ++i) {
+                        histogram.recordNanos((i % 1000 + offset) * 1000L);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        FrameMetrics.Latency latency = histogram.snapshot();
+        assertEquals(threads.length * perThread, latency.getCount());
+        assertEquals(999 + threads.length - 1, latency.getMaxMicros());
+    }
+
+    private static void assertClose(long expected, long actual) {
+        assertTrue(expected + " vs " + actual, actual >= expected);
+        assertTrue(expected + " vs " + actual, actual <= expected * (1 + MAX_ERROR));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Microbenchmark for {@link Nv21Scaler}, which runs on a plain JVM so that the cost of
+ * downscaling can be measured off-device.  It scales a 1280x1024 preview frame by several factors
+ * and prints the time per frame next to the time of a plain copy of the same frame, along with
+ * how many pixels are left for the detector.
+ * <p/>
+ * Run with: {@code java -cp <test classes>:<classes> ...ui.camera.Nv21ScalerBenchmark [width height]}
+ */
+public final class Nv21ScalerBenchmark {
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 500;
+
+    public static void main(String[] args) {
+        int width = (args.length >= 2) ? Integer.parseInt(args[0]) : 1280;
+        int height = (args.length >= 2) ? Integer.parseInt(args[1]) : 1024;
+
+        byte[] src = new byte[YuvFrame.sizeInBytes(width, height)];
+        new Random(42).nextBytes(src);
+        byte[] dst = new byte[src.length];
+
+        System.out.println(String.format(Locale.US, "NV21 %dx%d, %d iterations", width, height,
+                MEASURED_ITERATIONS));
+        double copyNanos = measureCopy(src, dst);
+        System.out.println(String.format(Locale.US, "  copy      %8.3f ms/frame",
+                copyNanos / 1e6));
+
+        int[] factors = {2, 3, 4, 8};
+        for (int factor : factors) {
+            double nanos = measureScale(src, width, height, factor, dst);
+            int scaledPixels = Nv21Scaler.scaledWidth(width, factor) *
+                    Nv21Scaler.scaledHeight(height, factor);
+            System.out.println(String.format(Locale.US,
+                    "  factor %d  %8.3f ms/frame  (%.1fx copy time, %.1f%% of the pixels)",
+                    factor, nanos / 1e6, nanos / copyNanos,
+                    100.0 * scaledPixels / (width * height)));
+        }
+    }
+
+    private static double measureCopy(byte[] src, byte[] dst) {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            System.arraycopy(src, 0, dst, 0, src.length);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; ++i) {
+            System.arraycopy(src, 0, dst, 0, src.length);
+        }
+        return (double) (System.nanoTime() - start) / MEASURED_ITERATIONS;
+    }
+
+    private static double measureScale(byte[] src, int width, int height, int factor,
+                                       byte[] dst) {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            Nv21Scaler.downscale(src, width, height, factor, dst);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; ++i) {
+            Nv21Scaler.downscale(src, width, height, factor, dst);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Keep the output alive so that the work can't be optimized away.
+        if (dst[dst.length / 2] == 42 && dst[0] == 42) {
+            System.out.print("");
+        }
+        return (double) elapsed / MEASURED_ITERATIONS;
+    }
+}
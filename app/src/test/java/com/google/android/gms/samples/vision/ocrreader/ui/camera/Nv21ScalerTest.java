@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link Nv21Scaler}.
+ */
+public class Nv21ScalerTest {
+    @Test
+    public void scaledSizesAreEven() {
+        assertEquals(320, Nv21Scaler.scaledWidth(640, 2));
+        assertEquals(160, Nv21Scaler.scaledWidth(642, 4));
+        assertEquals(6, Nv21Scaler.scaledHeight(30, 4));
+        assertEquals(10, Nv21Scaler.scaledHeight(30, 3));
+    }
+
+    @Test
+    public void blocksAreAveragedAndRounded() {
+        // A 4x4 image with bright samples, so that signed bytes would average wrongly.
+        byte[] src = {
+                (byte) 200, (byte) 255, 10, 10,
+                (byte) 250, (byte) 254, 10, 10,
+                0, 0, 1, 2,
+                0, 0, 3, 3,
+                (byte) 240, (byte) 128, (byte) 242, (byte) 130,
+                (byte) 244, (byte) 126, (byte) 246, (byte) 127,
+        };
+        byte[] dst = new byte[6];
+        Nv21Scaler.downscale(src, 4, 4, 2, dst);
+
+        // 959 / 4 rounds up, 10 stays, and 9 / 4 rounds down.
+        assertArrayEquals(new byte[] {(byte) 240, 10, 0, 2, (byte) 243, (byte) 128}, dst);
+    }
+
+    @Test
+    public void fastPathsMatchBoxFilter() {
+        Random random = new Random(42);
+        int width = 46;
+        int height = 26;
+        byte[] src = new byte[width * height * 3 / 2];
+        random.nextBytes(src);
+
+        for (int factor = 1; factor <= 5; ++factor) {
+            int dstWidth = Nv21Scaler.scaledWidth(width, factor);
+            int dstHeight = Nv21Scaler.scaledHeight(height, factor);
+            byte[] dst = new byte[dstWidth * dstHeight * 3 / 2];
+            Nv21Scaler.downscale(src, width, height, factor, dst);
+            assertArrayEquals("factor " + factor, boxFilter(src, width, height, factor), dst);
+        }
+    }
+
+    @Test
+    public void uniformImageStaysUniform() {
+        int width = 64;
+        int height = 48;
+        byte[] src = new byte[width * height * 3 / 2];
+        Arrays.fill(src, 0, width * height, (byte) 180);
+        Arrays.fill(src, width * height, src.length, (byte) 90);
+
+        byte[] dst = new byte[16 * 12 * 3 / 2];
+        Nv21Scaler.downscale(src, width, height, 4, dst);
+        for (int i = 0; i < 16 * 12; ++i) {
+            assertEquals(180, dst[i] & 0xFF);
+        }
+        for (int i = 16 * 12; i < dst.length; ++i) {
+            assertEquals(90, dst[i] & 0xFF);
+        }
+    }
+
+    /**
+     * Downscales the straightforward way, one output sample at a time, for comparison.
+     */
+    private static byte[] boxFilter(byte[] src, int width, int height, int factor) {
+        int dstWidth = Nv21Scaler.scaledWidth(width, factor);
+        int dstHeight = Nv21Scaler.scaledHeight(height, factor);
+        int area = factor * factor;
+        byte[] dst = new byte[dstWidth * dstHeight * 3 / 2];
+        for (int y = 0; y < dstHeight; ++y) {
+            for (int x = 0; x < dstWidth; ++x) {
+                int sum = 0;
+                for (int j = 0; j < factor; ++j) {
+                    for (int i = 0; i < factor; ++i) {
+                        sum += src[(y * factor + j) * width + x * factor + i] & 0xFF;
+                    }
+                }
+                dst[y * dstWidth + x] = (byte) ((sum + area / 2) / area);
+            }
+        }
+        for (int y = 0; y < dstHeight / 2; ++y) {
+            for (int x = 0; x < dstWidth / 2; ++x) {
+                for (int channel = 0; channel < 2; ++channel) {
+                    int sum = 0;
+                    for (int j = 0; j < factor; ++j) {
+                        for (int i = 0; i < factor; ++i) {
+                            sum += src[width * height + (y * factor + j) * width +
+                                    2 * (x * factor + i) + channel] & 0xFF;
+                        }
+                    }
+                    dst[dstWidth * dstHeight + y * dstWidth + 2 * x + channel] =
+                            (byte) ((sum + area / 2) / area);
+                }
+            }
+        }
+        return dst;
+    }
+}
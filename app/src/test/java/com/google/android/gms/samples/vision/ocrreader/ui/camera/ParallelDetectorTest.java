@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.graphics.ImageFormat;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link ParallelDetector}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ParallelDetectorTest {
+    private static final int SIZE = 16;
+
+    @Test
+    public void resultsAreDeliveredInFrameOrder() {
+        RecordingProcessor processor = new RecordingProcessor();
+        ParallelDetector<Integer> parallel = create(2, processor);
+        parallel.begin(0, 1);
+        parallel.begin(1, 2);
+
+        parallel.detect(1, frame(2));
+        assertEquals(0, processor.frameIds.size());
+        parallel.detect(0, frame(1));
+
+        assertEquals(Arrays.asList(1, 2), processor.frameIds);
+        assertEquals(2, parallel.getDeliveredCount());
+    }
+
+    @Test
+    public void resetDropsHeldResults() {
+        RecordingProcessor processor = new RecordingProcessor();
+        ParallelDetector<Integer> parallel = create(2, processor);
+        parallel.begin(0, 1);
+        parallel.begin(1, 2);
+        parallel.detect(1, frame(2));
+
+        parallel.reset();
+        parallel.cancel(0);
+
+        assertEquals(0, processor.frameIds.size());
+    }
+
+    @Test
+    public void resultsFinishedAfterResetAreDropped() {
+        RecordingProcessor processor = new RecordingProcessor();
+        ParallelDetector<Integer> parallel = create(2, processor);
+        parallel.begin(0, 1);
+        parallel.begin(1, 2);
+
+        parallel.reset();
+        parallel.detect(0, frame(1));
+        parallel.detect(1, frame(2));
+
+        assertEquals(0, processor.frameIds.size());
+        assertEquals(2, parallel.getStaleCount());
+    }
+
+    @Test
+    public void framesInFlightAcrossResetDontHoldBackNewOnes() {
+        RecordingProcessor processor = new RecordingProcessor();
+        ParallelDetector<Integer> parallel = create(2, processor);
+        parallel.begin(0, 1);
+        parallel.reset();
+
+        parallel.begin(1, 2);
+        parallel.detect(1, frame(2));
+        assertEquals(Arrays.asList(2), processor.frameIds);
+
+        parallel.detect(0, frame(1));
+        assertEquals(Arrays.asList(2), processor.frameIds);
+    }
+
+    private static ParallelDetector<Integer> create(int parallelism,
+                                                    Detector.Processor<Integer> processor) {
+        List<Detector<Integer>> detectors = new ArrayList<>();
+        for (int i = 0; i < parallelism; ++i) {
+            detectors.add(new IdDetector());
+        }
+        return new ParallelDetector<>(detectors, processor);
+    }
+
+    private static Frame frame(int id) {
+        return new Frame.Builder()
+                .setImageData(ByteBuffer.allocate(SIZE * SIZE * 3 / 2), SIZE, SIZE,
+                        ImageFormat.NV21)
+                .setId(id)
+                .build();
+    }
+
+    /**
+     * Detects a single item, the id of the frame.
+     */
+    private static final class IdDetector extends Detector<Integer> {
+        @Override
+        public SparseArray<Integer> detect(Frame frame) {
+            SparseArray<Integer> items = new SparseArray<>();
+            items.append(0, frame.getMetadata().getId());
+            return items;
+        }
+    }
+
+    private static final class RecordingProcessor implements Detector.Processor<Integer> {
+        final List<Integer> frameIds = new ArrayList<>();
+
+        @Override
+        public void receiveDetections(Detector.Detections<Integer> detections) {
+            frameIds.add(detections.getFrameMetadata().getId());
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
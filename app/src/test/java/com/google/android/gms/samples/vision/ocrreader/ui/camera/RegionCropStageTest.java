@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.graphics.Rect;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RegionCropStage}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RegionCropStageTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 6;
+
+    @Test
+    public void cropCopiesLumaAndChromaRowsOfRegion() {
+        RegionCropStage stage = new RegionCropStage(
+                new AtomicReference<>(new Rect(2, 2, 6, 4)));
+        YuvFrame cropped = stage.process(numberedFrame());
+
+        assertEquals(4, cropped.width);
+        assertEquals(2, cropped.height);
+        assertEquals(2, cropped.left);
+        assertEquals(2, cropped.top);
+        byte[] expected = {
+                18, 19, 20, 21,
+                26, 27, 28, 29,
+                // The VU row shared by luma rows 2 and 3.
+                (byte) 160, (byte) 161, (byte) 162, (byte) 163};
+        assertArrayEquals(expected, Arrays.copyOf(cropped.data, expected.length));
+        assertEquals(cropped.data.length, cropped.buffer().capacity());
+    }
+
+    @Test
+    public void oddRegionIsWidenedToChromaBlocks() {
+        int[] crop = new int[4];
+        assertTrue(RegionCropStage.computeCropRect(new Rect(3, 1, 5, 4), WIDTH, HEIGHT, 0, crop));
+        assertArrayEquals(new int[] {2, 0, 6, 4}, crop);
+    }
+
+    @Test
+    public void regionIsGivenUpright() {
+        // The top left corner of a 640x480 camera frame, seen upright after turning clockwise.
+        int[] crop = new int[4];
+        assertTrue(RegionCropStage.computeCropRect(new Rect(460, 0, 480, 10), 640, 480, 1,
+                crop));
+        assertArrayEquals(new int[] {0, 0, 10, 20}, crop);
+    }
+
+    @Test
+    public void frameIsPassedOnWithoutRegion() {
+        YuvFrame frame = numberedFrame();
+        assertSame(frame, new RegionCropStage(new AtomicReference<Rect>()).process(frame));
+    }
+
+    @Test
+    public void regionCoveringFrameIsNotCropped() {
+        int[] crop = new int[4];
+        assertFalse(RegionCropStage.computeCropRect(new Rect(0, 0, WIDTH, HEIGHT), WIDTH, HEIGHT,
+                0, crop));
+        assertFalse(RegionCropStage.computeCropRect(new Rect(-10, -10, 100, 100), WIDTH, HEIGHT,
+                0, crop));
+        assertFalse(RegionCropStage.computeCropRect(new Rect(20, 20, 30, 30), WIDTH, HEIGHT, 0,
+                crop));
+    }
+
+    @Test
+    public void regionChangesApplyToTheNextFrame() {
+        AtomicReference<Rect> region = new AtomicReference<>(new Rect(0, 0, 4, 2));
+        RegionCropStage stage = new RegionCropStage(region);
+        assertEquals(4, stage.process(numberedFrame()).width);
+
+        region.set(new Rect(0, 0, 2, 2));
+        assertEquals(2, stage.process(numberedFrame()).width);
+    }
+
+    /**
+     * Returns a frame whose luma samples count up from 0 and whose chroma samples count up from
+     * 150.
+     */
+    private static YuvFrame numberedFrame() {
+        byte[] data = new byte[YuvFrame.sizeInBytes(WIDTH, HEIGHT)];
+        for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+            data[i] = (byte) i;
+        }
+        for (int i = WIDTH * HEIGHT; i < data.length; ++i) {
+            data[i] = (byte) (150 + i - WIDTH * HEIGHT);
+        }
+        YuvFrame frame = new YuvFrame();
+        frame.set(1, data, ByteBuffer.wrap(data), WIDTH, HEIGHT, 0);
+        return frame;
+    }
+}
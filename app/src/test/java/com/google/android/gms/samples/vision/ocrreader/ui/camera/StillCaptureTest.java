@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import android.graphics.Rect;
+
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.Frame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for how {@link StillCapture} finds its way around a picture: the EXIF orientation, and
+ * where the preview's region of interest lies in the picture.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StillCaptureTest {
+    private static final int TAG_IMAGE_WIDTH = 0x0100;
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    @Test
+    public void orientationsMapToRotations() {
+        assertEquals(Frame.ROTATION_0, StillCapture.readRotation(jpeg(false, false, 1)));
+        assertEquals(Frame.ROTATION_90, StillCapture.readRotation(jpeg(false, false, 6)));
+        assertEquals(Frame.ROTATION_180, StillCapture.readRotation(jpeg(false, false, 3)));
+        assertEquals(Frame.ROTATION_270, StillCapture.readRotation(jpeg(false, false, 8)));
+    }
+
+    @Test
+    public void littleEndianExifIsRead() {
+        assertEquals(Frame.ROTATION_90, StillCapture.readRotation(jpeg(true, false, 6)));
+        assertEquals(Frame.ROTATION_270, StillCapture.readRotation(jpeg(true, false, 8)));
+    }
+
+    @Test
+    public void exifAfterOtherSegmentsIsFound() {
+        assertEquals(Frame.ROTATION_180, StillCapture.readRotation(jpeg(false, true, 3)));
+    }
+
+    @Test
+    public void pictureWithoutExifIsUpright() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeShort(out, 0xFFD8, false);
+        writeJfif(out);
+        writeShort(out, 0xFFDA, false);
+        assertEquals(Frame.ROTATION_0, StillCapture.readRotation(out.toByteArray()));
+    }
+
+    @Test
+    public void otherDataIsUpright() {
+        assertEquals(Frame.ROTATION_0, StillCapture.readRotation(new byte[0]));
+        assertEquals(Frame.ROTATION_0, StillCapture.readRotation("not a jpeg".getBytes()));
+    }
+
+    @Test
+    public void truncatedPicturesDontThrow() {
+        byte[] jpeg = jpeg(true, true, 6);
+        for (int length = 0; length < jpeg.length; ++length) {
+            StillCapture.readRotation(Arrays.copyOf(jpeg, length));
+        }
+    }
+
+    @Test
+    public void regionIsScaledToUprightPicture() {
+        Rect crop = new Rect();
+        StillCapture.mapRegion(new Rect(40, 80, 200, 160), new Size(640, 480), Frame.ROTATION_90,
+                3000, 4000, Frame.ROTATION_0, crop);
+        assertEquals(new Rect(250, 500, 1250, 1000), crop);
+    }
+
+    @Test
+    public void regionIsTurnedForSidewaysPicture() {
+        // The camera stored the picture as it came from the sensor, and only recorded the
+        // rotation in EXIF.
+        Rect crop = new Rect();
+        StillCapture.mapRegion(new Rect(0, 0, 240, 320), new Size(640, 480), Frame.ROTATION_90,
+                4000, 3000, Frame.ROTATION_90, crop);
+        assertEquals(new Rect(0, 1500, 2000, 3000), crop);
+    }
+
+    @Test
+    public void regionOutsidePictureDecodesAll() {
+        Rect crop = new Rect();
+        StillCapture.mapRegion(new Rect(500, 700, 600, 800), new Size(640, 480),
+                Frame.ROTATION_90, 3000, 4000, Frame.ROTATION_0, crop);
+        assertEquals(new Rect(0, 0, 3000, 4000), crop);
+    }
+
+    /**
+     * Returns the start of a JPEG whose EXIF data has an image width tag followed by the given
+     * orientation, optionally after a JFIF segment.
+     */
+    private static byte[] jpeg(boolean littleEndian, boolean withJfif, int orientation) {
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        tiff.write(littleEndian ? 'I' : 'M');
+        tiff.write(littleEndian ? 'I' : 'M');
+        writeShort(tiff, 42, littleEndian);
+        writeInt(tiff, 8, littleEndian);
+        writeShort(tiff, 2, littleEndian);
+        writeEntry(tiff, TAG_IMAGE_WIDTH, 3, 1, 4000, littleEndian);
+        writeEntry(tiff, TAG_ORIENTATION, 3, 1, orientation, littleEndian);
+        writeInt(tiff, 0, littleEndian);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeShort(out, 0xFFD8, false);
+        if (withJfif) {
+            writeJfif(out);
+        }
+        writeShort(out, 0xFFE1, false);
+        writeShort(out, 2 + 6 + tiff.size(), false);
+        out.write('E');
+        out.write('x');
+        out.write('i');
+        out.write('f');
+        out.write(0);
+        out.write(0);
+        byte[] tiffBytes = tiff.toByteArray();
+        out.write(tiffBytes, 0, tiffBytes.length);
+        writeShort(out, 0xFFDA, false);
+        return out.toByteArray();
+    }
+
+    private static void writeJfif(ByteArrayOutputStream out) {
+        writeShort(out, 0xFFE0, false);
+        writeShort(out, 16, false);
+        byte[] jfif = {'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0};
+        out.write(jfif, 0, jfif.length);
+    }
+
+    /**
+     * Writes an IFD entry with a short value, which is stored left aligned in the value field.
+     */
+    private static void writeEntry(ByteArrayOutputStream out, int tag, int type, int count,
+                                   int value, boolean littleEndian) {
+        writeShort(out, tag, littleEndian);
+        writeShort(out, type, littleEndian);
+        writeInt(out, count, littleEndian);
+        writeShort(out, value, littleEndian);
+        writeShort(out, 0, littleEndian);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if (littleEndian) {
+            out.write(value & 0xFF);
+            out.write((value >> 8) & 0xFF);
+        } else {
+            out.write((value >> 8) & 0xFF);
+            out.write(value & 0xFF);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if (littleEndian) {
+            writeShort(out, value & 0xFFFF, true);
+            writeShort(out, value >>> 16, true);
+        } else {
+            writeShort(out, value >>> 16, false);
+            writeShort(out, value & 0xFFFF, false);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.gms.samples.vision.ocrreader.ui.camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Writes frame recordings for tests, in the format that
+ * {@link CameraSource.Builder#setReplayRecording(File, boolean)} plays back.
+ */
+public final class TestRecordings {
+    private TestRecordings() {
+    }
+
+    /**
+     * Writes the given NV21 frames as a recording with one slot per frame, in order, with
+     * upright rotation and timestamps the given interval apart.
+     */
+    public static void write(File file, int width, int height, List<byte[]> frames,
+                             long intervalMillis) throws IOException {
+        int frameSize = width * height * 3 / 2;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0,
+                    FrameRecording.fileSize(frameSize, frames.size()));
+            FrameRecording.writeHeader(buffer, width, height, frameSize, frames.size());
+            for (int i = 0; i < frames.size(); ++i) {
+                FrameRecording.writeSlot(buffer, i, frameSize, i + 1, i + 1, i * intervalMillis, 0,
+                        frames.get(i));
+            }
+            buffer.force();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}